@@ -0,0 +1,135 @@
+package com.gw2auth.oauth2.server.service;
+
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.Logger;
+import ch.qos.logback.classic.LoggerContext;
+import ch.qos.logback.classic.spi.ILoggingEvent;
+import ch.qos.logback.core.OutputStreamAppender;
+import com.gw2auth.oauth2.server.service.account.AccountLoggingContext;
+import com.gw2auth.oauth2.server.service.account.AccountService;
+import net.logstash.logback.encoder.LogstashEncoder;
+import org.slf4j.LoggerFactory;
+
+import java.io.OutputStream;
+import java.lang.reflect.Proxy;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+final class BenchmarkStubs {
+
+    private BenchmarkStubs() {}
+
+    /**
+     * Creates a stub of the given interface which dispatches calls by method name.
+     * Methods without a handler return null.
+     */
+    static <T> T stub(Class<T> type, Map<String, Function<Object[], Object>> handlers) {
+        final Object proxy = Proxy.newProxyInstance(
+                type.getClassLoader(),
+                new Class<?>[]{type},
+                (self, method, args) -> {
+                    if (method.getDeclaringClass() == Object.class) {
+                        return switch (method.getName()) {
+                            case "hashCode" -> System.identityHashCode(self);
+                            case "equals" -> self == args[0];
+                            default -> type.getSimpleName() + "Stub";
+                        };
+                    }
+
+                    final Function<Object[], Object> handler = handlers.get(method.getName());
+                    if (handler == null) {
+                        return null;
+                    }
+
+                    return handler.apply(args);
+                }
+        );
+
+        return type.cast(proxy);
+    }
+
+    static AccountService.LoggingContext noopLoggingContext() {
+        return new AccountService.LoggingContext() {
+            @Override
+            public AccountService.LoggingContext with(Map<String, ?> fields) {
+                return this;
+            }
+
+            @Override
+            public void log(String message, Map<String, ?> fields) {
+
+            }
+
+            @Override
+            public void logPersistent(String message, Map<String, ?> fields) {
+
+            }
+
+            @Override
+            public void close() {
+
+            }
+        };
+    }
+
+    /**
+     * Sends account log events through the JSON encoder into a discarding stream, or disables them entirely.
+     */
+    static void configureAccountLogging(boolean enabled) {
+        final LoggerContext loggerContext = (LoggerContext) LoggerFactory.getILoggerFactory();
+        final Logger logger = loggerContext.getLogger(AccountLoggingContext.class);
+
+        final LogstashEncoder encoder = new LogstashEncoder();
+        encoder.setContext(loggerContext);
+        encoder.start();
+
+        final OutputStreamAppender<ILoggingEvent> appender = new OutputStreamAppender<>();
+        appender.setContext(loggerContext);
+        appender.setEncoder(encoder);
+        appender.setOutputStream(OutputStream.nullOutputStream());
+        appender.start();
+
+        logger.detachAndStopAllAppenders();
+        logger.addAppender(appender);
+        logger.setAdditive(false);
+        logger.setLevel(enabled ? Level.INFO : Level.WARN);
+    }
+
+    static ExecutorService directExecutorService() {
+        return new AbstractExecutorService() {
+            @Override
+            public void execute(Runnable command) {
+                command.run();
+            }
+
+            @Override
+            public void shutdown() {
+
+            }
+
+            @Override
+            public List<Runnable> shutdownNow() {
+                return List.of();
+            }
+
+            @Override
+            public boolean isShutdown() {
+                return false;
+            }
+
+            @Override
+            public boolean isTerminated() {
+                return false;
+            }
+
+            @Override
+            public boolean awaitTermination(long timeout, TimeUnit unit) {
+                return false;
+            }
+        };
+    }
+}
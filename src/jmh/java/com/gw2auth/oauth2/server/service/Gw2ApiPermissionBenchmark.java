@@ -0,0 +1,39 @@
+package com.gw2auth.oauth2.server.service;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.EnumSet;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class Gw2ApiPermissionBenchmark {
+
+    @Param({"1", "2", "10"})
+    public int permissions;
+
+    private Set<Gw2ApiPermission> gw2ApiPermissions;
+    private int bitSet;
+
+    @Setup
+    public void setup() {
+        this.gw2ApiPermissions = EnumSet.noneOf(Gw2ApiPermission.class);
+        Gw2ApiPermission.stream().limit(this.permissions).forEach(this.gw2ApiPermissions::add);
+        this.bitSet = Gw2ApiPermission.toBitSet(this.gw2ApiPermissions);
+    }
+
+    @Benchmark
+    public int toBitSet() {
+        return Gw2ApiPermission.toBitSet(this.gw2ApiPermissions);
+    }
+
+    @Benchmark
+    public Set<Gw2ApiPermission> fromBitSet() {
+        return Gw2ApiPermission.fromBitSet(this.bitSet);
+    }
+}
@@ -0,0 +1,246 @@
+package com.gw2auth.oauth2.server.service;
+
+import com.gw2auth.oauth2.server.service.account.AccountLoggingContext;
+import com.gw2auth.oauth2.server.service.account.AccountService;
+import com.gw2auth.oauth2.server.service.application.Application;
+import com.gw2auth.oauth2.server.service.application.ApplicationService;
+import com.gw2auth.oauth2.server.service.application.account.ApplicationAccount;
+import com.gw2auth.oauth2.server.service.application.account.ApplicationAccountService;
+import com.gw2auth.oauth2.server.service.application.client.ApplicationClient;
+import com.gw2auth.oauth2.server.service.application.client.ApplicationClientService;
+import com.gw2auth.oauth2.server.service.application.client.account.ApplicationClientAccount;
+import com.gw2auth.oauth2.server.service.application.client.account.ApplicationClientAccountService;
+import com.gw2auth.oauth2.server.service.application.client.authorization.ApplicationClientAuthorization;
+import com.gw2auth.oauth2.server.service.application.client.authorization.ApplicationClientAuthorizationService;
+import com.gw2auth.oauth2.server.service.gw2.Gw2ApiService;
+import com.gw2auth.oauth2.server.service.gw2.Gw2SubToken;
+import com.gw2auth.oauth2.server.service.gw2account.Gw2Account;
+import com.gw2auth.oauth2.server.service.gw2account.Gw2AccountService;
+import com.gw2auth.oauth2.server.service.gw2account.Gw2AccountWithOptionalApiToken;
+import com.gw2auth.oauth2.server.service.gw2account.apitoken.Gw2AccountApiToken;
+import com.gw2auth.oauth2.server.service.gw2account.apitoken.Gw2AccountApiTokenService;
+import com.gw2auth.oauth2.server.service.gw2account.subtoken.Gw2AccountApiSubtoken;
+import com.gw2auth.oauth2.server.service.gw2account.subtoken.Gw2AccountApiSubtokenService;
+import com.gw2auth.oauth2.server.service.gw2account.verification.Gw2AccountVerificationService;
+import com.gw2auth.oauth2.server.service.user.Gw2AuthUserV2;
+import com.gw2auth.oauth2.server.util.SupplierWithExc;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.oauth2.core.AuthorizationGrantType;
+import org.springframework.security.oauth2.jwt.JwsHeader;
+import org.springframework.security.oauth2.jwt.JwtClaimsSet;
+import org.springframework.security.oauth2.jose.jws.SignatureAlgorithm;
+import org.springframework.security.oauth2.server.authorization.OAuth2Authorization;
+import org.springframework.security.oauth2.server.authorization.OAuth2TokenType;
+import org.springframework.security.oauth2.server.authorization.client.RegisteredClient;
+import org.springframework.security.oauth2.server.authorization.token.JwtEncodingContext;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class OAuth2TokenCustomizerBenchmark {
+
+    private static final Instant NOW = Instant.parse("2024-01-01T00:00:00Z");
+    private static final String ISSUER = "https://gw2auth.com";
+
+    /**
+     * NONE: every subtoken has to be requested from the GW2 API
+     * CACHED: every subtoken is already saved with the same expiration time
+     * MIXED: half of the saved subtokens share an expiration time, the other half has to be requested
+     */
+    public enum SavedSubtokens {
+        NONE,
+        CACHED,
+        MIXED
+    }
+
+    @Param({"1", "10", "50"})
+    public int gw2Accounts;
+
+    @Param({"V0", "V1"})
+    public OAuth2ClientApiVersion clientApiVersion;
+
+    @Param({"NONE", "CACHED", "MIXED"})
+    public SavedSubtokens savedSubtokens;
+
+    /**
+     * NOOP: account logging is stubbed out
+     * DISABLED: account logging is active, but its level is disabled
+     * ENABLED: account log events are encoded as JSON into a discarding stream
+     */
+    public enum AccountLogging {
+        NOOP,
+        DISABLED,
+        ENABLED
+    }
+
+    @Param({"NOOP", "DISABLED", "ENABLED"})
+    public AccountLogging accountLogging;
+
+    private OAuth2TokenCustomizerService tokenCustomizerService;
+    private RegisteredClient registeredClient;
+    private Authentication principal;
+    private OAuth2Authorization authorization;
+
+    @Setup
+    public void setup() {
+        final UUID accountId = UUID.randomUUID();
+        final UUID applicationId = UUID.randomUUID();
+        final UUID applicationClientId = UUID.randomUUID();
+        final String authorizationId = UUID.randomUUID().toString();
+        final Set<OAuth2Scope> scopes = switch (this.clientApiVersion) {
+            case V0 -> EnumSet.of(OAuth2Scope.GW2_ACCOUNT, OAuth2Scope.GW2_TRADINGPOST, OAuth2Scope.GW2AUTH_VERIFIED);
+            case V1 -> EnumSet.of(OAuth2Scope.ID, OAuth2Scope.GW2_ACCOUNT, OAuth2Scope.GW2_TRADINGPOST, OAuth2Scope.GW2ACC_NAME, OAuth2Scope.GW2ACC_DISPLAY_NAME, OAuth2Scope.GW2ACC_VERIFIED);
+        };
+        final Set<Gw2ApiPermission> gw2ApiPermissions = EnumSet.of(Gw2ApiPermission.ACCOUNT, Gw2ApiPermission.TRADINGPOST);
+
+        final List<Gw2AccountWithOptionalApiToken> accountsWithToken = new ArrayList<>(this.gw2Accounts);
+        final List<Gw2AccountApiSubtoken> subtokens = new ArrayList<>(this.gw2Accounts);
+        final Set<UUID> gw2AccountIds = new LinkedHashSet<>(this.gw2Accounts);
+        final Set<UUID> verifiedGw2AccountIds = new HashSet<>();
+
+        for (int i = 0; i < this.gw2Accounts; i++) {
+            final UUID gw2AccountId = UUID.randomUUID();
+            final Gw2Account gw2Account = new Gw2Account(accountId, gw2AccountId, "Gw2Account." + i, NOW, "Account " + i, String.valueOf(i));
+            final Gw2AccountApiToken apiToken = new Gw2AccountApiToken(accountId, gw2AccountId, NOW, "root-token-" + i, Gw2ApiPermission.all(), NOW, NOW);
+
+            accountsWithToken.add(new Gw2AccountWithOptionalApiToken(gw2Account, apiToken));
+            gw2AccountIds.add(gw2AccountId);
+
+            if (i % 2 == 0) {
+                verifiedGw2AccountIds.add(gw2AccountId);
+            }
+
+            final Instant subtokenExpirationTime = switch (this.savedSubtokens) {
+                case NONE -> null;
+                case CACHED -> NOW.plus(Duration.ofMinutes(30L));
+                case MIXED -> NOW.plus(Duration.ofMinutes(i % 2 == 0 ? 30L : 25L));
+            };
+
+            if (subtokenExpirationTime != null) {
+                subtokens.add(new Gw2AccountApiSubtoken(accountId, gw2AccountId, gw2ApiPermissions, "subtoken-" + i, subtokenExpirationTime));
+            }
+        }
+
+        final ApplicationClient applicationClient = new ApplicationClient(
+                applicationClientId,
+                applicationId,
+                NOW,
+                "Client",
+                Set.of(AuthorizationGrantType.AUTHORIZATION_CODE.getValue()),
+                Set.of("https://example.com/callback"),
+                false,
+                this.clientApiVersion,
+                OAuth2ClientType.CONFIDENTIAL
+        );
+        final ApplicationClientAuthorization clientAuthorization = new ApplicationClientAuthorization(
+                authorizationId,
+                accountId,
+                applicationClientId,
+                NOW,
+                NOW,
+                "Authorization",
+                scopes,
+                gw2AccountIds
+        );
+        final Application application = new Application(applicationId, UUID.randomUUID(), NOW, "Application");
+        final ApplicationAccount applicationAccount = new ApplicationAccount(applicationId, accountId, NOW, UUID.randomUUID());
+        final ApplicationClientAccount applicationClientAccount = new ApplicationClientAccount(applicationClientId, accountId, applicationId, ApplicationClientAccount.ApprovalStatus.APPROVED, null, scopes);
+        final ExecutorService executorService = BenchmarkStubs.directExecutorService();
+        final Function<Object[], Object> log = switch (this.accountLogging) {
+            case NOOP -> {
+                final AccountService.LoggingContext loggingContext = BenchmarkStubs.noopLoggingContext();
+                yield (args) -> loggingContext;
+            }
+            case DISABLED, ENABLED -> {
+                BenchmarkStubs.configureAccountLogging(this.accountLogging == AccountLogging.ENABLED);
+                yield OAuth2TokenCustomizerBenchmark::accountLoggingContext;
+            }
+        };
+
+        this.tokenCustomizerService = new OAuth2TokenCustomizerService(
+                BenchmarkStubs.stub(AccountService.class, Map.of("log", log)),
+                BenchmarkStubs.stub(Gw2AccountService.class, Map.of("getWithOptionalApiTokens", (args) -> accountsWithToken)),
+                BenchmarkStubs.stub(Gw2AccountApiTokenService.class, Map.of()),
+                BenchmarkStubs.stub(ApplicationService.class, Map.of("getApplication", (args) -> Optional.of(application))),
+                BenchmarkStubs.stub(ApplicationClientService.class, Map.of("getApplicationClients", (args) -> List.of(applicationClient))),
+                BenchmarkStubs.stub(ApplicationAccountService.class, Map.of("getApplicationAccount", (args) -> Optional.of(applicationAccount))),
+                BenchmarkStubs.stub(ApplicationClientAccountService.class, Map.of("getApplicationClientAccount", (args) -> Optional.of(applicationClientAccount))),
+                BenchmarkStubs.stub(ApplicationClientAuthorizationService.class, Map.of("getApplicationClientAuthorization", (args) -> Optional.of(clientAuthorization))),
+                BenchmarkStubs.stub(Gw2AccountVerificationService.class, Map.of("getVerifiedGw2AccountIds", (args) -> verifiedGw2AccountIds)),
+                BenchmarkStubs.stub(Gw2ApiService.class, Map.of(
+                        "withTimeout", OAuth2TokenCustomizerBenchmark::withTimeout,
+                        "createSubToken", OAuth2TokenCustomizerBenchmark::createSubToken
+                )),
+                BenchmarkStubs.stub(Gw2AccountApiSubtokenService.class, Map.of("getSubtokens", (args) -> subtokens)),
+                executorService,
+                executorService,
+                8,
+                new SimpleMeterRegistry()
+        );
+        this.tokenCustomizerService.setClock(Clock.fixed(NOW, ZoneOffset.UTC));
+
+        this.registeredClient = RegisteredClient.withId(applicationClientId.toString())
+                .clientId(applicationClientId.toString())
+                .authorizationGrantType(AuthorizationGrantType.AUTHORIZATION_CODE)
+                .redirectUri("https://example.com/callback")
+                .build();
+        this.principal = new UsernamePasswordAuthenticationToken(new Gw2AuthUserV2(accountId, "cognito", "benchmark"), null, List.of());
+        this.authorization = OAuth2Authorization.withRegisteredClient(this.registeredClient)
+                .id(authorizationId)
+                .principalName(accountId.toString())
+                .authorizationGrantType(AuthorizationGrantType.AUTHORIZATION_CODE)
+                .build();
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Object accountLoggingContext(Object[] args) {
+        return AccountLoggingContext.root((UUID) args[0], (Map<String, ?>) args[1]);
+    }
+
+    @Benchmark
+    public JwtClaimsSet customize() {
+        final JwtClaimsSet.Builder claims = JwtClaimsSet.builder()
+                .issuer(ISSUER)
+                .issuedAt(NOW)
+                .expiresAt(NOW.plus(Duration.ofMinutes(30L)));
+
+        final JwtEncodingContext ctx = JwtEncodingContext.with(JwsHeader.with(SignatureAlgorithm.RS256), claims)
+                .registeredClient(this.registeredClient)
+                .principal(this.principal)
+                .authorization(this.authorization)
+                .tokenType(OAuth2TokenType.ACCESS_TOKEN)
+                .build();
+
+        this.tokenCustomizerService.customize(ctx);
+
+        return claims.build();
+    }
+
+    private static Object withTimeout(Object[] args) {
+        try {
+            return ((SupplierWithExc<?, ?>) args[1]).get();
+        } catch (Exception e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Object createSubToken(Object[] args) {
+        return new Gw2SubToken("subtoken-" + args[0], (Set<Gw2ApiPermission>) args[1]);
+    }
+}
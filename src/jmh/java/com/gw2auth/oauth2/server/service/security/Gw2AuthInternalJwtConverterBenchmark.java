@@ -0,0 +1,63 @@
+package com.gw2auth.oauth2.server.service.security;
+
+import com.nimbusds.jose.JOSEException;
+import com.nimbusds.jose.JWSAlgorithm;
+import com.nimbusds.jose.jwk.Curve;
+import com.nimbusds.jose.jwk.JWK;
+import com.nimbusds.jose.jwk.KeyUse;
+import com.nimbusds.jose.jwk.OctetSequenceKey;
+import com.nimbusds.jose.jwk.gen.ECKeyGenerator;
+import com.nimbusds.jose.jwk.gen.OctetSequenceKeyGenerator;
+import com.nimbusds.jose.jwk.gen.RSAKeyGenerator;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.security.oauth2.jwt.Jwt;
+
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares signing and verification cost of the session JWT for the supported algorithms.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class Gw2AuthInternalJwtConverterBenchmark {
+
+    @Param({"RS256", "ES256", "HS256"})
+    public String algorithm;
+
+    private Gw2AuthInternalJwtConverter converter;
+    private byte[] encryptionKey;
+    private Instant expirationTime;
+    private String token;
+
+    @Setup
+    public void setup() throws JOSEException {
+        final JWK key = switch (this.algorithm) {
+            case "RS256" -> new RSAKeyGenerator(2048).keyID("key").algorithm(JWSAlgorithm.RS256).keyUse(KeyUse.SIGNATURE).generate();
+            case "ES256" -> new ECKeyGenerator(Curve.P_256).keyID("key").algorithm(JWSAlgorithm.ES256).keyUse(KeyUse.SIGNATURE).generate();
+            case "HS256" -> new OctetSequenceKeyGenerator(256).keyID("key").algorithm(JWSAlgorithm.HS256).keyUse(KeyUse.SIGNATURE).generate();
+            default -> throw new IllegalArgumentException(this.algorithm);
+        };
+
+        this.converter = new Gw2AuthInternalJwtConverter(key, List.of(key instanceof OctetSequenceKey ? key : key.toPublicJWK()));
+        this.encryptionKey = new byte[32];
+        this.expirationTime = Instant.now().plus(1L, ChronoUnit.DAYS);
+        this.token = sign().getTokenValue();
+    }
+
+    @Benchmark
+    public Jwt sign() {
+        return this.converter.writeJWT("session", this.encryptionKey, this.expirationTime);
+    }
+
+    @Benchmark
+    public Jwt verify() {
+        return this.converter.readJWT(this.token);
+    }
+}
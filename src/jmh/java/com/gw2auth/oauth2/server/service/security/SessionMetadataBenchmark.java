@@ -0,0 +1,72 @@
+package com.gw2auth.oauth2.server.service.security;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.gw2auth.oauth2.server.util.SymEncryption;
+import org.openjdk.jmh.annotations.*;
+
+import javax.crypto.SecretKey;
+import javax.crypto.spec.IvParameterSpec;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the binary, pooled-cipher session metadata encryption with the previous stream and JSON based one.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class SessionMetadataBenchmark {
+
+    private ObjectMapper mapper;
+    private SessionMetadataService sessionMetadataService;
+    private SecretKey key;
+    private IvParameterSpec iv;
+    private SessionMetadata sessionMetadata;
+    private byte[] encrypted;
+    private byte[] encryptedJson;
+
+    @Setup
+    public void setup() throws IOException {
+        this.mapper = new ObjectMapper();
+        this.sessionMetadataService = new SessionMetadataService(this.mapper);
+        this.key = SymEncryption.generateKey();
+        this.iv = SymEncryption.generateIv();
+        this.sessionMetadata = new SessionMetadata(52.520008, 13.404954);
+        this.encrypted = this.sessionMetadataService.encryptMetadata(this.key, this.iv, this.sessionMetadata);
+        this.encryptedJson = encryptJson();
+    }
+
+    @Benchmark
+    public byte[] encrypt() {
+        return this.sessionMetadataService.encryptMetadata(this.key, this.iv, this.sessionMetadata);
+    }
+
+    @Benchmark
+    public SessionMetadata decrypt() {
+        return this.sessionMetadataService.decryptMetadata(this.key, this.iv, this.encrypted);
+    }
+
+    @Benchmark
+    public byte[] encryptJson() throws IOException {
+        final ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        try (OutputStream out = SymEncryption.encrypt(bos, this.key, this.iv)) {
+            this.mapper.writeValue(out, this.sessionMetadata);
+        }
+
+        return bos.toByteArray();
+    }
+
+    @Benchmark
+    public SessionMetadata decryptJson() throws IOException {
+        try (InputStream in = SymEncryption.decrypt(new ByteArrayInputStream(this.encryptedJson), this.key, this.iv)) {
+            return this.mapper.readValue(in, SessionMetadata.class);
+        }
+    }
+}
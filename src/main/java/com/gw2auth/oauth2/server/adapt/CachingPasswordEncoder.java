@@ -0,0 +1,103 @@
+package com.gw2auth.oauth2.server.adapt;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.gw2auth.oauth2.server.util.SymEncryption;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import org.springframework.security.crypto.password.PasswordEncoder;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.time.Duration;
+import java.util.Base64;
+
+/**
+ * Remembers successful verifications of the delegate for a short time.
+ * Only an HMAC (with a random, in-memory key) of the presented and the stored value is kept, never the raw value.
+ */
+public class CachingPasswordEncoder implements PasswordEncoder {
+
+    private static final String HMAC_ALGORITHM = "HmacSHA256";
+
+    private final PasswordEncoder delegate;
+    private final SecretKeySpec hmacKey;
+    private final Cache<String, String> verifiedCache;
+
+    public CachingPasswordEncoder(PasswordEncoder delegate, long maxSize, Duration ttl, MeterRegistry meterRegistry) {
+        final byte[] hmacKeyBytes = new byte[32];
+        SymEncryption.secureRandom().nextBytes(hmacKeyBytes);
+
+        this.delegate = delegate;
+        this.hmacKey = new SecretKeySpec(hmacKeyBytes, HMAC_ALGORITHM);
+        this.verifiedCache = Caffeine.newBuilder()
+                .maximumSize(maxSize)
+                .expireAfterWrite(ttl)
+                .recordStats()
+                .build();
+
+        CaffeineCacheMetrics.monitor(meterRegistry, this.verifiedCache, "gw2auth_verified_client_secrets");
+    }
+
+    @Override
+    public String encode(CharSequence rawPassword) {
+        return this.delegate.encode(rawPassword);
+    }
+
+    @Override
+    public boolean matches(CharSequence rawPassword, String encodedPassword) {
+        if (rawPassword == null || encodedPassword == null) {
+            return this.delegate.matches(rawPassword, encodedPassword);
+        }
+
+        // the encoded value is salted and changes whenever the secret is regenerated, so it identifies the client and the version of its secret
+        final String key = hmac(rawPassword, encodedPassword);
+
+        if (encodedPassword.equals(this.verifiedCache.getIfPresent(key))) {
+            return true;
+        }
+
+        final boolean matches = this.delegate.matches(rawPassword, encodedPassword);
+        if (matches) {
+            this.verifiedCache.put(key, encodedPassword);
+        }
+
+        return matches;
+    }
+
+    @Override
+    public boolean upgradeEncoding(String encodedPassword) {
+        return this.delegate.upgradeEncoding(encodedPassword);
+    }
+
+    /**
+     * Forgets all verifications made against the given encoded value.
+     */
+    public void evict(String encodedPassword) {
+        if (encodedPassword != null) {
+            this.verifiedCache.asMap().values().removeIf(encodedPassword::equals);
+        }
+    }
+
+    private String hmac(CharSequence rawPassword, String encodedPassword) {
+        final byte[] raw = rawPassword.toString().getBytes(StandardCharsets.UTF_8);
+        final byte[] encoded = encodedPassword.getBytes(StandardCharsets.UTF_8);
+        final byte[] input = ByteBuffer.allocate(Integer.BYTES + encoded.length + raw.length)
+                .putInt(encoded.length)
+                .put(encoded)
+                .put(raw)
+                .array();
+
+        try {
+            final Mac mac = Mac.getInstance(HMAC_ALGORITHM);
+            mac.init(this.hmacKey);
+
+            return Base64.getEncoder().encodeToString(mac.doFinal(input));
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
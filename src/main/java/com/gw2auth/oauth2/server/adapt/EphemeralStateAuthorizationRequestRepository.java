@@ -0,0 +1,93 @@
+package com.gw2auth.oauth2.server.adapt;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.gw2auth.oauth2.server.service.ephemeral.EphemeralStateStore;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.security.jackson2.SecurityJackson2Modules;
+import org.springframework.security.oauth2.client.jackson2.OAuth2ClientJackson2Module;
+import org.springframework.security.oauth2.client.web.AuthorizationRequestRepository;
+import org.springframework.security.oauth2.core.endpoint.OAuth2AuthorizationRequest;
+import org.springframework.security.oauth2.core.endpoint.OAuth2ParameterNames;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.Optional;
+
+public class EphemeralStateAuthorizationRequestRepository implements AuthorizationRequestRepository<OAuth2AuthorizationRequest> {
+
+    private static final Logger LOG = LoggerFactory.getLogger(EphemeralStateAuthorizationRequestRepository.class);
+    private static final String SCOPE = "oauth2/authorization";
+
+    private final EphemeralStateStore ephemeralStateStore;
+    private final Duration ttl;
+    private final ObjectMapper mapper;
+
+    public EphemeralStateAuthorizationRequestRepository(EphemeralStateStore ephemeralStateStore, Duration ttl) {
+        this.ephemeralStateStore = ephemeralStateStore;
+        this.ttl = ttl;
+
+        // make sure to add support for OAuth2AuthorizationRequest
+        final ObjectMapper mapper = new ObjectMapper();
+        mapper.registerModules(SecurityJackson2Modules.getModules(EphemeralStateAuthorizationRequestRepository.class.getClassLoader()));
+        mapper.registerModule(new OAuth2ClientJackson2Module());
+        mapper.registerModule(new Java9CollectionJackson2Module());
+        mapper.registerModule(new LinkedHashSetJackson2Module());
+
+        this.mapper = mapper;
+    }
+
+    @Override
+    public OAuth2AuthorizationRequest loadAuthorizationRequest(HttpServletRequest request) {
+        final String state = getState(request);
+        if (state == null) {
+            return null;
+        }
+
+        return this.ephemeralStateStore.get(SCOPE, state).flatMap(this::readAuthorizationRequest).orElse(null);
+    }
+
+    @Override
+    public void saveAuthorizationRequest(OAuth2AuthorizationRequest authorizationRequest, HttpServletRequest request, HttpServletResponse response) {
+        if (authorizationRequest == null) {
+            final String state = getState(request);
+            if (state != null) {
+                this.ephemeralStateStore.remove(SCOPE, state);
+            }
+        } else {
+            final byte[] json;
+            try {
+                json = this.mapper.writeValueAsBytes(authorizationRequest);
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+
+            this.ephemeralStateStore.put(SCOPE, authorizationRequest.getState(), json, this.ttl);
+        }
+    }
+
+    @Override
+    public OAuth2AuthorizationRequest removeAuthorizationRequest(HttpServletRequest request, HttpServletResponse response) {
+        final String state = getState(request);
+        if (state == null) {
+            return null;
+        }
+
+        return this.ephemeralStateStore.remove(SCOPE, state).flatMap(this::readAuthorizationRequest).orElse(null);
+    }
+
+    private String getState(HttpServletRequest request) {
+        return request.getParameter(OAuth2ParameterNames.STATE);
+    }
+
+    private Optional<OAuth2AuthorizationRequest> readAuthorizationRequest(byte[] json) {
+        try {
+            return Optional.of(this.mapper.readValue(json, OAuth2AuthorizationRequest.class));
+        } catch (IOException e) {
+            LOG.warn("got unexpected IOException when trying to read OAuth2AuthorizationRequest", e);
+            return Optional.empty();
+        }
+    }
+}
@@ -0,0 +1,27 @@
+package com.gw2auth.oauth2.server.adapt;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.fasterxml.jackson.datatype.jdk8.Jdk8Module;
+import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
+import net.logstash.logback.decorate.JsonFactoryDecorator;
+
+/**
+ * Makes the ObjectMapper of the logstash encoder write values the same way the ObjectMapper of the application does.
+ * Logback is configured before the application context exists, so the defaults of Spring Boot are applied here instead.
+ */
+public class LogstashJsonFactoryDecorator implements JsonFactoryDecorator {
+
+    @Override
+    public JsonFactory decorate(JsonFactory factory) {
+        if (factory.getCodec() instanceof ObjectMapper mapper) {
+            mapper.registerModule(new Jdk8Module());
+            mapper.registerModule(new JavaTimeModule());
+            mapper.disable(SerializationFeature.WRITE_DATES_AS_TIMESTAMPS);
+            mapper.disable(SerializationFeature.WRITE_DURATIONS_AS_TIMESTAMPS);
+        }
+
+        return factory;
+    }
+}
@@ -0,0 +1,68 @@
+package com.gw2auth.oauth2.server.configuration;
+
+import com.gw2auth.oauth2.server.repository.ephemeral.EphemeralStateRepository;
+import com.gw2auth.oauth2.server.service.ephemeral.*;
+import com.gw2auth.oauth2.server.util.DynamicProxy;
+import com.gw2auth.oauth2.server.util.JWKHelper;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.core.env.Environment;
+import org.springframework.core.env.Profiles;
+import software.amazon.awssdk.services.s3.S3Client;
+
+import java.io.IOException;
+
+/**
+ * Selects the backend for short-lived login state (pending upstream authorization requests, add-federation requests)
+ * using {@code com.gw2auth.ephemeral-state.store}: {@code jdbc} (default), {@code cookie}, {@code s3} or {@code memory}.
+ */
+@Configuration
+public class EphemeralStateConfiguration {
+
+    @Bean
+    @ConditionalOnProperty(name = "com.gw2auth.ephemeral-state.store", havingValue = "jdbc", matchIfMissing = true)
+    public EphemeralStateStore jdbcEphemeralStateStore(EphemeralStateRepository ephemeralStateRepository) {
+        return new JdbcEphemeralStateStore(ephemeralStateRepository);
+    }
+
+    @Bean
+    @ConditionalOnProperty(name = "com.gw2auth.ephemeral-state.store", havingValue = "cookie")
+    public EphemeralStateStore cookieEphemeralStateStore(@Value("${com.gw2auth.ephemeral-state.cookie.key-path}") String keyPath,
+                                                         Environment environment) throws IOException {
+
+        final byte[] key;
+        if (keyPath.equals("generate")) {
+            if (!environment.acceptsProfiles(Profiles.of("test"))) {
+                throw new IllegalStateException("key generation only enabled for tests");
+            }
+
+            key = JWKHelper.generateSecret();
+        } else {
+            key = JWKHelper.loadSecret(keyPath);
+        }
+
+        return new CookieEphemeralStateStore(key);
+    }
+
+    @Bean
+    @ConditionalOnProperty(name = "com.gw2auth.ephemeral-state.store", havingValue = "s3")
+    public EphemeralStateStore s3EphemeralStateStore(@Qualifier("ephemeral-state-s3-client") S3Client s3,
+                                                     @Value("${com.gw2auth.ephemeral-state.s3.bucket}") String bucket,
+                                                     @Value("${com.gw2auth.ephemeral-state.s3.prefix:}") String prefix) {
+
+        return new S3EphemeralStateStore(
+                DynamicProxy.create(s3, S3Client.class, S3EphemeralStateStore.MinimalS3Client.class),
+                bucket,
+                prefix
+        );
+    }
+
+    @Bean
+    @ConditionalOnProperty(name = "com.gw2auth.ephemeral-state.store", havingValue = "memory")
+    public EphemeralStateStore inMemoryEphemeralStateStore() {
+        return new InMemoryEphemeralStateStore();
+    }
+}
@@ -5,17 +5,19 @@ import com.gw2auth.oauth2.server.service.gw2.client.*;
 import com.gw2auth.oauth2.server.util.DynamicProxy;
 import io.micrometer.core.instrument.MeterRegistry;
 import org.springframework.beans.factory.annotation.Value;
-import org.springframework.boot.web.client.RestTemplateBuilder;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
-import org.springframework.web.client.RestTemplate;
+import org.springframework.context.annotation.Primary;
 import software.amazon.awssdk.arns.Arn;
 import software.amazon.awssdk.regions.Region;
 import software.amazon.awssdk.services.lambda.LambdaClient;
 
+import java.net.URI;
+import java.net.http.HttpClient;
 import java.time.Duration;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Set;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 
@@ -26,41 +28,90 @@ public class Gw2ApiClientConfiguration {
     private static final Duration READ_TIMEOUT = Duration.ofSeconds(5L);
 
     @Bean
-    public Gw2ApiClient gw2ApiClient(RestTemplateBuilder restTemplateBuilder,
-                                     ObjectMapper objectMapper,
-                                     @Value("${com.gw2auth.gw2.client.aws-lambda-proxy.arns}") List<String> awsLambdaProxyARNs,
-                                     @Value("${management.endpoint.prometheus.enabled:false}") boolean metricsEnabled,
-                                     MeterRegistry meterRegistry) {
+    public ChainedGw2ApiClient chainedGw2ApiClient(ObjectMapper objectMapper,
+                                                   @Value("${com.gw2auth.gw2.client.aws-lambda-proxy.arns}") List<String> awsLambdaProxyARNs,
+                                                   @Value("${com.gw2auth.gw2.client.routing:ORDERED}") ChainedGw2ApiClient.Routing routing,
+                                                   @Value("${com.gw2auth.gw2.client.adaptive-routing.latency-prior:PT0.25S}") Duration adaptiveRoutingLatencyPrior,
+                                                   @Value("${com.gw2auth.gw2.client.hedging.enabled:false}") boolean hedgingEnabled,
+                                                   @Value("${com.gw2auth.gw2.client.hedging.paths:/v2/tokeninfo,/v2/account}") Set<String> hedgingPaths,
+                                                   @Value("${com.gw2auth.gw2.client.hedging.percentile:0.95}") double hedgingPercentile,
+                                                   @Value("${com.gw2auth.gw2.client.hedging.budget-per-second:10}") int hedgingBudgetPerSecond,
+                                                   @Value("${com.gw2auth.gw2.client.rate-limit.enabled:false}") boolean rateLimitEnabled,
+                                                   @Value("${com.gw2auth.gw2.client.rate-limit.capacity:300}") int rateLimitCapacity,
+                                                   @Value("${com.gw2auth.gw2.client.rate-limit.refill-per-second:5}") double rateLimitRefillPerSecond,
+                                                   @Value("${management.endpoint.prometheus.enabled:false}") boolean metricsEnabled,
+                                                   MeterRegistry meterRegistry) {
 
-        final RestTemplate restTemplate = restTemplateBuilder
-                .rootUri("https://api.guildwars2.com")
-                .setConnectTimeout(CONNECT_TIMEOUT)
-                .setReadTimeout(READ_TIMEOUT)
+        final HttpClient httpClient = HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_2)
+                .connectTimeout(CONNECT_TIMEOUT)
+                .followRedirects(HttpClient.Redirect.NORMAL)
                 .build();
 
-        final List<Gw2ApiClient> chain = new ArrayList<>(awsLambdaProxyARNs.size() + 1);
-        chain.add(new InstrumentedGw2ApiClient(
-                new RestOperationsGw2ApiClient(restTemplate),
-                createMetricCollector(metricsEnabled, meterRegistry, "http.local")
+        final List<ChainedGw2ApiClient.Member> chain = new ArrayList<>(awsLambdaProxyARNs.size() + 1);
+        chain.add(new ChainedGw2ApiClient.Member(
+                "http.local",
+                new InstrumentedGw2ApiClient(
+                        new HttpClientGw2ApiClient(httpClient, URI.create("https://api.guildwars2.com"), READ_TIMEOUT),
+                        createMetricCollector(metricsEnabled, meterRegistry, "http.local")
+                ),
+                createRateLimiter(rateLimitEnabled, rateLimitCapacity, rateLimitRefillPerSecond, meterRegistry, "http.local")
         ));
 
         for (String awsLambdaProxyARN : awsLambdaProxyARNs) {
             final LambdaClient lambdaClient = createLambdaClientForARN(awsLambdaProxyARN);
+            final String clientName = "lambda." + Arn.fromString(awsLambdaProxyARN).region().orElseThrow();
 
-            chain.add(new InstrumentedGw2ApiClient(
-                    new AwsLambdaGw2ApiClient(
-                            DynamicProxy.create(lambdaClient, LambdaClient.class, AwsLambdaGw2ApiClient.MinimalLambdaClient.class),
-                            awsLambdaProxyARN,
-                            objectMapper
+            chain.add(new ChainedGw2ApiClient.Member(
+                    clientName,
+                    new InstrumentedGw2ApiClient(
+                            new AwsLambdaGw2ApiClient(
+                                    DynamicProxy.create(lambdaClient, LambdaClient.class, AwsLambdaGw2ApiClient.MinimalLambdaClient.class),
+                                    awsLambdaProxyARN,
+                                    objectMapper
+                            ),
+                            createMetricCollector(metricsEnabled, meterRegistry, clientName)
                     ),
-                    createMetricCollector(metricsEnabled, meterRegistry, "lambda." + Arn.fromString(awsLambdaProxyARN).region().orElseThrow())
+                    createRateLimiter(rateLimitEnabled, rateLimitCapacity, rateLimitRefillPerSecond, meterRegistry, clientName)
             ));
         }
 
-        return new InstrumentedGw2ApiClient(
-                new ChainedGw2ApiClient(chain, Duration.ofMinutes(1L)),
+        ChainedGw2ApiClient.Hedging hedging = null;
+        if (hedgingEnabled) {
+            hedging = new ChainedGw2ApiClient.Hedging(
+                    Executors.newVirtualThreadPerTaskExecutor(),
+                    hedgingPaths,
+                    hedgingPercentile,
+                    hedgingBudgetPerSecond
+            );
+        }
+
+        return new ChainedGw2ApiClient(chain, Duration.ofMinutes(1L), routing, hedging, adaptiveRoutingLatencyPrior, meterRegistry);
+    }
+
+    @Bean
+    @Primary
+    public Gw2ApiClient gw2ApiClient(ChainedGw2ApiClient chainedGw2ApiClient,
+                                     @Value("${com.gw2auth.gw2.client.cache.enabled:true}") boolean cacheEnabled,
+                                     @Value("${com.gw2auth.gw2.client.cache.paths:/v2/account,/v2/tokeninfo}") Set<String> cachePaths,
+                                     @Value("${com.gw2auth.gw2.client.cache.max-bytes:33554432}") long cacheMaxBytes,
+                                     @Value("${com.gw2auth.gw2.client.cache.max-entry-bytes:262144}") int cacheMaxEntryBytes,
+                                     @Value("${com.gw2auth.gw2.client.cache.max-ttl:PT5M}") Duration cacheMaxTtl,
+                                     @Value("${com.gw2auth.gw2.client.cache.stale-retention:PT30M}") Duration cacheStaleRetention,
+                                     @Value("${management.endpoint.prometheus.enabled:false}") boolean metricsEnabled,
+                                     MeterRegistry meterRegistry) {
+
+        final Gw2ApiClient client = new InstrumentedGw2ApiClient(
+                chainedGw2ApiClient,
                 createMetricCollector(metricsEnabled, meterRegistry, "chain")
         );
+
+        if (!cacheEnabled) {
+            return client;
+        }
+
+        // outermost, so that responses served from the cache are not counted as requests of the chain
+        return new CachingGw2ApiClient(client, cachePaths, cacheMaxBytes, cacheMaxEntryBytes, cacheMaxTtl, cacheStaleRetention, meterRegistry);
     }
 
     private MetricCollector createMetricCollector(boolean enabled, MeterRegistry meterRegistry, String clientName) {
@@ -71,6 +122,14 @@ public class Gw2ApiClientConfiguration {
         return new MicrometerMetricCollector(meterRegistry, "gw2_api_requests", clientName);
     }
 
+    private Gw2ApiRateLimiter createRateLimiter(boolean enabled, int capacity, double refillPerSecond, MeterRegistry meterRegistry, String clientName) {
+        if (!enabled) {
+            return null;
+        }
+
+        return new Gw2ApiRateLimiter(capacity, refillPerSecond, meterRegistry, clientName);
+    }
+
     private LambdaClient createLambdaClientForARN(String awsLambdaProxyARN) {
         final Region region = Arn.fromString(awsLambdaProxyARN).region()
                 .map(Region::of)
@@ -82,6 +141,11 @@ public class Gw2ApiClientConfiguration {
                 .build();
     }
 
+    @Bean
+    public Gw2ApiChainEndpoint gw2ApiChainEndpoint(ChainedGw2ApiClient chainedGw2ApiClient) {
+        return new Gw2ApiChainEndpoint(chainedGw2ApiClient);
+    }
+
     @Bean("gw2-api-client-executor-service")
     public ExecutorService gw2ApiClientExecutorService() {
         return Executors.newVirtualThreadPerTaskExecutor();
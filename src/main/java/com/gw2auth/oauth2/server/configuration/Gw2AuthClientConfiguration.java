@@ -82,7 +82,7 @@ public class Gw2AuthClientConfiguration {
                 );
 
                 this.jdbcOperations.update(
-                        "UPDATE application_clients SET id = ?, client_secret = ? WHERE id = ?",
+                        "UPDATE application_clients SET id = ?, client_secret = ?, version = version + 1 WHERE id = ?",
                         clientId,
                         this.passwordEncoder.encode(registrationConfig.clientSecret()),
                         applicationClientCreation.client().id()
@@ -1,15 +1,22 @@
 package com.gw2auth.oauth2.server.configuration;
 
+import com.gw2auth.oauth2.server.adapt.CachingPasswordEncoder;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.security.crypto.argon2.Argon2PasswordEncoder;
-import org.springframework.security.crypto.password.PasswordEncoder;
+
+import java.time.Duration;
 
 @Configuration
 public class PasswordEncoderConfiguration {
 
     @Bean
-    public PasswordEncoder passwordEncoder() {
-        return Argon2PasswordEncoder.defaultsForSpringSecurity_v5_8();
+    public CachingPasswordEncoder passwordEncoder(@Value("${com.gw2auth.client-secret.cache.max-size:10000}") long cacheMaxSize,
+                                                  @Value("${com.gw2auth.client-secret.cache.ttl:PT5M}") Duration cacheTtl,
+                                                  MeterRegistry meterRegistry) {
+
+        return new CachingPasswordEncoder(Argon2PasswordEncoder.defaultsForSpringSecurity_v5_8(), cacheMaxSize, cacheTtl, meterRegistry);
     }
 }
@@ -1,17 +1,20 @@
 package com.gw2auth.oauth2.server.configuration;
 
+import com.gw2auth.oauth2.server.adapt.EphemeralStateAuthorizationRequestRepository;
 import com.gw2auth.oauth2.server.adapt.Gw2AuthSecurityContextRepository;
 import com.gw2auth.oauth2.server.adapt.Gw2AuthSessionDeletionLogoutHandler;
-import com.gw2auth.oauth2.server.adapt.S3AuthorizationRequestRepository;
 import com.gw2auth.oauth2.server.service.account.AccountFederationSession;
 import com.gw2auth.oauth2.server.service.account.AccountService;
+import com.gw2auth.oauth2.server.service.ephemeral.EphemeralStateStore;
 import com.gw2auth.oauth2.server.service.security.Gw2AuthInternalJwtConverter;
 import com.gw2auth.oauth2.server.service.user.Gw2AuthLoginUser;
 import com.gw2auth.oauth2.server.service.user.Gw2AuthTokenUserService;
 import com.gw2auth.oauth2.server.util.Constants;
 import com.gw2auth.oauth2.server.util.CookieHelper;
-import com.gw2auth.oauth2.server.util.DynamicProxy;
 import com.gw2auth.oauth2.server.util.JWKHelper;
+import com.gw2auth.oauth2.server.util.Pair;
+import com.nimbusds.jose.JWSAlgorithm;
+import com.nimbusds.jose.jwk.*;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Qualifier;
@@ -44,14 +47,17 @@ import org.springframework.security.web.savedrequest.CookieRequestCache;
 import org.springframework.security.web.savedrequest.RequestCache;
 import org.springframework.security.web.util.matcher.AntPathRequestMatcher;
 import org.springframework.security.web.util.matcher.RequestMatcher;
-import software.amazon.awssdk.services.s3.S3Client;
 
+import java.security.GeneralSecurityException;
 import java.security.KeyPair;
 import java.security.PrivateKey;
-import java.security.PublicKey;
-import java.security.interfaces.RSAPrivateKey;
+import java.security.interfaces.ECPublicKey;
 import java.security.interfaces.RSAPublicKey;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 
@@ -62,12 +68,15 @@ public class SecurityConfiguration {
     private static final Logger LOG = LoggerFactory.getLogger(SecurityConfiguration.class);
 
     @Bean
-    public Gw2AuthInternalJwtConverter gw2AuthInternalJwtConverter(@Value("${com.gw2auth.session.priv.id}") String privateKeyId,
+    public Gw2AuthInternalJwtConverter gw2AuthInternalJwtConverter(@Value("${com.gw2auth.session.algorithm:RS256}") String algorithm,
+                                                                   @Value("${com.gw2auth.session.priv.id}") String privateKeyId,
                                                                    @Value("${com.gw2auth.session.priv.path}") String privateKeyPath,
                                                                    @Value("${com.gw2auth.session.pub1.id}") String pub1KeyId,
                                                                    @Value("${com.gw2auth.session.pub1.path}") String pub1KeyPath,
+                                                                   @Value("${com.gw2auth.session.pub1.algorithm:${com.gw2auth.session.algorithm:RS256}}") String pub1Algorithm,
                                                                    @Value("${com.gw2auth.session.pub2.id}") String pub2KeyId,
                                                                    @Value("${com.gw2auth.session.pub2.path}") String pub2KeyPath,
+                                                                   @Value("${com.gw2auth.session.pub2.algorithm:${com.gw2auth.session.algorithm:RS256}}") String pub2Algorithm,
                                                                    Environment environment) throws Exception {
 
         if (pub1KeyId.equals(pub2KeyId)) {
@@ -75,32 +84,43 @@ public class SecurityConfiguration {
         }
 
         final boolean isTest = environment.acceptsProfiles(Profiles.of("test"));
+        final JWSAlgorithm signingAlgorithm = JWSAlgorithm.parse(algorithm);
+        final JWK generatedSigningKey;
         final PrivateKey privateKey;
-        final PublicKey privateKeyMatchingPublic;
+        final byte[] secret;
 
         if (privateKeyPath.equals("generate")) {
             if (!isTest) {
                 throw new IllegalStateException("key generation only enabled for tests");
             }
 
-            final KeyPair keyPair = JWKHelper.generateRsaKeyPair();
-            privateKey = keyPair.getPrivate();
-            privateKeyMatchingPublic = keyPair.getPublic();
+            generatedSigningKey = generateJwk(privateKeyId, signingAlgorithm);
+            privateKey = null;
+            secret = null;
         } else {
-            privateKey = JWKHelper.loadRsaPrivateKey(privateKeyPath);
-            privateKeyMatchingPublic = null;
+            generatedSigningKey = null;
+
+            if (JWSAlgorithm.Family.HMAC_SHA.contains(signingAlgorithm)) {
+                privateKey = null;
+                secret = JWKHelper.loadSecret(privateKeyPath);
+            } else {
+                privateKey = JWSAlgorithm.Family.EC.contains(signingAlgorithm) ? JWKHelper.loadEcPrivateKey(privateKeyPath) : JWKHelper.loadRsaPrivateKey(privateKeyPath);
+                secret = null;
+            }
         }
 
-        final Map<String, String> pubKeyPaths = Map.of(
-                pub1KeyId, pub1KeyPath,
-                pub2KeyId, pub2KeyPath
+        final List<Pair<String, Pair<String, JWSAlgorithm>>> pubKeys = List.of(
+                new Pair<>(pub1KeyId, new Pair<>(pub1KeyPath, JWSAlgorithm.parse(pub1Algorithm))),
+                new Pair<>(pub2KeyId, new Pair<>(pub2KeyPath, JWSAlgorithm.parse(pub2Algorithm)))
         );
-        final Map<String, RSAPublicKey> publicKeys = new HashMap<>();
+        final List<JWK> verificationKeys = new ArrayList<>(pubKeys.size());
+        JWK signingKey = generatedSigningKey;
 
-        for (Map.Entry<String, String> entry : pubKeyPaths.entrySet()) {
-            final String keyId = entry.getKey();
-            final String keyPath = entry.getValue();
-            final PublicKey publicKey;
+        for (Pair<String, Pair<String, JWSAlgorithm>> entry : pubKeys) {
+            final String keyId = entry.v1();
+            final String keyPath = entry.v2().v1();
+            final JWSAlgorithm keyAlgorithm = entry.v2().v2();
+            final JWK verificationKey;
 
             if (keyPath.equals("generate")) {
                 if (!isTest) {
@@ -108,18 +128,87 @@ public class SecurityConfiguration {
                 }
 
                 if (keyId.equals(privateKeyId)) {
-                    publicKey = Objects.requireNonNull(privateKeyMatchingPublic);
+                    verificationKey = toVerificationKey(Objects.requireNonNull(generatedSigningKey));
                 } else {
-                    publicKey = JWKHelper.generateRsaKeyPair().getPublic();
+                    verificationKey = toVerificationKey(generateJwk(keyId, keyAlgorithm));
                 }
             } else {
-                publicKey = JWKHelper.loadRsaPublicKey(keyPath);
+                verificationKey = loadVerificationKey(keyId, keyPath, keyAlgorithm);
+            }
+
+            if (keyId.equals(privateKeyId) && signingKey == null) {
+                if (!keyAlgorithm.equals(signingAlgorithm)) {
+                    throw new IllegalStateException("the verification key matching the signing key must use the same algorithm");
+                }
+
+                signingKey = withPrivatePart(verificationKey, privateKey, secret);
             }
 
-            publicKeys.put(keyId, (RSAPublicKey) publicKey);
+            verificationKeys.add(verificationKey);
+        }
+
+        return new Gw2AuthInternalJwtConverter(Objects.requireNonNull(signingKey, "no verification key matches the signing key"), verificationKeys);
+    }
+
+    private static JWK generateJwk(String keyId, JWSAlgorithm algorithm) throws GeneralSecurityException {
+        if (JWSAlgorithm.Family.HMAC_SHA.contains(algorithm)) {
+            return new OctetSequenceKey.Builder(JWKHelper.generateSecret()).keyID(keyId).algorithm(algorithm).keyUse(KeyUse.SIGNATURE).build();
+        } else if (JWSAlgorithm.Family.EC.contains(algorithm)) {
+            final KeyPair keyPair = JWKHelper.generateEcKeyPair();
+            return new ECKey.Builder(Curve.forJWSAlgorithm(algorithm).iterator().next(), (ECPublicKey) keyPair.getPublic())
+                    .privateKey(keyPair.getPrivate())
+                    .keyID(keyId)
+                    .algorithm(algorithm)
+                    .keyUse(KeyUse.SIGNATURE)
+                    .build();
         }
 
-        return new Gw2AuthInternalJwtConverter(privateKeyId, (RSAPrivateKey) privateKey, publicKeys);
+        final KeyPair keyPair = JWKHelper.generateRsaKeyPair();
+        return new RSAKey.Builder((RSAPublicKey) keyPair.getPublic())
+                .privateKey(keyPair.getPrivate())
+                .keyID(keyId)
+                .algorithm(algorithm)
+                .keyUse(KeyUse.SIGNATURE)
+                .build();
+    }
+
+    private static JWK loadVerificationKey(String keyId, String keyPath, JWSAlgorithm algorithm) throws Exception {
+        if (JWSAlgorithm.Family.HMAC_SHA.contains(algorithm)) {
+            // symmetric: the verification key is the secret itself
+            return new OctetSequenceKey.Builder(JWKHelper.loadSecret(keyPath)).keyID(keyId).algorithm(algorithm).keyUse(KeyUse.SIGNATURE).build();
+        } else if (JWSAlgorithm.Family.EC.contains(algorithm)) {
+            return new ECKey.Builder(Curve.forJWSAlgorithm(algorithm).iterator().next(), (ECPublicKey) JWKHelper.loadEcPublicKey(keyPath))
+                    .keyID(keyId)
+                    .algorithm(algorithm)
+                    .keyUse(KeyUse.SIGNATURE)
+                    .build();
+        }
+
+        return new RSAKey.Builder((RSAPublicKey) JWKHelper.loadRsaPublicKey(keyPath))
+                .keyID(keyId)
+                .algorithm(algorithm)
+                .keyUse(KeyUse.SIGNATURE)
+                .build();
+    }
+
+    private static JWK toVerificationKey(JWK jwk) {
+        // the public part for asymmetric keys, the secret itself for symmetric ones
+        return jwk.isPrivate() && !(jwk instanceof OctetSequenceKey) ? jwk.toPublicJWK() : jwk;
+    }
+
+    private static JWK withPrivatePart(JWK verificationKey, PrivateKey privateKey, byte[] secret) {
+        return switch (verificationKey) {
+            case OctetSequenceKey key -> {
+                if (secret == null || !Arrays.equals(secret, key.toByteArray())) {
+                    throw new IllegalStateException("the verification secret matching the signing key must be the same secret");
+                }
+
+                yield key;
+            }
+            case ECKey key -> new ECKey.Builder(key).privateKey(Objects.requireNonNull(privateKey)).build();
+            case RSAKey key -> new RSAKey.Builder(key).privateKey(Objects.requireNonNull(privateKey)).build();
+            default -> throw new IllegalStateException("unsupported key type: " + verificationKey.getKeyType());
+        };
     }
 
     @Bean
@@ -138,16 +227,14 @@ public class SecurityConfiguration {
     }
 
     @Bean
-    public Customizer<OAuth2LoginConfigurer<HttpSecurity>> oauth2LoginCustomizer(@Qualifier("oauth2-authorization-s3-client") S3Client s3,
-                                                                                 @Value("${com.gw2auth.oauth2.client.s3.bucket}") String bucket,
-                                                                                 @Value("${com.gw2auth.oauth2.client.s3.prefix}") String prefix,
+    public Customizer<OAuth2LoginConfigurer<HttpSecurity>> oauth2LoginCustomizer(EphemeralStateStore ephemeralStateStore,
+                                                                                 @Value("${com.gw2auth.oauth2.client.authorization-request-ttl:PT10M}") Duration authorizationRequestTtl,
                                                                                  Gw2AuthInternalJwtConverter jwtConverter,
                                                                                  RequestCache requestCache) {
 
-        final AuthorizationRequestRepository<OAuth2AuthorizationRequest> authorizationRequestRepository = new S3AuthorizationRequestRepository(
-                DynamicProxy.create(s3, S3Client.class, S3AuthorizationRequestRepository.MinimalS3Client.class),
-                bucket,
-                prefix
+        final AuthorizationRequestRepository<OAuth2AuthorizationRequest> authorizationRequestRepository = new EphemeralStateAuthorizationRequestRepository(
+                ephemeralStateStore,
+                authorizationRequestTtl
         );
         final SavedRequestAwareAuthenticationSuccessHandler delegate = new SavedRequestAwareAuthenticationSuccessHandler();
         delegate.setRequestCache(requestCache);
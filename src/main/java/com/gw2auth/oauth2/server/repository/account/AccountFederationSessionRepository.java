@@ -8,6 +8,7 @@ import org.springframework.stereotype.Repository;
 
 import java.time.Instant;
 import java.util.List;
+import java.util.Optional;
 import java.util.UUID;
 
 @Repository
@@ -89,7 +90,16 @@ public interface AccountFederationSessionRepository extends BaseRepository<Accou
     @Modifying
     @Query("""
     DELETE FROM account_federation_sessions
-    WHERE expiration_time <= :now
+    WHERE id IN (
+        SELECT id
+        FROM account_federation_sessions
+        WHERE expiration_time <= :now
+        ORDER BY expiration_time
+        LIMIT :limit
+    )
     """)
-    int deleteAllExpired(@Param("now") Instant now);
+    int deleteExpired(@Param("now") Instant now, @Param("limit") int limit);
+
+    @Query("SELECT MIN(expiration_time) FROM account_federation_sessions")
+    Optional<Instant> findMinExpirationTime();
 }
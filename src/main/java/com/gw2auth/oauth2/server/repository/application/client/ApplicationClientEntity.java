@@ -17,5 +17,6 @@ public record ApplicationClientEntity(@Column("id") UUID id,
                                       @Column("redirect_uris") Set<String> redirectUris,
                                       @Column("requires_approval") boolean requiresApproval,
                                       @Column("api_version") int apiVersion,
-                                      @Column("type") String type) {
+                                      @Column("type") String type,
+                                      @Column("version") long version) {
 }
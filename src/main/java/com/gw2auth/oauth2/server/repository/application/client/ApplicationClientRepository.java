@@ -40,7 +40,8 @@ public interface ApplicationClientRepository extends BaseRepository<ApplicationC
     redirect_uris = EXCLUDED.redirect_uris,
     requires_approval = EXCLUDED.requires_approval,
     api_version = EXCLUDED.api_version,
-    type = EXCLUDED.type
+    type = EXCLUDED.type,
+    version = application_clients.version + 1
     RETURNING *
     """)
     ApplicationClientEntity save(@Param("id") UUID id,
@@ -70,6 +71,13 @@ public interface ApplicationClientRepository extends BaseRepository<ApplicationC
     """)
     List<ApplicationClientEntity> findAllByIds(@Param("ids") Collection<UUID> ids);
 
+    @Query("""
+    SELECT id, version
+    FROM application_clients
+    WHERE id = ANY( ARRAY[ :ids ]::UUID[] )
+    """)
+    List<ApplicationClientVersionEntity> findAllVersionsByIds(@Param("ids") Collection<UUID> ids);
+
     @Query("""
     SELECT *
     FROM application_clients
@@ -0,0 +1,9 @@
+package com.gw2auth.oauth2.server.repository.application.client;
+
+import org.springframework.data.relational.core.mapping.Column;
+
+import java.util.UUID;
+
+public record ApplicationClientVersionEntity(@Column("id") UUID id,
+                                             @Column("version") long version) {
+}
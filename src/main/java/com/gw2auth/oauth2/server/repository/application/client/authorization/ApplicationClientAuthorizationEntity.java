@@ -17,20 +17,26 @@ public record ApplicationClientAuthorizationEntity(@Column("id") String id,
                                                    @Column("authorization_grant_type") String authorizationGrantType,
                                                    @Column("authorized_scopes") Set<String> authorizedScopes,
                                                    @Column("attributes") String attributes,
+                                                   @Column("attributes_bytes") byte[] attributesBytes,
                                                    @Column("state") String state,
                                                    @Column("authorization_code_value") String authorizationCodeValue,
                                                    @Column("authorization_code_issued_at") Instant authorizationCodeIssuedAt,
                                                    @Column("authorization_code_expires_at") Instant authorizationCodeExpiresAt,
                                                    @Column("authorization_code_metadata") String authorizationCodeMetadata,
+                                                   @Column("authorization_code_metadata_bytes") byte[] authorizationCodeMetadataBytes,
                                                    @Column("access_token_value") String accessTokenValue,
+                                                   @Column("access_token_hash") byte[] accessTokenHash,
                                                    @Column("access_token_issued_at") Instant accessTokenIssuedAt,
                                                    @Column("access_token_expires_at") Instant accessTokenExpiresAt,
                                                    @Column("access_token_metadata") String accessTokenMetadata,
+                                                   @Column("access_token_metadata_bytes") byte[] accessTokenMetadataBytes,
                                                    @Column("access_token_type") String accessTokenType,
                                                    @Column("access_token_scopes") Set<String> accessTokenScopes,
                                                    @Column("refresh_token_value") String refreshTokenValue,
                                                    @Column("refresh_token_issued_at") Instant refreshTokenIssuedAt,
                                                    @Column("refresh_token_expires_at") Instant refreshTokenExpiresAt,
-                                                   @Column("refresh_token_metadata") String refreshTokenMetadata) {
+                                                   @Column("refresh_token_metadata") String refreshTokenMetadata,
+                                                   @Column("refresh_token_metadata_bytes") byte[] refreshTokenMetadataBytes,
+                                                   @Column("expiration_time") Instant expirationTime) {
 
 }
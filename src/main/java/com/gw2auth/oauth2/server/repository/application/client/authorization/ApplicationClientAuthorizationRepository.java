@@ -24,29 +24,35 @@ public interface ApplicationClientAuthorizationRepository extends BaseRepository
                 entity.authorizationGrantType(),
                 entity.authorizedScopes(),
                 entity.attributes(),
+                entity.attributesBytes(),
                 entity.state(),
                 entity.authorizationCodeValue(),
                 entity.authorizationCodeIssuedAt(),
                 entity.authorizationCodeExpiresAt(),
                 entity.authorizationCodeMetadata(),
+                entity.authorizationCodeMetadataBytes(),
                 entity.accessTokenValue(),
+                entity.accessTokenHash(),
                 entity.accessTokenIssuedAt(),
                 entity.accessTokenExpiresAt(),
                 entity.accessTokenMetadata(),
+                entity.accessTokenMetadataBytes(),
                 entity.accessTokenType(),
                 entity.accessTokenScopes(),
                 entity.refreshTokenValue(),
                 entity.refreshTokenIssuedAt(),
                 entity.refreshTokenExpiresAt(),
-                entity.refreshTokenMetadata()
+                entity.refreshTokenMetadata(),
+                entity.refreshTokenMetadataBytes(),
+                entity.expirationTime()
         );
     }
 
     @Query("""
     INSERT INTO application_client_authorizations
-    (id, account_id, application_client_id, creation_time, last_update_time, display_name, authorization_grant_type, authorized_scopes, attributes, state, authorization_code_value, authorization_code_issued_at, authorization_code_expires_at, authorization_code_metadata, access_token_value, access_token_issued_at, access_token_expires_at, access_token_metadata, access_token_type, access_token_scopes, refresh_token_value, refresh_token_issued_at, refresh_token_expires_at, refresh_token_metadata)
+    (id, account_id, application_client_id, creation_time, last_update_time, display_name, authorization_grant_type, authorized_scopes, attributes, attributes_bytes, state, authorization_code_value, authorization_code_issued_at, authorization_code_expires_at, authorization_code_metadata, authorization_code_metadata_bytes, access_token_value, access_token_hash, access_token_issued_at, access_token_expires_at, access_token_metadata, access_token_metadata_bytes, access_token_type, access_token_scopes, refresh_token_value, refresh_token_issued_at, refresh_token_expires_at, refresh_token_metadata, refresh_token_metadata_bytes, expiration_time)
     VALUES
-    (:id, :account_id, :application_client_id, :creation_time, :last_update_time, :display_name, :authorization_grant_type, ARRAY[ :authorized_scopes ]::TEXT[], :attributes, :state, :authorization_code_value, :authorization_code_issued_at, :authorization_code_expires_at, :authorization_code_metadata, :access_token_value, :access_token_issued_at, :access_token_expires_at, :access_token_metadata, :access_token_type, ARRAY[ :access_token_scopes ]::TEXT[], :refresh_token_value, :refresh_token_issued_at, :refresh_token_expires_at, :refresh_token_metadata)
+    (:id, :account_id, :application_client_id, :creation_time, :last_update_time, :display_name, :authorization_grant_type, ARRAY[ :authorized_scopes ]::TEXT[], :attributes, :attributes_bytes, :state, :authorization_code_value, :authorization_code_issued_at, :authorization_code_expires_at, :authorization_code_metadata, :authorization_code_metadata_bytes, :access_token_value, :access_token_hash, :access_token_issued_at, :access_token_expires_at, :access_token_metadata, :access_token_metadata_bytes, :access_token_type, ARRAY[ :access_token_scopes ]::TEXT[], :refresh_token_value, :refresh_token_issued_at, :refresh_token_expires_at, :refresh_token_metadata, :refresh_token_metadata_bytes, :expiration_time)
     ON CONFLICT (id) DO UPDATE SET
     last_update_time = EXCLUDED.last_update_time,
     display_name = CASE
@@ -56,21 +62,27 @@ public interface ApplicationClientAuthorizationRepository extends BaseRepository
     authorization_grant_type = EXCLUDED.authorization_grant_type,
     authorized_scopes = EXCLUDED.authorized_scopes,
     attributes = EXCLUDED.attributes,
+    attributes_bytes = EXCLUDED.attributes_bytes,
     state = EXCLUDED.state,
     authorization_code_value = EXCLUDED.authorization_code_value,
     authorization_code_issued_at = EXCLUDED.authorization_code_issued_at,
     authorization_code_expires_at = EXCLUDED.authorization_code_expires_at,
     authorization_code_metadata = EXCLUDED.authorization_code_metadata,
+    authorization_code_metadata_bytes = EXCLUDED.authorization_code_metadata_bytes,
     access_token_value = EXCLUDED.access_token_value,
+    access_token_hash = EXCLUDED.access_token_hash,
     access_token_issued_at = EXCLUDED.access_token_issued_at,
     access_token_expires_at = EXCLUDED.access_token_expires_at,
     access_token_metadata = EXCLUDED.access_token_metadata,
+    access_token_metadata_bytes = EXCLUDED.access_token_metadata_bytes,
     access_token_type = EXCLUDED.access_token_type,
     access_token_scopes = EXCLUDED.access_token_scopes,
     refresh_token_value = EXCLUDED.refresh_token_value,
     refresh_token_issued_at = EXCLUDED.refresh_token_issued_at,
     refresh_token_expires_at = EXCLUDED.refresh_token_expires_at,
-    refresh_token_metadata = EXCLUDED.refresh_token_metadata
+    refresh_token_metadata = EXCLUDED.refresh_token_metadata,
+    refresh_token_metadata_bytes = EXCLUDED.refresh_token_metadata_bytes,
+    expiration_time = EXCLUDED.expiration_time
     RETURNING *
     """)
     ApplicationClientAuthorizationEntity save(@Param("id") String id,
@@ -82,67 +94,47 @@ public interface ApplicationClientAuthorizationRepository extends BaseRepository
                                               @Param("authorization_grant_type") String authorizationGrantType,
                                               @Param("authorized_scopes") Set<String> authorizedScopes,
                                               @Param("attributes") String attributes,
+                                              @Param("attributes_bytes") byte[] attributesBytes,
                                               @Param("state") String state,
                                               @Param("authorization_code_value") String authorizationCodeValue,
                                               @Param("authorization_code_issued_at") Instant authorizationCodeIssuedAt,
                                               @Param("authorization_code_expires_at") Instant authorizationCodeExpiresAt,
                                               @Param("authorization_code_metadata") String authorizationCodeMetadata,
+                                              @Param("authorization_code_metadata_bytes") byte[] authorizationCodeMetadataBytes,
                                               @Param("access_token_value") String accessTokenValue,
+                                              @Param("access_token_hash") byte[] accessTokenHash,
                                               @Param("access_token_issued_at") Instant accessTokenIssuedAt,
                                               @Param("access_token_expires_at") Instant accessTokenExpiresAt,
                                               @Param("access_token_metadata") String accessTokenMetadata,
+                                              @Param("access_token_metadata_bytes") byte[] accessTokenMetadataBytes,
                                               @Param("access_token_type") String accessTokenType,
                                               @Param("access_token_scopes") Set<String> accessTokenScopes,
                                               @Param("refresh_token_value") String refreshTokenValue,
                                               @Param("refresh_token_issued_at") Instant refreshTokenIssuedAt,
                                               @Param("refresh_token_expires_at") Instant refreshTokenExpiresAt,
-                                              @Param("refresh_token_metadata") String refreshTokenMetadata);
+                                              @Param("refresh_token_metadata") String refreshTokenMetadata,
+                                              @Param("refresh_token_metadata_bytes") byte[] refreshTokenMetadataBytes,
+                                              @Param("expiration_time") Instant expirationTime);
 
     @Query("""
-    SELECT *
-    FROM application_client_authorizations
-    WHERE state = :state
+    SELECT auth.*
+    FROM application_client_authorization_token_index idx
+    INNER JOIN application_client_authorizations auth
+    ON idx.application_client_authorization_id = auth.id
+    WHERE idx.token_hash = :token_hash
+    AND idx.token_type = :token_type
     """)
-    Optional<ApplicationClientAuthorizationEntity> findByState(@Param("state") String state);
+    Optional<ApplicationClientAuthorizationEntity> findByTokenHash(@Param("token_hash") byte[] tokenHash, @Param("token_type") String tokenType);
 
-    // makes use of md5 index, then filter possible hash collisions
     @Query("""
-    SELECT *
-    FROM application_client_authorizations
-    WHERE md5(authorization_code_value) = md5(:authorization_code)
-    AND authorization_code_value = :authorization_code
-    """)
-    Optional<ApplicationClientAuthorizationEntity> findByAuthorizationCode(@Param("authorization_code") String authorizationCode);
-
-    // makes use of md5 index, then filter possible hash collisions
-    @Query("""
-    SELECT *
-    FROM application_client_authorizations
-    WHERE md5(access_token_value) = md5(:access_token)
-    AND access_token_value = :access_token
-    """)
-    Optional<ApplicationClientAuthorizationEntity> findByAccessToken(@Param("access_token") String accessToken);
-
-    // makes use of md5 index, then filter possible hash collisions
-    @Query("""
-    SELECT *
-    FROM application_client_authorizations
-    WHERE md5(refresh_token_value) = md5(:refresh_token)
-    AND refresh_token_value = :refresh_token
-    """)
-    Optional<ApplicationClientAuthorizationEntity> findByRefreshToken(@Param("refresh_token") String refreshToken);
-
-    // makes use of md5 index, then filter possible hash collisions
-    @Query("""
-    SELECT *
-    FROM application_client_authorizations
-    WHERE state = :token
-    OR (md5(authorization_code_value) = md5(:token) AND authorization_code_value = :token)
-    OR (md5(access_token_value) = md5(:token) AND access_token_value = :token)
-    OR (md5(refresh_token_value) = md5(:token) AND refresh_token_value = :token)
+    SELECT auth.*
+    FROM application_client_authorization_token_index idx
+    INNER JOIN application_client_authorizations auth
+    ON idx.application_client_authorization_id = auth.id
+    WHERE idx.token_hash = :token_hash
     LIMIT 1
     """)
-    Optional<ApplicationClientAuthorizationEntity> findByAnyToken(@Param("token") String token);
+    Optional<ApplicationClientAuthorizationEntity> findByAnyTokenHash(@Param("token_hash") byte[] tokenHash);
 
     @Query("""
     SELECT *
@@ -226,7 +218,16 @@ public interface ApplicationClientAuthorizationRepository extends BaseRepository
     @Modifying
     @Query("""
     DELETE FROM application_client_authorizations
-    WHERE COALESCE(GREATEST(authorization_code_expires_at, access_token_expires_at, refresh_token_expires_at), (last_update_time + INTERVAL '1 DAY')) <= :now
+    WHERE id IN (
+        SELECT id
+        FROM application_client_authorizations
+        WHERE expiration_time <= :now
+        ORDER BY expiration_time
+        LIMIT :limit
+    )
     """)
-    int deleteAllExpired(@Param("now") Instant now);
+    int deleteExpired(@Param("now") Instant now, @Param("limit") int limit);
+
+    @Query("SELECT MIN(expiration_time) FROM application_client_authorizations")
+    Optional<Instant> findMinExpirationTime();
 }
@@ -0,0 +1,10 @@
+package com.gw2auth.oauth2.server.repository.application.client.authorization;
+
+import org.springframework.data.relational.core.mapping.Column;
+import org.springframework.data.relational.core.mapping.Table;
+
+@Table("application_client_authorization_token_index")
+public record ApplicationClientAuthorizationTokenIndexEntity(@Column("token_hash") byte[] tokenHash,
+                                                             @Column("token_type") String tokenType,
+                                                             @Column("application_client_authorization_id") String applicationClientAuthorizationId) {
+}
@@ -0,0 +1,33 @@
+package com.gw2auth.oauth2.server.repository.application.client.authorization;
+
+import com.gw2auth.oauth2.server.repository.BaseRepository;
+import org.springframework.data.jdbc.repository.query.Modifying;
+import org.springframework.data.jdbc.repository.query.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+
+@Repository
+public interface ApplicationClientAuthorizationTokenIndexRepository extends BaseRepository<ApplicationClientAuthorizationTokenIndexEntity>, CustomApplicationClientAuthorizationTokenIndexRepository {
+
+    @Override
+    default ApplicationClientAuthorizationTokenIndexEntity save(ApplicationClientAuthorizationTokenIndexEntity entity) {
+        return save(entity.tokenHash(), entity.tokenType(), entity.applicationClientAuthorizationId());
+    }
+
+    @Query("""
+    INSERT INTO application_client_authorization_token_index
+    (token_hash, token_type, application_client_authorization_id)
+    VALUES
+    (:token_hash, :token_type, :application_client_authorization_id)
+    ON CONFLICT (token_hash, token_type) DO UPDATE SET
+    application_client_authorization_id = EXCLUDED.application_client_authorization_id
+    RETURNING *
+    """)
+    ApplicationClientAuthorizationTokenIndexEntity save(@Param("token_hash") byte[] tokenHash,
+                                                        @Param("token_type") String tokenType,
+                                                        @Param("application_client_authorization_id") String applicationClientAuthorizationId);
+
+    @Modifying
+    @Query("DELETE FROM application_client_authorization_token_index WHERE application_client_authorization_id = :application_client_authorization_id")
+    void deleteAllByApplicationClientAuthorizationId(@Param("application_client_authorization_id") String applicationClientAuthorizationId);
+}
@@ -0,0 +1,8 @@
+package com.gw2auth.oauth2.server.repository.application.client.authorization;
+
+import java.util.Collection;
+
+public interface CustomApplicationClientAuthorizationTokenIndexRepository {
+
+    void saveAll(Collection<ApplicationClientAuthorizationTokenIndexEntity> entities);
+}
@@ -0,0 +1,48 @@
+package com.gw2auth.oauth2.server.repository.application.client.authorization;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcOperations;
+import org.springframework.jdbc.core.namedparam.SqlParameterSource;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.util.Collection;
+import java.util.Map;
+
+@Component
+public class CustomApplicationClientAuthorizationTokenIndexRepositoryImpl implements CustomApplicationClientAuthorizationTokenIndexRepository {
+
+    private static final String QUERY = """
+    INSERT INTO application_client_authorization_token_index
+    (token_hash, token_type, application_client_authorization_id)
+    VALUES
+    (:token_hash, :token_type, :application_client_authorization_id)
+    ON CONFLICT (token_hash, token_type) DO UPDATE SET
+    application_client_authorization_id = EXCLUDED.application_client_authorization_id
+    """;
+
+    private final NamedParameterJdbcOperations namedParameterJdbcOperations;
+
+    @Autowired
+    public CustomApplicationClientAuthorizationTokenIndexRepositoryImpl(NamedParameterJdbcOperations namedParameterJdbcOperations) {
+        this.namedParameterJdbcOperations = namedParameterJdbcOperations;
+    }
+
+    @Override
+    @Transactional
+    public void saveAll(Collection<ApplicationClientAuthorizationTokenIndexEntity> entities) {
+        final SqlParameterSource[] sqlParameterSources = new SqlParameterSource[entities.size()];
+        int idx = 0;
+
+        for (ApplicationClientAuthorizationTokenIndexEntity entity : entities) {
+            sqlParameterSources[idx++] = new MapSqlParameterSource(Map.of(
+                    "token_hash", entity.tokenHash(),
+                    "token_type", entity.tokenType(),
+                    "application_client_authorization_id", entity.applicationClientAuthorizationId()
+            ));
+        }
+
+        this.namedParameterJdbcOperations.batchUpdate(QUERY, sqlParameterSources);
+    }
+}
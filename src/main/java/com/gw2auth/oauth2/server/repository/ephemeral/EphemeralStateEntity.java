@@ -0,0 +1,13 @@
+package com.gw2auth.oauth2.server.repository.ephemeral;
+
+import org.springframework.data.relational.core.mapping.Column;
+import org.springframework.data.relational.core.mapping.Table;
+
+import java.time.Instant;
+
+@Table("ephemeral_states")
+public record EphemeralStateEntity(@Column("scope") String scope,
+                                   @Column("id") String id,
+                                   @Column("data") byte[] data,
+                                   @Column("expiration_time") Instant expirationTime) {
+}
@@ -0,0 +1,67 @@
+package com.gw2auth.oauth2.server.repository.ephemeral;
+
+import com.gw2auth.oauth2.server.repository.BaseRepository;
+import org.springframework.data.jdbc.repository.query.Modifying;
+import org.springframework.data.jdbc.repository.query.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+
+import java.time.Instant;
+import java.util.Optional;
+
+@Repository
+public interface EphemeralStateRepository extends BaseRepository<EphemeralStateEntity> {
+
+    @Override
+    default EphemeralStateEntity save(EphemeralStateEntity entity) {
+        return save(entity.scope(), entity.id(), entity.data(), entity.expirationTime());
+    }
+
+    @Query("""
+    INSERT INTO ephemeral_states
+    (scope, id, data, expiration_time)
+    VALUES
+    (:scope, :id, :data, :expiration_time)
+    ON CONFLICT (scope, id) DO UPDATE SET
+    data = EXCLUDED.data,
+    expiration_time = EXCLUDED.expiration_time
+    RETURNING *
+    """)
+    EphemeralStateEntity save(@Param("scope") String scope,
+                              @Param("id") String id,
+                              @Param("data") byte[] data,
+                              @Param("expiration_time") Instant expirationTime);
+
+    @Query("""
+    SELECT *
+    FROM ephemeral_states
+    WHERE scope = :scope
+    AND id = :id
+    AND expiration_time > :now
+    """)
+    Optional<EphemeralStateEntity> findByScopeAndId(@Param("scope") String scope, @Param("id") String id, @Param("now") Instant now);
+
+    @Query("""
+    DELETE FROM ephemeral_states
+    WHERE scope = :scope
+    AND id = :id
+    RETURNING *
+    """)
+    Optional<EphemeralStateEntity> deleteByScopeAndId(@Param("scope") String scope, @Param("id") String id);
+
+    @Modifying
+    @Query("""
+    DELETE FROM ephemeral_states
+    WHERE (scope, id) IN (
+        SELECT scope, id
+        FROM ephemeral_states
+        WHERE expiration_time <= :now
+        ORDER BY expiration_time
+        LIMIT :limit
+    )
+    """)
+    int deleteExpired(@Param("now") Instant now, @Param("limit") int limit);
+
+    @Query("SELECT MIN(expiration_time) FROM ephemeral_states")
+    Optional<Instant> findMinExpirationTime();
+}
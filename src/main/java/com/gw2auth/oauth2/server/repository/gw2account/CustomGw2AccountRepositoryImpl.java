@@ -3,32 +3,21 @@ package com.gw2auth.oauth2.server.repository.gw2account;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
 import org.springframework.jdbc.core.namedparam.NamedParameterJdbcOperations;
-import org.springframework.jdbc.core.namedparam.SqlParameterSource;
 import org.springframework.stereotype.Component;
-import org.springframework.transaction.annotation.Transactional;
 
 import java.sql.Timestamp;
 import java.time.Instant;
-import java.util.ArrayList;
-import java.util.Collection;
-import java.util.List;
-import java.util.Map;
+import java.util.*;
 
 @Component
 public class CustomGw2AccountRepositoryImpl implements CustomGw2AccountRepository {
 
-    private static final String QUERY_CHANGED = """
-    UPDATE gw2_accounts
-    SET gw2_account_name = :gw2_account_name, last_name_check_time = :last_name_check_time
-    WHERE account_id = :account_id
-    AND gw2_account_id = :gw2_account_id
-    """;
-
-    private static final String QUERY_UNCHANGED = """
-    UPDATE gw2_accounts
-    SET last_name_check_time = :last_name_check_time
-    WHERE account_id = :account_id
-    AND gw2_account_id = :gw2_account_id
+    private static final String QUERY = """
+    UPDATE gw2_accounts AS acc
+    SET gw2_account_name = v.gw2_account_name, last_name_check_time = :last_name_check_time
+    FROM UNNEST(ARRAY[ :account_ids ]::UUID[], ARRAY[ :gw2_account_ids ]::UUID[], ARRAY[ :gw2_account_names ]::TEXT[]) AS v(account_id, gw2_account_id, gw2_account_name)
+    WHERE acc.account_id = v.account_id
+    AND acc.gw2_account_id = v.gw2_account_id
     """;
 
     private final NamedParameterJdbcOperations namedParameterJdbcOperations;
@@ -38,34 +27,27 @@ public class CustomGw2AccountRepositoryImpl implements CustomGw2AccountRepositor
         this.namedParameterJdbcOperations = namedParameterJdbcOperations;
     }
 
-    @Transactional
     @Override
     public void updateGw2AccountNames(Instant lastNameCheckTime, Collection<Gw2AccountNameUpdateEntity> updates) {
-        final List<SqlParameterSource> sqlParameterSourcesChanged = new ArrayList<>(updates.size());
-        final List<SqlParameterSource> sqlParameterSourcesUnchanged = new ArrayList<>(updates.size());
-
-        for (Gw2AccountNameUpdateEntity entity : updates) {
-            final SqlParameterSource sqlParameterSource = new MapSqlParameterSource(Map.of(
-                    "account_id", entity.accountId(),
-                    "gw2_account_id", entity.gw2AccountId(),
-                    "gw2_account_name", entity.gw2AccountName(),
-                    "last_name_check_time", Timestamp.from(lastNameCheckTime)
-            ));
-
-
-            if (entity.hasNameChanged()) {
-                sqlParameterSourcesChanged.add(sqlParameterSource);
-            } else {
-                sqlParameterSourcesUnchanged.add(sqlParameterSource);
-            }
+        if (updates.isEmpty()) {
+            return;
         }
 
-        if (!sqlParameterSourcesChanged.isEmpty()) {
-            this.namedParameterJdbcOperations.batchUpdate(QUERY_CHANGED, sqlParameterSourcesChanged.toArray(SqlParameterSource[]::new));
-        }
+        final List<UUID> accountIds = new ArrayList<>(updates.size());
+        final List<UUID> gw2AccountIds = new ArrayList<>(updates.size());
+        final List<String> gw2AccountNames = new ArrayList<>(updates.size());
 
-        if (!sqlParameterSourcesUnchanged.isEmpty()) {
-            this.namedParameterJdbcOperations.batchUpdate(QUERY_UNCHANGED, sqlParameterSourcesUnchanged.toArray(SqlParameterSource[]::new));
+        for (Gw2AccountNameUpdateEntity entity : updates) {
+            accountIds.add(entity.accountId());
+            gw2AccountIds.add(entity.gw2AccountId());
+            gw2AccountNames.add(entity.gw2AccountName());
         }
+
+        this.namedParameterJdbcOperations.update(QUERY, new MapSqlParameterSource(Map.of(
+                "account_ids", accountIds,
+                "gw2_account_ids", gw2AccountIds,
+                "gw2_account_names", gw2AccountNames,
+                "last_name_check_time", Timestamp.from(lastNameCheckTime)
+        )));
     }
 }
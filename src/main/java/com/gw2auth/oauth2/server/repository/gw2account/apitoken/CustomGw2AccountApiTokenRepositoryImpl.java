@@ -3,9 +3,7 @@ package com.gw2auth.oauth2.server.repository.gw2account.apitoken;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
 import org.springframework.jdbc.core.namedparam.NamedParameterJdbcOperations;
-import org.springframework.jdbc.core.namedparam.SqlParameterSource;
 import org.springframework.stereotype.Component;
-import org.springframework.transaction.annotation.Transactional;
 
 import java.sql.Timestamp;
 import java.time.Instant;
@@ -14,18 +12,15 @@ import java.util.*;
 @Component
 public class CustomGw2AccountApiTokenRepositoryImpl implements CustomGw2AccountApiTokenRepository {
 
-    private static final String QUERY_VALID = """
-    UPDATE gw2_account_api_tokens
-    SET last_valid_time = :last_valid_check_time, last_valid_check_time = :last_valid_check_time
-    WHERE account_id = :account_id
-    AND gw2_account_id = :gw2_account_id
-    """;
-
-    private static final String QUERY_INVALID = """
-    UPDATE gw2_account_api_tokens
-    SET last_valid_check_time = :last_valid_check_time
-    WHERE account_id = :account_id
-    AND gw2_account_id = :gw2_account_id
+    // a single statement for the whole batch; also releases the refresh claim of the updated tokens
+    private static final String QUERY = """
+    UPDATE gw2_account_api_tokens AS tk
+    SET last_valid_time = CASE WHEN v.is_valid THEN :last_valid_check_time ELSE tk.last_valid_time END,
+        last_valid_check_time = :last_valid_check_time,
+        claimed_until = NULL
+    FROM UNNEST(ARRAY[ :account_ids ]::UUID[], ARRAY[ :gw2_account_ids ]::UUID[], ARRAY[ :is_valid ]::BOOL[]) AS v(account_id, gw2_account_id, is_valid)
+    WHERE tk.account_id = v.account_id
+    AND tk.gw2_account_id = v.gw2_account_id
     """;
 
     private final NamedParameterJdbcOperations namedParameterJdbcOperations;
@@ -35,32 +30,27 @@ public class CustomGw2AccountApiTokenRepositoryImpl implements CustomGw2AccountA
         this.namedParameterJdbcOperations = namedParameterJdbcOperations;
     }
 
-    @Transactional
     @Override
     public void updateApiTokensValid(Instant lastValidCheckTime, Collection<Gw2AccountApiTokenValidUpdateEntity> updates) {
-        final List<SqlParameterSource> sqlParameterSourcesValid = new ArrayList<>();
-        final List<SqlParameterSource> sqlParameterSourcesInvalid = new ArrayList<>();
-
-        for (Gw2AccountApiTokenValidUpdateEntity entity : updates) {
-            final SqlParameterSource sqlParameterSource = new MapSqlParameterSource(Map.of(
-                    "account_id", entity.accountId(),
-                    "gw2_account_id", entity.gw2AccountId(),
-                    "last_valid_check_time", Timestamp.from(lastValidCheckTime)
-            ));
-
-            if (entity.isValid()) {
-                sqlParameterSourcesValid.add(sqlParameterSource);
-            } else {
-                sqlParameterSourcesInvalid.add(sqlParameterSource);
-            }
+        if (updates.isEmpty()) {
+            return;
         }
 
-        if (!sqlParameterSourcesValid.isEmpty()) {
-            this.namedParameterJdbcOperations.batchUpdate(QUERY_VALID, sqlParameterSourcesValid.toArray(SqlParameterSource[]::new));
-        }
+        final List<UUID> accountIds = new ArrayList<>(updates.size());
+        final List<UUID> gw2AccountIds = new ArrayList<>(updates.size());
+        final List<Boolean> isValid = new ArrayList<>(updates.size());
 
-        if (!sqlParameterSourcesInvalid.isEmpty()) {
-            this.namedParameterJdbcOperations.batchUpdate(QUERY_INVALID, sqlParameterSourcesInvalid.toArray(SqlParameterSource[]::new));
+        for (Gw2AccountApiTokenValidUpdateEntity entity : updates) {
+            accountIds.add(entity.accountId());
+            gw2AccountIds.add(entity.gw2AccountId());
+            isValid.add(entity.isValid());
         }
+
+        this.namedParameterJdbcOperations.update(QUERY, new MapSqlParameterSource(Map.of(
+                "account_ids", accountIds,
+                "gw2_account_ids", gw2AccountIds,
+                "is_valid", isValid,
+                "last_valid_check_time", Timestamp.from(lastValidCheckTime)
+        )));
     }
 }
@@ -76,19 +76,36 @@ public interface Gw2AccountApiTokenRepository extends BaseRepository<Gw2AccountA
     """)
     Optional<Gw2AccountApiTokenEntity> findByAccountIdAndGw2AccountId(@Param("account_id") UUID accountId, @Param("gw2_account_id") UUID gw2AccountId);
 
+    // claims rows for this caller until :claimed_until, least recently checked first; rows locked by a concurrent claim are skipped
     @Query("""
-    SELECT tk.account_id, tk.gw2_account_id, acc.gw2_account_name, tk.gw2_api_token
-    FROM gw2_account_api_tokens tk
+    WITH claimed AS (
+        UPDATE gw2_account_api_tokens
+        SET claimed_until = :claimed_until
+        WHERE (account_id, gw2_account_id) IN (
+            SELECT tk.account_id, tk.gw2_account_id
+            FROM gw2_account_api_tokens tk
+            INNER JOIN gw2_accounts acc
+            ON tk.account_id = acc.account_id AND tk.gw2_account_id = acc.gw2_account_id
+            WHERE tk.last_valid_time >= :last_valid_time
+            AND (tk.last_valid_check_time <= :last_valid_check_time OR acc.last_name_check_time <= :last_name_check_time)
+            AND (tk.claimed_until IS NULL OR tk.claimed_until <= :now)
+            ORDER BY tk.last_valid_check_time
+            LIMIT :limit
+            FOR UPDATE OF tk SKIP LOCKED
+        )
+        RETURNING account_id, gw2_account_id, gw2_api_token, last_valid_check_time
+    )
+    SELECT claimed.account_id, claimed.gw2_account_id, acc.gw2_account_name, claimed.gw2_api_token, claimed.last_valid_check_time, acc.last_name_check_time
+    FROM claimed
     INNER JOIN gw2_accounts acc
-    ON tk.account_id = acc.account_id AND tk.gw2_account_id = acc.gw2_account_id
-    WHERE tk.last_valid_time >= :last_valid_time
-    AND (tk.last_valid_check_time <= :last_valid_check_time OR acc.last_name_check_time <= :last_name_check_time)
-    LIMIT :limit
+    ON claimed.account_id = acc.account_id AND claimed.gw2_account_id = acc.gw2_account_id
     """)
-    List<Gw2AccountRefreshEntity> findAllApplicableForRefresh(
+    List<Gw2AccountRefreshEntity> claimAllApplicableForRefresh(
         @Param("last_valid_time") Instant lastValidTimeGTE,
         @Param("last_valid_check_time") Instant lastValidCheckTimeLTE,
         @Param("last_name_check_time") Instant lastNameCheckTimeLTE,
+        @Param("now") Instant now,
+        @Param("claimed_until") Instant claimedUntil,
         @Param("limit") int limit
     );
 
@@ -2,10 +2,13 @@ package com.gw2auth.oauth2.server.repository.gw2account.apitoken;
 
 import org.springframework.data.relational.core.mapping.Column;
 
+import java.time.Instant;
 import java.util.UUID;
 
 public record Gw2AccountRefreshEntity(@Column("account_id") UUID accountId,
                                       @Column("gw2_account_id") UUID gw2AccountId,
                                       @Column("gw2_account_name") String gw2AccountName,
-                                      @Column("gw2_api_token") String gw2ApiToken) {
+                                      @Column("gw2_api_token") String gw2ApiToken,
+                                      @Column("last_valid_check_time") Instant lastValidCheckTime,
+                                      @Column("last_name_check_time") Instant lastNameCheckTime) {
 }
@@ -1,8 +1,14 @@
 package com.gw2auth.oauth2.server.repository.gw2account.subtoken;
 
-import java.util.Collection;
+import com.gw2auth.oauth2.server.util.Pair;
+
+import java.util.List;
 
 public interface CustomGw2AccountApiSubtokenRepository {
 
-    void saveAll(Collection<Gw2AccountApiSubtokenEntity> entities);
+    /**
+     * Saves each subtoken only if the given root API Token (v2) is still the current API Token of its GW2 Account.
+     * @return for each entry, whether it has been saved
+     */
+    boolean[] saveAllIfApiTokenMatches(List<Pair<Gw2AccountApiSubtokenEntity, String>> entitiesWithGw2ApiToken);
 }
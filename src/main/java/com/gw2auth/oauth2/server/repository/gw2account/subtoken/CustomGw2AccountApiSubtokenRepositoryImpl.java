@@ -1,13 +1,15 @@
 package com.gw2auth.oauth2.server.repository.gw2account.subtoken;
 
+import com.gw2auth.oauth2.server.util.Pair;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
 import org.springframework.jdbc.core.namedparam.NamedParameterJdbcOperations;
 import org.springframework.jdbc.core.namedparam.SqlParameterSource;
 import org.springframework.stereotype.Component;
 
+import java.sql.Statement;
 import java.sql.Timestamp;
-import java.util.Collection;
+import java.util.List;
 import java.util.Map;
 
 @Component
@@ -16,8 +18,11 @@ public class CustomGw2AccountApiSubtokenRepositoryImpl implements CustomGw2Accou
     private static final String QUERY = """
     INSERT INTO gw2_account_api_subtokens
     (account_id, gw2_account_id, gw2_api_permissions_bit_set, gw2_api_subtoken, expiration_time)
-    VALUES
-    (:account_id, :gw2_account_id, :gw2_api_permissions_bit_set, :gw2_api_subtoken, :expiration_time)
+    SELECT tk.account_id, tk.gw2_account_id, :gw2_api_permissions_bit_set, :gw2_api_subtoken, :expiration_time
+    FROM gw2_account_api_tokens tk
+    WHERE tk.account_id = :account_id
+    AND tk.gw2_account_id = :gw2_account_id
+    AND tk.gw2_api_token = :gw2_api_token
     ON CONFLICT (account_id, gw2_account_id, gw2_api_permissions_bit_set) DO UPDATE SET
     gw2_api_subtoken = EXCLUDED.gw2_api_subtoken,
     expiration_time = EXCLUDED.expiration_time
@@ -31,20 +36,31 @@ public class CustomGw2AccountApiSubtokenRepositoryImpl implements CustomGw2Accou
     }
 
     @Override
-    public void saveAll(Collection<Gw2AccountApiSubtokenEntity> entities) {
-        final SqlParameterSource[] sqlParameterSources = new SqlParameterSource[entities.size()];
+    public boolean[] saveAllIfApiTokenMatches(List<Pair<Gw2AccountApiSubtokenEntity, String>> entitiesWithGw2ApiToken) {
+        final SqlParameterSource[] sqlParameterSources = new SqlParameterSource[entitiesWithGw2ApiToken.size()];
         int idx = 0;
 
-        for (Gw2AccountApiSubtokenEntity entity : entities) {
+        for (Pair<Gw2AccountApiSubtokenEntity, String> entityWithGw2ApiToken : entitiesWithGw2ApiToken) {
+            final Gw2AccountApiSubtokenEntity entity = entityWithGw2ApiToken.v1();
+
             sqlParameterSources[idx++] = new MapSqlParameterSource(Map.of(
                     "account_id", entity.accountId(),
                     "gw2_account_id", entity.gw2AccountId(),
+                    "gw2_api_token", entityWithGw2ApiToken.v2(),
                     "gw2_api_permissions_bit_set", entity.gw2ApiPermissionsBitSet(),
                     "gw2_api_subtoken", entity.gw2ApiSubtoken(),
                     "expiration_time", Timestamp.from(entity.expirationTime())
             ));
         }
 
-        this.namedParameterJdbcOperations.batchUpdate(QUERY, sqlParameterSources);
+        final int[] updateCounts = this.namedParameterJdbcOperations.batchUpdate(QUERY, sqlParameterSources);
+        final boolean[] saved = new boolean[updateCounts.length];
+
+        for (int i = 0; i < updateCounts.length; i++) {
+            // the driver may not report counts for batched statements
+            saved[i] = updateCounts[i] > 0 || updateCounts[i] == Statement.SUCCESS_NO_INFO;
+        }
+
+        return saved;
     }
 }
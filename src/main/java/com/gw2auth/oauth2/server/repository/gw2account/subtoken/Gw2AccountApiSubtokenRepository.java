@@ -1,12 +1,15 @@
 package com.gw2auth.oauth2.server.repository.gw2account.subtoken;
 
 import com.gw2auth.oauth2.server.repository.BaseRepository;
+import org.springframework.data.jdbc.repository.query.Modifying;
 import org.springframework.data.jdbc.repository.query.Query;
 import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
+import java.time.Instant;
 import java.util.Collection;
 import java.util.List;
+import java.util.Optional;
 import java.util.UUID;
 
 @Repository
@@ -22,4 +25,28 @@ public interface Gw2AccountApiSubtokenRepository extends BaseRepository<Gw2Accou
     List<Gw2AccountApiSubtokenEntity> findAllByAccountIdGw2AccountIdsAndGw2ApiPermissionsBitSet(@Param("account_id") UUID accountId,
                                                                                                 @Param("gw2_account_ids") Collection<UUID> gw2AccountIds,
                                                                                                 @Param("gw2_api_permissions_bit_set") int gw2ApiPermissionsBitSet);
+
+    @Modifying
+    @Query("""
+    DELETE FROM gw2_account_api_subtokens
+    WHERE account_id = :account_id
+    AND gw2_account_id = :gw2_account_id
+    """)
+    void deleteAllByAccountIdAndGw2AccountId(@Param("account_id") UUID accountId, @Param("gw2_account_id") UUID gw2AccountId);
+
+    @Modifying
+    @Query("""
+    DELETE FROM gw2_account_api_subtokens
+    WHERE (account_id, gw2_account_id, gw2_api_permissions_bit_set) IN (
+        SELECT account_id, gw2_account_id, gw2_api_permissions_bit_set
+        FROM gw2_account_api_subtokens
+        WHERE expiration_time <= :now
+        ORDER BY expiration_time
+        LIMIT :limit
+    )
+    """)
+    int deleteExpired(@Param("now") Instant now, @Param("limit") int limit);
+
+    @Query("SELECT MIN(expiration_time) FROM gw2_account_api_subtokens")
+    Optional<Instant> findMinExpirationTime();
 }
@@ -14,6 +14,8 @@ public record Gw2AccountVerificationChallengePendingEntity(@Column("account_id")
                                                            @Column("gw2_api_token") String gw2ApiToken,
                                                            @Column("creation_time") Instant creationTime,
                                                            @Column("submit_time") Instant submitTime,
-                                                           @Column("timeout_time") Instant timeoutTime) {
+                                                           @Column("timeout_time") Instant timeoutTime,
+                                                           @Column("next_check_time") Instant nextCheckTime,
+                                                           @Column("attempts") int attempts) {
 
 }
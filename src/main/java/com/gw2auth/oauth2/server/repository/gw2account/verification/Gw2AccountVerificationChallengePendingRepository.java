@@ -24,22 +24,27 @@ public interface Gw2AccountVerificationChallengePendingRepository extends BaseRe
                 entity.gw2ApiToken(),
                 entity.creationTime(),
                 entity.submitTime(),
-                entity.timeoutTime()
+                entity.timeoutTime(),
+                entity.nextCheckTime(),
+                entity.attempts()
         );
     }
 
     @Query("""
     INSERT INTO gw2_account_verification_pending_challenges
-    (account_id, gw2_account_id, challenge_id, state, gw2_api_token, creation_time, submit_time, timeout_time)
+    (account_id, gw2_account_id, challenge_id, state, gw2_api_token, creation_time, submit_time, timeout_time, next_check_time, attempts, claimed_until)
     VALUES
-    (:account_id, :gw2_account_id, :challenge_id, :state, :gw2_api_token, :creation_time, :submit_time, :timeout_time)
+    (:account_id, :gw2_account_id, :challenge_id, :state, :gw2_api_token, :creation_time, :submit_time, :timeout_time, :next_check_time, :attempts, NULL)
     ON CONFLICT (account_id, gw2_account_id) DO UPDATE SET
     challenge_id = EXCLUDED.challenge_id,
     state = EXCLUDED.state,
     gw2_api_token = EXCLUDED.gw2_api_token,
     creation_time = EXCLUDED.creation_time,
     submit_time = EXCLUDED.submit_time,
-    timeout_time = EXCLUDED.timeout_time
+    timeout_time = EXCLUDED.timeout_time,
+    next_check_time = EXCLUDED.next_check_time,
+    attempts = EXCLUDED.attempts,
+    claimed_until = EXCLUDED.claimed_until
     RETURNING *
     """)
     Gw2AccountVerificationChallengePendingEntity save(@Param("account_id") UUID accountId,
@@ -49,7 +54,9 @@ public interface Gw2AccountVerificationChallengePendingRepository extends BaseRe
                                                       @Param("gw2_api_token") String gw2ApiToken,
                                                       @Param("creation_time") Instant creationTime,
                                                       @Param("submit_time") Instant submitTime,
-                                                      @Param("timeout_time") Instant timeoutTime);
+                                                      @Param("timeout_time") Instant timeoutTime,
+                                                      @Param("next_check_time") Instant nextCheckTime,
+                                                      @Param("attempts") int attempts);
 
     @Query("SELECT * FROM gw2_account_verification_pending_challenges WHERE account_id = :account_id")
     List<Gw2AccountVerificationChallengePendingEntity> findAllByAccountId(@Param("account_id") UUID accountId);
@@ -57,8 +64,36 @@ public interface Gw2AccountVerificationChallengePendingRepository extends BaseRe
     @Query("SELECT * FROM gw2_account_verification_pending_challenges WHERE account_id = :account_id AND gw2_account_id = :gw2_account_id")
     Optional<Gw2AccountVerificationChallengePendingEntity> findByAccountIdAndGw2AccountId(@Param("account_id") UUID accountId, @Param("gw2_account_id") UUID gw2AccountId);
 
-    @Query("SELECT * FROM gw2_account_verification_pending_challenges")
-    List<Gw2AccountVerificationChallengePendingEntity> findAll();
+    // claims due challenges for this caller until :claimed_until; rows locked by a concurrent claim are skipped
+    @Query("""
+    UPDATE gw2_account_verification_pending_challenges
+    SET claimed_until = :claimed_until
+    WHERE (account_id, gw2_account_id) IN (
+        SELECT account_id, gw2_account_id
+        FROM gw2_account_verification_pending_challenges
+        WHERE next_check_time <= :now
+        AND (claimed_until IS NULL OR claimed_until <= :now)
+        ORDER BY next_check_time
+        LIMIT :limit
+        FOR UPDATE SKIP LOCKED
+    )
+    RETURNING *
+    """)
+    List<Gw2AccountVerificationChallengePendingEntity> claimAllDue(@Param("now") Instant now,
+                                                                   @Param("claimed_until") Instant claimedUntil,
+                                                                   @Param("limit") int limit);
+
+    @Query("SELECT MIN(next_check_time) FROM gw2_account_verification_pending_challenges")
+    Optional<Instant> findMinNextCheckTime();
+
+    @Modifying
+    @Query("""
+    UPDATE gw2_account_verification_pending_challenges
+    SET next_check_time = :next_check_time, attempts = attempts + 1, claimed_until = NULL
+    WHERE account_id = :account_id
+    AND gw2_account_id = :gw2_account_id
+    """)
+    boolean reschedule(@Param("account_id") UUID accountId, @Param("gw2_account_id") UUID gw2AccountId, @Param("next_check_time") Instant nextCheckTime);
 
     @Modifying
     @Query("DELETE FROM gw2_account_verification_pending_challenges WHERE account_id = :account_id AND gw2_account_id = :gw2_account_id")
@@ -0,0 +1,12 @@
+package com.gw2auth.oauth2.server.repository.lease;
+
+import org.springframework.data.relational.core.mapping.Column;
+import org.springframework.data.relational.core.mapping.Table;
+
+import java.time.Instant;
+
+@Table("leases")
+public record LeaseEntity(@Column("name") String name,
+                          @Column("owner") String owner,
+                          @Column("expiration_time") Instant expirationTime) {
+}
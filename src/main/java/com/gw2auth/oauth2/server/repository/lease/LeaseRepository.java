@@ -0,0 +1,40 @@
+package com.gw2auth.oauth2.server.repository.lease;
+
+import com.gw2auth.oauth2.server.repository.BaseRepository;
+import org.springframework.data.jdbc.repository.query.Modifying;
+import org.springframework.data.jdbc.repository.query.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+
+import java.time.Instant;
+import java.util.Optional;
+
+@Repository
+public interface LeaseRepository extends BaseRepository<LeaseEntity> {
+
+    @Override
+    default LeaseEntity save(LeaseEntity entity) {
+        throw new UnsupportedOperationException();
+    }
+
+    // takes the lease if it is free, expired or already held by the same owner
+    @Query("""
+    INSERT INTO leases
+    (name, owner, expiration_time)
+    VALUES
+    (:name, :owner, :expiration_time)
+    ON CONFLICT (name) DO UPDATE SET
+    owner = EXCLUDED.owner,
+    expiration_time = EXCLUDED.expiration_time
+    WHERE leases.owner = EXCLUDED.owner OR leases.expiration_time <= :now
+    RETURNING *
+    """)
+    Optional<LeaseEntity> tryAcquire(@Param("name") String name,
+                                     @Param("owner") String owner,
+                                     @Param("now") Instant now,
+                                     @Param("expiration_time") Instant expirationTime);
+
+    @Modifying
+    @Query("DELETE FROM leases WHERE name = :name AND owner = :owner")
+    boolean release(@Param("name") String name, @Param("owner") String owner);
+}
@@ -6,6 +6,7 @@ import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
 import java.time.Instant;
+import java.util.Optional;
 import java.util.UUID;
 
 @Repository
@@ -21,6 +22,36 @@ public interface SummaryRepository extends BaseRepository<ApplicationSummaryEnti
     """)
     ApplicationSummaryEntity getApplicationSummary();
 
+    // the counts are expensive on large tables; only one instance computes them and stores the result for all others
+    @Query("""
+    INSERT INTO application_summaries
+    (id, accounts, api_tokens, verified_gw2_accounts, client_registrations, client_authorizations, computation_time)
+    SELECT
+        1,
+        (SELECT COUNT(*) FROM accounts),
+        (SELECT COUNT(*) FROM gw2_account_api_tokens WHERE last_valid_time = last_valid_check_time),
+        (SELECT COUNT(*) FROM gw2_account_verifications),
+        (SELECT COUNT(*) FROM application_clients),
+        (SELECT COUNT(*) FROM application_client_accounts WHERE ARRAY_LENGTH(authorized_scopes, 1) > 0),
+        :now
+    ON CONFLICT (id) DO UPDATE SET
+    accounts = EXCLUDED.accounts,
+    api_tokens = EXCLUDED.api_tokens,
+    verified_gw2_accounts = EXCLUDED.verified_gw2_accounts,
+    client_registrations = EXCLUDED.client_registrations,
+    client_authorizations = EXCLUDED.client_authorizations,
+    computation_time = EXCLUDED.computation_time
+    RETURNING accounts, api_tokens, verified_gw2_accounts, client_registrations, client_authorizations
+    """)
+    ApplicationSummaryEntity computeAndStoreApplicationSummary(@Param("now") Instant now);
+
+    @Query("""
+    SELECT accounts, api_tokens, verified_gw2_accounts, client_registrations, client_authorizations
+    FROM application_summaries
+    WHERE id = 1
+    """)
+    Optional<ApplicationSummaryEntity> findStoredApplicationSummary();
+
     @Query("""
     SELECT
         (SELECT COUNT(*) FROM gw2_account_api_tokens WHERE account_id = :account_id) AS api_tokens,
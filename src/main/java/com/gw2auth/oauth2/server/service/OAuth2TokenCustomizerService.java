@@ -1,7 +1,5 @@
 package com.gw2auth.oauth2.server.service;
 
-import com.gw2auth.oauth2.server.repository.gw2account.subtoken.Gw2AccountApiSubtokenEntity;
-import com.gw2auth.oauth2.server.repository.gw2account.subtoken.Gw2AccountApiSubtokenRepository;
 import com.gw2auth.oauth2.server.service.account.AccountService;
 import com.gw2auth.oauth2.server.service.application.Application;
 import com.gw2auth.oauth2.server.service.application.ApplicationService;
@@ -21,13 +19,19 @@ import com.gw2auth.oauth2.server.service.gw2account.Gw2AccountService;
 import com.gw2auth.oauth2.server.service.gw2account.Gw2AccountWithOptionalApiToken;
 import com.gw2auth.oauth2.server.service.gw2account.apitoken.Gw2AccountApiTokenService;
 import com.gw2auth.oauth2.server.service.gw2account.apitoken.Gw2AccountApiTokenValidUpdate;
+import com.gw2auth.oauth2.server.service.gw2account.subtoken.Gw2AccountApiSubtoken;
+import com.gw2auth.oauth2.server.service.gw2account.subtoken.Gw2AccountApiSubtokenService;
 import com.gw2auth.oauth2.server.service.gw2account.verification.Gw2AccountVerificationService;
 import com.gw2auth.oauth2.server.service.user.Gw2AuthUser;
 import com.gw2auth.oauth2.server.service.user.Gw2AuthUserV2;
 import com.gw2auth.oauth2.server.util.Batch;
 import com.gw2auth.oauth2.server.util.Pair;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.security.oauth2.core.OAuth2AuthenticationException;
 import org.springframework.security.oauth2.core.OAuth2Error;
 import org.springframework.security.oauth2.core.OAuth2ErrorCodes;
@@ -51,7 +55,7 @@ import java.util.stream.Collectors;
 @Service
 public class OAuth2TokenCustomizerService implements OAuth2TokenCustomizer<JwtEncodingContext>, Clocked {
 
-    private static final Duration AUTHORIZED_TOKEN_MIN_EXCESS_TIME = Duration.ofMinutes(20L);
+    private static final Duration AUTHORIZED_TOKEN_MIN_EXCESS_TIME = Gw2AccountApiSubtokenService.MIN_REMAINING_VALIDITY;
 
     private final AccountService accountService;
     private final Gw2AccountService gw2AccountService;
@@ -63,9 +67,14 @@ public class OAuth2TokenCustomizerService implements OAuth2TokenCustomizer<JwtEn
     private final ApplicationClientAuthorizationService applicationClientAuthorizationService;
     private final Gw2AccountVerificationService gw2AccountVerificationService;
     private final Gw2ApiService gw2APIService;
-    private final Gw2AccountApiSubtokenRepository gw2AccountApiSubtokenRepository;
+    private final Gw2AccountApiSubtokenService gw2AccountApiSubtokenService;
     private final ExecutorService gw2ApiClientExecutorService;
     private final ExecutorService asyncTasksExecutorService;
+    private final int subTokenBatchMaxConcurrency;
+    private final Timer subTokenBatchTimer;
+    private final Counter subTokenBatchCompletedCounter;
+    private final Counter subTokenBatchTimedOutCounter;
+    private final Counter subTokenBatchCancelledCounter;
     private Clock clock;
 
     @Autowired
@@ -79,9 +88,11 @@ public class OAuth2TokenCustomizerService implements OAuth2TokenCustomizer<JwtEn
                                         ApplicationClientAuthorizationService applicationClientAuthorizationService,
                                         Gw2AccountVerificationService gw2AccountVerificationService,
                                         Gw2ApiService gw2APIService,
-                                        Gw2AccountApiSubtokenRepository gw2AccountApiSubtokenRepository,
+                                        Gw2AccountApiSubtokenService gw2AccountApiSubtokenService,
                                         @Qualifier("gw2-api-client-executor-service") ExecutorService gw2ApiClientExecutorService,
-                                        @Qualifier("async-tasks-executor-service") ExecutorService asyncTasksExecutorService) {
+                                        @Qualifier("async-tasks-executor-service") ExecutorService asyncTasksExecutorService,
+                                        @Value("${com.gw2auth.subtoken.batch.max-concurrency:8}") int subTokenBatchMaxConcurrency,
+                                        MeterRegistry meterRegistry) {
 
         this.accountService = accountService;
         this.gw2AccountService = gw2AccountService;
@@ -93,9 +104,14 @@ public class OAuth2TokenCustomizerService implements OAuth2TokenCustomizer<JwtEn
         this.applicationClientAuthorizationService = applicationClientAuthorizationService;
         this.gw2AccountVerificationService = gw2AccountVerificationService;
         this.gw2APIService = gw2APIService;
-        this.gw2AccountApiSubtokenRepository = gw2AccountApiSubtokenRepository;
+        this.gw2AccountApiSubtokenService = gw2AccountApiSubtokenService;
         this.gw2ApiClientExecutorService = gw2ApiClientExecutorService;
         this.asyncTasksExecutorService = asyncTasksExecutorService;
+        this.subTokenBatchMaxConcurrency = subTokenBatchMaxConcurrency;
+        this.subTokenBatchTimer = meterRegistry.timer("gw2auth_batch_duration", "batch", "subtokens");
+        this.subTokenBatchCompletedCounter = meterRegistry.counter("gw2auth_batch_tasks", "batch", "subtokens", "result", "completed");
+        this.subTokenBatchTimedOutCounter = meterRegistry.counter("gw2auth_batch_tasks", "batch", "subtokens", "result", "timed_out");
+        this.subTokenBatchCancelledCounter = meterRegistry.counter("gw2auth_batch_tasks", "batch", "subtokens", "result", "cancelled");
         this.clock = Clock.systemUTC();
     }
 
@@ -255,7 +271,7 @@ public class OAuth2TokenCustomizerService implements OAuth2TokenCustomizer<JwtEn
                     if (hasGw2authVerifiedScope) {
                         final boolean isVerified = verifiedGw2AccountIds.contains(gw2AccountId);
                         tokenForJWT.put("verified", isVerified);
-                        gw2AccountLogging.log(String.format("Including verified=%s to the JWT", isVerified));
+                        gw2AccountLogging.log("Including verified to the JWT", Map.of("verified", isVerified));
                     }
 
                     tokensForJWT.put(gw2AccountId, tokenForJWT);
@@ -329,19 +345,19 @@ public class OAuth2TokenCustomizerService implements OAuth2TokenCustomizer<JwtEn
                         if (scopes.contains(OAuth2Scope.GW2ACC_NAME)) {
                             final String gw2AccountName = account.gw2AccountName();
                             gw2AccountForJWT.put("name", gw2AccountName);
-                            gw2AccountLogging.log(String.format("Including Name %s", gw2AccountName));
+                            gw2AccountLogging.log("Including Name", Map.of("gw2_account_name", gw2AccountName));
                         }
 
                         if (scopes.contains(OAuth2Scope.GW2ACC_DISPLAY_NAME)) {
                             final String displayName = account.displayName();
                             gw2AccountForJWT.put("display_name", displayName);
-                            gw2AccountLogging.log(String.format("Including Displayname %s", displayName));
+                            gw2AccountLogging.log("Including Displayname", Map.of("display_name", displayName));
                         }
 
                         if (scopes.contains(OAuth2Scope.GW2ACC_VERIFIED)) {
                             final boolean isVerified = verifiedGw2AccountIds.contains(gw2AccountId);
                             gw2AccountForJWT.put("verified", isVerified);
-                            gw2AccountLogging.log(String.format("Including verified=%s to the JWT", isVerified));
+                            gw2AccountLogging.log("Including verified to the JWT", Map.of("verified", isVerified));
                         }
 
                         if (!gw2ApiPermissions.isEmpty()) {
@@ -377,7 +393,7 @@ public class OAuth2TokenCustomizerService implements OAuth2TokenCustomizer<JwtEn
             final UUID sub = UUID.nameUUIDFromBytes(buf);
             ctx.getClaims().subject("RETRACTED-" + sub);
 
-            logging.log(String.format("Not including subject: id scope not requested; including %s", sub));
+            logging.log("Not including subject: id scope not requested; including a random one", Map.of("sub", sub));
         }
     }
 
@@ -388,18 +404,33 @@ public class OAuth2TokenCustomizerService implements OAuth2TokenCustomizer<JwtEn
                                                           Instant expirationTime,
                                                           AccountService.LoggingContext _logging) {
 
-        final int gw2ApiPermissionsBitSet = Gw2ApiPermission.toBitSet(gw2ApiPermissions);
-        final List<Gw2AccountApiSubtokenEntity> savedSubTokens = this.gw2AccountApiSubtokenRepository.findAllByAccountIdGw2AccountIdsAndGw2ApiPermissionsBitSet(userAccountId, gw2AccountIds, gw2ApiPermissionsBitSet);
+        // only consider saved subtokens of GW2 Accounts which still have a root API Token, and only those created from it
+        final Map<UUID, String> gw2ApiTokenByGw2AccountId = new HashMap<>(gw2AccountIds.size());
+        for (UUID gw2AccountId : gw2AccountIds) {
+            final Gw2AccountWithOptionalApiToken accountWithToken = accountsWithTokenByGw2AccountId.get(gw2AccountId);
+            if (accountWithToken != null && accountWithToken.optionalApiToken().isPresent()) {
+                gw2ApiTokenByGw2AccountId.put(gw2AccountId, accountWithToken.optionalApiToken().orElseThrow().gw2ApiToken());
+            }
+        }
+
         final Instant now = this.clock.instant();
         final Instant atLeastValidUntil = now.plus(AUTHORIZED_TOKEN_MIN_EXCESS_TIME);
-        final Map<UUID, Gw2AccountApiSubtokenEntity> savedSubTokenByGw2AccountId = new HashMap<>(savedSubTokens.size());
+        final List<Gw2AccountApiSubtoken> savedSubTokens;
+
+        if (gw2ApiTokenByGw2AccountId.isEmpty()) {
+            savedSubTokens = List.of();
+        } else {
+            savedSubTokens = this.gw2AccountApiSubtokenService.getSubtokens(userAccountId, gw2ApiTokenByGw2AccountId, gw2ApiPermissions, atLeastValidUntil);
+        }
+
+        final Map<UUID, Gw2AccountApiSubtoken> savedSubTokenByGw2AccountId = new HashMap<>(savedSubTokens.size());
         final Map<Instant, Integer> savedSubTokenCountByExpirationTime = new HashMap<>(savedSubTokens.size());
         Instant expirationTimeWithMostSavedSubTokens = null;
 
         // check all saved subtokens with the same permissions as this authorization
         // find the expiration time for which the most subtokens are still valid
 
-        for (Gw2AccountApiSubtokenEntity savedSubToken : savedSubTokens) {
+        for (Gw2AccountApiSubtoken savedSubToken : savedSubTokens) {
             if (savedSubToken.expirationTime().isAfter(atLeastValidUntil)) {
                 savedSubTokenByGw2AccountId.put(savedSubToken.gw2AccountId(), savedSubToken);
 
@@ -423,10 +454,10 @@ public class OAuth2TokenCustomizerService implements OAuth2TokenCustomizer<JwtEn
 
         for (UUID gw2AccountId : gw2AccountIds) {
             try (AccountService.LoggingContext logging = _logging.with(Map.of("gw2_account_id", gw2AccountId))) {
-                final Gw2AccountApiSubtokenEntity potentialExistingSubToken = savedSubTokenByGw2AccountId.get(gw2AccountId);
+                final Gw2AccountApiSubtoken potentialExistingSubToken = savedSubTokenByGw2AccountId.get(gw2AccountId);
 
                 if (potentialExistingSubToken != null && potentialExistingSubToken.expirationTime().equals(expirationTime)) {
-                    result.put(gw2AccountId, potentialExistingSubToken.gw2ApiSubtoken());
+                    result.put(gw2AccountId, potentialExistingSubToken.value());
                     logging.log("Using existing and valid subtoken");
                 } else {
                     final Gw2AccountWithOptionalApiToken accountWithToken = accountsWithTokenByGw2AccountId.get(gw2AccountId);
@@ -462,9 +493,16 @@ public class OAuth2TokenCustomizerService implements OAuth2TokenCustomizer<JwtEn
             }
         }
 
-        final Map<UUID, Gw2SubToken> newSubtokensResult = batch.build().execute(this.gw2ApiClientExecutorService, HashMap::new, 10L, TimeUnit.SECONDS);
+        final Map<UUID, Gw2SubToken> newSubtokensResult = batch.build().execute(
+                this.gw2ApiClientExecutorService,
+                HashMap::new,
+                this.subTokenBatchMaxConcurrency,
+                10L,
+                TimeUnit.SECONDS,
+                this::recordSubTokenBatchStats
+        );
         final List<Gw2AccountApiTokenValidUpdate> apiTokenValidityUpdates = new ArrayList<>(newSubtokensResult.size());
-        final List<Gw2AccountApiSubtokenEntity> apiSubTokenEntitiesToSave = new ArrayList<>(newSubtokensResult.size());
+        final List<Gw2AccountApiSubtoken> apiSubTokensToSave = new ArrayList<>(newSubtokensResult.size());
 
         for (Map.Entry<UUID, Gw2SubToken> entry : newSubtokensResult.entrySet()) {
             final UUID gw2AccountId = entry.getKey();
@@ -474,7 +512,7 @@ public class OAuth2TokenCustomizerService implements OAuth2TokenCustomizer<JwtEn
 
                 if (gw2SubToken != null) {
                     if (gw2SubToken.permissions().equals(gw2ApiPermissions)) {
-                        apiSubTokenEntitiesToSave.add(new Gw2AccountApiSubtokenEntity(userAccountId, gw2AccountId, gw2ApiPermissionsBitSet, gw2SubToken.value(), expirationTime));
+                        apiSubTokensToSave.add(new Gw2AccountApiSubtoken(userAccountId, gw2AccountId, gw2ApiPermissions, gw2SubToken.value(), expirationTime));
                         result.put(gw2AccountId, gw2SubToken.value());
                         logging.log("Using a new subtoken for this GW2 Account");
                     } else {
@@ -489,8 +527,15 @@ public class OAuth2TokenCustomizerService implements OAuth2TokenCustomizer<JwtEn
         }
 
         this.asyncTasksExecutorService.submit(() -> this.gw2AccountApiTokenService.updateApiTokensValid(now, apiTokenValidityUpdates));
-        this.asyncTasksExecutorService.submit(() -> this.gw2AccountApiSubtokenRepository.saveAll(apiSubTokenEntitiesToSave));
+        this.asyncTasksExecutorService.submit(() -> this.gw2AccountApiSubtokenService.saveSubtokens(userAccountId, gw2ApiTokenByGw2AccountId, apiSubTokensToSave));
 
         return new Pair<>(expirationTime, result);
     }
+
+    private void recordSubTokenBatchStats(Batch.Stats stats) {
+        this.subTokenBatchTimer.record(stats.duration());
+        this.subTokenBatchCompletedCounter.increment(stats.completed());
+        this.subTokenBatchTimedOutCounter.increment(stats.timedOut());
+        this.subTokenBatchCancelledCounter.increment(stats.cancelled());
+    }
 }
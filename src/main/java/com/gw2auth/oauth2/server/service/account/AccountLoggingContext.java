@@ -0,0 +1,120 @@
+package com.gw2auth.oauth2.server.service.account;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import net.logstash.logback.argument.StructuredArgument;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.Objects;
+import java.util.UUID;
+
+/**
+ * Logs account related messages with the fields of this context and all of its parents attached as a single structured argument.
+ * Contexts only reference their parent, fields are neither copied nor rendered unless the event is actually encoded.
+ * Fields of a child context (and of a single log call) take precedence over fields of the same name of its parents.
+ */
+public final class AccountLoggingContext implements AccountService.LoggingContext {
+
+    private static final Logger LOG = LoggerFactory.getLogger(AccountLoggingContext.class);
+
+    private final AccountLoggingContext parent;
+    private final UUID accountId;
+    private final Map<String, ?> fields;
+
+    private AccountLoggingContext(AccountLoggingContext parent, UUID accountId, Map<String, ?> fields) {
+        this.parent = parent;
+        this.accountId = accountId;
+        this.fields = Objects.requireNonNull(fields);
+    }
+
+    public static AccountLoggingContext root(UUID accountId, Map<String, ?> fields) {
+        return new AccountLoggingContext(null, accountId, fields);
+    }
+
+    @Override
+    public AccountService.LoggingContext with(Map<String, ?> fields) {
+        return new AccountLoggingContext(this, this.accountId, fields);
+    }
+
+    @Override
+    public void log(String message, Map<String, ?> fields) {
+        if (LOG.isInfoEnabled()) {
+            LOG.info("account log; {}", message, new Fields(this, fields));
+        }
+    }
+
+    @Override
+    public void logPersistent(String message, Map<String, ?> fields) {
+        log(message, fields);
+    }
+
+    @Override
+    public void close() {
+        // no-op
+    }
+
+    private record Fields(AccountLoggingContext context, Map<String, ?> fields) implements StructuredArgument {
+
+        @Override
+        public void writeTo(JsonGenerator generator) throws IOException {
+            generator.writeStringField("account_id", this.context.accountId.toString());
+            writeFields(generator, this.fields, null);
+
+            for (AccountLoggingContext current = this.context; current != null; current = current.parent) {
+                writeFields(generator, current.fields, current);
+            }
+        }
+
+        private void writeFields(JsonGenerator generator, Map<String, ?> fields, AccountLoggingContext level) throws IOException {
+            for (Map.Entry<String, ?> entry : fields.entrySet()) {
+                if (!isShadowed(entry.getKey(), level)) {
+                    generator.writeFieldName(entry.getKey());
+                    generator.writeObject(entry.getValue());
+                }
+            }
+        }
+
+        /**
+         * @return true if the field is also present on a level closer to the log call than the given one (null being the log call itself)
+         */
+        private boolean isShadowed(String key, AccountLoggingContext level) {
+            if (level == null) {
+                return false;
+            }
+
+            if (this.fields.containsKey(key)) {
+                return true;
+            }
+
+            for (AccountLoggingContext current = this.context; current != level; current = current.parent) {
+                if (current.fields.containsKey(key)) {
+                    return true;
+                }
+            }
+
+            return false;
+        }
+
+        @Override
+        public String toString() {
+            final StringBuilder sb = new StringBuilder("account_id=").append(this.context.accountId);
+            appendFields(sb, this.fields, null);
+
+            for (AccountLoggingContext current = this.context; current != null; current = current.parent) {
+                appendFields(sb, current.fields, current);
+            }
+
+            return sb.toString();
+        }
+
+        private void appendFields(StringBuilder sb, Map<String, ?> fields, AccountLoggingContext level) {
+            for (Map.Entry<String, ?> entry : fields.entrySet()) {
+                if (!isShadowed(entry.getKey(), level)) {
+                    sb.append(", ").append(entry.getKey()).append('=').append(entry.getValue());
+                }
+            }
+        }
+    }
+}
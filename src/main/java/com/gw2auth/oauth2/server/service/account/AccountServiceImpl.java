@@ -1,69 +1,58 @@
 package com.gw2auth.oauth2.server.service.account;
 
-import com.fasterxml.jackson.core.JsonProcessingException;
-import com.fasterxml.jackson.databind.JsonNode;
-import com.fasterxml.jackson.databind.ObjectMapper;
 import com.gw2auth.oauth2.server.repository.account.*;
 import com.gw2auth.oauth2.server.service.Clocked;
+import com.gw2auth.oauth2.server.service.ephemeral.EphemeralStateStore;
+import com.gw2auth.oauth2.server.service.gw2account.subtoken.Gw2AccountApiSubtokenService;
+import com.gw2auth.oauth2.server.service.user.Gw2AuthSessionCache;
 import com.gw2auth.oauth2.server.util.Pair;
+import com.gw2auth.oauth2.server.util.SymEncryption;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import org.slf4j.MDC;
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.http.HttpStatus;
-import org.springframework.scheduling.annotation.EnableScheduling;
-import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
-import software.amazon.awssdk.awscore.exception.AwsServiceException;
-import software.amazon.awssdk.core.ResponseInputStream;
-import software.amazon.awssdk.core.sync.RequestBody;
-import software.amazon.awssdk.services.s3.S3Client;
-import software.amazon.awssdk.services.s3.model.*;
 
-import java.io.IOException;
 import java.nio.charset.StandardCharsets;
-import java.security.SecureRandom;
 import java.time.Clock;
 import java.time.Duration;
 import java.time.Instant;
 import java.util.*;
-import java.util.concurrent.TimeUnit;
 import java.util.stream.Collectors;
 
 @Service
-@EnableScheduling
 public class AccountServiceImpl implements AccountService, Clocked {
 
     private static final Logger LOG = LoggerFactory.getLogger(AccountServiceImpl.class);
+    private static final String ADD_FEDERATION_SCOPE = "oauth2/addfederation";
 
     private final AccountRepository accountRepository;
     private final AccountFederationRepository accountFederationRepository;
     private final AccountFederationSessionRepository accountFederationSessionRepository;
-    private final S3Client s3;
-    private final String bucket;
-    private final String prefix;
-    private final ObjectMapper mapper;
+    private final EphemeralStateStore ephemeralStateStore;
+    private final Gw2AccountApiSubtokenService gw2AccountApiSubtokenService;
+    private final Gw2AuthSessionCache gw2AuthSessionCache;
+    private final Duration addFederationTtl;
     private Clock clock;
 
     @Autowired
     public AccountServiceImpl(AccountRepository accountRepository,
                               AccountFederationRepository accountFederationRepository,
                               AccountFederationSessionRepository accountFederationSessionRepository,
-                              @Qualifier("oauth2-add-federation-s3-client") S3Client s3,
-                              @Value("${com.gw2auth.oauth2.addfederation.s3.bucket}") String bucket,
-                              @Value("${com.gw2auth.oauth2.addfederation.s3.prefix}") String prefix,
-                              ObjectMapper mapper) {
+                              EphemeralStateStore ephemeralStateStore,
+                              Gw2AccountApiSubtokenService gw2AccountApiSubtokenService,
+                              Gw2AuthSessionCache gw2AuthSessionCache,
+                              @Value("${com.gw2auth.oauth2.addfederation.ttl:PT10M}") Duration addFederationTtl) {
 
         this.accountRepository = accountRepository;
         this.accountFederationRepository = accountFederationRepository;
         this.accountFederationSessionRepository = accountFederationSessionRepository;
-        this.s3 = s3;
-        this.bucket = bucket;
-        this.prefix = prefix;
-        this.mapper = mapper;
+        this.ephemeralStateStore = ephemeralStateStore;
+        this.gw2AccountApiSubtokenService = gw2AccountApiSubtokenService;
+        this.gw2AuthSessionCache = gw2AuthSessionCache;
+        this.addFederationTtl = addFederationTtl;
         this.clock = Clock.systemUTC();
     }
 
@@ -87,7 +76,7 @@ public class AccountServiceImpl implements AccountService, Clocked {
     public AccountFederationSession createNewSession(String issuer, String idAtIssuer, byte[] metadata) {
         final Instant now = this.clock.instant();
         final byte[] sessionIdBytes = new byte[64];
-        new SecureRandom().nextBytes(sessionIdBytes);
+        SymEncryption.secureRandom().nextBytes(sessionIdBytes);
 
         final AccountFederationSessionEntity entity = this.accountFederationSessionRepository.save(new AccountFederationSessionEntity(
                 Base64.getUrlEncoder().withoutPadding().encodeToString(sessionIdBytes),
@@ -123,33 +112,14 @@ public class AccountServiceImpl implements AccountService, Clocked {
 
     @Override
     public void prepareAddFederation(UUID accountId, String issuer) {
-        final PutObjectRequest s3Request = PutObjectRequest.builder()
-                .bucket(this.bucket)
-                .key(this.prefix + accountId)
-                .build();
-
-        this.s3.putObject(s3Request, RequestBody.fromString(issuer, StandardCharsets.UTF_8));
+        this.ephemeralStateStore.put(ADD_FEDERATION_SCOPE, accountId.toString(), issuer.getBytes(StandardCharsets.UTF_8), this.addFederationTtl);
     }
 
     @Override
     public boolean checkAndDeletePrepareAddFederation(UUID accountId, String issuer) {
-        final GetObjectRequest s3Request = GetObjectRequest.builder()
-                .bucket(this.bucket)
-                .key(this.prefix + accountId)
-                .build();
-
-        try (ResponseInputStream<GetObjectResponse> s3Object = this.s3.getObject(s3Request)) {
-            this.s3.deleteObject(
-                    DeleteObjectRequest.builder()
-                            .bucket(this.bucket)
-                            .key(this.prefix + accountId)
-                            .build()
-            );
-
-            return new String(s3Object.readAllBytes(), StandardCharsets.UTF_8).equals(issuer);
-        } catch (AwsServiceException | IOException e) {
-            return false;
-        }
+        return this.ephemeralStateStore.remove(ADD_FEDERATION_SCOPE, accountId.toString())
+                .map((data) -> new String(data, StandardCharsets.UTF_8).equals(issuer))
+                .orElse(false);
     }
 
     @Override
@@ -196,7 +166,7 @@ public class AccountServiceImpl implements AccountService, Clocked {
 
     @Override
     public LoggingContext log(UUID accountId, Map<String, ?> fields) {
-        return new RootLoggingContext(this.mapper, accountId, fields);
+        return AccountLoggingContext.root(accountId, fields);
     }
 
     @Override
@@ -209,18 +179,30 @@ public class AccountServiceImpl implements AccountService, Clocked {
             throw new AccountServiceException("Can't delete the last federation of an account", HttpStatus.NOT_ACCEPTABLE);
         }
 
-        return this.accountFederationRepository.deleteByAccountIdAndIssuerAndIdAtIssuer(accountId, issuer, idAtIssuer);
+        final boolean deleted = this.accountFederationRepository.deleteByAccountIdAndIssuerAndIdAtIssuer(accountId, issuer, idAtIssuer);
+        if (deleted) {
+            this.gw2AuthSessionCache.evictAccount(accountId);
+        }
+
+        return deleted;
     }
 
     @Override
     public boolean deleteSession(UUID accountId, String sessionId) {
-        return this.accountFederationSessionRepository.deleteByAccountIdAndId(accountId, sessionId);
+        final boolean deleted = this.accountFederationSessionRepository.deleteByAccountIdAndId(accountId, sessionId);
+        if (deleted) {
+            this.gw2AuthSessionCache.evictAccount(accountId);
+        }
+
+        return deleted;
     }
 
     @Override
     @Transactional
     public boolean deleteAccount(UUID accountId) {
         this.accountRepository.deleteById(accountId);
+        this.gw2AccountApiSubtokenService.evictSubtokens(accountId);
+        this.gw2AuthSessionCache.evictAccount(accountId);
         LOG.info("the account {} has been deleted", accountId);
         return true;
     }
@@ -245,152 +227,4 @@ public class AccountServiceImpl implements AccountService, Clocked {
 
         return accountEntity;
     }
-
-    @Scheduled(fixedRate = 90L, timeUnit = TimeUnit.MINUTES)
-    public void deleteAllExpiredSessions() {
-        final int deleted = this.accountFederationSessionRepository.deleteAllExpired(this.clock.instant());
-        LOG.info("scheduled deletion of expired sessions deleted {} rows", deleted);
-    }
-
-    private static abstract class AbstractLoggingContext implements LoggingContext {
-
-        protected final Map<String, ?> fields;
-
-        protected AbstractLoggingContext(Map<String, ?> fields) {
-            this.fields = fields;
-        }
-
-        @Override
-        public final LoggingContext with(Map<String, ?> fields) {
-            return new ChildLoggingContext(this, fields);
-        }
-    }
-
-    private static final class RootLoggingContext extends AbstractLoggingContext {
-
-        private final ObjectMapper mapper;
-        private final UUID accountId;
-
-        private RootLoggingContext(ObjectMapper mapper, UUID accountId, Map<String, ?> fields) {
-            super(fields);
-            this.mapper = mapper;
-            this.accountId = accountId;
-        }
-
-        @Override
-        public void log(String message, Map<String, ?> fields) {
-            logInternal(message, fields, false);
-        }
-
-        @Override
-        public void logPersistent(String message, Map<String, ?> fields) {
-            logInternal(message, fields, true);
-        }
-
-        private void logInternal(String message, Map<String, ?> fields, boolean persistent) {
-            final Map<String, Object> combinedFields = new HashMap<>();
-            combinedFields.putAll(this.fields);
-            combinedFields.putAll(fields);
-
-            final List<MDC.MDCCloseable> mdcCloseables = new ArrayList<>();
-            for (Map.Entry<String, ?> entry : combinedFields.entrySet()) {
-                final JsonNode node = this.mapper.valueToTree(entry.getValue());
-                final String value;
-                if (node.isTextual()) {
-                    value = node.textValue();
-                } else {
-                    try {
-                        value = this.mapper.writeValueAsString(node);
-                    } catch (JsonProcessingException e) {
-                        throw new RuntimeException(e);
-                    }
-                }
-
-                mdcCloseables.add(MDC.putCloseable(entry.getKey(), value));
-            }
-
-            try (MDC.MDCCloseable mdc = MDC.putCloseable("account_id", this.accountId.toString())) {
-                try (ComposedMDCCloseable unused = new ComposedMDCCloseable(mdcCloseables)) {
-                    LOG.info("account log; {}", message);
-                }
-            }
-        }
-
-        @Override
-        public void close() {
-
-        }
-    }
-
-    private static final class ChildLoggingContext extends AbstractLoggingContext {
-
-        private final LoggingContext parent;
-
-        private ChildLoggingContext(LoggingContext parent, Map<String, ?> fields) {
-            super(fields);
-            this.parent = parent;
-        }
-
-        @Override
-        public void log(String message, Map<String, ?> fields) {
-            logInternal(message, fields, false);
-        }
-
-        @Override
-        public void logPersistent(String message, Map<String, ?> fields) {
-            logInternal(message, fields, true);
-        }
-
-        private void logInternal(String message, Map<String, ?> fields, boolean persistent) {
-            final Map<String, Object> combinedFields = new HashMap<>();
-            combinedFields.putAll(this.fields);
-            combinedFields.putAll(fields);
-
-            if (persistent) {
-                this.parent.logPersistent(message, combinedFields);
-            } else {
-                this.parent.log(message, combinedFields);
-            }
-        }
-
-        @Override
-        public void close() {
-            // no-op
-        }
-    }
-
-    private static final class ComposedMDCCloseable implements AutoCloseable {
-
-        private final Iterable<MDC.MDCCloseable> mdcCloseables;
-
-        private ComposedMDCCloseable(Iterable<MDC.MDCCloseable> mdcCloseables) {
-            this.mdcCloseables = mdcCloseables;
-        }
-
-        @Override
-        public void close() {
-            RuntimeException first = null;
-
-            for (MDC.MDCCloseable mdcCloseable : this.mdcCloseables) {
-                try {
-                    mdcCloseable.close();
-                } catch (Exception e) {
-                    first = wrap(first, e);
-                }
-            }
-
-            if (first != null) {
-                throw first;
-            }
-        }
-
-        private static RuntimeException wrap(RuntimeException first, Exception curr) {
-            if (first == null) {
-                return new RuntimeException(curr);
-            }
-
-            first.addSuppressed(curr);
-            return first;
-        }
-    }
 }
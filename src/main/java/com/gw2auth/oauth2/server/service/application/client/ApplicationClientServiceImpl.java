@@ -1,16 +1,24 @@
 package com.gw2auth.oauth2.server.service.application.client;
 
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.gw2auth.oauth2.server.adapt.CachingPasswordEncoder;
 import com.gw2auth.oauth2.server.repository.application.ApplicationRepository;
 import com.gw2auth.oauth2.server.repository.application.client.ApplicationClientEntity;
 import com.gw2auth.oauth2.server.repository.application.client.ApplicationClientRepository;
+import com.gw2auth.oauth2.server.repository.application.client.ApplicationClientVersionEntity;
 import com.gw2auth.oauth2.server.service.Clocked;
 import com.gw2auth.oauth2.server.service.OAuth2ClientApiVersion;
 import com.gw2auth.oauth2.server.service.OAuth2Scope;
 import com.gw2auth.oauth2.server.service.OAuth2ClientType;
 import com.gw2auth.oauth2.server.service.account.AccountService;
+import com.gw2auth.oauth2.server.util.SymEncryption;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.http.HttpStatus;
 import org.springframework.security.crypto.password.PasswordEncoder;
 import org.springframework.security.oauth2.core.AuthorizationGrantType;
@@ -20,13 +28,17 @@ import org.springframework.security.oauth2.server.authorization.client.Registere
 import org.springframework.security.oauth2.server.authorization.settings.ClientSettings;
 import org.springframework.security.oauth2.server.authorization.settings.OAuth2TokenFormat;
 import org.springframework.security.oauth2.server.authorization.settings.TokenSettings;
+import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 
-import java.security.SecureRandom;
 import java.time.Clock;
 import java.time.Duration;
 import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
 
 @Service
 public class ApplicationClientServiceImpl implements ApplicationClientService, RegisteredClientRepository, Clocked {
@@ -45,6 +57,7 @@ public class ApplicationClientServiceImpl implements ApplicationClientService, R
     private final ApplicationClientRepository applicationClientRepository;
     private final RedirectUriValidator redirectUriValidator;
     private final PasswordEncoder passwordEncoder;
+    private final Cache<UUID, CachedRegisteredClient> registeredClientCache;
     private Clock clock;
 
     @Autowired
@@ -52,14 +65,24 @@ public class ApplicationClientServiceImpl implements ApplicationClientService, R
                                         ApplicationRepository applicationRepository,
                                         ApplicationClientRepository applicationClientRepository,
                                         RedirectUriValidator redirectUriValidator,
-                                        PasswordEncoder passwordEncoder) {
+                                        PasswordEncoder passwordEncoder,
+                                        @Value("${com.gw2auth.application.client.cache.max-size:10000}") long cacheMaxSize,
+                                        @Value("${com.gw2auth.application.client.cache.ttl:PT10M}") Duration cacheTtl,
+                                        MeterRegistry meterRegistry) {
 
         this.accountService = accountService;
         this.applicationRepository = applicationRepository;
         this.applicationClientRepository = applicationClientRepository;
         this.redirectUriValidator = redirectUriValidator;
         this.passwordEncoder = passwordEncoder;
+        this.registeredClientCache = Caffeine.newBuilder()
+                .maximumSize(cacheMaxSize)
+                .expireAfterWrite(cacheTtl)
+                .recordStats()
+                .build();
         this.clock = Clock.systemUTC();
+
+        CaffeineCacheMetrics.monitor(meterRegistry, this.registeredClientCache, "gw2auth_registered_clients");
     }
 
     @Override
@@ -119,7 +142,8 @@ public class ApplicationClientServiceImpl implements ApplicationClientService, R
                 redirectUris,
                 false,
                 clientApiVersion.value(),
-                clientType.name()
+                clientType.name(),
+                0L
         ));
 
         this.accountService.log(
@@ -143,6 +167,7 @@ public class ApplicationClientServiceImpl implements ApplicationClientService, R
 
         entity.redirectUris().add(redirectUri);
         entity = this.applicationClientRepository.save(entity);
+        invalidateRegisteredClient(entity.id());
 
         this.accountService.log(
                 accountId,
@@ -166,6 +191,7 @@ public class ApplicationClientServiceImpl implements ApplicationClientService, R
         }
 
         entity = this.applicationClientRepository.save(entity);
+        invalidateRegisteredClient(entity.id());
 
         this.accountService.log(
                 accountId,
@@ -182,6 +208,7 @@ public class ApplicationClientServiceImpl implements ApplicationClientService, R
         ApplicationClientEntity entity = this.applicationClientRepository.findByIdAndAccountId(id, accountId)
                 .orElseThrow(() -> new ApplicationClientServiceException(ApplicationClientServiceException.NOT_FOUND, HttpStatus.NOT_FOUND));
 
+        final String previousEncodedClientSecret = entity.clientSecret();
         final String clientSecret = generateClientSecret();
         final String encodedClientSecret = this.passwordEncoder.encode(clientSecret);
 
@@ -195,8 +222,11 @@ public class ApplicationClientServiceImpl implements ApplicationClientService, R
                 entity.redirectUris(),
                 entity.requiresApproval(),
                 entity.apiVersion(),
-                entity.type()
+                entity.type(),
+                entity.version()
         ));
+        invalidateRegisteredClient(entity.id());
+        evictVerifiedClientSecret(previousEncodedClientSecret);
 
         this.accountService.log(
                 accountId,
@@ -214,6 +244,8 @@ public class ApplicationClientServiceImpl implements ApplicationClientService, R
             throw new ApplicationClientServiceException(ApplicationClientServiceException.NOT_FOUND, HttpStatus.NOT_FOUND);
         }
 
+        invalidateRegisteredClient(id);
+
         this.accountService.log(
                 accountId,
                 "The client has been deleted",
@@ -222,7 +254,7 @@ public class ApplicationClientServiceImpl implements ApplicationClientService, R
     }
 
     private String generateClientSecret() {
-        final Random random = new SecureRandom();
+        final Random random = SymEncryption.secureRandom();
         final StringBuilder sb = new StringBuilder(CLIENT_SECRET_LENGTH);
 
         for (int i = 0; i < CLIENT_SECRET_LENGTH; i++) {
@@ -252,12 +284,28 @@ public class ApplicationClientServiceImpl implements ApplicationClientService, R
                 entity.apiVersion(),
                 entity.type()
         );
+        invalidateRegisteredClient(entity.id());
+        evictVerifiedClientSecret(entity.clientSecret());
     }
 
     @Override
     public RegisteredClient findById(String id) {
         final UUID registeredClientId = UUID.fromString(id);
-        return this.applicationClientRepository.findById(registeredClientId).map(ApplicationClientServiceImpl::registeredClientFromEntity).orElse(null);
+        final CachedRegisteredClient cached = this.registeredClientCache.getIfPresent(registeredClientId);
+
+        if (cached != null) {
+            return cached.registeredClient();
+        }
+
+        final ApplicationClientEntity entity = this.applicationClientRepository.findById(registeredClientId).orElse(null);
+        if (entity == null) {
+            return null;
+        }
+
+        final RegisteredClient registeredClient = registeredClientFromEntity(entity);
+        this.registeredClientCache.put(registeredClientId, new CachedRegisteredClient(registeredClient, entity.version()));
+
+        return registeredClient;
     }
 
     @Override
@@ -265,6 +313,46 @@ public class ApplicationClientServiceImpl implements ApplicationClientService, R
         return findById(clientId);
     }
 
+    // other nodes don't know about local changes; every change to a client increments its version
+    @Scheduled(fixedRate = 10L, timeUnit = TimeUnit.SECONDS)
+    public void invalidateChangedRegisteredClients() {
+        final Map<UUID, CachedRegisteredClient> cached = Map.copyOf(this.registeredClientCache.asMap());
+        if (cached.isEmpty()) {
+            return;
+        }
+
+        final Map<UUID, Long> versionById = this.applicationClientRepository.findAllVersionsByIds(cached.keySet()).stream()
+                .collect(Collectors.toMap(ApplicationClientVersionEntity::id, ApplicationClientVersionEntity::version));
+
+        for (Map.Entry<UUID, CachedRegisteredClient> entry : cached.entrySet()) {
+            final Long version = versionById.get(entry.getKey());
+
+            if (version == null || version != entry.getValue().version()) {
+                this.registeredClientCache.asMap().remove(entry.getKey(), entry.getValue());
+            }
+        }
+    }
+
+    private void invalidateRegisteredClient(UUID id) {
+        this.registeredClientCache.invalidate(id);
+
+        // a concurrent lookup might cache the old state before this transaction commits
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCompletion(int status) {
+                    ApplicationClientServiceImpl.this.registeredClientCache.invalidate(id);
+                }
+            });
+        }
+    }
+
+    private void evictVerifiedClientSecret(String encodedClientSecret) {
+        if (this.passwordEncoder instanceof CachingPasswordEncoder cachingPasswordEncoder) {
+            cachingPasswordEncoder.evict(encodedClientSecret);
+        }
+    }
+
     private static RegisteredClient registeredClientFromEntity(ApplicationClientEntity entity) {
         final RegisteredClient.Builder builder = RegisteredClient.withId(entity.id().toString())
                 .clientName(entity.displayName())
@@ -301,5 +389,7 @@ public class ApplicationClientServiceImpl implements ApplicationClientService, R
 
         return new SpringRegisteredClient(builder.build(), ApplicationClient.fromEntity(entity));
     }
+
+    private record CachedRegisteredClient(RegisteredClient registeredClient, long version) {}
     // endregion
 }
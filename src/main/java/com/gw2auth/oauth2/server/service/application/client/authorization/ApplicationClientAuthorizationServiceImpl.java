@@ -1,6 +1,5 @@
 package com.gw2auth.oauth2.server.service.application.client.authorization;
 
-import com.fasterxml.jackson.core.type.TypeReference;
 import com.fasterxml.jackson.databind.Module;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.gw2auth.oauth2.server.adapt.Java9CollectionJackson2Module;
@@ -9,6 +8,8 @@ import com.gw2auth.oauth2.server.repository.application.client.ApplicationClient
 import com.gw2auth.oauth2.server.repository.application.client.ApplicationClientRepository;
 import com.gw2auth.oauth2.server.repository.application.client.authorization.ApplicationClientAuthorizationEntity;
 import com.gw2auth.oauth2.server.repository.application.client.authorization.ApplicationClientAuthorizationRepository;
+import com.gw2auth.oauth2.server.repository.application.client.authorization.ApplicationClientAuthorizationTokenIndexEntity;
+import com.gw2auth.oauth2.server.repository.application.client.authorization.ApplicationClientAuthorizationTokenIndexRepository;
 import com.gw2auth.oauth2.server.repository.application.client.authorization.ApplicationClientAuthorizationTokenEntity;
 import com.gw2auth.oauth2.server.repository.application.client.authorization.ApplicationClientAuthorizationTokenRepository;
 import com.gw2auth.oauth2.server.service.Clocked;
@@ -20,14 +21,15 @@ import com.gw2auth.oauth2.server.service.user.Gw2AuthUser;
 import com.gw2auth.oauth2.server.service.user.Gw2AuthUserMixin;
 import com.gw2auth.oauth2.server.service.user.Gw2AuthUserV2;
 import com.gw2auth.oauth2.server.service.user.Gw2AuthUserV2Mixin;
+import com.gw2auth.oauth2.server.util.Sha256;
+import com.gw2auth.oauth2.server.util.SymEncryption;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.core.env.Environment;
 import org.springframework.core.env.Profiles;
 import org.springframework.http.HttpStatus;
-import org.springframework.scheduling.annotation.EnableScheduling;
-import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.security.jackson2.SecurityJackson2Modules;
 import org.springframework.security.oauth2.core.*;
 import org.springframework.security.oauth2.core.endpoint.OAuth2AuthorizationRequest;
@@ -43,29 +45,35 @@ import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 import org.springframework.util.StringUtils;
 
-import java.io.IOException;
+import java.security.MessageDigest;
 import java.security.Principal;
 import java.time.Clock;
+import java.time.Duration;
 import java.time.Instant;
 import java.util.*;
-import java.util.concurrent.TimeUnit;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
 @Service
-@EnableScheduling
 public class ApplicationClientAuthorizationServiceImpl implements ApplicationClientAuthorizationService, OAuth2AuthorizationService, Clocked {
 
     private static final Logger LOG = LoggerFactory.getLogger(ApplicationClientAuthorizationServiceImpl.class);
+    // marks an access token of which only the hash is known; its token value is random, never persisted and never matches a presented token
+    static final String ACCESS_TOKEN_HASH_METADATA_NAME = "metadata.token.gw2auth.hash";
+    // the random value the marked access token was built with; spring copies metadata onto replacing tokens, so the hash only applies while the value is unchanged
+    static final String ACCESS_TOKEN_PLACEHOLDER_METADATA_NAME = "metadata.token.gw2auth.placeholder";
+    private static final Set<String> ATTRIBUTES_READING_TOKEN_TYPES = Set.of(OAuth2ParameterNames.STATE, OAuth2ParameterNames.CODE, OAuth2ParameterNames.REFRESH_TOKEN);
 
     private final AccountService accountService;
     private final ApplicationClientRepository applicationClientRepository;
     private final ApplicationClientAuthorizationRepository applicationClientAuthorizationRepository;
     private final ApplicationClientAuthorizationTokenRepository applicationClientAuthorizationTokenRepository;
+    private final ApplicationClientAuthorizationTokenIndexRepository applicationClientAuthorizationTokenIndexRepository;
     private final RegisteredClientRepository registeredClientRepository;
     private final AuthorizationCodeParamAccessor authorizationCodeParamAccessor;
-    private final ObjectMapper objectMapper;
+    private final AuthorizationDataCodec authorizationDataCodec;
     private final boolean isTest;
+    private final boolean storeAccessTokenValue;
     private Clock clock;
 
     @Autowired
@@ -74,27 +82,33 @@ public class ApplicationClientAuthorizationServiceImpl implements ApplicationCli
                                                      ApplicationClientRepository applicationClientRepository,
                                                      ApplicationClientAuthorizationRepository applicationClientAuthorizationRepository,
                                                      ApplicationClientAuthorizationTokenRepository applicationClientAuthorizationTokenRepository,
+                                                     ApplicationClientAuthorizationTokenIndexRepository applicationClientAuthorizationTokenIndexRepository,
                                                      RegisteredClientRepository registeredClientRepository,
-                                                     AuthorizationCodeParamAccessor authorizationCodeParamAccessor) {
+                                                     AuthorizationCodeParamAccessor authorizationCodeParamAccessor,
+                                                     @Value("${com.gw2auth.oauth2.access-token.store-value:false}") boolean storeAccessTokenValue) {
         this.accountService = accountService;
 
         this.applicationClientRepository = applicationClientRepository;
         this.applicationClientAuthorizationRepository = applicationClientAuthorizationRepository;
         this.applicationClientAuthorizationTokenRepository = applicationClientAuthorizationTokenRepository;
+        this.applicationClientAuthorizationTokenIndexRepository = applicationClientAuthorizationTokenIndexRepository;
         this.registeredClientRepository = registeredClientRepository;
         this.authorizationCodeParamAccessor = authorizationCodeParamAccessor;
-        this.objectMapper = new ObjectMapper();
         this.isTest = environment.acceptsProfiles(Profiles.of("test"));
+        this.storeAccessTokenValue = storeAccessTokenValue;
         this.clock = Clock.systemUTC();
 
+        final ObjectMapper objectMapper = new ObjectMapper();
         final ClassLoader classLoader = ApplicationClientAuthorizationServiceImpl.class.getClassLoader();
         final List<Module> securityModules = SecurityJackson2Modules.getModules(classLoader);
-        this.objectMapper.registerModules(securityModules);
-        this.objectMapper.registerModule(new OAuth2AuthorizationServerJackson2Module());
-        this.objectMapper.registerModule(new Java9CollectionJackson2Module());
-        this.objectMapper.registerModule(new LinkedHashSetJackson2Module());
-        this.objectMapper.addMixIn(Gw2AuthUser.class, Gw2AuthUserMixin.class);
-        this.objectMapper.addMixIn(Gw2AuthUserV2.class, Gw2AuthUserV2Mixin.class);
+        objectMapper.registerModules(securityModules);
+        objectMapper.registerModule(new OAuth2AuthorizationServerJackson2Module());
+        objectMapper.registerModule(new Java9CollectionJackson2Module());
+        objectMapper.registerModule(new LinkedHashSetJackson2Module());
+        objectMapper.addMixIn(Gw2AuthUser.class, Gw2AuthUserMixin.class);
+        objectMapper.addMixIn(Gw2AuthUserV2.class, Gw2AuthUserV2Mixin.class);
+
+        this.authorizationDataCodec = new AuthorizationDataCodec(objectMapper);
     }
 
     @Override
@@ -171,8 +185,29 @@ public class ApplicationClientAuthorizationServiceImpl implements ApplicationCli
 
         final Map<String, Object> attributes = new HashMap<>(authorization.getAttributes());
         final Set<String> rawAuthorizedScopes = authorization.getAuthorizedScopes();
+        final String accessTokenValue;
+        final byte[] accessTokenHash;
+
+        if (accessToken.isEmpty()) {
+            accessTokenValue = null;
+            accessTokenHash = null;
+        } else if (isPlaceholderAccessToken(accessToken.get())) {
+            accessTokenValue = null;
+            accessTokenHash = accessToken.get().getMetadata(ACCESS_TOKEN_HASH_METADATA_NAME);
+        } else {
+            accessTokenValue = accessToken.get().getToken().getTokenValue();
+            accessTokenHash = hashToken(accessTokenValue);
+        }
 
         final Instant now = this.clock.instant();
+        final Instant authorizationCodeExpiresAt = authorizationCode.map(this::getTokenExpiresAt).orElse(null);
+        final Instant accessTokenExpiresAt = accessToken.map(this::getTokenExpiresAt).orElse(null);
+        final Instant refreshTokenExpiresAt = refreshToken.map(this::getTokenExpiresAt).orElse(null);
+        final Instant expirationTime = Stream.of(authorizationCodeExpiresAt, accessTokenExpiresAt, refreshTokenExpiresAt)
+                .filter(Objects::nonNull)
+                .max(Comparator.naturalOrder())
+                .orElseGet(() -> now.plus(Duration.ofDays(1L)));
+
         final ApplicationClientAuthorizationEntity entity = this.applicationClientAuthorizationRepository.save(new ApplicationClientAuthorizationEntity(
                 authorization.getId(),
                 accountId,
@@ -182,24 +217,32 @@ public class ApplicationClientAuthorizationServiceImpl implements ApplicationCli
                 Optional.ofNullable(name).orElse(authorization.getId()),
                 authorization.getAuthorizationGrantType().getValue(),
                 Optional.ofNullable(rawAuthorizedScopes).orElse(Set.of()),
-                writeJson(attributes),
+                null,
+                encode(attributes),
                 authorization.getAttribute(OAuth2ParameterNames.STATE),
                 authorizationCode.map(OAuth2Authorization.Token::getToken).map(AbstractOAuth2Token::getTokenValue).orElse(null),
                 authorizationCode.map(OAuth2Authorization.Token::getToken).map(AbstractOAuth2Token::getIssuedAt).orElse(null),
-                authorizationCode.map(this::getTokenExpiresAt).orElse(null),
-                authorizationCode.map(OAuth2Authorization.Token::getMetadata).map(this::writeJson).orElse(null),
-                accessToken.map(OAuth2Authorization.Token::getToken).map(AbstractOAuth2Token::getTokenValue).orElse(null),
+                authorizationCodeExpiresAt,
+                null,
+                authorizationCode.map(OAuth2Authorization.Token::getMetadata).map(this::encode).orElse(null),
+                this.storeAccessTokenValue ? accessTokenValue : null,
+                accessTokenHash,
                 accessToken.map(OAuth2Authorization.Token::getToken).map(AbstractOAuth2Token::getIssuedAt).orElse(null),
-                accessToken.map(this::getTokenExpiresAt).orElse(null),
-                accessToken.map(OAuth2Authorization.Token::getMetadata).map(this::writeJson).orElse(null),
+                accessTokenExpiresAt,
+                null,
+                accessToken.map(OAuth2Authorization.Token::getMetadata).map(this::encodeAccessTokenMetadata).orElse(null),
                 accessToken.map(OAuth2Authorization.Token::getToken).map((v) -> v.getTokenType().getValue()).orElse(null),
                 accessToken.map(OAuth2Authorization.Token::getToken).map(OAuth2AccessToken::getScopes).orElse(Set.of()),
                 refreshToken.map(OAuth2Authorization.Token::getToken).map(AbstractOAuth2Token::getTokenValue).orElse(null),
                 refreshToken.map(OAuth2Authorization.Token::getToken).map(AbstractOAuth2Token::getIssuedAt).orElse(null),
-                refreshToken.map(this::getTokenExpiresAt).orElse(null),
-                refreshToken.map(OAuth2Authorization.Token::getMetadata).map(this::writeJson).orElse(null)
+                refreshTokenExpiresAt,
+                null,
+                refreshToken.map(OAuth2Authorization.Token::getMetadata).map(this::encode).orElse(null),
+                expirationTime
         ));
 
+        saveTokenIndex(entity);
+
         if (this.authorizationCodeParamAccessor.isInCodeRequest()) {
             final String copyGw2AccountIdsFromClientAuthorizationId = this.authorizationCodeParamAccessor.<String>getValue("COPY_FROM_CLIENT_AUTHORIZATION_ID").orElse(null);
 
@@ -256,6 +299,22 @@ public class ApplicationClientAuthorizationServiceImpl implements ApplicationCli
         }
     }
 
+    private void saveTokenIndex(ApplicationClientAuthorizationEntity entity) {
+        final Map<String, byte[]> tokenHashes = new HashMap<>(4);
+        Optional.ofNullable(entity.state()).ifPresent((v) -> tokenHashes.put(OAuth2ParameterNames.STATE, hashToken(v)));
+        Optional.ofNullable(entity.authorizationCodeValue()).ifPresent((v) -> tokenHashes.put(OAuth2ParameterNames.CODE, hashToken(v)));
+        Optional.ofNullable(entity.accessTokenHash()).ifPresent((v) -> tokenHashes.put(OAuth2ParameterNames.ACCESS_TOKEN, v));
+        Optional.ofNullable(entity.refreshTokenValue()).ifPresent((v) -> tokenHashes.put(OAuth2ParameterNames.REFRESH_TOKEN, hashToken(v)));
+
+        final List<ApplicationClientAuthorizationTokenIndexEntity> tokenIndexEntities = new ArrayList<>(tokenHashes.size());
+        for (Map.Entry<String, byte[]> entry : tokenHashes.entrySet()) {
+            tokenIndexEntities.add(new ApplicationClientAuthorizationTokenIndexEntity(entry.getValue(), entry.getKey(), entity.id()));
+        }
+
+        this.applicationClientAuthorizationTokenIndexRepository.deleteAllByApplicationClientAuthorizationId(entity.id());
+        this.applicationClientAuthorizationTokenIndexRepository.saveAll(tokenIndexEntities);
+    }
+
     @Override
     public void remove(OAuth2Authorization authorization) {
         this.applicationClientAuthorizationRepository.deleteByIdAndAccountId(authorization.getId(), UUID.fromString(authorization.getPrincipalName()));
@@ -268,16 +327,15 @@ public class ApplicationClientAuthorizationServiceImpl implements ApplicationCli
 
     @Override
     public OAuth2Authorization findByToken(String token, OAuth2TokenType tokenType) {
+        final byte[] tokenHash = hashToken(token);
         final ApplicationClientAuthorizationEntity entity;
 
         if (tokenType == null) {
-            entity = this.applicationClientAuthorizationRepository.findByAnyToken(token).orElse(null);
+            entity = this.applicationClientAuthorizationRepository.findByAnyTokenHash(tokenHash).orElse(null);
         } else {
             entity = switch (tokenType.getValue()) {
-                case OAuth2ParameterNames.STATE -> this.applicationClientAuthorizationRepository.findByState(token).orElse(null);
-                case OAuth2ParameterNames.CODE -> this.applicationClientAuthorizationRepository.findByAuthorizationCode(token).orElse(null);
-                case OAuth2ParameterNames.ACCESS_TOKEN -> this.applicationClientAuthorizationRepository.findByAccessToken(token).orElse(null);
-                case OAuth2ParameterNames.REFRESH_TOKEN -> this.applicationClientAuthorizationRepository.findByRefreshToken(token).orElse(null);
+                case OAuth2ParameterNames.STATE, OAuth2ParameterNames.CODE, OAuth2ParameterNames.ACCESS_TOKEN, OAuth2ParameterNames.REFRESH_TOKEN ->
+                        this.applicationClientAuthorizationRepository.findByTokenHash(tokenHash, tokenType.getValue()).orElse(null);
                 default -> null;
             };
         }
@@ -292,13 +350,19 @@ public class ApplicationClientAuthorizationServiceImpl implements ApplicationCli
             return null;
         }
 
+        // only the data required for the token type which is looked up is decoded:
+        // attributes are only read by flows looking up by state, code or refresh token (introspection, revocation and userinfo don't read them)
+        // objects of attributes and metadata which are not decoded are written back unchanged on save
+        final boolean deferAttributes = tokenType == null || !ATTRIBUTES_READING_TOKEN_TYPES.contains(tokenType.getValue());
+        final String lookupTokenType = tokenType != null ? tokenType.getValue() : findMatchingTokenType(entity, tokenHash);
+
         OAuth2Authorization.Builder builder = OAuth2Authorization
                 .withRegisteredClient(registeredClient)
                 .id(entity.id())
                 .principalName(entity.accountId().toString())
                 .authorizationGrantType(new AuthorizationGrantType(entity.authorizationGrantType()));
 
-        final Map<String, Object> attributes = readJson(entity.attributes());
+        final Map<String, Object> attributes = decode(entity.attributesBytes(), entity.attributes(), deferAttributes);
 
         if (entity.authorizedScopes() != null) {
             builder.authorizedScopes(entity.authorizedScopes());
@@ -315,14 +379,13 @@ public class ApplicationClientAuthorizationServiceImpl implements ApplicationCli
         final String authorizationCodeValue = entity.authorizationCodeValue();
         if (authorizationCodeValue != null) {
             final OAuth2AuthorizationCode authorizationCode = new OAuth2AuthorizationCode(authorizationCodeValue, entity.authorizationCodeIssuedAt(), entity.authorizationCodeExpiresAt());
-            final Map<String, Object> tokenMetadata = readJson(entity.authorizationCodeMetadata());
+            final Map<String, Object> tokenMetadata = decode(entity.authorizationCodeMetadataBytes(), entity.authorizationCodeMetadata(), !OAuth2ParameterNames.CODE.equals(lookupTokenType));
 
             builder.token(authorizationCode, (metadata) -> metadata.putAll(tokenMetadata));
         }
 
         // access token
-        final String accessTokenValue = entity.accessTokenValue();
-        if (accessTokenValue != null) {
+        if (entity.accessTokenValue() != null || entity.accessTokenHash() != null) {
             OAuth2AccessToken.TokenType accessTokenType = null;
             if (OAuth2AccessToken.TokenType.BEARER.getValue().equalsIgnoreCase(entity.accessTokenType())) {
                 accessTokenType = OAuth2AccessToken.TokenType.BEARER;
@@ -333,8 +396,21 @@ public class ApplicationClientAuthorizationServiceImpl implements ApplicationCli
                 scopes = Set.of();
             }
 
+            final String accessTokenValue;
+            final Map<String, Object> tokenMetadata = decode(entity.accessTokenMetadataBytes(), entity.accessTokenMetadata(), !OAuth2ParameterNames.ACCESS_TOKEN.equals(lookupTokenType));
+
+            if (entity.accessTokenValue() != null) {
+                // written before only the hash was persisted, or with store-value enabled
+                accessTokenValue = entity.accessTokenValue();
+            } else if (MessageDigest.isEqual(entity.accessTokenHash(), tokenHash)) {
+                accessTokenValue = token;
+            } else {
+                accessTokenValue = randomTokenValue();
+                tokenMetadata.put(ACCESS_TOKEN_HASH_METADATA_NAME, entity.accessTokenHash());
+                tokenMetadata.put(ACCESS_TOKEN_PLACEHOLDER_METADATA_NAME, accessTokenValue);
+            }
+
             final OAuth2AccessToken accessToken = new OAuth2AccessToken(accessTokenType, accessTokenValue, entity.accessTokenIssuedAt(), entity.accessTokenExpiresAt(), scopes);
-            final Map<String, Object> tokenMetadata = readJson(entity.accessTokenMetadata());
 
             builder.token(accessToken, (metadata) -> metadata.putAll(tokenMetadata));
         }
@@ -343,7 +419,7 @@ public class ApplicationClientAuthorizationServiceImpl implements ApplicationCli
         final String refreshTokenValue = entity.refreshTokenValue();
         if (refreshTokenValue != null) {
             final OAuth2RefreshToken refreshToken = new OAuth2RefreshToken(refreshTokenValue, entity.refreshTokenIssuedAt(), entity.refreshTokenExpiresAt());
-            final Map<String, Object> tokenMetadata = readJson(entity.refreshTokenMetadata());
+            final Map<String, Object> tokenMetadata = decode(entity.refreshTokenMetadataBytes(), entity.refreshTokenMetadata(), !OAuth2ParameterNames.REFRESH_TOKEN.equals(lookupTokenType));
 
             builder.token(refreshToken, (metadata) -> metadata.putAll(tokenMetadata));
         }
@@ -351,6 +427,16 @@ public class ApplicationClientAuthorizationServiceImpl implements ApplicationCli
         return builder.build();
     }
 
+    private static String findMatchingTokenType(ApplicationClientAuthorizationEntity entity, byte[] tokenHash) {
+        if (entity.accessTokenHash() != null && MessageDigest.isEqual(entity.accessTokenHash(), tokenHash)) {
+            return OAuth2ParameterNames.ACCESS_TOKEN;
+        } else if (entity.refreshTokenValue() != null && MessageDigest.isEqual(hashToken(entity.refreshTokenValue()), tokenHash)) {
+            return OAuth2ParameterNames.REFRESH_TOKEN;
+        }
+
+        return null;
+    }
+
     private Instant getTokenExpiresAt(OAuth2Authorization.Token<?> token) {
         final Instant expiresAt;
 
@@ -370,26 +456,45 @@ public class ApplicationClientAuthorizationServiceImpl implements ApplicationCli
         return expiresAt;
     }
 
-    private String writeJson(Map<String, Object> object) {
-        try {
-            return this.objectMapper.writeValueAsString(object);
-        } catch (IOException e) {
-            throw new IllegalArgumentException(e.getMessage(), e);
-        }
+    private static byte[] hashToken(String token) {
+        return Sha256.digest(token);
+    }
+
+    private static boolean isPlaceholderAccessToken(OAuth2Authorization.Token<OAuth2AccessToken> accessToken) {
+        return accessToken.getMetadata(ACCESS_TOKEN_HASH_METADATA_NAME) instanceof byte[]
+                && accessToken.getToken().getTokenValue().equals(accessToken.getMetadata(ACCESS_TOKEN_PLACEHOLDER_METADATA_NAME));
+    }
+
+    private static String randomTokenValue() {
+        final byte[] value = new byte[32];
+        SymEncryption.secureRandom().nextBytes(value);
+
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(value);
     }
 
-    private Map<String, Object> readJson(String data) {
-        try {
-            return this.objectMapper.readValue(data, new TypeReference<>() {});
-        } catch (Exception e) {
-            throw new IllegalArgumentException(e.getMessage(), e);
+    private byte[] encodeAccessTokenMetadata(Map<String, Object> metadata) {
+        if (!metadata.containsKey(ACCESS_TOKEN_HASH_METADATA_NAME) && !metadata.containsKey(ACCESS_TOKEN_PLACEHOLDER_METADATA_NAME)) {
+            return encode(metadata);
         }
+
+        final Map<String, Object> persistedMetadata = new HashMap<>(metadata);
+        persistedMetadata.remove(ACCESS_TOKEN_HASH_METADATA_NAME);
+        persistedMetadata.remove(ACCESS_TOKEN_PLACEHOLDER_METADATA_NAME);
+
+        return encode(persistedMetadata);
     }
-    // endregion
 
-    @Scheduled(fixedRate = 90L, timeUnit = TimeUnit.MINUTES)
-    public void deleteAllExpiredAuthorizations() {
-        final int deleted = this.applicationClientAuthorizationRepository.deleteAllExpired(this.clock.instant());
-        LOG.info("scheduled deletion of expired authorizations deleted {} rows", deleted);
+    private byte[] encode(Map<String, Object> data) {
+        return this.authorizationDataCodec.encode(data);
+    }
+
+    private Map<String, Object> decode(byte[] data, String legacyData, boolean deferObjects) {
+        if (data != null) {
+            return this.authorizationDataCodec.decode(data, deferObjects);
+        }
+
+        // written before the binary columns existed
+        return this.authorizationDataCodec.decodeLegacy(legacyData);
     }
+    // endregion
 }
@@ -0,0 +1,404 @@
+package com.gw2auth.oauth2.server.service.application.client.authorization;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.gw2auth.oauth2.server.adapt.Gw2AuthAuthenticationManagerResolver;
+import com.gw2auth.oauth2.server.service.user.Gw2AuthUserV2;
+import org.springframework.security.oauth2.core.AuthorizationGrantType;
+import org.springframework.security.oauth2.core.endpoint.OAuth2AuthorizationRequest;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.*;
+
+/**
+ * Encodes authorization attributes and token metadata into a compact, versioned binary format.
+ * Nested maps (e.g. the claims of an access token) are only decoded once they are accessed; objects (the authorization request,
+ * the principal and values embedded as JSON) can be left encoded entirely by the caller if it knows they won't be accessed.
+ * Values of types not natively supported are embedded as JSON using the given {@link ObjectMapper}.
+ * Data written before the binary format existed (JSON text, or "v1:" prefixed Base64 text) can be read using {@link #decodeLegacy(String)}.
+ */
+final class AuthorizationDataCodec {
+
+    private static final byte VERSION = 1;
+    private static final String LEGACY_V1_PREFIX = "v1:";
+
+    private static final byte TYPE_NULL = 0;
+    private static final byte TYPE_TRUE = 1;
+    private static final byte TYPE_FALSE = 2;
+    private static final byte TYPE_STRING = 3;
+    private static final byte TYPE_INT = 4;
+    private static final byte TYPE_LONG = 5;
+    private static final byte TYPE_DOUBLE = 6;
+    private static final byte TYPE_INSTANT = 7;
+    private static final byte TYPE_LIST = 8;
+    private static final byte TYPE_SET = 9;
+    private static final byte TYPE_MAP = 10;
+    private static final byte TYPE_JSON = 11;
+    private static final byte TYPE_AUTHORIZATION_REQUEST = 12;
+    private static final byte TYPE_USER_AUTHENTICATION = 13;
+
+    private static final String JSON_VALUE_KEY = "v";
+
+    private final ObjectMapper objectMapper;
+
+    AuthorizationDataCodec(ObjectMapper objectMapper) {
+        this.objectMapper = objectMapper;
+    }
+
+    byte[] encode(Map<String, Object> map) {
+        final ByteArrayOutputStream bos = new ByteArrayOutputStream();
+
+        try (DataOutputStream out = new DataOutputStream(bos)) {
+            out.writeByte(VERSION);
+            writeMapBody(out, map);
+        } catch (IOException e) {
+            throw new IllegalArgumentException(e.getMessage(), e);
+        }
+
+        return bos.toByteArray();
+    }
+
+    Map<String, Object> decode(byte[] data) {
+        return decode(data, false);
+    }
+
+    /**
+     * @param deferObjects if true, top-level objects are returned as {@link Deferred} values which are written back unchanged by {@link #encode(Map)}
+     */
+    Map<String, Object> decode(byte[] data, boolean deferObjects) {
+        try {
+            final ByteBuffer buf = ByteBuffer.wrap(data);
+            final byte version = buf.get();
+            if (version != VERSION) {
+                throw new IOException("unknown version " + version);
+            }
+
+            return readMapBody(buf, deferObjects);
+        } catch (Exception e) {
+            throw new IllegalArgumentException(e.getMessage(), e);
+        }
+    }
+
+    Map<String, Object> decodeLegacy(String data) {
+        try {
+            if (data.startsWith(LEGACY_V1_PREFIX)) {
+                final byte[] bytes = Base64.getDecoder().decode(data.substring(LEGACY_V1_PREFIX.length()));
+                return readMapBody(ByteBuffer.wrap(bytes), false);
+            }
+
+            return this.objectMapper.readValue(data, new TypeReference<>() {});
+        } catch (Exception e) {
+            throw new IllegalArgumentException(e.getMessage(), e);
+        }
+    }
+
+    private void writeMapBody(DataOutputStream out, Map<?, ?> map) throws IOException {
+        out.writeInt(map.size());
+
+        for (Map.Entry<?, ?> entry : map.entrySet()) {
+            writeString(out, (String) entry.getKey());
+            writeValue(out, entry.getValue());
+        }
+    }
+
+    private void writeValue(DataOutputStream out, Object value) throws IOException {
+        switch (value) {
+            case null -> out.writeByte(TYPE_NULL);
+            case Boolean v -> out.writeByte(v ? TYPE_TRUE : TYPE_FALSE);
+            case String v -> {
+                out.writeByte(TYPE_STRING);
+                writeString(out, v);
+            }
+            case Integer v -> {
+                out.writeByte(TYPE_INT);
+                out.writeInt(v);
+            }
+            case Long v -> {
+                out.writeByte(TYPE_LONG);
+                out.writeLong(v);
+            }
+            case Double v -> {
+                out.writeByte(TYPE_DOUBLE);
+                out.writeDouble(v);
+            }
+            case Instant v -> {
+                out.writeByte(TYPE_INSTANT);
+                out.writeLong(v.getEpochSecond());
+                out.writeInt(v.getNano());
+            }
+            case LazyMap v when v.isEncoded() -> {
+                // never accessed since it was read, write it back as-is
+                out.writeByte(TYPE_MAP);
+                out.writeInt(v.length);
+                out.write(v.bytes, v.offset, v.length);
+            }
+            case Deferred v -> {
+                out.writeByte(v.type);
+                out.writeInt(v.length);
+                out.write(v.bytes, v.offset, v.length);
+            }
+            case Map<?, ?> v when v.keySet().stream().allMatch(String.class::isInstance) -> {
+                final ByteArrayOutputStream bos = new ByteArrayOutputStream();
+                try (DataOutputStream mapOut = new DataOutputStream(bos)) {
+                    writeMapBody(mapOut, v);
+                }
+
+                writeLengthPrefixed(out, TYPE_MAP, bos);
+            }
+            case Set<?> v -> writeCollection(out, TYPE_SET, v);
+            case List<?> v -> writeCollection(out, TYPE_LIST, v);
+            case OAuth2AuthorizationRequest v when AuthorizationGrantType.AUTHORIZATION_CODE.equals(v.getGrantType()) -> {
+                final ByteArrayOutputStream bos = new ByteArrayOutputStream();
+                try (DataOutputStream requestOut = new DataOutputStream(bos)) {
+                    writeAuthorizationRequest(requestOut, v);
+                }
+
+                writeLengthPrefixed(out, TYPE_AUTHORIZATION_REQUEST, bos);
+            }
+            case Gw2AuthAuthenticationManagerResolver.Gw2AuthUserAuthentication v when v.getPrincipal() instanceof Gw2AuthUserV2 user -> {
+                final ByteArrayOutputStream bos = new ByteArrayOutputStream();
+                try (DataOutputStream authenticationOut = new DataOutputStream(bos)) {
+                    authenticationOut.writeLong(user.getAccountId().getMostSignificantBits());
+                    authenticationOut.writeLong(user.getAccountId().getLeastSignificantBits());
+                    writeValue(authenticationOut, user.getIssuer());
+                    writeValue(authenticationOut, user.getIdAtIssuer());
+                    authenticationOut.writeBoolean(v.isAuthenticated());
+                }
+
+                writeLengthPrefixed(out, TYPE_USER_AUTHENTICATION, bos);
+            }
+            default -> {
+                final Map<String, Object> wrapper = new HashMap<>(1);
+                wrapper.put(JSON_VALUE_KEY, value);
+
+                final byte[] json = this.objectMapper.writeValueAsBytes(wrapper);
+                out.writeByte(TYPE_JSON);
+                out.writeInt(json.length);
+                out.write(json);
+            }
+        }
+    }
+
+    private void writeAuthorizationRequest(DataOutputStream out, OAuth2AuthorizationRequest request) throws IOException {
+        writeString(out, request.getAuthorizationUri());
+        writeString(out, request.getClientId());
+        writeValue(out, request.getRedirectUri());
+        writeValue(out, request.getScopes());
+        writeValue(out, request.getState());
+        writeMapBody(out, request.getAdditionalParameters());
+        writeString(out, request.getAuthorizationRequestUri());
+        writeMapBody(out, request.getAttributes());
+    }
+
+    private void writeCollection(DataOutputStream out, byte type, Collection<?> values) throws IOException {
+        out.writeByte(type);
+        out.writeInt(values.size());
+
+        for (Object value : values) {
+            writeValue(out, value);
+        }
+    }
+
+    private static void writeLengthPrefixed(DataOutputStream out, byte type, ByteArrayOutputStream body) throws IOException {
+        out.writeByte(type);
+        out.writeInt(body.size());
+        body.writeTo(out);
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        final byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private Map<String, Object> readMapBody(ByteBuffer buf, boolean deferObjects) throws IOException {
+        final int size = buf.getInt();
+        final Map<String, Object> map = new LinkedHashMap<>(Math.max(16, size * 2));
+
+        for (int i = 0; i < size; i++) {
+            final String key = readString(buf);
+            map.put(key, readValue(buf, deferObjects));
+        }
+
+        return map;
+    }
+
+    private Object readValue(ByteBuffer buf, boolean deferObjects) throws IOException {
+        final byte type = buf.get();
+
+        return switch (type) {
+            case TYPE_NULL -> null;
+            case TYPE_TRUE -> Boolean.TRUE;
+            case TYPE_FALSE -> Boolean.FALSE;
+            case TYPE_STRING -> readString(buf);
+            case TYPE_INT -> buf.getInt();
+            case TYPE_LONG -> buf.getLong();
+            case TYPE_DOUBLE -> buf.getDouble();
+            case TYPE_INSTANT -> Instant.ofEpochSecond(buf.getLong(), buf.getInt());
+            case TYPE_LIST -> readCollection(buf, new ArrayList<>());
+            case TYPE_SET -> readCollection(buf, new LinkedHashSet<>());
+            case TYPE_MAP -> {
+                final int length = buf.getInt();
+                final LazyMap map = new LazyMap(this, buf.array(), buf.arrayOffset() + buf.position(), length);
+                buf.position(buf.position() + length);
+                yield map;
+            }
+            case TYPE_JSON, TYPE_AUTHORIZATION_REQUEST, TYPE_USER_AUTHENTICATION -> {
+                final int length = buf.getInt();
+                final Deferred deferred = new Deferred(this, type, buf.array(), buf.arrayOffset() + buf.position(), length);
+                buf.position(buf.position() + length);
+                yield deferObjects ? deferred : deferred.decode();
+            }
+            default -> throw new IOException("unknown type " + type);
+        };
+    }
+
+    private Object readObject(byte type, ByteBuffer buf) throws IOException {
+        return switch (type) {
+            case TYPE_JSON -> {
+                final Map<String, Object> wrapper = this.objectMapper.readValue(buf.array(), buf.arrayOffset() + buf.position(), buf.remaining(), new TypeReference<>() {});
+                yield wrapper.get(JSON_VALUE_KEY);
+            }
+            case TYPE_AUTHORIZATION_REQUEST -> readAuthorizationRequest(buf);
+            case TYPE_USER_AUTHENTICATION -> {
+                final UUID accountId = new UUID(buf.getLong(), buf.getLong());
+                final String issuer = (String) readValue(buf, false);
+                final String idAtIssuer = (String) readValue(buf, false);
+                final boolean isAuthenticated = buf.get() != 0;
+
+                yield new Gw2AuthAuthenticationManagerResolver.Gw2AuthUserAuthentication(new Gw2AuthUserV2(accountId, issuer, idAtIssuer), isAuthenticated);
+            }
+            default -> throw new IOException("unknown object type " + type);
+        };
+    }
+
+    @SuppressWarnings("unchecked")
+    private OAuth2AuthorizationRequest readAuthorizationRequest(ByteBuffer buf) throws IOException {
+        return OAuth2AuthorizationRequest.authorizationCode()
+                .authorizationUri(readString(buf))
+                .clientId(readString(buf))
+                .redirectUri((String) readValue(buf, false))
+                .scopes((Set<String>) readValue(buf, false))
+                .state((String) readValue(buf, false))
+                .additionalParameters(readMapBody(buf, false))
+                .authorizationRequestUri(readString(buf))
+                .attributes(readMapBody(buf, false))
+                .build();
+    }
+
+    private <C extends Collection<Object>> C readCollection(ByteBuffer buf, C collection) throws IOException {
+        final int size = buf.getInt();
+        for (int i = 0; i < size; i++) {
+            collection.add(readValue(buf, false));
+        }
+
+        return collection;
+    }
+
+    private static String readString(ByteBuffer buf) {
+        final int length = buf.getInt();
+        final String value = new String(buf.array(), buf.arrayOffset() + buf.position(), length, StandardCharsets.UTF_8);
+        buf.position(buf.position() + length);
+
+        return value;
+    }
+
+    /**
+     * An object which has not been decoded.
+     */
+    static final class Deferred {
+
+        private final AuthorizationDataCodec codec;
+        private final byte type;
+        private final byte[] bytes;
+        private final int offset;
+        private final int length;
+
+        private Deferred(AuthorizationDataCodec codec, byte type, byte[] bytes, int offset, int length) {
+            this.codec = codec;
+            this.type = type;
+            this.bytes = bytes;
+            this.offset = offset;
+            this.length = length;
+        }
+
+        Object decode() {
+            try {
+                return this.codec.readObject(this.type, ByteBuffer.wrap(this.bytes, this.offset, this.length).slice());
+            } catch (IOException e) {
+                throw new IllegalArgumentException(e.getMessage(), e);
+            }
+        }
+    }
+
+    static final class LazyMap extends AbstractMap<String, Object> {
+
+        private final AuthorizationDataCodec codec;
+        private final byte[] bytes;
+        private final int offset;
+        private final int length;
+        private volatile Map<String, Object> decoded;
+
+        private LazyMap(AuthorizationDataCodec codec, byte[] bytes, int offset, int length) {
+            this.codec = codec;
+            this.bytes = bytes;
+            this.offset = offset;
+            this.length = length;
+            this.decoded = null;
+        }
+
+        boolean isEncoded() {
+            return this.decoded == null;
+        }
+
+        private Map<String, Object> delegate() {
+            Map<String, Object> map = this.decoded;
+            if (map == null) {
+                try {
+                    map = this.codec.readMapBody(ByteBuffer.wrap(this.bytes, this.offset, this.length).slice(), false);
+                } catch (IOException e) {
+                    throw new IllegalArgumentException(e.getMessage(), e);
+                }
+
+                this.decoded = map;
+            }
+
+            return map;
+        }
+
+        @Override
+        public Object get(Object key) {
+            return delegate().get(key);
+        }
+
+        @Override
+        public boolean containsKey(Object key) {
+            return delegate().containsKey(key);
+        }
+
+        @Override
+        public Object put(String key, Object value) {
+            return delegate().put(key, value);
+        }
+
+        @Override
+        public Object remove(Object key) {
+            return delegate().remove(key);
+        }
+
+        @Override
+        public int size() {
+            return delegate().size();
+        }
+
+        @Override
+        public Set<Entry<String, Object>> entrySet() {
+            return delegate().entrySet();
+        }
+    }
+}
@@ -0,0 +1,199 @@
+package com.gw2auth.oauth2.server.service.ephemeral;
+
+import com.gw2auth.oauth2.server.service.Clocked;
+import com.gw2auth.oauth2.server.util.Sha256;
+import com.gw2auth.oauth2.server.util.SymEncryption;
+import jakarta.servlet.http.Cookie;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.springframework.web.context.request.RequestAttributes;
+import org.springframework.web.context.request.RequestContextHolder;
+import org.springframework.web.context.request.ServletRequestAttributes;
+
+import javax.crypto.Cipher;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Objects;
+import java.util.Optional;
+
+/**
+ * Keeps the state in an AES-GCM encrypted cookie of the current request.
+ * The cookie name is derived from scope and id, which are also bound to the ciphertext as associated data,
+ * so a cookie can neither be modified nor replayed for another entry. The expiration time is part of the encrypted payload.
+ * Requires the current request and response to be exposed through the {@link RequestContextHolder}.
+ * Removal expires the cookie and hides the entry for the rest of the request, but a client replaying a copy of the cookie
+ * can read the entry again until it expires.
+ */
+public class CookieEphemeralStateStore implements EphemeralStateStore, Clocked {
+
+    private static final String COOKIE_NAME_PREFIX = "GW2AUTH_STATE_";
+    private static final String TRANSFORMATION = "AES/GCM/NoPadding";
+    private static final int IV_LENGTH = 12;
+    private static final int TAG_LENGTH_BITS = 128;
+    private static final byte VERSION = 1;
+    private static final String REMOVED_ATTRIBUTE_PREFIX = CookieEphemeralStateStore.class.getName() + ".removed.";
+
+    private final SecretKey key;
+    private Clock clock;
+
+    public CookieEphemeralStateStore(byte[] key) {
+        this.key = new SecretKeySpec(key, "AES");
+        this.clock = Clock.systemUTC();
+    }
+
+    @Override
+    public void setClock(Clock clock) {
+        this.clock = Objects.requireNonNull(clock);
+    }
+
+    @Override
+    public void put(String scope, String id, byte[] data, Duration ttl) {
+        final ServletRequestAttributes attributes = currentRequestAttributes();
+        final Instant expirationTime = this.clock.instant().plus(ttl);
+        final String name = cookieName(scope, id);
+        attributes.removeAttribute(REMOVED_ATTRIBUTE_PREFIX + name, RequestAttributes.SCOPE_REQUEST);
+
+        final Cookie cookie = new Cookie(name, encrypt(name, data, expirationTime));
+        cookie.setMaxAge((int) ttl.toSeconds());
+        cookie.setPath(cookiePath(attributes.getRequest()));
+        cookie.setSecure(attributes.getRequest().isSecure());
+        cookie.setHttpOnly(true);
+        cookie.setAttribute("SameSite", "Lax");
+
+        Objects.requireNonNull(attributes.getResponse(), "no response bound to the current request").addCookie(cookie);
+    }
+
+    @Override
+    public Optional<byte[]> get(String scope, String id) {
+        final ServletRequestAttributes attributes = currentRequestAttributes();
+        final String name = cookieName(scope, id);
+        if (attributes.getAttribute(REMOVED_ATTRIBUTE_PREFIX + name, RequestAttributes.SCOPE_REQUEST) != null) {
+            return Optional.empty();
+        }
+
+        final Cookie[] cookies = attributes.getRequest().getCookies();
+
+        if (cookies != null) {
+            for (Cookie cookie : cookies) {
+                if (cookie.getName().equals(name)) {
+                    return decrypt(name, cookie.getValue());
+                }
+            }
+        }
+
+        return Optional.empty();
+    }
+
+    @Override
+    public Optional<byte[]> remove(String scope, String id) {
+        final Optional<byte[]> data = get(scope, id);
+        final ServletRequestAttributes attributes = currentRequestAttributes();
+        final String name = cookieName(scope, id);
+        attributes.setAttribute(REMOVED_ATTRIBUTE_PREFIX + name, Boolean.TRUE, RequestAttributes.SCOPE_REQUEST);
+
+        final Cookie cookie = new Cookie(name, "");
+        cookie.setMaxAge(0);
+        cookie.setPath(cookiePath(attributes.getRequest()));
+        cookie.setSecure(attributes.getRequest().isSecure());
+        cookie.setHttpOnly(true);
+
+        Objects.requireNonNull(attributes.getResponse(), "no response bound to the current request").addCookie(cookie);
+
+        return data;
+    }
+
+    private String encrypt(String name, byte[] data, Instant expirationTime) {
+        final byte[] iv = new byte[IV_LENGTH];
+        SymEncryption.secureRandom().nextBytes(iv);
+
+        final ByteBuffer plaintext = ByteBuffer.allocate(Long.BYTES + data.length);
+        plaintext.putLong(expirationTime.getEpochSecond());
+        plaintext.put(data);
+        plaintext.flip();
+
+        final byte[] ciphertext;
+        try {
+            final Cipher cipher = Cipher.getInstance(TRANSFORMATION);
+            cipher.init(Cipher.ENCRYPT_MODE, this.key, new GCMParameterSpec(TAG_LENGTH_BITS, iv));
+            cipher.updateAAD(name.getBytes(StandardCharsets.UTF_8));
+
+            final ByteBuffer output = ByteBuffer.allocate(1 + IV_LENGTH + cipher.getOutputSize(plaintext.remaining()));
+            output.put(VERSION);
+            output.put(iv);
+            cipher.doFinal(plaintext, output);
+
+            ciphertext = Arrays.copyOf(output.array(), output.position());
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException(e);
+        }
+
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(ciphertext);
+    }
+
+    private Optional<byte[]> decrypt(String name, String value) {
+        final byte[] bytes;
+        try {
+            bytes = Base64.getUrlDecoder().decode(value);
+        } catch (IllegalArgumentException e) {
+            return Optional.empty();
+        }
+
+        if (bytes.length < 1 + IV_LENGTH + Long.BYTES || bytes[0] != VERSION) {
+            return Optional.empty();
+        }
+
+        final byte[] plaintext;
+        try {
+            final Cipher cipher = Cipher.getInstance(TRANSFORMATION);
+            cipher.init(Cipher.DECRYPT_MODE, this.key, new GCMParameterSpec(TAG_LENGTH_BITS, bytes, 1, IV_LENGTH));
+            cipher.updateAAD(name.getBytes(StandardCharsets.UTF_8));
+
+            plaintext = cipher.doFinal(bytes, 1 + IV_LENGTH, bytes.length - 1 - IV_LENGTH);
+        } catch (GeneralSecurityException e) {
+            return Optional.empty();
+        }
+
+        final ByteBuffer buf = ByteBuffer.wrap(plaintext);
+        if (!Instant.ofEpochSecond(buf.getLong()).isAfter(this.clock.instant())) {
+            return Optional.empty();
+        }
+
+        final byte[] data = new byte[buf.remaining()];
+        buf.get(data);
+
+        return Optional.of(data);
+    }
+
+    private static ServletRequestAttributes currentRequestAttributes() {
+        final RequestAttributes attributes = RequestContextHolder.currentRequestAttributes();
+        if (!(attributes instanceof ServletRequestAttributes servletRequestAttributes)) {
+            throw new IllegalStateException("no servlet request bound to the current thread");
+        }
+
+        return servletRequestAttributes;
+    }
+
+    private static String cookieName(String scope, String id) {
+        final byte[] digest = Sha256.digest((md) -> {
+            md.update(scope.getBytes(StandardCharsets.UTF_8));
+            md.update((byte) 0);
+            md.update(id.getBytes(StandardCharsets.UTF_8));
+        });
+
+        return COOKIE_NAME_PREFIX + Base64.getUrlEncoder().withoutPadding().encodeToString(Arrays.copyOf(digest, 12));
+    }
+
+    private static String cookiePath(HttpServletRequest request) {
+        final String contextPath = request.getContextPath();
+        return contextPath.isEmpty() ? "/" : contextPath;
+    }
+}
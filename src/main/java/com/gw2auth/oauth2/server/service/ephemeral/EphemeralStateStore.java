@@ -0,0 +1,24 @@
+package com.gw2auth.oauth2.server.service.ephemeral;
+
+import java.time.Duration;
+import java.util.Optional;
+
+/**
+ * Short-lived state which has to survive a redirect through a third party (e.g. an upstream OAuth2 login).
+ * Entries are addressed by a scope (the kind of state) and an id unique within that scope.
+ */
+public interface EphemeralStateStore {
+
+    void put(String scope, String id, byte[] data, Duration ttl);
+
+    Optional<byte[]> get(String scope, String id);
+
+    /**
+     * Removes the entry. Stores keeping the state server side guarantee that only one call returns the data;
+     * stores keeping it on the client (see {@link CookieEphemeralStateStore}) can only guarantee that within the same request,
+     * callers relying on single use have to bind the entry to something that is consumed server side.
+     *
+     * @return the data of the entry if it existed and was not expired
+     */
+    Optional<byte[]> remove(String scope, String id);
+}
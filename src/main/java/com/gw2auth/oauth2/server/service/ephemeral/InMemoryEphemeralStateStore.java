@@ -0,0 +1,64 @@
+package com.gw2auth.oauth2.server.service.ephemeral;
+
+import com.gw2auth.oauth2.server.service.Clocked;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Keeps the state in memory of this instance. Only suitable for local development and tests.
+ */
+public class InMemoryEphemeralStateStore implements EphemeralStateStore, Clocked {
+
+    private final Map<Key, Entry> entries;
+    private Clock clock;
+
+    public InMemoryEphemeralStateStore() {
+        this.entries = new ConcurrentHashMap<>();
+        this.clock = Clock.systemUTC();
+    }
+
+    @Override
+    public void setClock(Clock clock) {
+        this.clock = Objects.requireNonNull(clock);
+    }
+
+    @Override
+    public void put(String scope, String id, byte[] data, Duration ttl) {
+        final Instant now = this.clock.instant();
+        this.entries.values().removeIf((entry) -> entry.isExpired(now));
+        this.entries.put(new Key(scope, id), new Entry(data.clone(), now.plus(ttl)));
+    }
+
+    @Override
+    public Optional<byte[]> get(String scope, String id) {
+        return Optional.ofNullable(this.entries.get(new Key(scope, id))).flatMap(this::unlessExpired);
+    }
+
+    @Override
+    public Optional<byte[]> remove(String scope, String id) {
+        return Optional.ofNullable(this.entries.remove(new Key(scope, id))).flatMap(this::unlessExpired);
+    }
+
+    private Optional<byte[]> unlessExpired(Entry entry) {
+        if (entry.isExpired(this.clock.instant())) {
+            return Optional.empty();
+        }
+
+        return Optional.of(entry.data().clone());
+    }
+
+    private record Key(String scope, String id) {}
+
+    private record Entry(byte[] data, Instant expirationTime) {
+
+        boolean isExpired(Instant now) {
+            return !this.expirationTime.isAfter(now);
+        }
+    }
+}
@@ -0,0 +1,48 @@
+package com.gw2auth.oauth2.server.service.ephemeral;
+
+import com.gw2auth.oauth2.server.repository.ephemeral.EphemeralStateEntity;
+import com.gw2auth.oauth2.server.repository.ephemeral.EphemeralStateRepository;
+import com.gw2auth.oauth2.server.service.Clocked;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Objects;
+import java.util.Optional;
+
+/**
+ * Keeps the state in the database. Expired rows are ignored on read and deleted by the expiry sweeper.
+ */
+public class JdbcEphemeralStateStore implements EphemeralStateStore, Clocked {
+
+    private final EphemeralStateRepository ephemeralStateRepository;
+    private Clock clock;
+
+    public JdbcEphemeralStateStore(EphemeralStateRepository ephemeralStateRepository) {
+        this.ephemeralStateRepository = ephemeralStateRepository;
+        this.clock = Clock.systemUTC();
+    }
+
+    @Override
+    public void setClock(Clock clock) {
+        this.clock = Objects.requireNonNull(clock);
+    }
+
+    @Override
+    public void put(String scope, String id, byte[] data, Duration ttl) {
+        this.ephemeralStateRepository.save(new EphemeralStateEntity(scope, id, data, this.clock.instant().plus(ttl)));
+    }
+
+    @Override
+    public Optional<byte[]> get(String scope, String id) {
+        return this.ephemeralStateRepository.findByScopeAndId(scope, id, this.clock.instant()).map(EphemeralStateEntity::data);
+    }
+
+    @Override
+    public Optional<byte[]> remove(String scope, String id) {
+        final Instant now = this.clock.instant();
+        return this.ephemeralStateRepository.deleteByScopeAndId(scope, id)
+                .filter((entity) -> entity.expirationTime().isAfter(now))
+                .map(EphemeralStateEntity::data);
+    }
+}
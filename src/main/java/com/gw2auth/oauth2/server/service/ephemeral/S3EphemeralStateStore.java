@@ -0,0 +1,125 @@
+package com.gw2auth.oauth2.server.service.ephemeral;
+
+import com.gw2auth.oauth2.server.service.Clocked;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.http.HttpStatus;
+import software.amazon.awssdk.core.ResponseInputStream;
+import software.amazon.awssdk.core.sync.RequestBody;
+import software.amazon.awssdk.services.s3.model.*;
+
+import java.io.IOException;
+import java.time.Clock;
+import java.time.DateTimeException;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+
+/**
+ * Keeps the state as objects in a S3 bucket. The expiration time is stored as object metadata and checked on read,
+ * removal of expired objects is left to the lifecycle rules of the bucket.
+ */
+public class S3EphemeralStateStore implements EphemeralStateStore, Clocked {
+
+    private static final Logger LOG = LoggerFactory.getLogger(S3EphemeralStateStore.class);
+    private static final String EXPIRATION_TIME_METADATA = "expiration-time";
+
+    private final MinimalS3Client s3;
+    private final String bucket;
+    private final String prefix;
+    private Clock clock;
+
+    public S3EphemeralStateStore(MinimalS3Client s3, String bucket, String prefix) {
+        this.s3 = s3;
+        this.bucket = bucket;
+        this.prefix = prefix;
+        this.clock = Clock.systemUTC();
+    }
+
+    @Override
+    public void setClock(Clock clock) {
+        this.clock = Objects.requireNonNull(clock);
+    }
+
+    @Override
+    public void put(String scope, String id, byte[] data, Duration ttl) {
+        final PutObjectRequest s3Request = PutObjectRequest.builder()
+                .bucket(this.bucket)
+                .key(buildS3ObjectKey(scope, id))
+                .metadata(Map.of(EXPIRATION_TIME_METADATA, this.clock.instant().plus(ttl).toString()))
+                .build();
+
+        this.s3.putObject(s3Request, RequestBody.fromBytes(data));
+    }
+
+    @Override
+    public Optional<byte[]> get(String scope, String id) {
+        final GetObjectRequest s3Request = GetObjectRequest.builder()
+                .bucket(this.bucket)
+                .key(buildS3ObjectKey(scope, id))
+                .build();
+
+        try (ResponseInputStream<GetObjectResponse> response = this.s3.getObject(s3Request)) {
+            if (isExpired(response.response())) {
+                return Optional.empty();
+            }
+
+            return Optional.of(response.readAllBytes());
+        } catch (NoSuchKeyException e) {
+            LOG.info("requested key does not exist", e);
+        } catch (S3Exception e) {
+            LOG.warn("got unexpected S3Exception when trying to access ephemeral state", e);
+        } catch (IOException e) {
+            LOG.warn("got unexpected IOException when trying to access ephemeral state", e);
+        }
+
+        return Optional.empty();
+    }
+
+    @Override
+    public Optional<byte[]> remove(String scope, String id) {
+        final Optional<byte[]> data = get(scope, id);
+        final DeleteObjectRequest s3Request = DeleteObjectRequest.builder()
+                .bucket(this.bucket)
+                .key(buildS3ObjectKey(scope, id))
+                .build();
+
+        try {
+            this.s3.deleteObject(s3Request);
+        } catch (S3Exception e) {
+            // dont fail if key didnt exist
+            if (e.statusCode() != HttpStatus.NOT_FOUND.value()) {
+                throw e;
+            }
+        }
+
+        return data;
+    }
+
+    private boolean isExpired(GetObjectResponse response) {
+        final String expirationTime = response.metadata().get(EXPIRATION_TIME_METADATA);
+        if (expirationTime == null) {
+            // written before expiration times were recorded
+            return false;
+        }
+
+        try {
+            return !Instant.parse(expirationTime).isAfter(this.clock.instant());
+        } catch (DateTimeException e) {
+            return true;
+        }
+    }
+
+    private String buildS3ObjectKey(String scope, String id) {
+        return this.prefix + scope + "/" + id;
+    }
+
+    public interface MinimalS3Client {
+
+        ResponseInputStream<GetObjectResponse> getObject(GetObjectRequest request);
+        DeleteObjectResponse deleteObject(DeleteObjectRequest request);
+        PutObjectResponse putObject(PutObjectRequest request, RequestBody body);
+    }
+}
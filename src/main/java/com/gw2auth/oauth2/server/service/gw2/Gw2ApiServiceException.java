@@ -9,6 +9,7 @@ public class Gw2ApiServiceException extends Gw2AuthServiceException {
     public static final String SUBTOKEN_JWT_PARSING_ERROR = "Failed to parse Subtoken JWT";
     public static final String BAD_RESPONSE = "Got a bad response from the GW2-API";
     public static final String UNEXPECTED_EXCEPTION = "An unexpected Exception occured while requesting the GW2-API";
+    public static final String TIMEOUT = "Timed out while waiting for the GW2-API";
 
     public Gw2ApiServiceException(String message) {
         super(message);
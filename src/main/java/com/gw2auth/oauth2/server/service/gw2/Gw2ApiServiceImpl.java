@@ -11,6 +11,8 @@ import com.nimbusds.jose.Header;
 import com.nimbusds.jose.JOSEObjectType;
 import com.nimbusds.jwt.JWT;
 import com.nimbusds.jwt.JWTParser;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -25,10 +27,12 @@ import org.springframework.util.MultiValueMap;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.net.http.HttpTimeoutException;
 import java.text.ParseException;
 import java.time.Duration;
 import java.time.Instant;
 import java.util.*;
+import java.util.concurrent.*;
 import java.util.regex.Pattern;
 import java.util.stream.Collectors;
 
@@ -41,11 +45,15 @@ public class Gw2ApiServiceImpl implements Gw2ApiService {
 
     private final Gw2ApiClient gw2ApiClient;
     private final ObjectMapper mapper;
+    private final ConcurrentMap<SubTokenRequestKey, CompletableFuture<Gw2SubToken>> inflightSubTokenRequests;
+    private final Counter coalescedSubTokenRequestsCounter;
 
     @Autowired
-    public Gw2ApiServiceImpl(Gw2ApiClient gw2ApiClient, ObjectMapper mapper) {
+    public Gw2ApiServiceImpl(Gw2ApiClient gw2ApiClient, ObjectMapper mapper, MeterRegistry meterRegistry) {
         this.gw2ApiClient = gw2ApiClient;
         this.mapper = mapper;
+        this.inflightSubTokenRequests = new ConcurrentHashMap<>();
+        this.coalescedSubTokenRequestsCounter = meterRegistry.counter("gw2auth_gw2_api_coalesced_requests", "endpoint", "/v2/createsubtoken");
     }
 
     @Override
@@ -60,11 +68,35 @@ public class Gw2ApiServiceImpl implements Gw2ApiService {
 
     @Override
     public List<String> getCharacters(String gw2ApiToken) {
-        return getFromAPI("/v2/characters", gw2ApiToken, new TypeReference<>() {});
+        return getFromAPIUncached("/v2/characters", gw2ApiToken, new TypeReference<>() {});
     }
 
     @Override
     public Gw2SubToken createSubToken(String token, Set<Gw2ApiPermission> permissions, Instant expirationTime) {
+        // concurrent requests for the same subtoken join the request which is already in flight
+        final SubTokenRequestKey key = new SubTokenRequestKey(token, Gw2ApiPermission.toBitSet(permissions), expirationTime);
+        final CompletableFuture<Gw2SubToken> future = new CompletableFuture<>();
+        final CompletableFuture<Gw2SubToken> inflightFuture = this.inflightSubTokenRequests.putIfAbsent(key, future);
+
+        if (inflightFuture != null) {
+            this.coalescedSubTokenRequestsCounter.increment();
+            return awaitInflight(inflightFuture);
+        }
+
+        try {
+            final Gw2SubToken gw2SubToken = createSubTokenInternal(token, permissions, expirationTime);
+            future.complete(gw2SubToken);
+
+            return gw2SubToken;
+        } catch (Throwable e) {
+            future.completeExceptionally(e);
+            throw e;
+        } finally {
+            this.inflightSubTokenRequests.remove(key, future);
+        }
+    }
+
+    private Gw2SubToken createSubTokenInternal(String token, Set<Gw2ApiPermission> permissions, Instant expirationTime) {
         final MultiValueMap<String, String> query = new LinkedMultiValueMap<>();
         query.add("permissions", permissions.stream().map(Gw2ApiPermission::gw2).collect(Collectors.joining(",")));
         query.add("expire", expirationTime.toString()); // ISO-8601
@@ -87,7 +119,7 @@ public class Gw2ApiServiceImpl implements Gw2ApiService {
 
     @Override
     public List<Gw2Transaction> getCurrentBuyTransactions(String token) {
-        return getFromAPI("/v2/commerce/transactions/current/buys", token, new TypeReference<>() {});
+        return getFromAPIUncached("/v2/commerce/transactions/current/buys", token, new TypeReference<>() {});
     }
 
     @Override
@@ -109,10 +141,38 @@ public class Gw2ApiServiceImpl implements Gw2ApiService {
         }
     }
 
+    private <T> T awaitInflight(CompletableFuture<T> future) {
+        final Long timeoutAt = Optional.ofNullable(TIMEOUT_AT_TL.get()).map(Deque::peekLast).orElse(null);
+
+        try {
+            if (timeoutAt == null) {
+                return future.get();
+            } else {
+                return future.get(timeoutAt - System.nanoTime(), TimeUnit.NANOSECONDS);
+            }
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException runtimeException) {
+                throw runtimeException;
+            }
+
+            throw new Gw2ApiServiceException(Gw2ApiServiceException.UNEXPECTED_EXCEPTION, HttpStatus.BAD_GATEWAY);
+        } catch (TimeoutException e) {
+            throw new Gw2ApiServiceException(Gw2ApiServiceException.TIMEOUT, HttpStatus.GATEWAY_TIMEOUT);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new Gw2ApiServiceException(Gw2ApiServiceException.UNEXPECTED_EXCEPTION, HttpStatus.BAD_GATEWAY);
+        }
+    }
+
     private <T> T getFromAPI(String url, String token, TypeReference<T> typeReference) {
         return getFromAPI(url, HttpHeaders.EMPTY, token, typeReference);
     }
 
+    // used for verification challenges: the user just changed what is being checked, a cached response would be outdated
+    private <T> T getFromAPIUncached(String url, String token, TypeReference<T> typeReference) {
+        return getFromAPI(url, HttpHeaders.EMPTY, token, true, (in) -> this.mapper.readValue(in, typeReference));
+    }
+
     private <T> T getFromAPI(String url, MultiValueMap<String, String> query, String token, TypeReference<T> typeReference) {
         return getFromAPI(url, query, token, (in) -> this.mapper.readValue(in, typeReference));
     }
@@ -126,6 +186,10 @@ public class Gw2ApiServiceImpl implements Gw2ApiService {
     }
 
     private <T> T getFromAPI(String url, MultiValueMap<String, String> query, String token, FunctionWithExc<? super InputStream, ? extends T, IOException> function) {
+        return getFromAPI(url, query, token, false, function);
+    }
+
+    private <T> T getFromAPI(String url, MultiValueMap<String, String> query, String token, boolean noCache, FunctionWithExc<? super InputStream, ? extends T, IOException> function) {
         if (token != null && !validateToken(token)) {
             throw new InvalidApiTokenException();
         }
@@ -138,9 +202,9 @@ public class Gw2ApiServiceImpl implements Gw2ApiService {
         ResponseEntity<Resource> response;
         try {
             if (timeoutAt == null) {
-                response = this.gw2ApiClient.get(url, query, buildRequestHeaders(token));
+                response = this.gw2ApiClient.get(url, query, buildRequestHeaders(token, noCache));
             } else {
-                response = this.gw2ApiClient.get(Duration.ofNanos(timeoutAt - System.nanoTime()), url, query, buildRequestHeaders(token));
+                response = this.gw2ApiClient.get(Duration.ofNanos(timeoutAt - System.nanoTime()), url, query, buildRequestHeaders(token, noCache));
             }
         } catch (Exception e) {
             LOG.warn("unexpected exception during GW2-API-Request for url={}", url, e);
@@ -173,18 +237,27 @@ public class Gw2ApiServiceImpl implements Gw2ApiService {
 
         try (InputStream in = body.getInputStream()) {
             return function.apply(in);
+        } catch (HttpTimeoutException e) {
+            // the body could not be read within the deadline; same as a 408 of the client
+            throw new Gw2ApiServiceException(Gw2ApiServiceException.BAD_RESPONSE, HttpStatus.BAD_GATEWAY);
         } catch (IOException e) {
             throw new RuntimeException(e);
         }
     }
 
-    private static HttpHeaders buildRequestHeaders(String token) {
-        if (token == null) {
+    private static HttpHeaders buildRequestHeaders(String token, boolean noCache) {
+        if (token == null && !noCache) {
             return HttpHeaders.EMPTY;
         }
 
         final HttpHeaders headers = new HttpHeaders();
-        headers.add("Authorization", "Bearer " + token);
+        if (token != null) {
+            headers.add("Authorization", "Bearer " + token);
+        }
+
+        if (noCache) {
+            headers.add(HttpHeaders.CACHE_CONTROL, "no-cache");
+        }
 
         return headers;
     }
@@ -205,4 +278,6 @@ public class Gw2ApiServiceImpl implements Gw2ApiService {
     }
 
     private record GW2CreateSubToken(@Value("subtoken") String subtoken) { }
+
+    private record SubTokenRequestKey(String token, int permissionsBitSet, Instant expirationTime) { }
 }
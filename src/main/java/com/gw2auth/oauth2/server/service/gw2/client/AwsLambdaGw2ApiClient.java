@@ -1,9 +1,11 @@
 package com.gw2auth.oauth2.server.service.gw2.client;
 
 import com.fasterxml.jackson.annotation.JsonProperty;
+import com.fasterxml.jackson.core.JsonParser;
 import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.JsonToken;
 import com.fasterxml.jackson.databind.ObjectMapper;
-import org.springframework.core.io.ByteArrayResource;
+import org.springframework.core.io.InputStreamResource;
 import org.springframework.core.io.Resource;
 import org.springframework.http.HttpHeaders;
 import org.springframework.http.ResponseEntity;
@@ -14,6 +16,8 @@ import software.amazon.awssdk.services.lambda.model.InvokeRequest;
 import software.amazon.awssdk.services.lambda.model.InvokeResponse;
 import software.amazon.awssdk.services.lambda.model.LogType;
 
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
 import java.io.InputStream;
 import java.nio.charset.StandardCharsets;
 import java.time.Duration;
@@ -53,28 +57,75 @@ public class AwsLambdaGw2ApiClient implements Gw2ApiClient {
             throw new RuntimeException(lambdaResponse.functionError());
         }
 
-        final int statusCode;
-        final HttpHeaders responseHeaders;
-        final byte[] body;
+        // the payload is already held in memory by the SDK; the body is decoded lazily from it
+        // instead of being copied into intermediate strings and byte arrays
+        final byte[] payload = lambdaResponse.payload().asByteArrayUnsafe();
+        boolean isBase64Encoded = false;
+        int statusCode = -1;
+        final HttpHeaders responseHeaders = new HttpHeaders();
+        InputStream rawBody = InputStream.nullInputStream();
+
+        try (JsonParser parser = this.mapper.getFactory().createParser(payload)) {
+            if (parser.nextToken() != JsonToken.START_OBJECT) {
+                throw new IOException("expected lambda response payload to be a json object");
+            }
 
-        try (InputStream in = lambdaResponse.payload().asInputStream()) {
-            final LambdaResponsePayload gw2Response = this.mapper.readValue(in, LambdaResponsePayload.class);
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                final String fieldName = parser.currentName();
+                final JsonToken valueToken = parser.nextToken();
+
+                switch (fieldName) {
+                    case "isBase64Encoded" -> isBase64Encoded = parser.getBooleanValue();
+                    case "statusCode" -> statusCode = parser.getIntValue();
+                    case "headers" -> {
+                        if (valueToken == JsonToken.START_OBJECT) {
+                            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                                final String headerName = parser.currentName();
+
+                                if (parser.nextToken().isScalarValue()) {
+                                    responseHeaders.add(headerName, parser.getValueAsString());
+                                } else {
+                                    parser.skipChildren();
+                                }
+                            }
+                        } else {
+                            parser.skipChildren();
+                        }
+                    }
+                    case "body" -> {
+                        if (valueToken == JsonToken.VALUE_STRING) {
+                            // the token location points at the opening quote; escapes are decoded while the body is read
+                            final long tokenOffset = parser.currentTokenLocation().getByteOffset();
+                            final InputStream stream = tokenOffset <= Integer.MAX_VALUE ? JsonStringInputStream.ofQuoted(payload, (int) tokenOffset) : null;
+
+                            if (stream != null) {
+                                rawBody = stream;
+                            } else {
+                                // unexpected token location: let jackson handle it
+                                rawBody = new ByteArrayInputStream(parser.getText().getBytes(StandardCharsets.UTF_8));
+                            }
+                        }
+                    }
+                    default -> parser.skipChildren();
+                }
+            }
+        }
 
-            statusCode = gw2Response.statusCode();
-            responseHeaders = new HttpHeaders();
-            gw2Response.headers().forEach(responseHeaders::add);
+        if (statusCode == -1) {
+            throw new IOException("lambda response payload is incomplete");
+        }
 
-            if (gw2Response.isBase64Encoded()) {
-                body = Base64.getDecoder().decode(gw2Response.body());
-            } else {
-                body = gw2Response.body().getBytes(StandardCharsets.UTF_8);
-            }
+        final InputStream body;
+        if (isBase64Encoded) {
+            body = Base64.getDecoder().wrap(rawBody);
+        } else {
+            body = rawBody;
         }
 
         return ResponseEntity
                 .status(statusCode)
                 .headers(responseHeaders)
-                .body(new ByteArrayResource(body));
+                .body(new InputStreamResource(body));
     }
 
     private byte[] buildPayloadJson(String path, MultiValueMap<String, String> query, MultiValueMap<String, String> headers) {
@@ -103,7 +154,6 @@ public class AwsLambdaGw2ApiClient implements Gw2ApiClient {
     }
 
     record LambdaRequestPayload(@JsonProperty("path") String path, @JsonProperty("query") Map<String, String> query, @JsonProperty("headers") Map<String, String> headers) {}
-    record LambdaResponsePayload(@JsonProperty("isBase64Encoded") boolean isBase64Encoded, @JsonProperty("statusCode") int statusCode, @JsonProperty("headers") Map<String, String> headers, @JsonProperty("body") String body) {}
 
     public interface MinimalLambdaClient {
 
@@ -0,0 +1,275 @@
+package com.gw2auth.oauth2.server.service.gw2.client;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.gw2auth.oauth2.server.util.Sha256;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import org.springframework.core.io.ByteArrayResource;
+import org.springframework.core.io.Resource;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.util.LinkedMultiValueMap;
+import org.springframework.util.MultiValueMap;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.*;
+
+/**
+ * Caches successful responses of the delegate for the duration allowed by their {@code Cache-Control} header.
+ * Stale responses carrying an {@code ETag} are revalidated using {@code If-None-Match}.
+ * Entries are keyed by a hash of the request (including the {@code Authorization} header), so responses are never shared between tokens.
+ * Requests carrying {@code Cache-Control: no-cache} are never served from the cache without revalidation.
+ */
+public class CachingGw2ApiClient implements Gw2ApiClient {
+
+    private final Gw2ApiClient client;
+    private final Set<String> paths;
+    private final Duration maxTtl;
+    private final int maxEntryBytes;
+    private final Clock clock;
+    private final Cache<String, CachedResponse> cache;
+    private final Counter hitCounter;
+    private final Counter revalidatedCounter;
+    private final Counter missCounter;
+
+    public CachingGw2ApiClient(Gw2ApiClient client,
+                               Set<String> paths,
+                               long maxBytes,
+                               int maxEntryBytes,
+                               Duration maxTtl,
+                               Duration staleRetention,
+                               MeterRegistry meterRegistry) {
+
+        this(client, paths, maxBytes, maxEntryBytes, maxTtl, staleRetention, meterRegistry, Clock.systemUTC());
+    }
+
+    CachingGw2ApiClient(Gw2ApiClient client,
+                        Set<String> paths,
+                        long maxBytes,
+                        int maxEntryBytes,
+                        Duration maxTtl,
+                        Duration staleRetention,
+                        MeterRegistry meterRegistry,
+                        Clock clock) {
+
+        this.client = client;
+        this.paths = Set.copyOf(paths);
+        this.maxTtl = maxTtl;
+        this.maxEntryBytes = maxEntryBytes;
+        this.clock = clock;
+        this.cache = Caffeine.newBuilder()
+                .maximumWeight(maxBytes)
+                .weigher((String key, CachedResponse value) -> key.length() + value.body().length)
+                .expireAfterWrite(maxTtl.plus(staleRetention))
+                .recordStats()
+                .build();
+
+        this.hitCounter = createCounter(meterRegistry, "hit");
+        this.revalidatedCounter = createCounter(meterRegistry, "revalidated");
+        this.missCounter = createCounter(meterRegistry, "miss");
+
+        Gauge.builder("gw2auth_gw2_api_cache_hit_ratio", this, CachingGw2ApiClient::hitRatio)
+                .register(meterRegistry);
+
+        CaffeineCacheMetrics.monitor(meterRegistry, this.cache, "gw2auth_gw2_api_responses");
+    }
+
+    @Override
+    public ResponseEntity<Resource> get(String path, MultiValueMap<String, String> query, MultiValueMap<String, String> headers) {
+        return get(null, path, query, headers);
+    }
+
+    @Override
+    public ResponseEntity<Resource> get(Duration timeout, String path, MultiValueMap<String, String> query, MultiValueMap<String, String> headers) {
+        if (!this.paths.contains(path) || headers.containsKey(HttpHeaders.IF_NONE_MATCH)) {
+            return getFromClient(timeout, path, query, headers);
+        }
+
+        final String key = buildKey(path, query, headers);
+        final CachedResponse cached = this.cache.getIfPresent(key);
+        MultiValueMap<String, String> requestHeaders = headers;
+
+        if (cached != null) {
+            if (this.clock.instant().isBefore(cached.expiresAt()) && !isNoCacheRequest(headers)) {
+                this.hitCounter.increment();
+                return cached.toResponse();
+            }
+
+            if (cached.etag() != null) {
+                requestHeaders = new LinkedMultiValueMap<>(headers);
+                requestHeaders.set(HttpHeaders.IF_NONE_MATCH, cached.etag());
+            }
+        }
+
+        final ResponseEntity<Resource> response = getFromClient(timeout, path, query, requestHeaders);
+
+        if (cached != null && response.getStatusCode().isSameCodeAs(HttpStatus.NOT_MODIFIED)) {
+            final CachedResponse revalidated = cached.withExpiresAt(expiresAt(response.getHeaders()));
+            this.cache.put(key, revalidated);
+            this.revalidatedCounter.increment();
+
+            return revalidated.toResponse();
+        }
+
+        this.missCounter.increment();
+
+        if (!response.getStatusCode().isSameCodeAs(HttpStatus.OK) || !isCacheable(response.getHeaders())) {
+            if (cached != null) {
+                this.cache.invalidate(key);
+            }
+
+            return response;
+        }
+
+        final byte[] body;
+        try (InputStream in = Objects.requireNonNull(response.getBody()).getInputStream()) {
+            body = in.readAllBytes();
+        } catch (IOException e) {
+            return ResponseEntity.status(HttpStatus.REQUEST_TIMEOUT).body(null);
+        }
+
+        final CachedResponse fresh = new CachedResponse(response.getHeaders(), body, response.getHeaders().getETag(), expiresAt(response.getHeaders()));
+        if (body.length <= this.maxEntryBytes) {
+            this.cache.put(key, fresh);
+        }
+
+        return fresh.toResponse();
+    }
+
+    private ResponseEntity<Resource> getFromClient(Duration timeout, String path, MultiValueMap<String, String> query, MultiValueMap<String, String> headers) {
+        if (timeout == null) {
+            return this.client.get(path, query, headers);
+        } else {
+            return this.client.get(timeout, path, query, headers);
+        }
+    }
+
+    private static boolean isNoCacheRequest(MultiValueMap<String, String> headers) {
+        final HttpHeaders httpHeaders = new HttpHeaders();
+        httpHeaders.addAll(headers);
+
+        return parseCacheControl(httpHeaders).containsKey("no-cache");
+    }
+
+    private boolean isCacheable(HttpHeaders headers) {
+        final Map<String, String> cacheControl = parseCacheControl(headers);
+        if (cacheControl.containsKey("no-store")) {
+            return false;
+        }
+
+        final long contentLength = headers.getContentLength();
+        if (contentLength > this.maxEntryBytes) {
+            return false;
+        }
+
+        return headers.getETag() != null || cacheControl.containsKey("max-age");
+    }
+
+    private Instant expiresAt(HttpHeaders headers) {
+        final Map<String, String> cacheControl = parseCacheControl(headers);
+        Duration ttl = Duration.ZERO;
+
+        if (!cacheControl.containsKey("no-cache")) {
+            try {
+                ttl = Duration.ofSeconds(Long.parseLong(cacheControl.getOrDefault("max-age", "0")));
+            } catch (NumberFormatException e) {
+                ttl = Duration.ZERO;
+            }
+        }
+
+        if (ttl.compareTo(this.maxTtl) > 0) {
+            ttl = this.maxTtl;
+        }
+
+        return this.clock.instant().plus(ttl);
+    }
+
+    private double hitRatio() {
+        final double hits = this.hitCounter.count() + this.revalidatedCounter.count();
+        final double total = hits + this.missCounter.count();
+
+        return total == 0.0 ? 0.0 : hits / total;
+    }
+
+    private static Counter createCounter(MeterRegistry meterRegistry, String result) {
+        return Counter.builder("gw2auth_gw2_api_cache_requests")
+                .tag("result", result)
+                .register(meterRegistry);
+    }
+
+    private static Map<String, String> parseCacheControl(HttpHeaders headers) {
+        final Map<String, String> directives = new HashMap<>();
+
+        for (String value : headers.getOrEmpty(HttpHeaders.CACHE_CONTROL)) {
+            for (String directive : value.split(",")) {
+                final String[] parts = directive.trim().split("=", 2);
+                if (!parts[0].isEmpty()) {
+                    directives.put(parts[0].toLowerCase(Locale.ROOT), parts.length > 1 ? parts[1].trim() : "");
+                }
+            }
+        }
+
+        return directives;
+    }
+
+    private static String buildKey(String path, MultiValueMap<String, String> query, MultiValueMap<String, String> headers) {
+        // the authorization header is part of this, the key identifies the token without containing it
+        final Map<String, List<String>> sortedHeaders = new TreeMap<>();
+        headers.forEach((name, values) -> {
+            if (!name.equalsIgnoreCase(HttpHeaders.CACHE_CONTROL)) {
+                sortedHeaders.computeIfAbsent(name.toLowerCase(Locale.ROOT), (k) -> new ArrayList<>()).addAll(values);
+            }
+        });
+
+        final byte[] digest = Sha256.digest((md) -> {
+            update(md, path);
+            update(md, new TreeMap<>(query));
+            update(md, sortedHeaders);
+        });
+
+        return Base64.getEncoder().encodeToString(digest);
+    }
+
+    private static void update(MessageDigest md, Map<String, List<String>> values) {
+        for (Map.Entry<String, List<String>> entry : values.entrySet()) {
+            update(md, entry.getKey());
+            for (String value : entry.getValue()) {
+                update(md, value);
+            }
+        }
+
+        md.update((byte) 0);
+    }
+
+    private static void update(MessageDigest md, String value) {
+        final byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        md.update((byte) (bytes.length >>> 24));
+        md.update((byte) (bytes.length >>> 16));
+        md.update((byte) (bytes.length >>> 8));
+        md.update((byte) bytes.length);
+        md.update(bytes);
+    }
+
+    private record CachedResponse(HttpHeaders headers, byte[] body, String etag, Instant expiresAt) {
+
+        CachedResponse withExpiresAt(Instant expiresAt) {
+            return new CachedResponse(this.headers, this.body, this.etag, expiresAt);
+        }
+
+        ResponseEntity<Resource> toResponse() {
+            return ResponseEntity.ok()
+                    .headers(this.headers)
+                    .body(new ByteArrayResource(this.body));
+        }
+    }
+}
@@ -1,5 +1,9 @@
 package com.gw2auth.oauth2.server.service.gw2.client;
 
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.core.io.Resource;
@@ -9,32 +13,83 @@ import org.springframework.util.MultiValueMap;
 
 import java.time.Duration;
 import java.time.Instant;
-import java.util.ArrayList;
-import java.util.Collection;
-import java.util.Iterator;
-import java.util.List;
+import java.util.*;
+import java.util.concurrent.*;
 
 public class ChainedGw2ApiClient implements Gw2ApiClient {
 
     private static final Logger LOG = LoggerFactory.getLogger(ChainedGw2ApiClient.class);
+    private static final double EWMA_ALPHA = 0.2;
+    private static final double ERROR_RATE_PENALTY = 10.0;
+    private static final double MIN_LATENCY_NANOS = Duration.ofMillis(1L).toNanos();
+    private static final double MIN_BUDGET = 0.01;
+    private static final long RATE_LIMIT_WINDOW_NANOS = Duration.ofMinutes(1L).toNanos();
+    private static final int RATE_LIMIT_PER_WINDOW = 300;
+    private static final int LATENCY_HISTORY_SIZE = 128;
+    private static final int LATENCY_HISTORY_MIN_SAMPLES = 16;
+    private static final Duration DEFAULT_LATENCY_PRIOR = Duration.ofMillis(250L);
 
     private final List<ClientAndMetadata> chain;
     private final Duration cooldownDuration;
+    private final Routing routing;
+    private final Hedging hedging;
+    private final double latencyPriorNanos;
+    private final Counter exhaustedCounter;
+    private final DistributionSummary attemptsSummary;
 
-    public ChainedGw2ApiClient(Collection<Gw2ApiClient> chain, Duration cooldownDuration) {
+    public ChainedGw2ApiClient(Collection<Gw2ApiClient> chain, Duration cooldownDuration, MeterRegistry meterRegistry) {
+        this(chain, cooldownDuration, Routing.ORDERED, meterRegistry);
+    }
+
+    public ChainedGw2ApiClient(Collection<Gw2ApiClient> chain, Duration cooldownDuration, Routing routing, MeterRegistry meterRegistry) {
+        this(chain.stream().map((client) -> new Member(client, null)).toList(), cooldownDuration, routing, null, meterRegistry);
+    }
+
+    public ChainedGw2ApiClient(List<Member> chain, Duration cooldownDuration, Routing routing, Hedging hedging, MeterRegistry meterRegistry) {
+        this(chain, cooldownDuration, routing, hedging, DEFAULT_LATENCY_PRIOR, meterRegistry);
+    }
+
+    /**
+     * @param latencyPrior the latency assumed for members without latency samples as long as no member of the chain has any
+     */
+    public ChainedGw2ApiClient(List<Member> chain, Duration cooldownDuration, Routing routing, Hedging hedging, Duration latencyPrior, MeterRegistry meterRegistry) {
         if (chain.isEmpty()) {
             throw new IllegalArgumentException();
         }
 
         this.cooldownDuration = cooldownDuration;
+        this.routing = Objects.requireNonNull(routing);
+        this.hedging = hedging;
+        this.latencyPriorNanos = latencyPrior.toNanos();
 
         final List<ClientAndMetadata> tempChain = new ArrayList<>(chain.size());
 
-        for (Gw2ApiClient client : chain) {
-            tempChain.add(new ClientAndMetadata(client, Instant.MIN));
+        for (int i = 0; i < chain.size(); i++) {
+            final Member member = chain.get(i);
+            final String name = member.name() == null ? "member." + i : member.name();
+
+            tempChain.add(new ClientAndMetadata(name, member.client(), member.rateLimiter(), Instant.MIN, meterRegistry));
         }
 
         this.chain = List.copyOf(tempChain);
+        this.exhaustedCounter = Counter.builder("gw2auth_gw2_api_chain_exhausted")
+                .description("requests for which no member of the chain was able to answer")
+                .register(meterRegistry);
+        this.attemptsSummary = DistributionSummary.builder("gw2auth_gw2_api_chain_attempts")
+                .description("members tried per request")
+                .serviceLevelObjectives(1.0, 2.0, 3.0, 4.0, 5.0)
+                .register(meterRegistry);
+    }
+
+    public State state() {
+        final Instant now = Instant.now();
+        final List<MemberState> members = new ArrayList<>(this.chain.size());
+
+        for (ClientAndMetadata clientAndMetadata : this.chain) {
+            members.add(clientAndMetadata.state(now));
+        }
+
+        return new State(this.routing, this.hedging != null, (long) this.exhaustedCounter.count(), members);
     }
 
     @Override
@@ -51,52 +106,499 @@ public class ChainedGw2ApiClient implements Gw2ApiClient {
             timeoutAt = Instant.now().plus(timeout);
         }
 
-        final Iterator<ClientAndMetadata> it = this.chain.iterator();
-        Instant now;
-        ClientAndMetadata clientAndMetadata;
+        List<ClientAndMetadata> order = switch (this.routing) {
+            case ORDERED -> this.chain;
+            case ADAPTIVE -> adaptiveOrder();
+        };
+
         ResponseEntity<Resource> response = null;
+        int attempts = 0;
+
+        if (this.hedging != null && this.hedging.paths().contains(path)) {
+            final List<ClientAndMetadata> candidates = order.stream()
+                    .filter((v) -> Instant.now().isAfter(v.cooldownUntil) && v.hasRateLimitBudget())
+                    .limit(2L)
+                    .toList();
+
+            if (candidates.size() == 2 && candidates.get(0).tryAcquireRateLimit()) {
+                final Set<ClientAndMetadata> tried = Collections.newSetFromMap(new IdentityHashMap<>());
+                response = getHedged(candidates.get(0), candidates.get(1), timeoutAt, path, query, headers, tried);
+                attempts += tried.size();
+                order = order.stream().filter((v) -> !tried.contains(v)).toList();
+            }
+        }
+
+        final List<ClientAndMetadata> throttled = new ArrayList<>();
+        Iterator<ClientAndMetadata> it = order.iterator();
+        Instant now;
 
         while (response == null && (now = Instant.now()).isBefore(timeoutAt) && it.hasNext()) {
-            clientAndMetadata = it.next();
+            final ClientAndMetadata clientAndMetadata = it.next();
 
             if (now.isAfter(clientAndMetadata.cooldownUntil)) {
-                try {
-                    if (timeoutAt == Instant.MAX) {
-                        response = clientAndMetadata.client.get(path, query, headers);
-                    } else {
-                        response = clientAndMetadata.client.get(Duration.between(now, timeoutAt), path, query, headers);
-                    }
-                } catch (Exception e) {
-                    LOG.warn("unexpected exception thrown in gw2 api request chain", e);
+                if (clientAndMetadata.tryAcquireRateLimit()) {
+                    response = tryClient(clientAndMetadata, timeoutAt, path, query, headers);
+                    attempts++;
+                } else {
+                    throttled.add(clientAndMetadata);
                 }
+            }
+        }
 
-                if (response != null) {
-                    if (response.getStatusCode() == HttpStatus.REQUEST_TIMEOUT) {
-                        response = null;
-                    } else if (response.getStatusCode() == HttpStatus.TOO_MANY_REQUESTS) {
-                        clientAndMetadata.cooldownUntil = Instant.now().plus(this.cooldownDuration);
-                        response = null;
-                    }
+        // no member with remaining budget was able to answer: queue for the member whose budget refills first
+        if (response == null && !throttled.isEmpty()) {
+            throttled.sort(Comparator.comparingLong((v) -> v.rateLimiter.nanosUntilAvailable()));
+            it = throttled.iterator();
+
+            final long deadlineNanos = System.nanoTime() + remainingNanos(timeoutAt);
+
+            while (response == null && Instant.now().isBefore(timeoutAt) && it.hasNext()) {
+                final ClientAndMetadata clientAndMetadata = it.next();
+
+                if (clientAndMetadata.rateLimiter.acquire(deadlineNanos)) {
+                    response = tryClient(clientAndMetadata, timeoutAt, path, query, headers);
+                    attempts++;
                 }
             }
         }
 
+        this.attemptsSummary.record(attempts);
+
         if (response == null) {
             LOG.warn("end of chain reached; all clients are cooling down or timed out");
+            this.exhaustedCounter.increment();
             response = ResponseEntity.status(HttpStatus.REQUEST_TIMEOUT).body(null);
         }
 
         return response;
     }
 
+    private ResponseEntity<Resource> tryClient(ClientAndMetadata clientAndMetadata, Instant timeoutAt, String path, MultiValueMap<String, String> query, MultiValueMap<String, String> headers) {
+        final long start = System.nanoTime();
+        ResponseEntity<Resource> response = null;
+
+        try {
+            if (timeoutAt == Instant.MAX) {
+                response = clientAndMetadata.client.get(path, query, headers);
+            } else {
+                response = clientAndMetadata.client.get(Duration.between(Instant.now(), timeoutAt), path, query, headers);
+            }
+        } catch (Exception e) {
+            if (Thread.currentThread().isInterrupted()) {
+                // the request was cancelled because a hedged request won
+                return null;
+            }
+
+            LOG.warn("unexpected exception thrown in gw2 api request chain", e);
+        }
+
+        clientAndMetadata.record(System.nanoTime() - start, response);
+
+        if (response != null) {
+            if (response.getStatusCode() == HttpStatus.REQUEST_TIMEOUT) {
+                response = null;
+            } else if (response.getStatusCode() == HttpStatus.TOO_MANY_REQUESTS) {
+                clientAndMetadata.cooldownUntil = Instant.now().plus(this.cooldownDuration);
+                clientAndMetadata.cooldownCounter.increment();
+                response = null;
+            }
+        }
+
+        if (response == null) {
+            clientAndMetadata.fallbackCounter.increment();
+        }
+
+        return response;
+    }
+
+    private ResponseEntity<Resource> getHedged(ClientAndMetadata primary,
+                                               ClientAndMetadata secondary,
+                                               Instant timeoutAt,
+                                               String path,
+                                               MultiValueMap<String, String> query,
+                                               MultiValueMap<String, String> headers,
+                                               Set<ClientAndMetadata> tried) {
+
+        final CompletionService<ResponseEntity<Resource>> completionService = new ExecutorCompletionService<>(this.hedging.executorService());
+        final List<Future<ResponseEntity<Resource>>> futures = new ArrayList<>(2);
+        final long hedgeDelayNanos = primary.latencyPercentileNanos(this.hedging.percentile());
+        Future<ResponseEntity<Resource>> winner = null;
+        int pending = 0;
+
+        try {
+            futures.add(completionService.submit(() -> tryClient(primary, timeoutAt, path, query, headers)));
+            tried.add(primary);
+            pending++;
+
+            Future<ResponseEntity<Resource>> done = null;
+
+            if (hedgeDelayNanos >= 0L) {
+                done = completionService.poll(Math.min(hedgeDelayNanos, remainingNanos(timeoutAt)), TimeUnit.NANOSECONDS);
+
+                if (done == null && this.hedging.tryAcquire() && secondary.tryAcquireRateLimit()) {
+                    futures.add(completionService.submit(() -> tryClient(secondary, timeoutAt, path, query, headers)));
+                    tried.add(secondary);
+                    pending++;
+                }
+            }
+
+            while (pending > 0) {
+                if (done == null) {
+                    done = completionService.poll(remainingNanos(timeoutAt), TimeUnit.NANOSECONDS);
+
+                    if (done == null) {
+                        break;
+                    }
+                }
+
+                pending--;
+
+                final ResponseEntity<Resource> response = getCompleted(done);
+                if (response != null) {
+                    winner = done;
+                    return response;
+                }
+
+                done = null;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            for (Future<ResponseEntity<Resource>> future : futures) {
+                if (future != winner && !future.cancel(true)) {
+                    discard(getCompleted(future));
+                }
+            }
+        }
+
+        return null;
+    }
+
+    private List<ClientAndMetadata> adaptiveOrder() {
+        final Instant now = Instant.now();
+        final long nowNanos = System.nanoTime();
+        final List<ClientAndMetadata> candidates = new ArrayList<>(this.chain);
+        final Map<ClientAndMetadata, Double> scores = new IdentityHashMap<>(candidates.size());
+        final double unmeasuredLatencyNanos = unmeasuredLatencyNanos();
+
+        for (ClientAndMetadata candidate : candidates) {
+            scores.put(candidate, candidate.score(now, nowNanos, unmeasuredLatencyNanos));
+        }
+
+        candidates.sort(Comparator.comparingDouble(scores::get));
+
+        // power of two choices: the best of two random candidates goes first, so load is spread
+        // across all chain members instead of always hitting the one with the best score
+        final long available = candidates.stream().filter((v) -> scores.get(v) < Double.POSITIVE_INFINITY).count();
+        if (available > 1L) {
+            final ThreadLocalRandom random = ThreadLocalRandom.current();
+            final int a = random.nextInt((int) available);
+            int b = random.nextInt((int) available - 1);
+            if (b >= a) {
+                b++;
+            }
+
+            candidates.addFirst(candidates.remove(Math.min(a, b)));
+        }
+
+        return candidates;
+    }
+
+    /**
+     * @return the latency assumed for members without samples: the mean of the measured members, or the prior if there are none
+     */
+    private double unmeasuredLatencyNanos() {
+        double sum = 0.0;
+        int count = 0;
+
+        for (ClientAndMetadata clientAndMetadata : this.chain) {
+            final double latencyNanos = clientAndMetadata.measuredLatencyNanos();
+            if (!Double.isNaN(latencyNanos)) {
+                sum += latencyNanos;
+                count++;
+            }
+        }
+
+        return count == 0 ? this.latencyPriorNanos : sum / count;
+    }
+
+    private static ResponseEntity<Resource> getCompleted(Future<ResponseEntity<Resource>> future) {
+        try {
+            return future.get();
+        } catch (ExecutionException | CancellationException e) {
+            return null;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        }
+    }
+
+    private static void discard(ResponseEntity<Resource> response) {
+        if (response != null && response.getBody() != null && response.getBody().isOpen()) {
+            try {
+                response.getBody().getInputStream().close();
+            } catch (Exception e) {
+                LOG.debug("failed to close discarded response body", e);
+            }
+        }
+    }
+
+    private static long remainingNanos(Instant timeoutAt) {
+        if (timeoutAt == Instant.MAX) {
+            return Long.MAX_VALUE;
+        }
+
+        return Math.max(Duration.between(Instant.now(), timeoutAt).toNanos(), 0L);
+    }
+
+    /**
+     * @param name used to tag the metrics of this member; defaults to its position in the chain
+     */
+    public record Member(String name, Gw2ApiClient client, Gw2ApiRateLimiter rateLimiter) {
+
+        public Member(Gw2ApiClient client, Gw2ApiRateLimiter rateLimiter) {
+            this(null, client, rateLimiter);
+        }
+
+        public Member(Gw2ApiClient client) {
+            this(null, client, null);
+        }
+    }
+
+    public record State(Routing routing, boolean hedging, long exhausted, List<MemberState> members) {}
+
+    /**
+     * @param rateLimitAvailableFraction the available fraction of the rate limit budget, null if the member is not rate limited
+     */
+    public record MemberState(String name,
+                              boolean coolingDown,
+                              Instant cooldownUntil,
+                              double latencyEwmaMillis,
+                              double errorRateEwma,
+                              Double rateLimitAvailableFraction,
+                              long fallbacks,
+                              long cooldowns) {}
+
+    public enum Routing {
+
+        ORDERED,
+        ADAPTIVE
+    }
+
+    public static final class Hedging {
+
+        private final ExecutorService executorService;
+        private final Set<String> paths;
+        private final double percentile;
+        private final int budgetPerSecond;
+        private long budgetSecond;
+        private int budgetUsed;
+
+        public Hedging(ExecutorService executorService, Set<String> paths, double percentile, int budgetPerSecond) {
+            if (percentile <= 0.0 || percentile > 1.0) {
+                throw new IllegalArgumentException("percentile must be in (0, 1]");
+            }
+
+            this.executorService = Objects.requireNonNull(executorService);
+            this.paths = Set.copyOf(paths);
+            this.percentile = percentile;
+            this.budgetPerSecond = budgetPerSecond;
+            this.budgetSecond = 0L;
+            this.budgetUsed = 0;
+        }
+
+        private ExecutorService executorService() {
+            return this.executorService;
+        }
+
+        private Set<String> paths() {
+            return this.paths;
+        }
+
+        private double percentile() {
+            return this.percentile;
+        }
+
+        private synchronized boolean tryAcquire() {
+            final long second = TimeUnit.NANOSECONDS.toSeconds(System.nanoTime());
+            if (second != this.budgetSecond) {
+                this.budgetSecond = second;
+                this.budgetUsed = 0;
+            }
+
+            if (this.budgetUsed >= this.budgetPerSecond) {
+                return false;
+            }
+
+            this.budgetUsed++;
+            return true;
+        }
+    }
+
     private static class ClientAndMetadata {
 
+        private final String name;
         private final Gw2ApiClient client;
+        private final Gw2ApiRateLimiter rateLimiter;
         private volatile Instant cooldownUntil;
+        private boolean latencyMeasured;
+        private double latencyNanosEwma;
+        private double errorRateEwma;
+        private long windowStartNanos;
+        private int windowRequestCount;
+        private final long[] latencyHistory;
+        private int latencyHistoryIndex;
+        private int latencyHistoryCount;
+        private final Counter fallbackCounter;
+        private final Counter cooldownCounter;
 
-        private ClientAndMetadata(Gw2ApiClient client, Instant cooldownUntil) {
+        private ClientAndMetadata(String name, Gw2ApiClient client, Gw2ApiRateLimiter rateLimiter, Instant cooldownUntil, MeterRegistry meterRegistry) {
+            this.name = name;
             this.client = client;
+            this.rateLimiter = rateLimiter;
             this.cooldownUntil = cooldownUntil;
+            this.latencyMeasured = false;
+            this.latencyNanosEwma = 0.0;
+            this.errorRateEwma = 0.0;
+            this.windowStartNanos = System.nanoTime();
+            this.windowRequestCount = 0;
+            this.latencyHistory = new long[LATENCY_HISTORY_SIZE];
+            this.latencyHistoryIndex = 0;
+            this.latencyHistoryCount = 0;
+            this.fallbackCounter = Counter.builder("gw2auth_gw2_api_chain_fallbacks")
+                    .description("requests this member could not answer, so the next member of the chain was tried")
+                    .tag("client.name", name)
+                    .register(meterRegistry);
+            this.cooldownCounter = Counter.builder("gw2auth_gw2_api_chain_cooldowns")
+                    .tag("client.name", name)
+                    .register(meterRegistry);
+
+            Gauge.builder("gw2auth_gw2_api_chain_member_cooldown_seconds", this, (v) -> v.cooldownRemainingSeconds(Instant.now()))
+                    .tag("client.name", name)
+                    .register(meterRegistry);
+            Gauge.builder("gw2auth_gw2_api_chain_member_latency_ewma_seconds", this, (v) -> v.latencyEwmaNanos() / TimeUnit.SECONDS.toNanos(1L))
+                    .tag("client.name", name)
+                    .register(meterRegistry);
+            Gauge.builder("gw2auth_gw2_api_chain_member_error_rate_ewma", this, ClientAndMetadata::errorRateEwma)
+                    .tag("client.name", name)
+                    .register(meterRegistry);
+        }
+
+        private MemberState state(Instant now) {
+            final boolean coolingDown = !now.isAfter(this.cooldownUntil);
+
+            return new MemberState(
+                    this.name,
+                    coolingDown,
+                    coolingDown ? this.cooldownUntil : null,
+                    latencyEwmaNanos() / TimeUnit.MILLISECONDS.toNanos(1L),
+                    errorRateEwma(),
+                    this.rateLimiter == null ? null : this.rateLimiter.availableFraction(),
+                    (long) this.fallbackCounter.count(),
+                    (long) this.cooldownCounter.count()
+            );
+        }
+
+        private double cooldownRemainingSeconds(Instant now) {
+            final Instant cooldownUntil = this.cooldownUntil;
+            if (!now.isBefore(cooldownUntil)) {
+                return 0.0;
+            }
+
+            return Duration.between(now, cooldownUntil).toMillis() / 1000.0;
+        }
+
+        private synchronized double latencyEwmaNanos() {
+            return this.latencyNanosEwma;
+        }
+
+        /**
+         * @return the latency EWMA, or NaN if there are no samples yet
+         */
+        private synchronized double measuredLatencyNanos() {
+            return this.latencyMeasured ? this.latencyNanosEwma : Double.NaN;
+        }
+
+        private synchronized double errorRateEwma() {
+            return this.errorRateEwma;
+        }
+
+        private synchronized void record(long latencyNanos, ResponseEntity<Resource> response) {
+            final boolean isError = response == null
+                    || response.getStatusCode().is5xxServerError()
+                    || response.getStatusCode() == HttpStatus.REQUEST_TIMEOUT
+                    || response.getStatusCode() == HttpStatus.TOO_MANY_REQUESTS;
+
+            if (this.latencyMeasured) {
+                this.latencyNanosEwma = ewma(this.latencyNanosEwma, latencyNanos);
+            } else {
+                this.latencyNanosEwma = latencyNanos;
+                this.latencyMeasured = true;
+            }
+
+            this.errorRateEwma = ewma(this.errorRateEwma, isError ? 1.0 : 0.0);
+
+            if (!isError) {
+                this.latencyHistory[this.latencyHistoryIndex] = latencyNanos;
+                this.latencyHistoryIndex = (this.latencyHistoryIndex + 1) % LATENCY_HISTORY_SIZE;
+                this.latencyHistoryCount = Math.min(this.latencyHistoryCount + 1, LATENCY_HISTORY_SIZE);
+            }
+
+            final long now = System.nanoTime();
+            if (now - this.windowStartNanos >= RATE_LIMIT_WINDOW_NANOS) {
+                this.windowStartNanos = now;
+                this.windowRequestCount = 0;
+            }
+
+            this.windowRequestCount++;
+        }
+
+        private synchronized double score(Instant now, long nowNanos, double unmeasuredLatencyNanos) {
+            if (!now.isAfter(this.cooldownUntil)) {
+                return Double.POSITIVE_INFINITY;
+            }
+
+            final double budget;
+            if (this.rateLimiter != null) {
+                budget = Math.max(this.rateLimiter.availableFraction(), MIN_BUDGET);
+            } else if (nowNanos - this.windowStartNanos >= RATE_LIMIT_WINDOW_NANOS) {
+                budget = 1.0;
+            } else {
+                budget = Math.max(1.0 - ((double) this.windowRequestCount / RATE_LIMIT_PER_WINDOW), MIN_BUDGET);
+            }
+
+            final double latencyNanos = this.latencyMeasured ? this.latencyNanosEwma : unmeasuredLatencyNanos;
+            return Math.max(latencyNanos, MIN_LATENCY_NANOS) * (1.0 + ERROR_RATE_PENALTY * this.errorRateEwma) / budget;
+        }
+
+        private boolean hasRateLimitBudget() {
+            return this.rateLimiter == null || this.rateLimiter.hasAvailable();
+        }
+
+        private boolean tryAcquireRateLimit() {
+            return this.rateLimiter == null || this.rateLimiter.tryAcquire();
+        }
+
+        /**
+         * @return the latency percentile of recent successful requests, or -1 if there is not enough history yet
+         */
+        private long latencyPercentileNanos(double percentile) {
+            final long[] history;
+
+            synchronized (this) {
+                if (this.latencyHistoryCount < LATENCY_HISTORY_MIN_SAMPLES) {
+                    return -1L;
+                }
+
+                history = Arrays.copyOf(this.latencyHistory, this.latencyHistoryCount);
+            }
+
+            Arrays.sort(history);
+            return history[(int) Math.ceil(percentile * history.length) - 1];
+        }
+
+        private static double ewma(double current, double sample) {
+            return current + EWMA_ALPHA * (sample - current);
         }
     }
 }
@@ -0,0 +1,23 @@
+package com.gw2auth.oauth2.server.service.gw2.client;
+
+import org.springframework.boot.actuate.endpoint.annotation.Endpoint;
+import org.springframework.boot.actuate.endpoint.annotation.ReadOperation;
+
+/**
+ * Exposes the live state of the {@link ChainedGw2ApiClient} (cooldowns, latency, error rate and rate limit budget per member).
+ * Disabled unless {@code management.endpoint.gw2apichain.enabled} is set.
+ */
+@Endpoint(id = "gw2apichain")
+public class Gw2ApiChainEndpoint {
+
+    private final ChainedGw2ApiClient chainedGw2ApiClient;
+
+    public Gw2ApiChainEndpoint(ChainedGw2ApiClient chainedGw2ApiClient) {
+        this.chainedGw2ApiClient = chainedGw2ApiClient;
+    }
+
+    @ReadOperation
+    public ChainedGw2ApiClient.State state() {
+        return this.chainedGw2ApiClient.state();
+    }
+}
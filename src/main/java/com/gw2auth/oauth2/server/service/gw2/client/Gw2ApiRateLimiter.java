@@ -0,0 +1,131 @@
+package com.gw2auth.oauth2.server.service.gw2.client;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Token bucket limiting the requests sent through a single {@link Gw2ApiClient}.
+ */
+public class Gw2ApiRateLimiter {
+
+    private final double capacity;
+    private final double tokensPerNano;
+    private final AtomicInteger queueDepth;
+    private final Timer waitTimer;
+    private double tokens;
+    private long lastRefillNanos;
+
+    public Gw2ApiRateLimiter(int capacity, double refillPerSecond, MeterRegistry meterRegistry, String clientName) {
+        if (capacity < 1 || refillPerSecond <= 0.0) {
+            throw new IllegalArgumentException();
+        }
+
+        this.capacity = capacity;
+        this.tokensPerNano = refillPerSecond / TimeUnit.SECONDS.toNanos(1L);
+        this.queueDepth = new AtomicInteger(0);
+        this.waitTimer = Timer.builder("gw2auth_gw2_api_rate_limiter_wait")
+                .tag("client.name", clientName)
+                .register(meterRegistry);
+        this.tokens = capacity;
+        this.lastRefillNanos = System.nanoTime();
+
+        Gauge.builder("gw2auth_gw2_api_rate_limiter_queue_depth", this.queueDepth, AtomicInteger::get)
+                .tag("client.name", clientName)
+                .register(meterRegistry);
+    }
+
+    public synchronized boolean tryAcquire() {
+        refill();
+
+        if (this.tokens >= 1.0) {
+            this.tokens -= 1.0;
+            return true;
+        }
+
+        return false;
+    }
+
+    /**
+     * Waits for a token until the given deadline.
+     * @param deadlineNanos deadline relative to {@link System#nanoTime()}
+     * @return true if a token was acquired before the deadline
+     */
+    public boolean acquire(long deadlineNanos) {
+        if (tryAcquire()) {
+            this.waitTimer.record(Duration.ZERO);
+            return true;
+        }
+
+        final long start = System.nanoTime();
+        this.queueDepth.incrementAndGet();
+
+        try {
+            while (true) {
+                final long waitNanos;
+
+                synchronized (this) {
+                    refill();
+
+                    if (this.tokens >= 1.0) {
+                        this.tokens -= 1.0;
+                        return true;
+                    }
+
+                    waitNanos = nanosUntilAvailableInternal();
+                }
+
+                if (waitNanos > deadlineNanos - System.nanoTime()) {
+                    return false;
+                }
+
+                LockSupport.parkNanos(waitNanos);
+
+                if (Thread.currentThread().isInterrupted()) {
+                    return false;
+                }
+            }
+        } finally {
+            this.queueDepth.decrementAndGet();
+            this.waitTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    public synchronized boolean hasAvailable() {
+        refill();
+        return this.tokens >= 1.0;
+    }
+
+    public synchronized double availableFraction() {
+        refill();
+        return this.tokens / this.capacity;
+    }
+
+    public synchronized long nanosUntilAvailable() {
+        refill();
+        return nanosUntilAvailableInternal();
+    }
+
+    public int queueDepth() {
+        return this.queueDepth.get();
+    }
+
+    private long nanosUntilAvailableInternal() {
+        if (this.tokens >= 1.0) {
+            return 0L;
+        }
+
+        return (long) Math.ceil((1.0 - this.tokens) / this.tokensPerNano);
+    }
+
+    private void refill() {
+        final long now = System.nanoTime();
+        this.tokens = Math.min(this.capacity, this.tokens + (now - this.lastRefillNanos) * this.tokensPerNano);
+        this.lastRefillNanos = now;
+    }
+}
@@ -0,0 +1,203 @@
+package com.gw2auth.oauth2.server.service.gw2.client;
+
+import org.springframework.core.io.ByteArrayResource;
+import org.springframework.core.io.InputStreamResource;
+import org.springframework.core.io.Resource;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.HttpStatusCode;
+import org.springframework.http.ResponseEntity;
+import org.springframework.util.MultiValueMap;
+import org.springframework.web.util.UriComponentsBuilder;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.net.http.HttpTimeoutException;
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+public class HttpClientGw2ApiClient implements Gw2ApiClient {
+
+    private final HttpClient httpClient;
+    private final URI baseUri;
+    private final Duration defaultTimeout;
+
+    public HttpClientGw2ApiClient(HttpClient httpClient, URI baseUri, Duration defaultTimeout) {
+        this.httpClient = httpClient;
+        this.baseUri = baseUri;
+        this.defaultTimeout = defaultTimeout;
+    }
+
+    @Override
+    public ResponseEntity<Resource> get(String path, MultiValueMap<String, String> query, MultiValueMap<String, String> headers) {
+        return get(this.defaultTimeout, path, query, headers);
+    }
+
+    @Override
+    public ResponseEntity<Resource> get(Duration timeout, String path, MultiValueMap<String, String> query, MultiValueMap<String, String> headers) {
+        if (timeout == null) {
+            timeout = this.defaultTimeout;
+        } else if (timeout.isNegative() || timeout.isZero()) {
+            return ResponseEntity.status(HttpStatus.REQUEST_TIMEOUT).body(null);
+        }
+
+        final HttpRequest.Builder requestBuilder = HttpRequest.newBuilder(buildUri(path, query))
+                .GET()
+                .timeout(timeout);
+
+        headers.forEach((name, values) -> values.forEach((value) -> requestBuilder.header(name, value)));
+
+        // the request timeout only covers the response headers; the body has to be read within the same deadline
+        final long deadlineNanos = System.nanoTime() + timeout.toNanos();
+        final CompletableFuture<HttpResponse<InputStream>> future = this.httpClient.sendAsync(requestBuilder.build(), HttpResponse.BodyHandlers.ofInputStream());
+        final HttpResponse<InputStream> response;
+        try {
+            response = future.get(timeout.toNanos(), TimeUnit.NANOSECONDS);
+        } catch (ExecutionException | TimeoutException e) {
+            // includes connect and request timeouts
+            future.cancel(true);
+            return ResponseEntity.status(HttpStatus.REQUEST_TIMEOUT).body(null);
+        } catch (InterruptedException e) {
+            future.cancel(true);
+            Thread.currentThread().interrupt();
+            return ResponseEntity.status(HttpStatus.REQUEST_TIMEOUT).body(null);
+        }
+
+        final HttpStatusCode statusCode = HttpStatusCode.valueOf(response.statusCode());
+        final HttpHeaders responseHeaders = new HttpHeaders();
+
+        response.headers().map().forEach((name, values) -> {
+            if (!name.startsWith(":")) {
+                responseHeaders.addAll(name, values);
+            }
+        });
+
+        final DeadlineInputStream in = new DeadlineInputStream(response.body(), deadlineNanos - System.nanoTime());
+        final Resource body;
+
+        if (statusCode.is2xxSuccessful()) {
+            // successful responses are streamed to the consumer, which closes the stream once done
+            body = new InputStreamResource(in);
+        } else {
+            // error responses are small and may be discarded by the chain without being read
+            try (in) {
+                body = new ByteArrayResource(in.readAllBytes());
+            } catch (IOException e) {
+                return ResponseEntity.status(HttpStatus.REQUEST_TIMEOUT).body(null);
+            }
+        }
+
+        return ResponseEntity.status(statusCode)
+                .headers(responseHeaders)
+                .body(body);
+    }
+
+    private URI buildUri(String path, MultiValueMap<String, String> query) {
+        final UriComponentsBuilder uriComponentsBuilder = UriComponentsBuilder.fromUri(this.baseUri).path(path);
+        final Map<String, String> params = new HashMap<>(query.size());
+        int i = 0;
+        String variableName;
+
+        for (Map.Entry<String, List<String>> entry : query.entrySet()) {
+            for (String value : entry.getValue()) {
+                variableName = "_" + (i++);
+
+                uriComponentsBuilder.queryParam(entry.getKey(), "{" + variableName + "}");
+                params.put(variableName, value);
+            }
+        }
+
+        return uriComponentsBuilder.encode().buildAndExpand(params).toUri();
+    }
+
+    /**
+     * Closes the response body once the deadline has passed, which aborts a pending read.
+     * Reads failing because of that throw a {@link HttpTimeoutException}.
+     */
+    private static final class DeadlineInputStream extends FilterInputStream {
+
+        private final AtomicBoolean closed;
+        private volatile boolean timedOut;
+
+        private DeadlineInputStream(InputStream in, long remainingNanos) {
+            super(in);
+            this.closed = new AtomicBoolean(false);
+            this.timedOut = false;
+
+            if (remainingNanos <= 0L) {
+                onDeadline();
+            } else {
+                CompletableFuture.delayedExecutor(remainingNanos, TimeUnit.NANOSECONDS).execute(this::onDeadline);
+            }
+        }
+
+        private void onDeadline() {
+            if (this.closed.compareAndSet(false, true)) {
+                this.timedOut = true;
+
+                try {
+                    this.in.close();
+                } catch (IOException ignored) {
+                    // nothing left to clean up
+                }
+            }
+        }
+
+        @Override
+        public int read() throws IOException {
+            checkDeadline();
+
+            try {
+                return super.read();
+            } catch (IOException e) {
+                throw mapException(e);
+            }
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            checkDeadline();
+
+            try {
+                return super.read(b, off, len);
+            } catch (IOException e) {
+                throw mapException(e);
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (this.closed.compareAndSet(false, true)) {
+                super.close();
+            }
+        }
+
+        private void checkDeadline() throws HttpTimeoutException {
+            if (this.timedOut) {
+                throw new HttpTimeoutException("deadline exceeded while reading the response body");
+            }
+        }
+
+        private IOException mapException(IOException e) {
+            if (this.timedOut) {
+                final HttpTimeoutException timeoutException = new HttpTimeoutException("deadline exceeded while reading the response body");
+                timeoutException.initCause(e);
+                return timeoutException;
+            }
+
+            return e;
+        }
+    }
+}
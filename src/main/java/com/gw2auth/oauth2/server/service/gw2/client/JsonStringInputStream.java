@@ -0,0 +1,200 @@
+package com.gw2auth.oauth2.server.service.gw2.client;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Objects;
+
+/**
+ * Streams the UTF-8 bytes of a JSON string value directly from the raw (UTF-8 encoded) JSON document,
+ * decoding escape sequences on the fly.
+ */
+final class JsonStringInputStream extends InputStream {
+
+    private final byte[] buf;
+    private final int end;
+    private final byte[] pending;
+    private int pos;
+    private int pendingOffset;
+    private int pendingLength;
+
+    private JsonStringInputStream(byte[] buf, int offset, int end) {
+        this.buf = buf;
+        this.end = end;
+        this.pending = new byte[4];
+        this.pos = offset;
+        this.pendingOffset = 0;
+        this.pendingLength = 0;
+    }
+
+    /**
+     * @param buf the raw JSON document
+     * @param quoteOffset the offset of the opening quote of the string value
+     * @return a stream of the decoded string value, or null if the string is not terminated within buf
+     */
+    static JsonStringInputStream ofQuoted(byte[] buf, int quoteOffset) {
+        if (quoteOffset < 0 || quoteOffset >= buf.length || buf[quoteOffset] != '"') {
+            return null;
+        }
+
+        int i = quoteOffset + 1;
+        while (i < buf.length && buf[i] != '"') {
+            i += (buf[i] == '\\') ? 2 : 1;
+        }
+
+        if (i >= buf.length) {
+            return null;
+        }
+
+        return new JsonStringInputStream(buf, quoteOffset + 1, i);
+    }
+
+    @Override
+    public int read() throws IOException {
+        if (this.pendingOffset < this.pendingLength) {
+            return this.pending[this.pendingOffset++] & 0xFF;
+        } else if (this.pos >= this.end) {
+            return -1;
+        }
+
+        final byte b = this.buf[this.pos++];
+        if (b != '\\') {
+            return b & 0xFF;
+        }
+
+        decodeEscape();
+        return this.pending[this.pendingOffset++] & 0xFF;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        Objects.checkFromIndexSize(off, len, b.length);
+
+        int n = 0;
+        while (n < len) {
+            if (this.pendingOffset < this.pendingLength) {
+                final int count = Math.min(this.pendingLength - this.pendingOffset, len - n);
+                System.arraycopy(this.pending, this.pendingOffset, b, off + n, count);
+                this.pendingOffset += count;
+                n += count;
+            } else if (this.pos >= this.end) {
+                break;
+            } else {
+                // copy the unescaped run as-is
+                final int limit = Math.min(this.end, this.pos + (len - n));
+                int runEnd = this.pos;
+
+                while (runEnd < limit && this.buf[runEnd] != '\\') {
+                    runEnd++;
+                }
+
+                final int count = runEnd - this.pos;
+                System.arraycopy(this.buf, this.pos, b, off + n, count);
+                this.pos = runEnd;
+                n += count;
+
+                if (runEnd < limit) {
+                    this.pos++;
+                    decodeEscape();
+                }
+            }
+        }
+
+        return (n == 0 && len > 0) ? -1 : n;
+    }
+
+    @Override
+    public int available() {
+        return (this.pendingLength - this.pendingOffset) + (this.end - this.pos);
+    }
+
+    private void decodeEscape() throws IOException {
+        if (this.pos >= this.end) {
+            throw new IOException("unterminated escape sequence in json string");
+        }
+
+        final byte c = this.buf[this.pos++];
+        switch (c) {
+            case '"', '\\', '/' -> setPending(c);
+            case 'b' -> setPending((byte) '\b');
+            case 'f' -> setPending((byte) '\f');
+            case 'n' -> setPending((byte) '\n');
+            case 'r' -> setPending((byte) '\r');
+            case 't' -> setPending((byte) '\t');
+            case 'u' -> {
+                int codePoint = readHex4();
+
+                if (Character.isHighSurrogate((char) codePoint)
+                        && this.pos + 1 < this.end
+                        && this.buf[this.pos] == '\\'
+                        && this.buf[this.pos + 1] == 'u') {
+
+                    final int mark = this.pos;
+                    this.pos += 2;
+                    final int low = readHex4();
+
+                    if (Character.isLowSurrogate((char) low)) {
+                        codePoint = Character.toCodePoint((char) codePoint, (char) low);
+                    } else {
+                        this.pos = mark;
+                    }
+                }
+
+                if (codePoint <= 0xFFFF && Character.isSurrogate((char) codePoint)) {
+                    // unpaired surrogate; replaced the same way String#getBytes(UTF_8) does
+                    codePoint = '?';
+                }
+
+                setPendingCodePoint(codePoint);
+            }
+            default -> throw new IOException("invalid escape sequence in json string: \\" + (char) c);
+        }
+    }
+
+    private int readHex4() throws IOException {
+        if (this.pos + 4 > this.end) {
+            throw new IOException("unterminated unicode escape in json string");
+        }
+
+        int value = 0;
+        for (int i = 0; i < 4; i++) {
+            final int digit = Character.digit(this.buf[this.pos++], 16);
+            if (digit == -1) {
+                throw new IOException("invalid unicode escape in json string");
+            }
+
+            value = (value << 4) | digit;
+        }
+
+        return value;
+    }
+
+    private void setPending(byte b) {
+        this.pending[0] = b;
+        this.pendingOffset = 0;
+        this.pendingLength = 1;
+    }
+
+    private void setPendingCodePoint(int codePoint) {
+        if (codePoint < 0x80) {
+            this.pending[0] = (byte) codePoint;
+            this.pendingLength = 1;
+        } else if (codePoint < 0x800) {
+            this.pending[0] = (byte) (0xC0 | (codePoint >> 6));
+            this.pending[1] = (byte) (0x80 | (codePoint & 0x3F));
+            this.pendingLength = 2;
+        } else if (codePoint < 0x10000) {
+            this.pending[0] = (byte) (0xE0 | (codePoint >> 12));
+            this.pending[1] = (byte) (0x80 | ((codePoint >> 6) & 0x3F));
+            this.pending[2] = (byte) (0x80 | (codePoint & 0x3F));
+            this.pendingLength = 3;
+        } else {
+            this.pending[0] = (byte) (0xF0 | (codePoint >> 18));
+            this.pending[1] = (byte) (0x80 | ((codePoint >> 12) & 0x3F));
+            this.pending[2] = (byte) (0x80 | ((codePoint >> 6) & 0x3F));
+            this.pending[3] = (byte) (0x80 | (codePoint & 0x3F));
+            this.pendingLength = 4;
+        }
+
+        this.pendingOffset = 0;
+    }
+}
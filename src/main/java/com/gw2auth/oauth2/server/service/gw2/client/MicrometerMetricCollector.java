@@ -1,7 +1,8 @@
 package com.gw2auth.oauth2.server.service.gw2.client;
 
 import io.micrometer.core.instrument.MeterRegistry;
-import io.micrometer.core.instrument.Tag;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.Timer;
 import org.springframework.boot.actuate.metrics.http.Outcome;
 import org.springframework.core.io.Resource;
 import org.springframework.http.HttpMethod;
@@ -11,54 +12,139 @@ import org.springframework.util.MultiValueMap;
 import java.net.URLDecoder;
 import java.nio.charset.StandardCharsets;
 import java.time.Duration;
-import java.util.Collection;
-import java.util.List;
-import java.util.stream.Collectors;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 
+/**
+ * Records a timer per client, endpoint and status. The timers publish histogram buckets at fixed service level objectives.
+ * Timers are registered once and kept per endpoint, so recording a request only needs map lookups.
+ */
 public class MicrometerMetricCollector implements MetricCollector {
 
+    private static final Duration[] SERVICE_LEVEL_OBJECTIVES = {
+            Duration.ofMillis(50L),
+            Duration.ofMillis(100L),
+            Duration.ofMillis(250L),
+            Duration.ofMillis(500L),
+            Duration.ofSeconds(1L),
+            Duration.ofMillis(2500L),
+            Duration.ofSeconds(5L)
+    };
+    private static final int MAX_STATUS_CODE = 599;
+
     private final MeterRegistry meterRegistry;
     private final String metricName;
     private final String clientName;
+    private final ConcurrentMap<String, PathMeters> metersByPath;
 
     public MicrometerMetricCollector(MeterRegistry meterRegistry, String metricName, String clientName) {
         this.meterRegistry = meterRegistry;
         this.metricName = metricName;
         this.clientName = clientName;
+        this.metersByPath = new ConcurrentHashMap<>();
     }
 
     @Override
     public void collectMetrics(String requestPath, MultiValueMap<String, String> requestQuery, MultiValueMap<String, String> requestHeaders, ResponseEntity<Resource> response, Duration duration) {
-        collectMetrics(requestPath, requestQuery, requestHeaders, response, null, duration);
+        endpointMeters(requestPath, requestQuery).forStatus(response.getStatusCode().value()).record(duration);
     }
 
     @Override
     public void collectMetrics(String requestPath, MultiValueMap<String, String> requestQuery, MultiValueMap<String, String> requestHeaders, Exception exc, Duration duration) {
-        collectMetrics(requestPath, requestQuery, requestHeaders, null, exc, duration);
+        endpointMeters(requestPath, requestQuery).forException(exc.getClass()).record(duration);
     }
 
-    private void collectMetrics(String requestPath, MultiValueMap<String, String> requestQuery, MultiValueMap<String, String> requestHeaders, ResponseEntity<Resource> response, Exception exc, Duration duration) {
-        this.meterRegistry.timer(this.metricName, createTags(requestPath, requestQuery, requestHeaders, response, exc)).record(duration);
+    private EndpointMeters endpointMeters(String requestPath, MultiValueMap<String, String> requestQuery) {
+        PathMeters pathMeters = this.metersByPath.get(requestPath);
+        if (pathMeters == null) {
+            pathMeters = this.metersByPath.computeIfAbsent(requestPath, PathMeters::new);
+        }
+
+        if (requestQuery.isEmpty()) {
+            return pathMeters.withoutQuery;
+        }
+
+        EndpointMeters endpointMeters = pathMeters.byQueryKeys.get(requestQuery.keySet());
+        if (endpointMeters == null) {
+            final Set<String> queryKeys = Set.copyOf(requestQuery.keySet());
+            endpointMeters = pathMeters.byQueryKeys.computeIfAbsent(queryKeys, (k) -> new EndpointMeters(buildRequestUriTemplate(requestPath, k)));
+        }
+
+        return endpointMeters;
     }
 
-    private Collection<Tag> createTags(String requestPath, MultiValueMap<String, String> requestQuery, MultiValueMap<String, String> requestHeaders, ResponseEntity<Resource> response, Exception exc) {
-        return List.of(
-                Tag.of("client.name", this.clientName),
-                Tag.of("method", HttpMethod.GET.name()),
-                Tag.of("uri", buildRequestUriTemplate(requestPath, requestQuery)),
-                Tag.of("status", response == null ? exc.getClass().getSimpleName() : Integer.toString(response.getStatusCode().value())),
-                Tag.of("outcome", response == null ? "UNKNOWN" : Outcome.forStatus(response.getStatusCode().value()).name())
-        );
+    private Timer createTimer(String uriTemplate, String status, String outcome) {
+        return Timer.builder(this.metricName)
+                .tags(Tags.of(
+                        "client.name", this.clientName,
+                        "method", HttpMethod.GET.name(),
+                        "uri", uriTemplate,
+                        "status", status,
+                        "outcome", outcome
+                ))
+                .serviceLevelObjectives(SERVICE_LEVEL_OBJECTIVES)
+                .register(this.meterRegistry);
     }
 
-    private String buildRequestUriTemplate(String requestPath, MultiValueMap<String, String> requestQuery) {
-        if (requestQuery.isEmpty()) {
-            return requestPath;
+    private static String buildRequestUriTemplate(String requestPath, Set<String> queryKeys) {
+        final List<String> sortedKeys = new ArrayList<>(queryKeys);
+        Collections.sort(sortedKeys);
+
+        final StringJoiner joiner = new StringJoiner("&", requestPath + "?", "");
+        for (String key : sortedKeys) {
+            joiner.add(URLDecoder.decode(key, StandardCharsets.US_ASCII) + "={value}");
         }
 
-        return requestPath + "?" + requestQuery.keySet().stream()
-                .sorted()
-                .map((v) -> URLDecoder.decode(v, StandardCharsets.US_ASCII) + "={value}")
-                .collect(Collectors.joining("&"));
+        return joiner.toString();
+    }
+
+    private final class PathMeters {
+
+        private final EndpointMeters withoutQuery;
+        private final ConcurrentMap<Set<String>, EndpointMeters> byQueryKeys;
+
+        private PathMeters(String requestPath) {
+            this.withoutQuery = new EndpointMeters(requestPath);
+            this.byQueryKeys = new ConcurrentHashMap<>();
+        }
+    }
+
+    private final class EndpointMeters {
+
+        private final String uriTemplate;
+        private final AtomicReferenceArray<Timer> byStatus;
+        private final ConcurrentMap<Class<?>, Timer> byException;
+
+        private EndpointMeters(String uriTemplate) {
+            this.uriTemplate = uriTemplate;
+            this.byStatus = new AtomicReferenceArray<>(MAX_STATUS_CODE + 1);
+            this.byException = new ConcurrentHashMap<>();
+        }
+
+        private Timer forStatus(int status) {
+            if (status < 0 || status > MAX_STATUS_CODE) {
+                return createTimer(this.uriTemplate, Integer.toString(status), Outcome.forStatus(status).name());
+            }
+
+            Timer timer = this.byStatus.get(status);
+            if (timer == null) {
+                // registering is idempotent, a concurrent registration yields the same timer
+                timer = createTimer(this.uriTemplate, Integer.toString(status), Outcome.forStatus(status).name());
+                this.byStatus.set(status, timer);
+            }
+
+            return timer;
+        }
+
+        private Timer forException(Class<?> exceptionClass) {
+            Timer timer = this.byException.get(exceptionClass);
+            if (timer == null) {
+                timer = this.byException.computeIfAbsent(exceptionClass, (k) -> createTimer(this.uriTemplate, k.getSimpleName(), "UNKNOWN"));
+            }
+
+            return timer;
+        }
     }
 }
@@ -10,8 +10,12 @@ import com.gw2auth.oauth2.server.service.Clocked;
 import com.gw2auth.oauth2.server.service.Gw2ApiPermission;
 import com.gw2auth.oauth2.server.service.account.AccountService;
 import com.gw2auth.oauth2.server.service.gw2.*;
+import com.gw2auth.oauth2.server.service.gw2.client.Gw2ApiRateLimiter;
 import com.gw2auth.oauth2.server.service.gw2account.Gw2AccountService;
+import com.gw2auth.oauth2.server.service.gw2account.subtoken.Gw2AccountApiSubtokenService;
 import com.gw2auth.oauth2.server.service.gw2account.verification.Gw2AccountVerificationService;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Value;
@@ -25,46 +29,76 @@ import java.time.Clock;
 import java.time.Duration;
 import java.time.Instant;
 import java.util.*;
-import java.util.concurrent.TimeUnit;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 @Service
 @EnableScheduling
 public class Gw2AccountApiTokenServiceImpl implements Gw2AccountApiTokenService, Clocked {
 
     private static final Logger LOG = LoggerFactory.getLogger(Gw2AccountApiTokenServiceImpl.class);
-    private static final int VALIDITY_CHECK_BATCH_SIZE = 50;
+    private static final Duration REFRESH_INTERVAL = Duration.ofMinutes(1L);
+    private static final int MIN_REFRESH_BATCH_SIZE = 50;
 
     private final Duration nameCheckInterval;
     private final Duration validCheckInterval;
     private final Duration validCheckIgnoreAfter;
+    private final Duration refreshClaimDuration;
+    private final Duration refreshTargetStaleness;
+    private final Gw2ApiRateLimiter refreshRateLimiter;
+    private final int maxRefreshBatchSize;
+    private final AtomicInteger refreshBatchSize;
+    private final AtomicLong refreshLagSeconds;
     private final Gw2AccountRepository gw2AccountRepository;
     private final Gw2AccountApiTokenRepository gw2AccountApiTokenRepository;
     private final AccountService accountService;
     private final Gw2AccountService gw2AccountService;
     private final Gw2AccountVerificationService gw2AccountVerificationService;
+    private final Gw2AccountApiSubtokenService gw2AccountApiSubtokenService;
     private final Gw2ApiService gw2ApiService;
     private Clock clock;
 
     public Gw2AccountApiTokenServiceImpl(@Value("${com.gw2auth.token.name-check.interval}") Duration nameCheckInterval,
                                          @Value("${com.gw2auth.token.valid-check.interval}") Duration validCheckInterval,
                                          @Value("${com.gw2auth.token.valid-check.ignore-after}") Duration validCheckIgnoreAfter,
+                                         @Value("${com.gw2auth.token.valid-check.claim-duration:PT5M}") Duration refreshClaimDuration,
+                                         @Value("${com.gw2auth.token.valid-check.target-staleness:PT30M}") Duration refreshTargetStaleness,
+                                         @Value("${com.gw2auth.token.valid-check.rate-limit.capacity:50}") int refreshRateLimitCapacity,
+                                         @Value("${com.gw2auth.token.valid-check.rate-limit.refill-per-second:5}") double refreshRateLimitRefillPerSecond,
                                          Gw2AccountRepository gw2AccountRepository,
                                          Gw2AccountApiTokenRepository gw2AccountApiTokenRepository,
                                          AccountService accountService,
                                          Gw2AccountService gw2AccountService,
                                          Gw2AccountVerificationService gw2AccountVerificationService,
-                                         Gw2ApiService gw2ApiService) {
+                                         Gw2AccountApiSubtokenService gw2AccountApiSubtokenService,
+                                         Gw2ApiService gw2ApiService,
+                                         MeterRegistry meterRegistry) {
 
         this.validCheckInterval = validCheckInterval;
         this.validCheckIgnoreAfter = validCheckIgnoreAfter;
+        this.refreshClaimDuration = refreshClaimDuration;
+        this.refreshTargetStaleness = refreshTargetStaleness;
+        this.refreshRateLimiter = new Gw2ApiRateLimiter(refreshRateLimitCapacity, refreshRateLimitRefillPerSecond, meterRegistry, "token-refresh");
+        // never claim more tokens per run than the budget allows to check within one interval
+        this.maxRefreshBatchSize = Math.max(MIN_REFRESH_BATCH_SIZE, (int) (refreshRateLimitRefillPerSecond * REFRESH_INTERVAL.toSeconds()));
+        this.refreshBatchSize = new AtomicInteger(MIN_REFRESH_BATCH_SIZE);
+        this.refreshLagSeconds = new AtomicLong(0L);
         this.nameCheckInterval = nameCheckInterval;
         this.gw2AccountRepository = gw2AccountRepository;
         this.gw2AccountApiTokenRepository = gw2AccountApiTokenRepository;
         this.accountService = accountService;
         this.gw2AccountService = gw2AccountService;
         this.gw2AccountVerificationService = gw2AccountVerificationService;
+        this.gw2AccountApiSubtokenService = gw2AccountApiSubtokenService;
         this.gw2ApiService = gw2ApiService;
         this.clock = Clock.systemUTC();
+
+        Gauge.builder("gw2auth_token_refresh_batch_size", this.refreshBatchSize, AtomicInteger::get)
+                .register(meterRegistry);
+
+        Gauge.builder("gw2auth_token_refresh_lag_seconds", this.refreshLagSeconds, AtomicLong::get)
+                .register(meterRegistry);
     }
 
     @Override
@@ -99,6 +133,7 @@ public class Gw2AccountApiTokenServiceImpl implements Gw2AccountApiTokenService,
 
         if (optionalVerification.isPresent() && !optionalVerification.get().equals(accountId)) {
             this.gw2AccountApiTokenRepository.deleteByAccountIdAndGw2AccountId(accountId, gw2Account.id());
+            this.gw2AccountApiSubtokenService.evictSubtokens(accountId, gw2Account.id());
             throw new Gw2AccountApiTokenOwnershipMismatchException();
         }
 
@@ -118,6 +153,9 @@ public class Gw2AccountApiTokenServiceImpl implements Gw2AccountApiTokenService,
                 now
         ));
 
+        // subtokens of a replaced API Token must not be handed out anymore
+        this.gw2AccountApiSubtokenService.deleteSubtokens(accountId, gw2Account.id());
+
         this.accountService.log(
                 accountId,
                 "The API Token has been added or updated",
@@ -134,6 +172,8 @@ public class Gw2AccountApiTokenServiceImpl implements Gw2AccountApiTokenService,
             throw new Gw2AccountApiTokenServiceException(Gw2AccountApiTokenServiceException.API_TOKEN_NOT_FOUND, HttpStatus.NOT_FOUND);
         }
 
+        this.gw2AccountApiSubtokenService.evictSubtokens(accountId, gw2AccountId);
+
         this.accountService.log(
                 accountId,
                 "The API Token has been deleted",
@@ -150,15 +190,23 @@ public class Gw2AccountApiTokenServiceImpl implements Gw2AccountApiTokenService,
         this.gw2AccountApiTokenRepository.updateApiTokensValid(lastValidCheckTime, updates);
     }
 
-    @Scheduled(fixedRate = 10L, timeUnit = TimeUnit.MINUTES)
+    @Scheduled(fixedRate = 1L, timeUnit = TimeUnit.MINUTES)
     public void refreshTokenValidityAndAccountName() {
         final Instant now = this.clock.instant();
-        final List<Gw2AccountRefreshEntity> tokensToCheck = this.gw2AccountApiTokenRepository.findAllApplicableForRefresh(
+        final int batchSize = this.refreshBatchSize.get();
+        // every instance claims its own batch; tokens which could not be checked become claimable again once the claim expires
+        final List<Gw2AccountRefreshEntity> tokensToCheck = this.gw2AccountApiTokenRepository.claimAllApplicableForRefresh(
                 now.minus(this.validCheckIgnoreAfter),
                 now.minus(this.validCheckInterval),
                 now.minus(this.nameCheckInterval),
-                VALIDITY_CHECK_BATCH_SIZE
+                now,
+                now.plus(this.refreshClaimDuration),
+                batchSize
         );
+
+        adjustRefreshBatchSize(now, batchSize, tokensToCheck);
+
+        final List<TokenRefreshResult> results = checkAll(tokensToCheck);
         final List<Gw2AccountApiTokenValidUpdateEntity> validUpdateEntities = new ArrayList<>(tokensToCheck.size());
         final List<Gw2AccountNameUpdateEntity> nameUpdateEntities = new ArrayList<>(tokensToCheck.size());
         int validCount = 0;
@@ -166,36 +214,36 @@ public class Gw2AccountApiTokenServiceImpl implements Gw2AccountApiTokenService,
         int unknownCount = 0;
         int accountNameChangedCount = 0;
 
-        for (Gw2AccountRefreshEntity apiTokenValidCheckEntity : tokensToCheck) {
-            Boolean isValidState;
-            try {
-                final Gw2Account gw2Account = this.gw2ApiService.getAccount(apiTokenValidCheckEntity.gw2ApiToken());
-                isValidState = true;
-                validCount++;
-
-                final boolean hasAccountNameChanged = !gw2Account.name().equals(apiTokenValidCheckEntity.gw2AccountName());
-                nameUpdateEntities.add(new Gw2AccountNameUpdateEntity(apiTokenValidCheckEntity.accountId(), apiTokenValidCheckEntity.gw2AccountId(), gw2Account.name(), hasAccountNameChanged));
-
-                if (hasAccountNameChanged) {
-                    LOG.info(
-                            "gw2 account name changed for gw2_account_id={} on account_id={}; old={} new={}",
-                            apiTokenValidCheckEntity.gw2AccountId(),
-                            apiTokenValidCheckEntity.accountId(),
-                            apiTokenValidCheckEntity.gw2AccountName(),
-                            gw2Account.name()
-                    );
-                    accountNameChangedCount++;
-                }
-            } catch (InvalidApiTokenException e) {
-                isValidState = false;
-                invalidCount++;
-            } catch (Gw2ApiServiceException e) {
-                isValidState = null;
+        for (TokenRefreshResult result : results) {
+            final Gw2AccountRefreshEntity apiTokenValidCheckEntity = result.token();
+
+            if (result.isValid() == null) {
                 unknownCount++;
+                continue;
             }
 
-            if (isValidState != null) {
-                validUpdateEntities.add(new Gw2AccountApiTokenValidUpdateEntity(apiTokenValidCheckEntity.accountId(), apiTokenValidCheckEntity.gw2AccountId(), isValidState));
+            validUpdateEntities.add(new Gw2AccountApiTokenValidUpdateEntity(apiTokenValidCheckEntity.accountId(), apiTokenValidCheckEntity.gw2AccountId(), result.isValid()));
+
+            if (!result.isValid()) {
+                invalidCount++;
+                continue;
+            }
+
+            validCount++;
+
+            final Gw2Account gw2Account = result.gw2Account();
+            final boolean hasAccountNameChanged = !gw2Account.name().equals(apiTokenValidCheckEntity.gw2AccountName());
+            nameUpdateEntities.add(new Gw2AccountNameUpdateEntity(apiTokenValidCheckEntity.accountId(), apiTokenValidCheckEntity.gw2AccountId(), gw2Account.name(), hasAccountNameChanged));
+
+            if (hasAccountNameChanged) {
+                LOG.info(
+                        "gw2 account name changed for gw2_account_id={} on account_id={}; old={} new={}",
+                        apiTokenValidCheckEntity.gw2AccountId(),
+                        apiTokenValidCheckEntity.accountId(),
+                        apiTokenValidCheckEntity.gw2AccountName(),
+                        gw2Account.name()
+                );
+                accountNameChangedCount++;
             }
         }
 
@@ -209,4 +257,75 @@ public class Gw2AccountApiTokenServiceImpl implements Gw2AccountApiTokenService,
             LOG.info("updated gw2 account names for {} accounts", accountNameChangedCount);
         }
     }
+
+    private List<TokenRefreshResult> checkAll(List<Gw2AccountRefreshEntity> tokensToCheck) {
+        // tokens which did not get a share of the budget by then are left to the next claim
+        final long deadlineNanos = System.nanoTime() + this.refreshClaimDuration.dividedBy(2L).toNanos();
+        final List<Future<TokenRefreshResult>> futures = new ArrayList<>(tokensToCheck.size());
+
+        try (ExecutorService executorService = Executors.newVirtualThreadPerTaskExecutor()) {
+            for (Gw2AccountRefreshEntity token : tokensToCheck) {
+                futures.add(executorService.submit(() -> check(token, deadlineNanos)));
+            }
+        }
+
+        final List<TokenRefreshResult> results = new ArrayList<>(futures.size());
+        for (int i = 0; i < futures.size(); i++) {
+            try {
+                results.add(futures.get(i).get());
+            } catch (ExecutionException e) {
+                LOG.warn("unexpected failure checking api token for gw2_account_id={}", tokensToCheck.get(i).gw2AccountId(), e.getCause());
+                results.add(new TokenRefreshResult(tokensToCheck.get(i), null, null));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                results.add(new TokenRefreshResult(tokensToCheck.get(i), null, null));
+            }
+        }
+
+        return results;
+    }
+
+    private TokenRefreshResult check(Gw2AccountRefreshEntity token, long deadlineNanos) {
+        if (!this.refreshRateLimiter.acquire(deadlineNanos)) {
+            return new TokenRefreshResult(token, null, null);
+        }
+
+        try {
+            return new TokenRefreshResult(token, true, this.gw2ApiService.getAccount(token.gw2ApiToken()));
+        } catch (InvalidApiTokenException e) {
+            return new TokenRefreshResult(token, false, null);
+        } catch (Gw2ApiServiceException e) {
+            return new TokenRefreshResult(token, null, null);
+        }
+    }
+
+    private void adjustRefreshBatchSize(Instant now, int batchSize, List<Gw2AccountRefreshEntity> claimedTokens) {
+        Duration lag = Duration.ZERO;
+        for (Gw2AccountRefreshEntity token : claimedTokens) {
+            final Duration validCheckLag = Duration.between(token.lastValidCheckTime().plus(this.validCheckInterval), now);
+            final Duration nameCheckLag = Duration.between(token.lastNameCheckTime().plus(this.nameCheckInterval), now);
+
+            lag = max(lag, max(validCheckLag, nameCheckLag));
+        }
+
+        final int nextBatchSize;
+        if (claimedTokens.size() < batchSize) {
+            // everything due has been claimed, give back capacity gradually
+            nextBatchSize = Math.max(MIN_REFRESH_BATCH_SIZE, Math.max(claimedTokens.size(), batchSize / 2));
+        } else if (lag.compareTo(this.refreshTargetStaleness) > 0) {
+            nextBatchSize = Math.min(this.maxRefreshBatchSize, batchSize * 2);
+        } else {
+            nextBatchSize = batchSize;
+        }
+
+        this.refreshBatchSize.set(nextBatchSize);
+        this.refreshLagSeconds.set(lag.toSeconds());
+    }
+
+    private static Duration max(Duration a, Duration b) {
+        return a.compareTo(b) >= 0 ? a : b;
+    }
+
+    private record TokenRefreshResult(Gw2AccountRefreshEntity token, Boolean isValid, Gw2Account gw2Account) {
+    }
 }
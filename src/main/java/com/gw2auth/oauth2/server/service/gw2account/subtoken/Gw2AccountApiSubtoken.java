@@ -0,0 +1,35 @@
+package com.gw2auth.oauth2.server.service.gw2account.subtoken;
+
+import com.gw2auth.oauth2.server.repository.gw2account.subtoken.Gw2AccountApiSubtokenEntity;
+import com.gw2auth.oauth2.server.service.Gw2ApiPermission;
+
+import java.time.Instant;
+import java.util.Set;
+import java.util.UUID;
+
+public record Gw2AccountApiSubtoken(UUID accountId,
+                                    UUID gw2AccountId,
+                                    Set<Gw2ApiPermission> gw2ApiPermissions,
+                                    String value,
+                                    Instant expirationTime) {
+
+    public static Gw2AccountApiSubtoken fromEntity(Gw2AccountApiSubtokenEntity entity) {
+        return new Gw2AccountApiSubtoken(
+                entity.accountId(),
+                entity.gw2AccountId(),
+                Gw2ApiPermission.fromBitSet(entity.gw2ApiPermissionsBitSet()),
+                entity.gw2ApiSubtoken(),
+                entity.expirationTime()
+        );
+    }
+
+    public Gw2AccountApiSubtokenEntity toEntity() {
+        return new Gw2AccountApiSubtokenEntity(
+                this.accountId,
+                this.gw2AccountId,
+                Gw2ApiPermission.toBitSet(this.gw2ApiPermissions),
+                this.value,
+                this.expirationTime
+        );
+    }
+}
@@ -0,0 +1,31 @@
+package com.gw2auth.oauth2.server.service.gw2account.subtoken;
+
+import com.gw2auth.oauth2.server.service.Gw2ApiPermission;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+
+public interface Gw2AccountApiSubtokenService {
+
+    Duration MIN_REMAINING_VALIDITY = Duration.ofMinutes(20L);
+
+    /**
+     * @param gw2ApiTokenByGw2AccountId the current root API Token of each GW2 Account; only subtokens created from these are returned
+     */
+    List<Gw2AccountApiSubtoken> getSubtokens(UUID accountId, Map<UUID, String> gw2ApiTokenByGw2AccountId, Set<Gw2ApiPermission> gw2ApiPermissions, Instant validUntilAtLeast);
+
+    /**
+     * @param gw2ApiTokenByGw2AccountId the root API Token each subtoken has been created from; subtokens of replaced root API Tokens are not saved
+     */
+    void saveSubtokens(UUID accountId, Map<UUID, String> gw2ApiTokenByGw2AccountId, Collection<Gw2AccountApiSubtoken> subtokens);
+
+    void deleteSubtokens(UUID accountId, UUID gw2AccountId);
+
+    void evictSubtokens(UUID accountId, UUID gw2AccountId);
+    void evictSubtokens(UUID accountId);
+}
@@ -0,0 +1,263 @@
+package com.gw2auth.oauth2.server.service.gw2account.subtoken;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.Expiry;
+import com.gw2auth.oauth2.server.repository.gw2account.subtoken.Gw2AccountApiSubtokenEntity;
+import com.gw2auth.oauth2.server.repository.gw2account.subtoken.Gw2AccountApiSubtokenRepository;
+import com.gw2auth.oauth2.server.service.Clocked;
+import com.gw2auth.oauth2.server.service.Gw2ApiPermission;
+import com.gw2auth.oauth2.server.util.Pair;
+import com.gw2auth.oauth2.server.util.Sha256;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.*;
+
+/**
+ * Subtokens are cached per account, each one together with a hash of the root API Token it has been created from.
+ * A cached subtoken is only used while that root API Token is still the current one of its GW2 Account.
+ */
+@Service
+public class Gw2AccountApiSubtokenServiceImpl implements Gw2AccountApiSubtokenService, Clocked {
+
+    private final Gw2AccountApiSubtokenRepository gw2AccountApiSubtokenRepository;
+    private final Cache<UUID, AccountSubtokens> cache;
+    private Clock clock;
+
+    @Autowired
+    public Gw2AccountApiSubtokenServiceImpl(@Value("${com.gw2auth.subtoken.cache.max-size:100000}") long cacheMaxSize,
+                                            Gw2AccountApiSubtokenRepository gw2AccountApiSubtokenRepository,
+                                            MeterRegistry meterRegistry) {
+
+        this.gw2AccountApiSubtokenRepository = gw2AccountApiSubtokenRepository;
+        this.cache = Caffeine.newBuilder()
+                .maximumWeight(cacheMaxSize)
+                .weigher((UUID key, AccountSubtokens value) -> value.subtokens().size())
+                .expireAfter(new SubtokenExpiry())
+                .recordStats()
+                .build();
+        this.clock = Clock.systemUTC();
+
+        CaffeineCacheMetrics.monitor(meterRegistry, this.cache, "gw2_account_api_subtokens");
+    }
+
+    @Override
+    public void setClock(Clock clock) {
+        this.clock = Objects.requireNonNull(clock);
+    }
+
+    @Override
+    public List<Gw2AccountApiSubtoken> getSubtokens(UUID accountId, Map<UUID, String> gw2ApiTokenByGw2AccountId, Set<Gw2ApiPermission> gw2ApiPermissions, Instant validUntilAtLeast) {
+        final int gw2ApiPermissionsBitSet = Gw2ApiPermission.toBitSet(gw2ApiPermissions);
+        final AccountSubtokens cached = this.cache.getIfPresent(accountId);
+        final List<Gw2AccountApiSubtoken> result = new ArrayList<>(gw2ApiTokenByGw2AccountId.size());
+        final Map<UUID, byte[]> missingGw2ApiTokenHashByGw2AccountId = new HashMap<>();
+
+        for (Map.Entry<UUID, String> entry : gw2ApiTokenByGw2AccountId.entrySet()) {
+            final UUID gw2AccountId = entry.getKey();
+            final byte[] gw2ApiTokenHash = Sha256.digest(entry.getValue());
+            final CachedSubtoken cachedSubtoken = cached == null ? null : cached.subtokens().get(new SubtokenKey(gw2AccountId, gw2ApiPermissionsBitSet));
+
+            if (cachedSubtoken != null
+                    && cachedSubtoken.isCreatedFrom(gw2ApiTokenHash)
+                    && cachedSubtoken.subtoken().expirationTime().isAfter(validUntilAtLeast)) {
+
+                result.add(cachedSubtoken.subtoken());
+            } else {
+                missingGw2ApiTokenHashByGw2AccountId.put(gw2AccountId, gw2ApiTokenHash);
+            }
+        }
+
+        if (!missingGw2ApiTokenHashByGw2AccountId.isEmpty()) {
+            // rows are removed whenever their root API Token is replaced or deleted, so they belong to the current one
+            final List<Gw2AccountApiSubtokenEntity> entities = this.gw2AccountApiSubtokenRepository.findAllByAccountIdGw2AccountIdsAndGw2ApiPermissionsBitSet(accountId, missingGw2ApiTokenHashByGw2AccountId.keySet(), gw2ApiPermissionsBitSet);
+            final List<CachedSubtoken> toCache = new ArrayList<>(entities.size());
+
+            for (Gw2AccountApiSubtokenEntity entity : entities) {
+                final Gw2AccountApiSubtoken subtoken = Gw2AccountApiSubtoken.fromEntity(entity);
+
+                if (subtoken.expirationTime().isAfter(validUntilAtLeast)) {
+                    toCache.add(new CachedSubtoken(subtoken, missingGw2ApiTokenHashByGw2AccountId.get(entity.gw2AccountId())));
+                    result.add(subtoken);
+                }
+            }
+
+            afterCommit(() -> putAll(accountId, toCache));
+        }
+
+        return result;
+    }
+
+    @Override
+    public void saveSubtokens(UUID accountId, Map<UUID, String> gw2ApiTokenByGw2AccountId, Collection<Gw2AccountApiSubtoken> subtokens) {
+        final List<Pair<Gw2AccountApiSubtokenEntity, String>> entitiesWithGw2ApiToken = new ArrayList<>(subtokens.size());
+
+        for (Gw2AccountApiSubtoken subtoken : subtokens) {
+            if (!subtoken.accountId().equals(accountId)) {
+                throw new IllegalArgumentException("all subtokens must belong to the given account");
+            }
+
+            entitiesWithGw2ApiToken.add(new Pair<>(subtoken.toEntity(), Objects.requireNonNull(gw2ApiTokenByGw2AccountId.get(subtoken.gw2AccountId()))));
+        }
+
+        if (entitiesWithGw2ApiToken.isEmpty()) {
+            return;
+        }
+
+        final boolean[] saved = this.gw2AccountApiSubtokenRepository.saveAllIfApiTokenMatches(entitiesWithGw2ApiToken);
+        final List<CachedSubtoken> toCache = new ArrayList<>(saved.length);
+
+        for (int i = 0; i < saved.length; i++) {
+            if (saved[i]) {
+                final Pair<Gw2AccountApiSubtokenEntity, String> entityWithGw2ApiToken = entitiesWithGw2ApiToken.get(i);
+                toCache.add(new CachedSubtoken(Gw2AccountApiSubtoken.fromEntity(entityWithGw2ApiToken.v1()), Sha256.digest(entityWithGw2ApiToken.v2())));
+            }
+        }
+
+        afterCommit(() -> putAll(accountId, toCache));
+    }
+
+    @Override
+    @Transactional
+    public void deleteSubtokens(UUID accountId, UUID gw2AccountId) {
+        this.gw2AccountApiSubtokenRepository.deleteAllByAccountIdAndGw2AccountId(accountId, gw2AccountId);
+        evictSubtokens(accountId, gw2AccountId);
+    }
+
+    @Override
+    public void evictSubtokens(UUID accountId, UUID gw2AccountId) {
+        final Runnable evict = () -> this.cache.asMap().computeIfPresent(accountId, (k, v) -> v.without(gw2AccountId));
+
+        // a concurrent lookup might cache the old state before the current transaction commits
+        evict.run();
+        afterCompletion(evict);
+    }
+
+    @Override
+    public void evictSubtokens(UUID accountId) {
+        final Runnable evict = () -> this.cache.invalidate(accountId);
+
+        evict.run();
+        afterCompletion(evict);
+    }
+
+    private void putAll(UUID accountId, List<CachedSubtoken> subtokens) {
+        if (subtokens.isEmpty()) {
+            return;
+        }
+
+        final Instant keepUntil = this.clock.instant().plus(MIN_REMAINING_VALIDITY);
+        this.cache.asMap().compute(accountId, (k, v) -> (v == null ? AccountSubtokens.EMPTY : v).with(subtokens, keepUntil));
+    }
+
+    private static void afterCommit(Runnable runnable) {
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    runnable.run();
+                }
+            });
+        } else {
+            runnable.run();
+        }
+    }
+
+    private static void afterCompletion(Runnable runnable) {
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCompletion(int status) {
+                    runnable.run();
+                }
+            });
+        }
+    }
+
+    private record SubtokenKey(UUID gw2AccountId, int gw2ApiPermissionsBitSet) {}
+
+    private record CachedSubtoken(Gw2AccountApiSubtoken subtoken, byte[] gw2ApiTokenHash) {
+
+        boolean isCreatedFrom(byte[] gw2ApiTokenHash) {
+            return Arrays.equals(this.gw2ApiTokenHash, gw2ApiTokenHash);
+        }
+    }
+
+    private record AccountSubtokens(Map<SubtokenKey, CachedSubtoken> subtokens) {
+
+        static final AccountSubtokens EMPTY = new AccountSubtokens(Map.of());
+
+        AccountSubtokens with(List<CachedSubtoken> add, Instant keepUntil) {
+            final Map<SubtokenKey, CachedSubtoken> subtokens = new HashMap<>(this.subtokens.size() + add.size());
+
+            for (Map.Entry<SubtokenKey, CachedSubtoken> entry : this.subtokens.entrySet()) {
+                if (entry.getValue().subtoken().expirationTime().isAfter(keepUntil)) {
+                    subtokens.put(entry.getKey(), entry.getValue());
+                }
+            }
+
+            for (CachedSubtoken cachedSubtoken : add) {
+                final Gw2AccountApiSubtoken subtoken = cachedSubtoken.subtoken();
+                subtokens.put(new SubtokenKey(subtoken.gw2AccountId(), Gw2ApiPermission.toBitSet(subtoken.gw2ApiPermissions())), cachedSubtoken);
+            }
+
+            return new AccountSubtokens(Map.copyOf(subtokens));
+        }
+
+        AccountSubtokens without(UUID gw2AccountId) {
+            final Map<SubtokenKey, CachedSubtoken> subtokens = new HashMap<>(this.subtokens);
+            subtokens.keySet().removeIf((key) -> key.gw2AccountId().equals(gw2AccountId));
+
+            return subtokens.isEmpty() ? null : new AccountSubtokens(Map.copyOf(subtokens));
+        }
+
+        Instant latestExpirationTime() {
+            Instant latest = Instant.MIN;
+            for (CachedSubtoken cachedSubtoken : this.subtokens.values()) {
+                final Instant expirationTime = cachedSubtoken.subtoken().expirationTime();
+                if (expirationTime.isAfter(latest)) {
+                    latest = expirationTime;
+                }
+            }
+
+            return latest;
+        }
+    }
+
+    private final class SubtokenExpiry implements Expiry<UUID, AccountSubtokens> {
+
+        @Override
+        public long expireAfterCreate(UUID key, AccountSubtokens value, long currentTime) {
+            if (value.subtokens().isEmpty()) {
+                return 0L;
+            }
+
+            final Duration remaining = Duration.between(
+                    Gw2AccountApiSubtokenServiceImpl.this.clock.instant(),
+                    value.latestExpirationTime().minus(MIN_REMAINING_VALIDITY)
+            );
+
+            return Math.max(remaining.toNanos(), 0L);
+        }
+
+        @Override
+        public long expireAfterUpdate(UUID key, AccountSubtokens value, long currentTime, long currentDuration) {
+            return expireAfterCreate(key, value, currentTime);
+        }
+
+        @Override
+        public long expireAfterRead(UUID key, AccountSubtokens value, long currentTime, long currentDuration) {
+            return currentDuration;
+        }
+    }
+}
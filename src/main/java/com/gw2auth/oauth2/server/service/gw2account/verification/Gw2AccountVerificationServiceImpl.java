@@ -14,17 +14,21 @@ import io.micrometer.core.instrument.Tags;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.http.HttpStatus;
 import org.springframework.scheduling.annotation.EnableScheduling;
 import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionOperations;
 
 import java.io.IOException;
 import java.time.Clock;
 import java.time.Duration;
 import java.time.Instant;
 import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
 import java.util.stream.Collectors;
 
@@ -43,6 +47,14 @@ public class Gw2AccountVerificationServiceImpl implements Gw2AccountVerification
     private final Gw2AccountService gw2AccountService;
     private final Map<Long, VerificationChallenge<?>> challengesById;
     private final MeterRegistry meterRegistry;
+    private final TransactionOperations transactionOperations;
+    private final int batchSize;
+    private final Duration claimDuration;
+    private final Duration backoffInitial;
+    private final Duration backoffMax;
+    private final Duration maxPollInterval;
+    private final boolean pollEnabled;
+    private volatile Instant nextPollTime;
     private Clock clock;
 
     @Autowired
@@ -54,7 +66,14 @@ public class Gw2AccountVerificationServiceImpl implements Gw2AccountVerification
                                              Gw2ApiService gw2ApiService,
                                              AccountService accountService,
                                              Gw2AccountService gw2AccountService,
-                                             MeterRegistry meterRegistry) {
+                                             MeterRegistry meterRegistry,
+                                             TransactionOperations transactionOperations,
+                                             @Value("${com.gw2auth.verification.batch-size:100}") int batchSize,
+                                             @Value("${com.gw2auth.verification.claim-duration:PT2M}") Duration claimDuration,
+                                             @Value("${com.gw2auth.verification.backoff.initial:PT15S}") Duration backoffInitial,
+                                             @Value("${com.gw2auth.verification.backoff.max:PT1M}") Duration backoffMax,
+                                             @Value("${com.gw2auth.verification.max-poll-interval:PT30S}") Duration maxPollInterval,
+                                             @Value("${com.gw2auth.verification.poll.enabled:true}") boolean pollEnabled) {
 
         this.gw2AccountApiTokenRepository = gw2AccountApiTokenRepository;
         this.gw2AccountVerificationRepository = gw2AccountVerificationRepository;
@@ -64,6 +83,14 @@ public class Gw2AccountVerificationServiceImpl implements Gw2AccountVerification
         this.accountService = accountService;
         this.gw2AccountService = gw2AccountService;
         this.meterRegistry = meterRegistry;
+        this.transactionOperations = transactionOperations;
+        this.batchSize = batchSize;
+        this.claimDuration = claimDuration;
+        this.backoffInitial = backoffInitial;
+        this.backoffMax = backoffMax;
+        this.maxPollInterval = maxPollInterval;
+        this.pollEnabled = pollEnabled;
+        this.nextPollTime = Instant.EPOCH;
         this.clock = Clock.systemDefaultZone();
 
         final Map<Long, VerificationChallenge<?>> challengesById = new HashMap<>(verificationChallenges.size());
@@ -183,7 +210,8 @@ public class Gw2AccountVerificationServiceImpl implements Gw2AccountVerification
 
         final Instant startTime = this.clock.instant();
         final Instant timeout = startTime.plus(challenge.getTimeout());
-        final Gw2SubToken gw2SubToken = this.gw2ApiService.createSubToken(gw2ApiToken, challenge.getRequiredGw2ApiPermissions(), timeout);
+        // the last attempt runs once the timeout is reached, the subtoken has to outlive the claim of that attempt
+        final Gw2SubToken gw2SubToken = this.gw2ApiService.createSubToken(gw2ApiToken, challenge.getRequiredGw2ApiPermissions(), timeout.plus(this.claimDuration));
 
         if (!gw2SubToken.permissions().containsAll(challenge.getRequiredGw2ApiPermissions())) {
             throw new Gw2AccountVerificationServiceException(Gw2AccountVerificationServiceException.INSUFFICIENT_PERMISSIONS, HttpStatus.BAD_REQUEST);
@@ -219,7 +247,9 @@ public class Gw2AccountVerificationServiceImpl implements Gw2AccountVerification
                     gw2SubToken.value(),
                     entity.creationTime(),
                     startTime,
-                    timeout
+                    timeout,
+                    startTime.plus(this.backoffInitial),
+                    0
             );
 
             try {
@@ -235,6 +265,7 @@ public class Gw2AccountVerificationServiceImpl implements Gw2AccountVerification
             verificationChallengePending = null;
         } else {
             this.gw2AccountVerificationChallengePendingRepository.save(pendingEntity);
+            pollNoLaterThan(pendingEntity.nextCheckTime());
             verificationChallengePending = new VerificationChallengePending(entity.challengeId(), gw2AccountId, startTime);
         }
 
@@ -255,18 +286,14 @@ public class Gw2AccountVerificationServiceImpl implements Gw2AccountVerification
         final UUID accountId = entity.accountId();
         final UUID gw2AccountId = entity.gw2AccountId();
 
-        final boolean isVerified;
-        try {
-            isVerified = challenge.verify(entity.state(), entity.gw2ApiToken());
-        } catch (IOException e) {
-            this.gw2AccountVerificationChallengePendingRepository.deleteByAccountIdAndGw2AccountId(accountId, gw2AccountId);
-            throw e;
-        }
+        final boolean isVerified = challenge.verify(entity.state(), entity.gw2ApiToken());
 
         if (isVerified) {
-            this.gw2AccountVerificationChallengePendingRepository.deleteByAccountIdAndGw2AccountId(accountId, gw2AccountId);
-            this.gw2AccountApiTokenRepository.deleteAllByGw2AccountIdExceptForAccountId(gw2AccountId, accountId);
-            this.gw2AccountVerificationRepository.save(new Gw2AccountVerificationEntity(gw2AccountId, accountId));
+            this.transactionOperations.executeWithoutResult((status) -> {
+                this.gw2AccountVerificationChallengePendingRepository.deleteByAccountIdAndGw2AccountId(accountId, gw2AccountId);
+                this.gw2AccountApiTokenRepository.deleteAllByGw2AccountIdExceptForAccountId(gw2AccountId, accountId);
+                this.gw2AccountVerificationRepository.save(new Gw2AccountVerificationEntity(gw2AccountId, accountId));
+            });
 
             logging.log("GW2 account verification succeeded!");
             recordMetric(entity, true);
@@ -277,40 +304,115 @@ public class Gw2AccountVerificationServiceImpl implements Gw2AccountVerification
         return isVerified;
     }
 
-    @Scheduled(fixedRate = 60L, timeUnit = TimeUnit.SECONDS)
-    @Transactional
+    @Scheduled(fixedRate = 1L, timeUnit = TimeUnit.SECONDS)
+    public void pollPending() {
+        // only hits the database once the earliest known challenge is due (or the poll interval elapsed)
+        if (this.pollEnabled && !this.clock.instant().isBefore(this.nextPollTime)) {
+            tryVerifyAllPending();
+        }
+    }
+
     public void tryVerifyAllPending() {
         final Instant now = this.clock.instant();
-        final List<Gw2AccountVerificationChallengePendingEntity> entities = this.gw2AccountVerificationChallengePendingRepository.findAll();
+        final List<Gw2AccountVerificationChallengePendingEntity> entities = this.gw2AccountVerificationChallengePendingRepository.claimAllDue(
+                now,
+                now.plus(this.claimDuration),
+                this.batchSize
+        );
+
         if (entities.isEmpty()) {
             LOG.debug("no pending challenges to process");
-            return;
+        } else {
+            LOG.info("processing {} pending challenges", entities.size());
+
+            // the gw2 api calls happen outside of any transaction; each challenge writes its result in its own short transaction
+            try (ExecutorService executorService = Executors.newVirtualThreadPerTaskExecutor()) {
+                for (Gw2AccountVerificationChallengePendingEntity entity : entities) {
+                    executorService.execute(() -> tryVerifyPending(now, entity));
+                }
+            }
         }
 
-        LOG.info("processing {} pending challenges", entities.size());
+        if (entities.size() >= this.batchSize) {
+            // there might be more challenges due already
+            this.nextPollTime = now;
+        } else {
+            final Instant latestPollTime = now.plus(this.maxPollInterval);
+            this.nextPollTime = this.gw2AccountVerificationChallengePendingRepository.findMinNextCheckTime()
+                    .filter(latestPollTime::isAfter)
+                    .orElse(latestPollTime);
+        }
+    }
 
-        for (Gw2AccountVerificationChallengePendingEntity entity : entities) {
-            final UUID accountId = entity.accountId();
-            final UUID gw2AccountId = entity.gw2AccountId();
-            final VerificationChallenge<?> challenge = this.challengesById.get(entity.challengeId());
+    private void tryVerifyPending(Instant now, Gw2AccountVerificationChallengePendingEntity entity) {
+        final UUID accountId = entity.accountId();
+        final UUID gw2AccountId = entity.gw2AccountId();
+        final VerificationChallenge<?> challenge = this.challengesById.get(entity.challengeId());
 
-            try (AccountService.LoggingContext logging = this.accountService.log(accountId, Map.of("type", "gw2.verification.attempt", "gw2_account_id", gw2AccountId, "challenge_id", entity.challengeId()))) {
-                logging.log("Trying to verify GW2 account");
+        try (AccountService.LoggingContext logging = this.accountService.log(accountId, Map.of("type", "gw2.verification.attempt", "gw2_account_id", gw2AccountId, "challenge_id", entity.challengeId()))) {
+            logging.log("Trying to verify GW2 account");
 
-                if (challenge == null) {
-                    logging.log("Challenge was no longer found; might be deactivated; trying again on next schedule");
-                } else if (now.isAfter(entity.timeoutTime())) {
-                    this.gw2AccountVerificationChallengePendingRepository.deleteByAccountIdAndGw2AccountId(entity.accountId(), entity.gw2AccountId());
-                    logging.log("GW2 account failed to verify within the allowed period.");
-                    recordMetric(entity, false);
+            final boolean isTimedOut = !now.isBefore(entity.timeoutTime());
+
+            if (challenge == null) {
+                if (isTimedOut) {
+                    fail(logging, entity, "GW2 account failed to verify within the allowed period.");
                 } else {
-                    try {
-                        verifyInternal(logging, entity, challenge);
-                    } catch (IOException e) {
-                        LOG.warn("unexpected exception during verification of challenge", e);
-                    }
+                    logging.log("Challenge was no longer found; might be deactivated; trying again later");
+                    reschedule(now, entity);
+                }
+
+                return;
+            }
+
+            // a challenge which reached its timeout still gets one last attempt (its last check is scheduled exactly at the timeout)
+            boolean isVerified = false;
+            try {
+                isVerified = verifyInternal(logging, entity, challenge);
+            } catch (IOException e) {
+                LOG.warn("failed to read the state of pending challenge for gw2_account_id={} on account_id={}", gw2AccountId, accountId, e);
+                fail(logging, entity, "GW2 account verification failed; the challenge could not be read");
+                return;
+            } catch (RuntimeException e) {
+                LOG.warn("failed to verify pending challenge for gw2_account_id={} on account_id={}", gw2AccountId, accountId, e);
+            }
+
+            if (!isVerified) {
+                if (isTimedOut) {
+                    fail(logging, entity, "GW2 account failed to verify within the allowed period.");
+                } else {
+                    reschedule(now, entity);
                 }
             }
+        } catch (RuntimeException e) {
+            // the claim expires and the challenge will be picked up again
+            LOG.warn("failed to process pending challenge for gw2_account_id={} on account_id={}", gw2AccountId, accountId, e);
+        }
+    }
+
+    private void fail(AccountService.LoggingContext logging, Gw2AccountVerificationChallengePendingEntity entity, String message) {
+        this.gw2AccountVerificationChallengePendingRepository.deleteByAccountIdAndGw2AccountId(entity.accountId(), entity.gw2AccountId());
+        logging.log(message);
+        recordMetric(entity, false);
+    }
+
+    private void reschedule(Instant now, Gw2AccountVerificationChallengePendingEntity entity) {
+        Duration backoff = this.backoffInitial.multipliedBy(1L << Math.min(entity.attempts(), 16));
+        if (backoff.compareTo(this.backoffMax) > 0) {
+            backoff = this.backoffMax;
+        }
+
+        Instant nextCheckTime = now.plus(backoff);
+        if (nextCheckTime.isAfter(entity.timeoutTime())) {
+            nextCheckTime = entity.timeoutTime();
+        }
+
+        this.gw2AccountVerificationChallengePendingRepository.reschedule(entity.accountId(), entity.gw2AccountId(), nextCheckTime);
+    }
+
+    private void pollNoLaterThan(Instant time) {
+        if (time.isBefore(this.nextPollTime)) {
+            this.nextPollTime = time;
         }
     }
 
@@ -0,0 +1,16 @@
+package com.gw2auth.oauth2.server.service.lease;
+
+import java.time.Duration;
+
+public interface LeaseService {
+
+    /**
+     * Tries to acquire (or extend) the named lease for this instance.
+     * An instance which keeps extending a lease before it expires stays its holder; other instances take over once it expired.
+     *
+     * @return true if this instance holds the lease for the given duration
+     */
+    boolean tryAcquire(String name, Duration duration);
+
+    void release(String name);
+}
@@ -0,0 +1,48 @@
+package com.gw2auth.oauth2.server.service.lease;
+
+import com.gw2auth.oauth2.server.repository.lease.LeaseRepository;
+import com.gw2auth.oauth2.server.service.Clocked;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Objects;
+import java.util.UUID;
+
+@Service
+public class LeaseServiceImpl implements LeaseService, Clocked {
+
+    private final LeaseRepository leaseRepository;
+    private final String owner;
+    private volatile Clock clock;
+
+    @Autowired
+    public LeaseServiceImpl(LeaseRepository leaseRepository) {
+        this.leaseRepository = leaseRepository;
+        this.owner = UUID.randomUUID().toString();
+        this.clock = Clock.systemUTC();
+    }
+
+    @Override
+    public void setClock(Clock clock) {
+        this.clock = Objects.requireNonNull(clock);
+    }
+
+    // leases must be visible to other instances immediately, independent of the callers transaction
+    @Override
+    @Transactional(propagation = Propagation.REQUIRES_NEW)
+    public boolean tryAcquire(String name, Duration duration) {
+        final Instant now = this.clock.instant();
+        return this.leaseRepository.tryAcquire(name, this.owner, now, now.plus(duration)).isPresent();
+    }
+
+    @Override
+    @Transactional(propagation = Propagation.REQUIRES_NEW)
+    public void release(String name) {
+        this.leaseRepository.release(name, this.owner);
+    }
+}
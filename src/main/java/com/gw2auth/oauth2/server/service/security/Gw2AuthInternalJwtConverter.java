@@ -1,31 +1,24 @@
 package com.gw2auth.oauth2.server.service.security;
 
 import com.gw2auth.oauth2.server.service.Clocked;
-import com.gw2auth.oauth2.server.util.JWKHelper;
-import com.nimbusds.jose.JOSEException;
 import com.nimbusds.jose.JWSAlgorithm;
 import com.nimbusds.jose.jwk.JWK;
 import com.nimbusds.jose.jwk.JWKSet;
-import com.nimbusds.jose.jwk.KeyUse;
-import com.nimbusds.jose.jwk.RSAKey;
 import com.nimbusds.jose.jwk.source.ImmutableJWKSet;
 import com.nimbusds.jose.jwk.source.JWKSource;
 import com.nimbusds.jose.proc.JWSVerificationKeySelector;
 import com.nimbusds.jose.proc.SecurityContext;
 import com.nimbusds.jwt.proc.DefaultJWTProcessor;
 import org.springframework.security.oauth2.core.DelegatingOAuth2TokenValidator;
+import org.springframework.security.oauth2.jose.jws.JwsAlgorithm;
+import org.springframework.security.oauth2.jose.jws.MacAlgorithm;
 import org.springframework.security.oauth2.jose.jws.SignatureAlgorithm;
 import org.springframework.security.oauth2.jwt.*;
 
-import java.security.KeyPair;
-import java.security.interfaces.RSAPrivateKey;
-import java.security.interfaces.RSAPublicKey;
 import java.time.Clock;
 import java.time.Instant;
-import java.util.Base64;
-import java.util.List;
-import java.util.Map;
-import java.util.Objects;
+import java.util.*;
+import java.util.stream.Collectors;
 
 public class Gw2AuthInternalJwtConverter implements Clocked {
 
@@ -36,26 +29,32 @@ public class Gw2AuthInternalJwtConverter implements Clocked {
     private final JwtTimestampValidator jwtTimestampValidator;
     private final JwtDecoder jwtDecoder;
     private final JwtEncoder jwtEncoder;
+    private final JwsAlgorithm signingAlgorithm;
     private Clock clock;
 
-    public Gw2AuthInternalJwtConverter(String privateKeyId, RSAPrivateKey privateKey, Map<String, RSAPublicKey> publicKeys) throws JOSEException {
+    /**
+     * @param signingKey the key (including its private part) used to sign new tokens; its algorithm must be set
+     * @param verificationKeys all keys accepted for verification, possibly using different algorithms (e.g. while migrating to another algorithm or rotating secrets)
+     */
+    public Gw2AuthInternalJwtConverter(JWK signingKey, Collection<JWK> verificationKeys) {
         this.jwtTimestampValidator = new JwtTimestampValidator();
 
-        final RSAPublicKey privPublicKey = Objects.requireNonNull(publicKeys.get(privateKeyId));
-        final List<JWK> decodePublicKeys = publicKeys.entrySet().stream()
-                .<JWK>map((e) -> new RSAKey.Builder(e.getValue()).keyUse(KeyUse.SIGNATURE).keyID(e.getKey()).build())
-                .toList();
+        final JWSAlgorithm signingJwsAlgorithm = JWSAlgorithm.parse(Objects.requireNonNull(signingKey.getAlgorithm(), "algorithm of signing key").getName());
+        final Set<JWSAlgorithm> verificationAlgorithms = verificationKeys.stream()
+                .map((jwk) -> JWSAlgorithm.parse(Objects.requireNonNull(jwk.getAlgorithm(), "algorithm of verification key").getName()))
+                .collect(Collectors.toUnmodifiableSet());
 
-        final JWKSource<SecurityContext> jwkSource = new ImmutableJWKSet<>(new JWKSet(decodePublicKeys));
+        final JWKSource<SecurityContext> jwkSource = new ImmutableJWKSet<>(new JWKSet(List.copyOf(verificationKeys)));
         final DefaultJWTProcessor<SecurityContext> jwtProcessor = new DefaultJWTProcessor<>();
-        jwtProcessor.setJWSKeySelector(new JWSVerificationKeySelector<>(JWSAlgorithm.RS256, jwkSource));
+        jwtProcessor.setJWSKeySelector(new JWSVerificationKeySelector<>(verificationAlgorithms, jwkSource));
         jwtProcessor.setJWTClaimsSetVerifier((claims, context) -> {});
 
         final NimbusJwtDecoder jwtDecoder = new NimbusJwtDecoder(jwtProcessor);
         jwtDecoder.setJwtValidator(new DelegatingOAuth2TokenValidator<>(List.of(this.jwtTimestampValidator, new JwtIssuerValidator(ISSUER))));
 
         this.jwtDecoder = jwtDecoder;
-        this.jwtEncoder = new NimbusJwtEncoder(JWKHelper.jwkSourceForKeyPair(new KeyPair(privPublicKey, privateKey), privateKeyId));
+        this.jwtEncoder = new NimbusJwtEncoder(new ImmutableJWKSet<>(new JWKSet(signingKey)));
+        this.signingAlgorithm = toJwsAlgorithm(signingJwsAlgorithm);
         this.clock = Clock.systemUTC();
     }
 
@@ -96,6 +95,21 @@ public class Gw2AuthInternalJwtConverter implements Clocked {
                 .claim(SESSION_CLAIM, sessionId)
                 .claim(ENCRYPTION_KEY_CLAIM, Base64.getEncoder().withoutPadding().encodeToString(encryptionKey));
 
-        return this.jwtEncoder.encode(JwtEncoderParameters.from(JwsHeader.with(SignatureAlgorithm.RS256).build(), claimsBuilder.build()));
+        return this.jwtEncoder.encode(JwtEncoderParameters.from(JwsHeader.with(this.signingAlgorithm).build(), claimsBuilder.build()));
+    }
+
+    private static JwsAlgorithm toJwsAlgorithm(JWSAlgorithm algorithm) {
+        final JwsAlgorithm jwsAlgorithm;
+        if (JWSAlgorithm.Family.HMAC_SHA.contains(algorithm)) {
+            jwsAlgorithm = MacAlgorithm.from(algorithm.getName());
+        } else {
+            jwsAlgorithm = SignatureAlgorithm.from(algorithm.getName());
+        }
+
+        if (jwsAlgorithm == null) {
+            throw new IllegalArgumentException("unsupported algorithm: " + algorithm);
+        }
+
+        return jwsAlgorithm;
     }
 }
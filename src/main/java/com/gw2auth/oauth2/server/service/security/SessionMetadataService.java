@@ -8,12 +8,16 @@ import org.springframework.stereotype.Service;
 
 import javax.crypto.SecretKey;
 import javax.crypto.spec.IvParameterSpec;
-import java.io.*;
+import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.time.Duration;
 
 @Service
 public class SessionMetadataService {
 
+    private static final byte BINARY_V1 = 1;
+    private static final int BINARY_SIZE = 1 + Double.BYTES + Double.BYTES;
+
     private final ObjectMapper mapper;
 
     @Autowired
@@ -27,38 +31,36 @@ public class SessionMetadataService {
     }
 
     public byte[] encryptMetadata(SecretKey key, IvParameterSpec iv, SessionMetadata sessionMetadata) {
-        final byte[] metadataBytes;
-
-        try (ByteArrayOutputStream bos = new ByteArrayOutputStream()) {
-            try (OutputStream out = SymEncryption.encrypt(bos, key, iv)) {
-                this.mapper.writeValue(out, sessionMetadata);
-            }
+        final ByteBuffer plain = ByteBuffer.allocate(BINARY_SIZE)
+                .put(BINARY_V1)
+                .putDouble(sessionMetadata.latitude())
+                .putDouble(sessionMetadata.longitude())
+                .flip();
 
-            metadataBytes = bos.toByteArray();
-        } catch (IOException e) {
-            throw new RuntimeException(e);
-        }
+        final byte[] metadataBytes = new byte[SymEncryption.encryptedSize(BINARY_SIZE)];
+        SymEncryption.encrypt(plain, ByteBuffer.wrap(metadataBytes), key, iv);
 
         return metadataBytes;
     }
 
     public SessionMetadata decryptMetadata(byte[] encryptionKey, byte[] metadata) {
         final Pair<SecretKey, IvParameterSpec> pair = SymEncryption.fromBytes(encryptionKey);
-
-        try (ByteArrayInputStream bis = new ByteArrayInputStream(metadata)) {
-            try (InputStream in = SymEncryption.decrypt(bis, pair.v1(), pair.v2())) {
-                return this.mapper.readValue(in, SessionMetadata.class);
-            }
-        } catch (IOException e) {
-            throw new RuntimeException(e);
-        }
+        return decryptMetadata(pair.v1(), pair.v2(), metadata);
     }
 
     public SessionMetadata decryptMetadata(SecretKey key, IvParameterSpec iv, byte[] metadata) {
-        try (ByteArrayInputStream bis = new ByteArrayInputStream(metadata)) {
-            try (InputStream in = SymEncryption.decrypt(bis, key, iv)) {
-                return this.mapper.readValue(in, SessionMetadata.class);
-            }
+        // the plaintext is never larger than the ciphertext
+        final ByteBuffer plain = ByteBuffer.allocate(metadata.length);
+        SymEncryption.decrypt(ByteBuffer.wrap(metadata), plain, key, iv);
+        plain.flip();
+
+        if (plain.remaining() == BINARY_SIZE && plain.get(0) == BINARY_V1) {
+            return new SessionMetadata(plain.getDouble(1), plain.getDouble(1 + Double.BYTES));
+        }
+
+        // metadata written before the binary format was introduced is JSON
+        try {
+            return this.mapper.readValue(plain.array(), 0, plain.limit(), SessionMetadata.class);
         } catch (IOException e) {
             throw new RuntimeException(e);
         }
@@ -5,12 +5,14 @@ import com.gw2auth.oauth2.server.repository.summary.ApplicationSummaryEntity;
 import com.gw2auth.oauth2.server.repository.summary.ClientSummaryEntity;
 import com.gw2auth.oauth2.server.repository.summary.SummaryRepository;
 import com.gw2auth.oauth2.server.service.Clocked;
+import com.gw2auth.oauth2.server.service.lease.LeaseService;
 import io.micrometer.core.instrument.MeterRegistry;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Service;
 
 import java.time.Clock;
+import java.time.Duration;
 import java.util.Objects;
 import java.util.UUID;
 import java.util.concurrent.TimeUnit;
@@ -19,14 +21,21 @@ import java.util.concurrent.atomic.AtomicReference;
 @Service
 public class SummaryServiceImpl implements SummaryService, Clocked {
 
+    private static final String COMPUTE_LEASE_NAME = "application-summary";
+    // longer than the compute interval, so the holder keeps the lease as long as it is alive
+    private static final Duration COMPUTE_LEASE_DURATION = Duration.ofMinutes(10L);
+
     private final SummaryRepository summaryRepository;
+    private final LeaseService leaseService;
     private final AtomicReference<ApplicationSummaryEntity> applicationSummaryEntity;
     private volatile Clock clock;
 
     @Autowired
-    public SummaryServiceImpl(SummaryRepository summaryRepository, MeterRegistry meterRegistry) {
+    public SummaryServiceImpl(SummaryRepository summaryRepository, LeaseService leaseService, MeterRegistry meterRegistry) {
         this.summaryRepository = summaryRepository;
-        this.applicationSummaryEntity = new AtomicReference<>(this.summaryRepository.getApplicationSummary());
+        this.leaseService = leaseService;
+        // nothing has been stored yet only before the very first computation
+        this.applicationSummaryEntity = new AtomicReference<>(this.summaryRepository.findStoredApplicationSummary().orElseGet(this.summaryRepository::getApplicationSummary));
         this.clock = Clock.systemUTC();
 
         meterRegistry.gauge("gw2auth_registered_accounts", this.applicationSummaryEntity, (v) -> v.get().accounts());
@@ -82,7 +91,15 @@ public class SummaryServiceImpl implements SummaryService, Clocked {
     }
 
     @Scheduled(fixedRate = 5L, timeUnit = TimeUnit.MINUTES)
+    public void computeApplicationSummary() {
+        if (this.leaseService.tryAcquire(COMPUTE_LEASE_NAME, COMPUTE_LEASE_DURATION)) {
+            this.applicationSummaryEntity.set(this.summaryRepository.computeAndStoreApplicationSummary(this.clock.instant()));
+        }
+    }
+
+    // every instance publishes the summary computed by the lease holder
+    @Scheduled(fixedRate = 1L, timeUnit = TimeUnit.MINUTES)
     public void updateApplicationSummaryCache() {
-        this.applicationSummaryEntity.set(this.summaryRepository.getApplicationSummary());
+        this.summaryRepository.findStoredApplicationSummary().ifPresent(this.applicationSummaryEntity::set);
     }
 }
@@ -0,0 +1,180 @@
+package com.gw2auth.oauth2.server.service.sweeper;
+
+import com.gw2auth.oauth2.server.repository.account.AccountFederationSessionRepository;
+import com.gw2auth.oauth2.server.repository.application.client.authorization.ApplicationClientAuthorizationRepository;
+import com.gw2auth.oauth2.server.repository.ephemeral.EphemeralStateRepository;
+import com.gw2auth.oauth2.server.repository.gw2account.subtoken.Gw2AccountApiSubtokenRepository;
+import com.gw2auth.oauth2.server.service.Clocked;
+import com.gw2auth.oauth2.server.service.lease.LeaseService;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tag;
+import io.micrometer.core.instrument.Timer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.EnableScheduling;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * Deletes expired sessions, authorizations, subtokens and ephemeral states in bounded chunks.
+ * Only the instance holding the sweeper lease does any work. Between two chunks the sweeper pauses proportionally to the
+ * time the last chunk took, and stops the current run early if a chunk was slower than the configured threshold.
+ */
+@Service
+@EnableScheduling
+public class ExpirySweeper implements Clocked {
+
+    private static final Logger LOG = LoggerFactory.getLogger(ExpirySweeper.class);
+    private static final String LEASE_NAME = "expiry-sweeper";
+
+    private final LeaseService leaseService;
+    private final int chunkSize;
+    private final Duration maxRunDuration;
+    private final double pauseFactor;
+    private final Duration slowChunkThreshold;
+    private final List<Target> targets;
+    private volatile Clock clock;
+
+    @Autowired
+    public ExpirySweeper(LeaseService leaseService,
+                         AccountFederationSessionRepository accountFederationSessionRepository,
+                         ApplicationClientAuthorizationRepository applicationClientAuthorizationRepository,
+                         Gw2AccountApiSubtokenRepository gw2AccountApiSubtokenRepository,
+                         EphemeralStateRepository ephemeralStateRepository,
+                         @Value("${com.gw2auth.expiry-sweeper.chunk-size:1000}") int chunkSize,
+                         @Value("${com.gw2auth.expiry-sweeper.max-run-duration:PT1M}") Duration maxRunDuration,
+                         @Value("${com.gw2auth.expiry-sweeper.pause-factor:1.0}") double pauseFactor,
+                         @Value("${com.gw2auth.expiry-sweeper.slow-chunk-threshold:PT2S}") Duration slowChunkThreshold,
+                         MeterRegistry meterRegistry) {
+
+        this.leaseService = leaseService;
+        this.chunkSize = chunkSize;
+        this.maxRunDuration = maxRunDuration;
+        this.pauseFactor = pauseFactor;
+        this.slowChunkThreshold = slowChunkThreshold;
+        this.targets = List.of(
+                new Target("sessions", accountFederationSessionRepository::deleteExpired, accountFederationSessionRepository::findMinExpirationTime, meterRegistry),
+                new Target("authorizations", applicationClientAuthorizationRepository::deleteExpired, applicationClientAuthorizationRepository::findMinExpirationTime, meterRegistry),
+                new Target("subtokens", gw2AccountApiSubtokenRepository::deleteExpired, gw2AccountApiSubtokenRepository::findMinExpirationTime, meterRegistry),
+                new Target("ephemeral-states", ephemeralStateRepository::deleteExpired, ephemeralStateRepository::findMinExpirationTime, meterRegistry)
+        );
+        this.clock = Clock.systemUTC();
+    }
+
+    @Override
+    public void setClock(Clock clock) {
+        this.clock = Objects.requireNonNull(clock);
+    }
+
+    @Scheduled(fixedRate = 5L, timeUnit = TimeUnit.MINUTES)
+    public void sweep() {
+        if (!this.leaseService.tryAcquire(LEASE_NAME, this.maxRunDuration.multipliedBy(2L))) {
+            return;
+        }
+
+        final long deadline = System.nanoTime() + this.maxRunDuration.toNanos();
+
+        try {
+            for (Target target : this.targets) {
+                if (!sweep(target, deadline)) {
+                    break;
+                }
+            }
+        } finally {
+            this.leaseService.release(LEASE_NAME);
+        }
+    }
+
+    /**
+     * @return false if the run should not continue with the next target
+     */
+    private boolean sweep(Target target, long deadline) {
+        final Instant now = this.clock.instant();
+        long deleted = 0L;
+        int chunkDeleted;
+        boolean proceed = true;
+
+        do {
+            final long start = System.nanoTime();
+            chunkDeleted = target.deleteChunk.delete(now, this.chunkSize);
+            final long chunkNanos = System.nanoTime() - start;
+
+            target.chunkTimer.record(chunkNanos, TimeUnit.NANOSECONDS);
+            target.deletedCounter.increment(chunkDeleted);
+            deleted += chunkDeleted;
+
+            if (chunkDeleted >= this.chunkSize) {
+                if (chunkNanos > this.slowChunkThreshold.toNanos()) {
+                    LOG.info("expiry sweep of {} took {}ms for one chunk, deferring remaining work", target.name, TimeUnit.NANOSECONDS.toMillis(chunkNanos));
+                    proceed = false;
+                } else if (System.nanoTime() - deadline >= 0L) {
+                    proceed = false;
+                } else {
+                    proceed = pause((long) (chunkNanos * this.pauseFactor));
+                }
+            }
+        } while (proceed && chunkDeleted >= this.chunkSize);
+
+        final Instant oldestExpirationTime = target.minExpirationTime.get().orElse(now);
+        target.lagSeconds.set(Math.max(0L, Duration.between(oldestExpirationTime, now).toSeconds()));
+
+        LOG.info("expiry sweep of {} deleted {} rows", target.name, deleted);
+        return proceed;
+    }
+
+    private static boolean pause(long nanos) {
+        // a zero pause does not sleep, so an interrupt has to be checked explicitly
+        if (Thread.currentThread().isInterrupted()) {
+            return false;
+        }
+
+        try {
+            TimeUnit.NANOSECONDS.sleep(nanos);
+            return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    @FunctionalInterface
+    private interface ChunkDelete {
+        int delete(Instant now, int limit);
+    }
+
+    private static final class Target {
+
+        private final String name;
+        private final ChunkDelete deleteChunk;
+        private final Supplier<Optional<Instant>> minExpirationTime;
+        private final Counter deletedCounter;
+        private final Timer chunkTimer;
+        private final AtomicLong lagSeconds;
+
+        private Target(String name, ChunkDelete deleteChunk, Supplier<Optional<Instant>> minExpirationTime, MeterRegistry meterRegistry) {
+            this.name = name;
+            this.deleteChunk = deleteChunk;
+            this.minExpirationTime = minExpirationTime;
+            this.deletedCounter = Counter.builder("gw2auth_expiry_sweeper_deleted_rows")
+                    .tag("target", name)
+                    .register(meterRegistry);
+            this.chunkTimer = Timer.builder("gw2auth_expiry_sweeper_chunk")
+                    .tag("target", name)
+                    .register(meterRegistry);
+            this.lagSeconds = meterRegistry.gauge("gw2auth_expiry_sweeper_lag_seconds", List.of(Tag.of("target", name)), new AtomicLong());
+        }
+    }
+}
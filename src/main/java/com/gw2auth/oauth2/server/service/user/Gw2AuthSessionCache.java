@@ -0,0 +1,125 @@
+package com.gw2auth.oauth2.server.service.user;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Node-local cache of verified sessions, keyed by the session JWT.
+ * <p>
+ * Sessions are evicted by the {@link com.gw2auth.oauth2.server.service.account.AccountService} whenever sessions of an account are deleted.
+ * This only reaches the cache of the node handling the deletion: a session revoked on another node stays valid here for up to the TTL.
+ */
+@Component
+public class Gw2AuthSessionCache {
+
+    private final Duration ttl;
+    private final Cache<String, CachedSession> sessionByToken;
+    private final Cache<UUID, Set<String>> tokensByAccountId;
+
+    @Autowired
+    public Gw2AuthSessionCache(@Value("${com.gw2auth.session.cache.ttl:PT30S}") Duration ttl,
+                               @Value("${com.gw2auth.session.cache.max-size:10000}") long maxSize,
+                               MeterRegistry meterRegistry) {
+
+        if (ttl.isZero() || ttl.isNegative()) {
+            this.ttl = null;
+            this.sessionByToken = null;
+            this.tokensByAccountId = null;
+        } else {
+            this.ttl = ttl;
+            this.sessionByToken = Caffeine.newBuilder()
+                    .maximumSize(maxSize)
+                    .expireAfterWrite(ttl)
+                    .recordStats()
+                    .build();
+
+            // every put refreshes the entry of its account, so it outlives all of its tokens
+            this.tokensByAccountId = Caffeine.newBuilder()
+                    .maximumSize(maxSize)
+                    .expireAfterWrite(ttl)
+                    .build();
+
+            CaffeineCacheMetrics.monitor(meterRegistry, this.sessionByToken, "gw2auth_sessions");
+        }
+    }
+
+    VerifiedSession get(String token, Instant now) {
+        if (this.sessionByToken == null) {
+            return null;
+        }
+
+        final CachedSession cached = this.sessionByToken.getIfPresent(token);
+        // the TTL is also checked against the callers clock, which might not be the one of the cache
+        if (cached == null || !cached.cachedAt().plus(this.ttl).isAfter(now) || !cached.session().expiresAt().isAfter(now)) {
+            return null;
+        }
+
+        return cached.session();
+    }
+
+    void put(String token, VerifiedSession session, Instant now) {
+        if (this.sessionByToken == null) {
+            return;
+        }
+
+        // the token is indexed while holding the lock of its account, so a concurrent eviction either sees it or happens before the put
+        this.tokensByAccountId.asMap().compute(session.accountId(), (accountId, tokens) -> {
+            if (tokens == null) {
+                tokens = ConcurrentHashMap.newKeySet();
+            } else {
+                tokens.removeIf((t) -> this.sessionByToken.getIfPresent(t) == null);
+            }
+
+            tokens.add(token);
+            this.sessionByToken.put(token, new CachedSession(session, now));
+
+            return tokens;
+        });
+    }
+
+    void invalidate(String token) {
+        if (this.sessionByToken != null) {
+            this.sessionByToken.invalidate(token);
+        }
+    }
+
+    /**
+     * Removes all locally cached sessions of the given account, immediately and again once the current transaction completed.
+     */
+    public void evictAccount(UUID accountId) {
+        if (this.sessionByToken == null) {
+            return;
+        }
+
+        final Runnable evict = () -> this.tokensByAccountId.asMap().computeIfPresent(accountId, (k, tokens) -> {
+            this.sessionByToken.invalidateAll(tokens);
+            return null;
+        });
+
+        evict.run();
+
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCompletion(int status) {
+                    evict.run();
+                }
+            });
+        }
+    }
+
+    private record CachedSession(VerifiedSession session, Instant cachedAt) {}
+}
@@ -10,6 +10,7 @@ import com.gw2auth.oauth2.server.util.SymEncryption;
 import jakarta.servlet.http.HttpServletRequest;
 import jakarta.servlet.http.HttpServletResponse;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.security.oauth2.jwt.Jwt;
 import org.springframework.security.web.savedrequest.RequestCache;
 import org.springframework.stereotype.Service;
@@ -18,6 +19,7 @@ import javax.crypto.SecretKey;
 import javax.crypto.spec.IvParameterSpec;
 import java.time.Clock;
 import java.time.Duration;
+import java.time.Instant;
 import java.util.Objects;
 import java.util.Optional;
 
@@ -31,15 +33,26 @@ public class Gw2AuthTokenUserService implements Clocked {
     private final SessionMetadataService sessionMetadataService;
     private final AccountService accountService;
     private final RequestCache requestCache;
+    private final Duration refreshAfter;
+    private final Gw2AuthSessionCache sessionCache;
     private Clock clock;
 
     @Autowired
-    public Gw2AuthTokenUserService(Gw2AuthInternalJwtConverter jwtConverter, RequestSessionMetadataExtractor requestSessionMetadataExtractor, SessionMetadataService sessionMetadataService, AccountService accountService, RequestCache requestCache) {
+    public Gw2AuthTokenUserService(Gw2AuthInternalJwtConverter jwtConverter,
+                                   RequestSessionMetadataExtractor requestSessionMetadataExtractor,
+                                   SessionMetadataService sessionMetadataService,
+                                   AccountService accountService,
+                                   RequestCache requestCache,
+                                   @Value("${com.gw2auth.session.refresh-after:PT5M}") Duration refreshAfter,
+                                   Gw2AuthSessionCache sessionCache) {
+
         this.jwtConverter = jwtConverter;
         this.requestSessionMetadataExtractor = requestSessionMetadataExtractor;
         this.sessionMetadataService = sessionMetadataService;
         this.accountService = accountService;
         this.requestCache = requestCache;
+        this.refreshAfter = refreshAfter;
+        this.sessionCache = sessionCache;
         this.clock = Clock.systemUTC();
     }
 
@@ -58,73 +71,110 @@ public class Gw2AuthTokenUserService implements Clocked {
             return Optional.of(user);
         }
 
-        Jwt jwt;
-        try {
-            jwt = this.jwtConverter.readJWT(token);
-        } catch (Exception e) {
-            return Optional.empty();
-        }
-
-        final String sessionId;
-        try {
-            sessionId = this.jwtConverter.readSessionId(jwt);
-        } catch (Exception e) {
-            return Optional.empty();
-        }
-
-        final Optional<AccountSession> optionalAccountSession = this.accountService.getAccountForSession(sessionId);
-        if (optionalAccountSession.isEmpty()) {
-            return Optional.empty();
+        final Instant now = this.clock.instant();
+        VerifiedSession session = this.sessionCache.get(token, now);
+        final boolean isCached = session != null;
+
+        if (session == null) {
+            final Jwt jwt;
+            try {
+                jwt = this.jwtConverter.readJWT(token);
+            } catch (Exception e) {
+                return Optional.empty();
+            }
+
+            final String sessionId;
+            try {
+                sessionId = this.jwtConverter.readSessionId(jwt);
+            } catch (Exception e) {
+                return Optional.empty();
+            }
+
+            final Optional<AccountSession> optionalAccountSession = this.accountService.getAccountForSession(sessionId);
+            if (optionalAccountSession.isEmpty()) {
+                return Optional.empty();
+            }
+
+            final AccountSession accountSession = optionalAccountSession.get();
+            final Account account = accountSession.account();
+            final byte[] encryptionKeyBytes = this.jwtConverter.readEncryptionKey(jwt);
+
+            // if the saved session in DB has metadata (the user had metadata before),
+            // the request must also contain metadata and also an encryption key
+            if (encryptionKeyBytes == null) {
+                this.accountService.deleteSession(account.id(), sessionId);
+                return Optional.empty();
+            }
+
+            final Pair<SecretKey, IvParameterSpec> encryptionKey = SymEncryption.fromBytes(encryptionKeyBytes);
+
+            session = new VerifiedSession(
+                    account.id(),
+                    accountSession.accountFederation(),
+                    sessionId,
+                    accountSession.sessionCreationTime(),
+                    encryptionKeyBytes,
+                    this.sessionMetadataService.decryptMetadata(encryptionKey.v1(), encryptionKey.v2(), accountSession.metadata()),
+                    jwt.getIssuedAt(),
+                    jwt.getExpiresAt()
+            );
         }
 
-        final AccountSession accountSession  = optionalAccountSession.get();
-        final Account account = accountSession.account();
-        final AccountFederation accountFederation = accountSession.accountFederation();
-        final Duration timePassedSinceLastJwtCreation = Duration.between(jwt.getIssuedAt(), this.clock.instant());
-
-        byte[] encryptionKeyBytes = this.jwtConverter.readEncryptionKey(jwt);
-        Pair<SecretKey, IvParameterSpec> encryptionKey = Optional.ofNullable(encryptionKeyBytes)
-                .map(SymEncryption::fromBytes)
-                .orElse(null);
-
         final SessionMetadata currentSessionMetadata = this.requestSessionMetadataExtractor.extractMetadataFromRequest(request)
                 .orElse(null);
 
-        // if the saved session in DB has metadata (the user had metadata before),
-        // the request must also contain metadata and also an encryption key
-        if (currentSessionMetadata == null || encryptionKey == null) {
-            this.accountService.deleteSession(account.id(), sessionId);
+        if (currentSessionMetadata == null) {
+            this.accountService.deleteSession(session.accountId(), session.sessionId());
             return Optional.empty();
         }
 
-        final SessionMetadata originalSessionMetadata = this.sessionMetadataService.decryptMetadata(encryptionKey.v1(), encryptionKey.v2(), accountSession.metadata());
+        final Duration timePassedSinceLastJwtCreation = Duration.between(session.issuedAt(), now);
 
-        if (!this.sessionMetadataService.isMetadataPlausible(originalSessionMetadata, currentSessionMetadata, timePassedSinceLastJwtCreation)) {
-            this.accountService.deleteSession(account.id(), sessionId);
+        if (!this.sessionMetadataService.isMetadataPlausible(session.sessionMetadata(), currentSessionMetadata, timePassedSinceLastJwtCreation)) {
+            this.accountService.deleteSession(session.accountId(), session.sessionId());
             return Optional.empty();
         }
 
-        if (!Objects.equals(request.getPathInfo(), Constants.LOGOUT_URL)) {
-            final byte[] metadataBytes = this.sessionMetadataService.encryptMetadata(encryptionKey.v1(), encryptionKey.v2(), currentSessionMetadata);
+        // the session and the JWT are only refreshed once the JWT reached a certain age, not on every request
+        if (!Objects.equals(request.getPathInfo(), Constants.LOGOUT_URL) && timePassedSinceLastJwtCreation.compareTo(this.refreshAfter) >= 0) {
+            final byte[] metadataBytes = this.sessionMetadataService.encryptMetadata(session.encryptionKey(), currentSessionMetadata);
             final AccountFederationSession updatedSession = this.accountService.updateSession(
-                    sessionId,
-                    accountFederation.issuer(),
-                    accountFederation.idAtIssuer(),
+                    session.sessionId(),
+                    session.accountFederation().issuer(),
+                    session.accountFederation().idAtIssuer(),
                     metadataBytes
             );
 
-            jwt = this.jwtConverter.writeJWT(updatedSession.id(), encryptionKeyBytes, updatedSession.expirationTime());
+            final Jwt jwt = this.jwtConverter.writeJWT(updatedSession.id(), session.encryptionKey(), updatedSession.expirationTime());
             CookieHelper.addCookie(request, AuthenticationHelper.getCurrentResponse().orElseThrow(), Constants.ACCESS_TOKEN_COOKIE_NAME, jwt.getTokenValue(), jwt.getExpiresAt());
+
+            this.sessionCache.invalidate(token);
+            this.sessionCache.put(
+                    jwt.getTokenValue(),
+                    new VerifiedSession(
+                            session.accountId(),
+                            session.accountFederation(),
+                            session.sessionId(),
+                            session.sessionCreationTime(),
+                            session.encryptionKey(),
+                            currentSessionMetadata,
+                            jwt.getIssuedAt(),
+                            jwt.getExpiresAt()
+                    ),
+                    now
+            );
+        } else if (!isCached) {
+            this.sessionCache.put(token, session, now);
         }
 
         user = new Gw2AuthUserV2(
-                account.id(),
-                accountFederation.issuer(),
-                accountFederation.idAtIssuer(),
-                sessionId,
+                session.accountId(),
+                session.accountFederation().issuer(),
+                session.accountFederation().idAtIssuer(),
+                session.sessionId(),
                 currentSessionMetadata,
-                accountSession.sessionCreationTime(),
-                encryptionKeyBytes
+                session.sessionCreationTime(),
+                session.encryptionKey()
         );
         request.setAttribute(REQUEST_ATTRIBUTE_NAME, user);
 
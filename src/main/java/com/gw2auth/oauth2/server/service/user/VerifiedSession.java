@@ -0,0 +1,16 @@
+package com.gw2auth.oauth2.server.service.user;
+
+import com.gw2auth.oauth2.server.service.account.AccountFederation;
+import com.gw2auth.oauth2.server.service.security.SessionMetadata;
+
+import java.time.Instant;
+import java.util.UUID;
+
+record VerifiedSession(UUID accountId,
+                       AccountFederation accountFederation,
+                       String sessionId,
+                       Instant sessionCreationTime,
+                       byte[] encryptionKey,
+                       SessionMetadata sessionMetadata,
+                       Instant issuedAt,
+                       Instant expiresAt) {}
@@ -3,6 +3,7 @@ package com.gw2auth.oauth2.server.util;
 import java.time.Duration;
 import java.util.concurrent.*;
 import java.util.function.BiFunction;
+import java.util.function.Consumer;
 import java.util.function.Supplier;
 
 public interface Batch<ACC> {
@@ -17,6 +18,13 @@ public interface Batch<ACC> {
         return execute(Executors.newVirtualThreadPerTaskExecutor(), accumulatorSupplier, timeout, timeUnit);
     }
 
+    /**
+     * Runs at most {@code maxConcurrency} tasks at once and consumes their results in completion order.
+     * Once the timeout is reached, running tasks are cancelled and tasks which were not started yet are skipped;
+     * the consumers of both are still invoked and observe a {@link TimeoutException}.
+     */
+    ACC execute(ExecutorService executorService, Supplier<? extends ACC> accumulatorSupplier, int maxConcurrency, long timeout, TimeUnit timeUnit, Consumer<? super Stats> statsConsumer);
+
     @FunctionalInterface
     interface Task<T> {
 
@@ -33,6 +41,13 @@ public interface Batch<ACC> {
         Batch<ACC> build();
     }
 
+    /**
+     * @param completed tasks which finished (successfully or exceptionally) before the timeout
+     * @param timedOut tasks which were still running when the timeout was reached and got cancelled
+     * @param cancelled tasks which were never started because the timeout was reached first
+     */
+    record Stats(Duration duration, int completed, int timedOut, int cancelled) {}
+
     @FunctionalInterface
     interface RunningTaskContext<T> {
 
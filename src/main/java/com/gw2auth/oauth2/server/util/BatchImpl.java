@@ -60,14 +60,106 @@ class BatchImpl<ACC> implements Batch<ACC> {
         return safeAccumulator(accumulator, accumulatorSupplier);
     }
 
+    @Override
+    public ACC execute(ExecutorService executorService, Supplier<? extends ACC> accumulatorSupplier, int maxConcurrency, long timeout, TimeUnit timeUnit, Consumer<? super Stats> statsConsumer) {
+        if (maxConcurrency < 1) {
+            throw new IllegalArgumentException("maxConcurrency must be at least 1");
+        }
+
+        ACC accumulator = null;
+
+        final long start = System.nanoTime();
+        final long timeoutAt = start + timeUnit.toNanos(timeout);
+        final Queue<TaskAndConsumer<ACC, ?>> pending = new ArrayDeque<>(this.tasksAndConsumers);
+        final BlockingQueue<Future<?>> completions = new LinkedBlockingQueue<>();
+        final Map<Future<?>, RunningTaskContextImpl<ACC, ?>> running = new IdentityHashMap<>(maxConcurrency);
+        int completedCount = 0;
+        int timedOutCount = 0;
+        int cancelledCount = 0;
+
+        RunningTaskContextImpl<ACC, ?> runningTaskContext;
+
+        try {
+            while (true) {
+                while (running.size() < maxConcurrency && !pending.isEmpty() && timeoutAt - System.nanoTime() > 0L) {
+                    runningTaskContext = submitTracked(executorService, pending.poll(), timeoutAt, completions);
+                    running.put(runningTaskContext.future, runningTaskContext);
+                }
+
+                final long nanosLeft = timeoutAt - System.nanoTime();
+                if (running.isEmpty() || nanosLeft <= 0L) {
+                    break;
+                }
+
+                final Future<?> completed = completions.poll(nanosLeft, TimeUnit.NANOSECONDS);
+                if (completed == null) {
+                    break;
+                }
+
+                runningTaskContext = running.remove(completed);
+                accumulator = runningTaskContext.consume(safeAccumulator(accumulator, accumulatorSupplier), true);
+                completedCount++;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            // consume what is still running (results of tasks which finished meanwhile are still used), then cancel
+            for (RunningTaskContextImpl<ACC, ?> remaining : running.values()) {
+                final boolean isDone = remaining.future.isDone();
+
+                accumulator = remaining.consume(safeAccumulator(accumulator, accumulatorSupplier), true);
+                remaining.future.cancel(true);
+
+                if (isDone) {
+                    completedCount++;
+                } else {
+                    timedOutCount++;
+                }
+            }
+
+            // tasks which were never started
+            TaskAndConsumer<ACC, ?> taskAndConsumer;
+            while ((taskAndConsumer = pending.poll()) != null) {
+                accumulator = notStarted(taskAndConsumer, timeoutAt).consume(safeAccumulator(accumulator, accumulatorSupplier), true);
+                cancelledCount++;
+            }
+
+            statsConsumer.accept(new Stats(Duration.ofNanos(System.nanoTime() - start), completedCount, timedOutCount, cancelledCount));
+        }
+
+        return safeAccumulator(accumulator, accumulatorSupplier);
+    }
+
+    private <T> RunningTaskContextImpl<ACC, T> submitTracked(ExecutorService executorService, TaskAndConsumer<ACC, T> taskAndConsumer, long timeoutAt, BlockingQueue<Future<?>> completions) {
+        final FutureTask<T> futureTask = new FutureTask<T>(new TaskCallable<>(taskAndConsumer.task(), timeoutAt)) {
+            @Override
+            protected void done() {
+                completions.offer(this);
+            }
+        };
+
+        final RunningTaskContextImpl<ACC, T> runningTaskContext = new RunningTaskContextImpl<>(futureTask, taskAndConsumer.consumer(), timeoutAt);
+        executorService.execute(futureTask);
+
+        return runningTaskContext;
+    }
+
+    private <T> RunningTaskContextImpl<ACC, T> notStarted(TaskAndConsumer<ACC, T> taskAndConsumer, long timeoutAt) {
+        return new RunningTaskContextImpl<>(
+                new FutureTask<T>(new TaskCallable<>(taskAndConsumer.task(), timeoutAt)),
+                taskAndConsumer.consumer(),
+                timeoutAt
+        );
+    }
+
     private record TaskAndConsumer<ACC, T>(Task<? extends T> task, BiFunction<? super ACC, RunningTaskContext<T>, ? extends ACC> consumer) {}
 
     private static class TaskCallable<T> implements Callable<T> {
 
-        private final Task<T> task;
+        private final Task<? extends T> task;
         private final long timeoutAt;
 
-        private TaskCallable(Task<T> task, long timeoutAt) {
+        private TaskCallable(Task<? extends T> task, long timeoutAt) {
             this.task = task;
             this.timeoutAt = timeoutAt;
         }
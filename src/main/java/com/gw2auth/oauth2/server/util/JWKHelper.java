@@ -21,6 +21,7 @@ import java.nio.file.StandardOpenOption;
 import java.security.*;
 import java.security.interfaces.RSAPrivateKey;
 import java.security.interfaces.RSAPublicKey;
+import java.security.spec.ECGenParameterSpec;
 import java.security.spec.KeySpec;
 import java.security.spec.PKCS8EncodedKeySpec;
 import java.security.spec.X509EncodedKeySpec;
@@ -46,21 +47,29 @@ public final class JWKHelper {
     }
 
     public static PrivateKey loadRsaPrivateKey(String _path) throws IOException, GeneralSecurityException {
+        return loadPrivateKey(_path, "RSA");
+    }
+
+    public static PrivateKey loadEcPrivateKey(String _path) throws IOException, GeneralSecurityException {
+        return loadPrivateKey(_path, "EC");
+    }
+
+    private static PrivateKey loadPrivateKey(String _path, String algorithm) throws IOException, GeneralSecurityException {
         final Path path = Paths.get(_path);
-        final KeyFactory kf = KeyFactory.getInstance("RSA");
+        final KeyFactory kf = KeyFactory.getInstance(algorithm);
         try {
-            return loadPemRsaPrivateKey(kf, path);
+            return loadPemPrivateKey(kf, path);
         } catch (Exception e) {
-            return loadPlainRsaPrivateKey(kf, path);
+            return loadPlainPrivateKey(kf, path);
         }
     }
 
-    private static PrivateKey loadPlainRsaPrivateKey(KeyFactory kf, Path path) throws IOException, GeneralSecurityException {
+    private static PrivateKey loadPlainPrivateKey(KeyFactory kf, Path path) throws IOException, GeneralSecurityException {
         final KeySpec spec = new PKCS8EncodedKeySpec(Files.readAllBytes(path));
         return kf.generatePrivate(spec);
     }
 
-    private static PrivateKey loadPemRsaPrivateKey(KeyFactory kf, Path path) throws IOException, GeneralSecurityException {
+    private static PrivateKey loadPemPrivateKey(KeyFactory kf, Path path) throws IOException, GeneralSecurityException {
         try (Reader reader = Files.newBufferedReader(path, StandardCharsets.UTF_8)) {
             try (PemReader pemReader = new PemReader(reader)) {
                 final PemObject pemObject = pemReader.readPemObject();
@@ -75,21 +84,29 @@ public final class JWKHelper {
     }
 
     public static PublicKey loadRsaPublicKey(String _path) throws IOException, GeneralSecurityException {
+        return loadPublicKey(_path, "RSA");
+    }
+
+    public static PublicKey loadEcPublicKey(String _path) throws IOException, GeneralSecurityException {
+        return loadPublicKey(_path, "EC");
+    }
+
+    private static PublicKey loadPublicKey(String _path, String algorithm) throws IOException, GeneralSecurityException {
         final Path path = Paths.get(_path);
-        final KeyFactory kf = KeyFactory.getInstance("RSA");
+        final KeyFactory kf = KeyFactory.getInstance(algorithm);
         try {
-            return loadPemRsaPublicKey(kf, path);
+            return loadPemPublicKey(kf, path);
         } catch (Exception e) {
-            return loadPlainRsaPublicKey(kf, path);
+            return loadPlainPublicKey(kf, path);
         }
     }
 
-    private static PublicKey loadPlainRsaPublicKey(KeyFactory kf, Path path) throws IOException, GeneralSecurityException {
+    private static PublicKey loadPlainPublicKey(KeyFactory kf, Path path) throws IOException, GeneralSecurityException {
         final KeySpec spec = new X509EncodedKeySpec(Files.readAllBytes(path));
         return kf.generatePublic(spec);
     }
 
-    private static PublicKey loadPemRsaPublicKey(KeyFactory kf, Path path) throws IOException, GeneralSecurityException {
+    private static PublicKey loadPemPublicKey(KeyFactory kf, Path path) throws IOException, GeneralSecurityException {
         try (Reader reader = Files.newBufferedReader(path, StandardCharsets.UTF_8)) {
             try (PemReader pemReader = new PemReader(reader)) {
                 final PemObject pemObject = pemReader.readPemObject();
@@ -110,6 +127,27 @@ public final class JWKHelper {
         return keyPairGenerator.generateKeyPair();
     }
 
+    public static KeyPair generateEcKeyPair() throws GeneralSecurityException {
+        final KeyPairGenerator keyPairGenerator = KeyPairGenerator.getInstance("EC");
+        keyPairGenerator.initialize(new ECGenParameterSpec("secp256r1"));
+
+        return keyPairGenerator.generateKeyPair();
+    }
+
+    /**
+     * Reads a (raw) HMAC secret.
+     */
+    public static byte[] loadSecret(String _path) throws IOException {
+        return Files.readAllBytes(Paths.get(_path));
+    }
+
+    public static byte[] generateSecret() {
+        final byte[] secret = new byte[32];
+        SymEncryption.secureRandom().nextBytes(secret);
+
+        return secret;
+    }
+
     public static void writeKeyPair(KeyPair keyPair, Path privateKeyPath, Path publicKeyPath) throws Exception {
         try (Writer writer = Files.newBufferedWriter(privateKeyPath, StandardCharsets.UTF_8, StandardOpenOption.CREATE)) {
             try (PemWriter pemWriter = new PemWriter(writer)) {
@@ -0,0 +1,31 @@
+package com.gw2auth.oauth2.server.util;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.function.Consumer;
+
+public final class Sha256 {
+
+    private static final String ALGORITHM = "SHA-256";
+
+    public static byte[] digest(String value) {
+        return digest(value.getBytes(StandardCharsets.UTF_8));
+    }
+
+    public static byte[] digest(byte[] value) {
+        return digest((md) -> md.update(value));
+    }
+
+    public static byte[] digest(Consumer<MessageDigest> updater) {
+        final MessageDigest md;
+        try {
+            md = MessageDigest.getInstance(ALGORITHM);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+
+        updater.accept(md);
+        return md.digest();
+    }
+}
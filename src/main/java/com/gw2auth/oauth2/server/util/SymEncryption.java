@@ -7,8 +7,10 @@ import java.io.InputStream;
 import java.io.OutputStream;
 import java.nio.ByteBuffer;
 import java.security.GeneralSecurityException;
-import java.security.NoSuchAlgorithmException;
 import java.security.SecureRandom;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public final class SymEncryption {
 
@@ -16,22 +18,26 @@ public final class SymEncryption {
     private static final String TRANSFORMATION = "AES/CBC/PKCS5Padding";
     private static final int KEY_SIZE = 256;
     private static final int IV_SIZE = 16;
+    private static final int MAX_POOLED_CIPHERS = 64;
 
-    public static SecretKey generateKey() {
-        final KeyGenerator keyGenerator;
-        try {
-            keyGenerator = KeyGenerator.getInstance(ALGORITHM);
-        } catch (NoSuchAlgorithmException e) {
-            throw new RuntimeException(e);
-        }
+    // SecureRandom is thread-safe; a lock-free pool (instead of ThreadLocal) lets virtual threads reuse ciphers too
+    private static final SecureRandom SECURE_RANDOM = new SecureRandom();
+    private static final Queue<Cipher> CIPHER_POOL = new ConcurrentLinkedQueue<>();
+    private static final AtomicInteger CIPHER_POOL_SIZE = new AtomicInteger(0);
 
-        keyGenerator.init(KEY_SIZE);
-        return keyGenerator.generateKey();
+    public static SecureRandom secureRandom() {
+        return SECURE_RANDOM;
+    }
+
+    public static SecretKey generateKey() {
+        final byte[] key = new byte[KEY_SIZE / 8];
+        SECURE_RANDOM.nextBytes(key);
+        return new SecretKeySpec(key, ALGORITHM);
     }
 
     public static IvParameterSpec generateIv() {
         final byte[] iv = new byte[IV_SIZE];
-        new SecureRandom().nextBytes(iv);
+        SECURE_RANDOM.nextBytes(iv);
         return new IvParameterSpec(iv);
     }
 
@@ -88,4 +94,63 @@ public final class SymEncryption {
 
         return new CipherInputStream(in, cipher);
     }
+
+    /**
+     * Encrypts all remaining bytes of {@code input} into {@code output}.
+     * @return the number of bytes written to {@code output}
+     */
+    public static int encrypt(ByteBuffer input, ByteBuffer output, SecretKey key, IvParameterSpec iv) {
+        return doFinal(Cipher.ENCRYPT_MODE, input, output, key, iv);
+    }
+
+    /**
+     * Decrypts all remaining bytes of {@code input} into {@code output}.
+     * @return the number of bytes written to {@code output}
+     */
+    public static int decrypt(ByteBuffer input, ByteBuffer output, SecretKey key, IvParameterSpec iv) {
+        return doFinal(Cipher.DECRYPT_MODE, input, output, key, iv);
+    }
+
+    public static int encryptedSize(int plaintextSize) {
+        // PKCS5 always adds between 1 and IV_SIZE bytes
+        return (plaintextSize / IV_SIZE + 1) * IV_SIZE;
+    }
+
+    private static int doFinal(int mode, ByteBuffer input, ByteBuffer output, SecretKey key, IvParameterSpec iv) {
+        final Cipher cipher = borrowCipher();
+        final int written;
+
+        try {
+            cipher.init(mode, key, iv);
+            written = cipher.doFinal(input, output);
+        } catch (GeneralSecurityException e) {
+            // the cipher might be in an undefined state, dont return it to the pool
+            throw new RuntimeException(e);
+        }
+
+        returnCipher(cipher);
+        return written;
+    }
+
+    private static Cipher borrowCipher() {
+        final Cipher cipher = CIPHER_POOL.poll();
+        if (cipher != null) {
+            CIPHER_POOL_SIZE.decrementAndGet();
+            return cipher;
+        }
+
+        try {
+            return Cipher.getInstance(TRANSFORMATION);
+        } catch (GeneralSecurityException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private static void returnCipher(Cipher cipher) {
+        if (CIPHER_POOL_SIZE.incrementAndGet() <= MAX_POOLED_CIPHERS) {
+            CIPHER_POOL.offer(cipher);
+        } else {
+            CIPHER_POOL_SIZE.decrementAndGet();
+        }
+    }
 }
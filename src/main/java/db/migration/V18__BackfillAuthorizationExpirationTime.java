@@ -0,0 +1,41 @@
+package db.migration;
+
+import org.flywaydb.core.api.migration.BaseJavaMigration;
+import org.flywaydb.core.api.migration.Context;
+
+import java.sql.PreparedStatement;
+
+/**
+ * Backfills application_client_authorizations.expiration_time in bounded batches, each one committed on its own.
+ */
+public class V18__BackfillAuthorizationExpirationTime extends BaseJavaMigration {
+
+    private static final int BATCH_SIZE = 1000;
+    private static final String QUERY = """
+    UPDATE application_client_authorizations
+    SET expiration_time = COALESCE(GREATEST(authorization_code_expires_at, access_token_expires_at, refresh_token_expires_at), (last_update_time + INTERVAL '1 DAY'))
+    WHERE id IN (
+        SELECT id
+        FROM application_client_authorizations
+        WHERE expiration_time IS NULL
+        LIMIT ?
+    )
+    """;
+
+    @Override
+    public boolean canExecuteInTransaction() {
+        return false;
+    }
+
+    @Override
+    public void migrate(Context context) throws Exception {
+        try (PreparedStatement ps = context.getConnection().prepareStatement(QUERY)) {
+            ps.setInt(1, BATCH_SIZE);
+
+            int updated;
+            do {
+                updated = ps.executeUpdate();
+            } while (updated > 0);
+        }
+    }
+}
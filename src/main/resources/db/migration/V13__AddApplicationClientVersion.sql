@@ -0,0 +1,2 @@
+ALTER TABLE application_clients
+ADD COLUMN version INT8 NOT NULL DEFAULT 0 ;
@@ -0,0 +1,42 @@
+CREATE TABLE application_client_authorization_token_index (
+    token_hash BYTEA NOT NULL,
+    token_type TEXT NOT NULL,
+    application_client_authorization_id TEXT NOT NULL,
+    PRIMARY KEY (token_hash, token_type),
+    FOREIGN KEY (application_client_authorization_id) REFERENCES application_client_authorizations (id) ON DELETE CASCADE
+) ;
+
+CREATE INDEX ON application_client_authorization_token_index (application_client_authorization_id) ;
+
+-- sha256 of the UTF-8 encoded token value
+INSERT INTO application_client_authorization_token_index
+(token_hash, token_type, application_client_authorization_id)
+SELECT decode(sha256(state), 'hex'), 'state', id
+FROM application_client_authorizations
+WHERE state IS NOT NULL ;
+
+INSERT INTO application_client_authorization_token_index
+(token_hash, token_type, application_client_authorization_id)
+SELECT decode(sha256(authorization_code_value), 'hex'), 'code', id
+FROM application_client_authorizations
+WHERE authorization_code_value IS NOT NULL ;
+
+INSERT INTO application_client_authorization_token_index
+(token_hash, token_type, application_client_authorization_id)
+SELECT decode(sha256(access_token_value), 'hex'), 'access_token', id
+FROM application_client_authorizations
+WHERE access_token_value IS NOT NULL ;
+
+INSERT INTO application_client_authorization_token_index
+(token_hash, token_type, application_client_authorization_id)
+SELECT decode(sha256(refresh_token_value), 'hex'), 'refresh_token', id
+FROM application_client_authorizations
+WHERE refresh_token_value IS NOT NULL ;
+
+-- lookups go through the token index now; these are the unnamed md5 indexes created in V4, in order of creation
+DROP INDEX application_client_authorizations@application_client_authorizations_expr_idx ; -- md5(authorization_code_value)
+DROP INDEX application_client_authorizations@application_client_authorizations_expr_idx1 ; -- md5(access_token_value)
+DROP INDEX application_client_authorizations@application_client_authorizations_expr_idx2 ; -- md5(refresh_token_value)
+
+-- acls
+GRANT SELECT, INSERT, UPDATE, DELETE ON TABLE application_client_authorization_token_index TO gw2auth_app ;
@@ -0,0 +1 @@
+ALTER TABLE application_client_authorizations ADD COLUMN access_token_hash BYTEA ;
@@ -0,0 +1,2 @@
+-- intentionally empty: stored access token values are replaced by their hash whenever the authorization is written next
+-- (rewriting every row of this table at once would lock it for the duration of the migration)
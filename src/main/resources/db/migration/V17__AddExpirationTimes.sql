@@ -0,0 +1,14 @@
+ALTER TABLE application_client_authorizations ADD COLUMN expiration_time TIMESTAMP WITH TIME ZONE ;
+
+CREATE TABLE leases (
+    name TEXT NOT NULL,
+    owner TEXT NOT NULL,
+    expiration_time TIMESTAMP WITH TIME ZONE NOT NULL,
+    PRIMARY KEY (name)
+) ;
+
+CREATE INDEX ON account_federation_sessions (expiration_time) ;
+CREATE INDEX ON gw2_account_api_subtokens (expiration_time) ;
+
+-- acls
+GRANT SELECT, INSERT, UPDATE, DELETE ON TABLE leases TO gw2auth_app ;
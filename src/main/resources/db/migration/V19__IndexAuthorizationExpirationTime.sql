@@ -0,0 +1 @@
+CREATE INDEX ON application_client_authorizations (expiration_time) ;
@@ -0,0 +1 @@
+ALTER TABLE gw2_account_api_tokens ADD COLUMN claimed_until TIMESTAMP WITH TIME ZONE ;
@@ -0,0 +1,4 @@
+-- existing pending challenges are due immediately
+ALTER TABLE gw2_account_verification_pending_challenges ADD COLUMN next_check_time TIMESTAMP WITH TIME ZONE NOT NULL DEFAULT now() ;
+ALTER TABLE gw2_account_verification_pending_challenges ADD COLUMN attempts INT NOT NULL DEFAULT 0 ;
+ALTER TABLE gw2_account_verification_pending_challenges ADD COLUMN claimed_until TIMESTAMP WITH TIME ZONE ;
@@ -0,0 +1 @@
+CREATE INDEX ON gw2_account_verification_pending_challenges (next_check_time) ;
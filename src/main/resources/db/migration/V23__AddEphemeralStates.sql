@@ -0,0 +1,12 @@
+CREATE TABLE ephemeral_states (
+    scope TEXT NOT NULL,
+    id TEXT NOT NULL,
+    data BYTEA NOT NULL,
+    expiration_time TIMESTAMP WITH TIME ZONE NOT NULL,
+    PRIMARY KEY (scope, id)
+) ;
+
+CREATE INDEX ON ephemeral_states (expiration_time) ;
+
+-- acls
+GRANT SELECT, INSERT, UPDATE, DELETE ON TABLE ephemeral_states TO gw2auth_app ;
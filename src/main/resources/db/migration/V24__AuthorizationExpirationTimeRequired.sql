@@ -0,0 +1,2 @@
+-- every row has been backfilled by V18 and the application always writes this column
+ALTER TABLE application_client_authorizations ALTER COLUMN expiration_time SET NOT NULL ;
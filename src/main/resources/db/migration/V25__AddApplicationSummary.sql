@@ -0,0 +1,14 @@
+-- computed by the instance holding the application-summary lease, read by every instance
+CREATE TABLE application_summaries (
+    id INT NOT NULL,
+    accounts INT8 NOT NULL,
+    api_tokens INT8 NOT NULL,
+    verified_gw2_accounts INT8 NOT NULL,
+    client_registrations INT8 NOT NULL,
+    client_authorizations INT8 NOT NULL,
+    computation_time TIMESTAMP WITH TIME ZONE NOT NULL,
+    PRIMARY KEY (id)
+) ;
+
+-- acls
+GRANT SELECT, INSERT, UPDATE, DELETE ON TABLE application_summaries TO gw2auth_app ;
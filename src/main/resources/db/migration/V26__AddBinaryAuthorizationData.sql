@@ -0,0 +1,6 @@
+-- attributes and token metadata are written in a binary format from now on
+-- the TEXT columns are only read for rows written before and are cleared whenever the authorization is written next
+ALTER TABLE application_client_authorizations ADD COLUMN attributes_bytes BYTEA ;
+ALTER TABLE application_client_authorizations ADD COLUMN authorization_code_metadata_bytes BYTEA ;
+ALTER TABLE application_client_authorizations ADD COLUMN access_token_metadata_bytes BYTEA ;
+ALTER TABLE application_client_authorizations ADD COLUMN refresh_token_metadata_bytes BYTEA ;
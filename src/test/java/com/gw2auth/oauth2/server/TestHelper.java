@@ -189,7 +189,8 @@ public class TestHelper {
                 redirectUris,
                 false,
                 OAuth2ClientApiVersion.V0.value(),
-                OAuth2ClientType.CONFIDENTIAL.name()
+                OAuth2ClientType.CONFIDENTIAL.name(),
+                0L
         ));
     }
 
@@ -300,21 +301,27 @@ public class TestHelper {
                 AuthorizationGrantType.JWT_BEARER.getValue(),
                 rawScopes,
                 "",
+                null,
                 UUID.randomUUID().toString(),
                 authorizationCodeValue,
                 authorizationCodeIssuedAt,
                 authorizationCodeExpiresAt,
                 authorizationCodeMetadata,
+                null,
                 accessTokenValue,
+                null,
                 accessTokenIssuedAt,
                 accessTokenExpiresAt,
                 accessTokenMetadata,
+                null,
                 accessTokenType,
                 rawScopes,
                 refreshTokenValue,
                 refreshTokenIssuedAt,
                 refreshTokenExpiresAt,
-                refreshTokenMetadata
+                refreshTokenMetadata,
+                null,
+                Optional.ofNullable(refreshTokenExpiresAt).orElse(creationTime.plus(Duration.ofDays(1L)))
         ));
     }
 
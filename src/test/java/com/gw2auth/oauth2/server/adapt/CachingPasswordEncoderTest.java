@@ -0,0 +1,57 @@
+package com.gw2auth.oauth2.server.adapt;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.security.crypto.password.PasswordEncoder;
+
+import java.time.Duration;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.Mockito.*;
+
+public class CachingPasswordEncoderTest {
+
+    @Test
+    public void successfulVerificationIsCached() {
+        final PasswordEncoder delegate = mock(PasswordEncoder.class);
+        when(delegate.matches("secret", "hash")).thenReturn(true);
+
+        final CachingPasswordEncoder passwordEncoder = new CachingPasswordEncoder(delegate, 100L, Duration.ofMinutes(1L), new SimpleMeterRegistry());
+
+        assertTrue(passwordEncoder.matches("secret", "hash"));
+        assertTrue(passwordEncoder.matches("secret", "hash"));
+
+        verify(delegate, times(1)).matches("secret", "hash");
+    }
+
+    @Test
+    public void failedVerificationIsNotCached() {
+        final PasswordEncoder delegate = mock(PasswordEncoder.class);
+        when(delegate.matches("secret", "hash")).thenReturn(true);
+
+        final CachingPasswordEncoder passwordEncoder = new CachingPasswordEncoder(delegate, 100L, Duration.ofMinutes(1L), new SimpleMeterRegistry());
+
+        assertTrue(passwordEncoder.matches("secret", "hash"));
+        assertFalse(passwordEncoder.matches("wrong", "hash"));
+        assertFalse(passwordEncoder.matches("wrong", "hash"));
+        assertFalse(passwordEncoder.matches("secret", "otherhash"));
+
+        verify(delegate, times(2)).matches("wrong", "hash");
+        verify(delegate, times(1)).matches("secret", "otherhash");
+    }
+
+    @Test
+    public void evictForgetsVerification() {
+        final PasswordEncoder delegate = mock(PasswordEncoder.class);
+        when(delegate.matches("secret", "hash")).thenReturn(true);
+
+        final CachingPasswordEncoder passwordEncoder = new CachingPasswordEncoder(delegate, 100L, Duration.ofMinutes(1L), new SimpleMeterRegistry());
+
+        assertTrue(passwordEncoder.matches("secret", "hash"));
+        passwordEncoder.evict("hash");
+        assertTrue(passwordEncoder.matches("secret", "hash"));
+
+        verify(delegate, times(2)).matches("secret", "hash");
+    }
+}
@@ -0,0 +1,111 @@
+package com.gw2auth.oauth2.server.adapt;
+
+import com.gw2auth.oauth2.server.service.ephemeral.InMemoryEphemeralStateStore;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.security.oauth2.core.endpoint.OAuth2AuthorizationRequest;
+import org.springframework.security.oauth2.core.endpoint.OAuth2ParameterNames;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class EphemeralStateAuthorizationRequestRepositoryTest {
+
+    private static final Instant NOW = Instant.parse("2024-01-01T00:00:00Z");
+    private static final Duration TTL = Duration.ofMinutes(5L);
+
+    private InMemoryEphemeralStateStore ephemeralStateStore;
+    private EphemeralStateAuthorizationRequestRepository repository;
+
+    @BeforeEach
+    public void setup() {
+        this.ephemeralStateStore = new InMemoryEphemeralStateStore();
+        this.ephemeralStateStore.setClock(Clock.fixed(NOW, ZoneOffset.UTC));
+        this.repository = new EphemeralStateAuthorizationRequestRepository(this.ephemeralStateStore, TTL);
+    }
+
+    @Test
+    public void savedRequestCanBeLoadedByItsState() {
+        final OAuth2AuthorizationRequest authorizationRequest = authorizationRequest("state-a");
+        this.repository.saveAuthorizationRequest(authorizationRequest, new MockHttpServletRequest(), new MockHttpServletResponse());
+
+        assertAuthorizationRequestEquals(authorizationRequest, this.repository.loadAuthorizationRequest(requestWithState("state-a")));
+        // loading does not consume the request
+        assertAuthorizationRequestEquals(authorizationRequest, this.repository.loadAuthorizationRequest(requestWithState("state-a")));
+
+        assertNull(this.repository.loadAuthorizationRequest(requestWithState("state-b")));
+        assertNull(this.repository.loadAuthorizationRequest(new MockHttpServletRequest()));
+    }
+
+    @Test
+    public void removedRequestCanOnlyBeUsedOnce() {
+        final OAuth2AuthorizationRequest authorizationRequest = authorizationRequest("state-a");
+        this.repository.saveAuthorizationRequest(authorizationRequest, new MockHttpServletRequest(), new MockHttpServletResponse());
+
+        assertAuthorizationRequestEquals(authorizationRequest, this.repository.removeAuthorizationRequest(requestWithState("state-a"), new MockHttpServletResponse()));
+        assertNull(this.repository.removeAuthorizationRequest(requestWithState("state-a"), new MockHttpServletResponse()));
+        assertNull(this.repository.loadAuthorizationRequest(requestWithState("state-a")));
+    }
+
+    @Test
+    public void savingNullRemovesTheRequestOfTheCurrentState() {
+        this.repository.saveAuthorizationRequest(authorizationRequest("state-a"), new MockHttpServletRequest(), new MockHttpServletResponse());
+        this.repository.saveAuthorizationRequest(null, requestWithState("state-a"), new MockHttpServletResponse());
+
+        assertNull(this.repository.loadAuthorizationRequest(requestWithState("state-a")));
+    }
+
+    @Test
+    public void expiredRequestIsNotReturned() {
+        this.repository.saveAuthorizationRequest(authorizationRequest("state-a"), new MockHttpServletRequest(), new MockHttpServletResponse());
+        this.ephemeralStateStore.setClock(Clock.fixed(NOW.plus(TTL), ZoneOffset.UTC));
+
+        assertNull(this.repository.loadAuthorizationRequest(requestWithState("state-a")));
+        assertNull(this.repository.removeAuthorizationRequest(requestWithState("state-a"), new MockHttpServletResponse()));
+    }
+
+    @Test
+    public void unreadableStateIsIgnored() {
+        this.ephemeralStateStore.put("oauth2/authorization", "state-a", "not json".getBytes(), TTL);
+
+        assertNull(this.repository.loadAuthorizationRequest(requestWithState("state-a")));
+    }
+
+    private static MockHttpServletRequest requestWithState(String state) {
+        final MockHttpServletRequest request = new MockHttpServletRequest();
+        request.setParameter(OAuth2ParameterNames.STATE, state);
+
+        return request;
+    }
+
+    private static OAuth2AuthorizationRequest authorizationRequest(String state) {
+        return OAuth2AuthorizationRequest.authorizationCode()
+                .authorizationUri("https://issuer.gw2auth.com/oauth2/authorize")
+                .clientId("client-id")
+                .redirectUri("http://localhost:9000/auth/oauth2/code/issuer")
+                .scopes(Set.of("openid", "profile"))
+                .state(state)
+                .attributes(Map.of(OAuth2ParameterNames.REGISTRATION_ID, "issuer"))
+                .build();
+    }
+
+    private static void assertAuthorizationRequestEquals(OAuth2AuthorizationRequest expected, OAuth2AuthorizationRequest actual) {
+        assertNotNull(actual);
+        assertEquals(expected.getAuthorizationUri(), actual.getAuthorizationUri());
+        assertEquals(expected.getGrantType(), actual.getGrantType());
+        assertEquals(expected.getClientId(), actual.getClientId());
+        assertEquals(expected.getRedirectUri(), actual.getRedirectUri());
+        assertEquals(expected.getScopes(), actual.getScopes());
+        assertEquals(expected.getState(), actual.getState());
+        assertEquals(expected.getAttributes(), actual.getAttributes());
+        assertEquals(expected.getAuthorizationRequestUri(), actual.getAuthorizationRequestUri());
+    }
+}
@@ -3,6 +3,7 @@ package com.gw2auth.oauth2.server.configuration;
 import com.gw2auth.oauth2.server.service.gw2.client.ChainedGw2ApiClient;
 import com.gw2auth.oauth2.server.service.gw2.client.Gw2ApiClient;
 import com.gw2auth.oauth2.server.service.gw2.client.RestOperationsGw2ApiClient;
+import io.micrometer.core.instrument.MeterRegistry;
 import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
@@ -30,8 +31,8 @@ public class Gw2ApiClientConfiguration {
 
     @Primary
     @Bean
-    public Gw2ApiClient gw2ApiClient(@Qualifier("gw2-rest-template") RestTemplate gw2RestTemplate) {
-        return new ChainedGw2ApiClient(List.of(new RestOperationsGw2ApiClient(gw2RestTemplate)), Duration.ofMinutes(1L));
+    public Gw2ApiClient gw2ApiClient(@Qualifier("gw2-rest-template") RestTemplate gw2RestTemplate, MeterRegistry meterRegistry) {
+        return new ChainedGw2ApiClient(List.of(new RestOperationsGw2ApiClient(gw2RestTemplate)), Duration.ofMinutes(1L), meterRegistry);
     }
 
     @Primary
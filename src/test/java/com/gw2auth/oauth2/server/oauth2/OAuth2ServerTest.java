@@ -28,7 +28,7 @@ import com.gw2auth.oauth2.server.service.application.client.ApplicationClient;
 import com.gw2auth.oauth2.server.service.application.client.ApplicationClientCreation;
 import com.gw2auth.oauth2.server.service.application.client.ApplicationClientService;
 import com.gw2auth.oauth2.server.service.application.client.account.ApplicationClientAccount;
-import com.gw2auth.oauth2.server.service.application.client.authorization.ApplicationClientAuthorizationServiceImpl;
+import com.gw2auth.oauth2.server.service.sweeper.ExpirySweeper;
 import com.gw2auth.oauth2.server.util.QueryParam;
 import com.gw2auth.oauth2.server.util.Utils;
 import com.nimbusds.jwt.JWT;
@@ -123,7 +123,7 @@ public class OAuth2ServerTest {
     private ApplicationClientAccountRepository applicationClientAccountRepository;
 
     @Autowired
-    private ApplicationClientAuthorizationServiceImpl applicationClientAuthorizationService;
+    private ExpirySweeper expirySweeper;
 
     @Autowired
     private ApplicationClientAuthorizationRepository applicationClientAuthorizationRepository;
@@ -1859,7 +1859,7 @@ public class OAuth2ServerTest {
                 .andExpect(status().isOk());
 
         // trigger deletion
-        this.applicationClientAuthorizationService.deleteAllExpiredAuthorizations();
+        this.expirySweeper.sweep();
 
         // database should still contain the authorization (access token is still valid)
         List<ApplicationClientAuthorizationWithGw2AccountIdsEntity> clientAuthorizationEntities = this.applicationClientAuthorizationRepository.findAllWithGw2AccountIdsByAccountIdAndApplicationClientId(accountId, applicationClient.id());
@@ -1868,7 +1868,7 @@ public class OAuth2ServerTest {
         // trigger deletion with current timestamp + 31min
         testingClock = Clock.offset(testingClock, Duration.ofMinutes(31L));
         this.gw2AuthClockedExtension.setClock(testingClock);
-        this.applicationClientAuthorizationService.deleteAllExpiredAuthorizations();
+        this.expirySweeper.sweep();
 
         // database should not contain the authorization anymore
         clientAuthorizationEntities = this.applicationClientAuthorizationRepository.findAllWithGw2AccountIdsByAccountIdAndApplicationClientId(accountId, applicationClient.id());
@@ -0,0 +1,105 @@
+package com.gw2auth.oauth2.server.service.account;
+
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.Logger;
+import ch.qos.logback.classic.LoggerContext;
+import ch.qos.logback.classic.spi.ILoggingEvent;
+import ch.qos.logback.core.read.ListAppender;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.gw2auth.oauth2.server.adapt.LogstashJsonFactoryDecorator;
+import net.logstash.logback.encoder.LogstashEncoder;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.slf4j.LoggerFactory;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Map;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class AccountLoggingContextTest {
+
+    private Logger logger;
+    private Level previousLevel;
+    private ListAppender<ILoggingEvent> appender;
+    private LogstashEncoder encoder;
+
+    @BeforeEach
+    public void setup() {
+        final LoggerContext loggerContext = (LoggerContext) LoggerFactory.getILoggerFactory();
+
+        this.logger = loggerContext.getLogger(AccountLoggingContext.class);
+        this.previousLevel = this.logger.getLevel();
+        this.appender = new ListAppender<>();
+        this.appender.start();
+        this.logger.addAppender(this.appender);
+
+        // configured like logback-spring.xml
+        this.encoder = new LogstashEncoder();
+        this.encoder.setContext(loggerContext);
+        this.encoder.setJsonFactoryDecorator(new LogstashJsonFactoryDecorator());
+        this.encoder.start();
+    }
+
+    @AfterEach
+    public void cleanup() {
+        this.logger.detachAppender(this.appender);
+        this.logger.setLevel(this.previousLevel);
+        this.encoder.stop();
+    }
+
+    @Test
+    public void fieldsOfAllLevelsAreWrittenAsStructuredArguments() throws Exception {
+        final UUID accountId = UUID.randomUUID();
+        this.logger.setLevel(Level.INFO);
+
+        try (AccountService.LoggingContext root = AccountLoggingContext.root(accountId, Map.of("type", "ACCESS_TOKEN", "client_id", "root"))) {
+            try (AccountService.LoggingContext child = root.with(Map.of("client_id", "child", "client_api_version", 1))) {
+                child.log("message", Map.of("gw2_account_id", "gw2"));
+            }
+        }
+
+        assertEquals(1, this.appender.list.size());
+
+        final ILoggingEvent event = this.appender.list.getFirst();
+        assertEquals("account log; message", event.getFormattedMessage());
+        assertFalse(event.getMDCPropertyMap().containsKey("account_id"));
+
+        final JsonNode json = new ObjectMapper().readTree(new String(this.encoder.encode(event), StandardCharsets.UTF_8));
+        assertEquals(accountId.toString(), json.get("account_id").textValue());
+        assertEquals("ACCESS_TOKEN", json.get("type").textValue());
+        assertEquals("child", json.get("client_id").textValue());
+        assertEquals(1, json.get("client_api_version").intValue());
+        assertEquals("gw2", json.get("gw2_account_id").textValue());
+    }
+
+    @Test
+    public void timeFieldsAreWrittenLikeTheApplicationObjectMapper() throws Exception {
+        final Instant instant = Instant.parse("2024-01-01T00:00:00Z");
+        this.logger.setLevel(Level.INFO);
+
+        try (AccountService.LoggingContext root = AccountLoggingContext.root(UUID.randomUUID(), Map.of("expiration_time", instant))) {
+            root.log("message", Map.of("ttl", Duration.ofMinutes(5L)));
+        }
+
+        final JsonNode json = new ObjectMapper().readTree(new String(this.encoder.encode(this.appender.list.getFirst()), StandardCharsets.UTF_8));
+        assertEquals("2024-01-01T00:00:00Z", json.get("expiration_time").textValue());
+        assertEquals("PT5M", json.get("ttl").textValue());
+    }
+
+    @Test
+    public void nothingIsLoggedWhenLevelIsDisabled() {
+        this.logger.setLevel(Level.WARN);
+
+        try (AccountService.LoggingContext root = AccountLoggingContext.root(UUID.randomUUID(), Map.of("type", "ACCESS_TOKEN"))) {
+            root.log("message");
+        }
+
+        assertTrue(this.appender.list.isEmpty());
+    }
+}
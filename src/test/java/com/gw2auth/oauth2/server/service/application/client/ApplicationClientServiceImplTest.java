@@ -0,0 +1,181 @@
+package com.gw2auth.oauth2.server.service.application.client;
+
+import com.gw2auth.oauth2.server.repository.application.ApplicationRepository;
+import com.gw2auth.oauth2.server.repository.application.client.ApplicationClientEntity;
+import com.gw2auth.oauth2.server.repository.application.client.ApplicationClientRepository;
+import com.gw2auth.oauth2.server.repository.application.client.ApplicationClientVersionEntity;
+import com.gw2auth.oauth2.server.service.OAuth2ClientApiVersion;
+import com.gw2auth.oauth2.server.service.OAuth2ClientType;
+import com.gw2auth.oauth2.server.service.account.AccountService;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.security.crypto.password.PasswordEncoder;
+import org.springframework.security.oauth2.core.AuthorizationGrantType;
+import org.springframework.security.oauth2.server.authorization.client.RegisteredClient;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+public class ApplicationClientServiceImplTest {
+
+    private static final Instant NOW = Instant.parse("2024-01-01T00:00:00Z");
+
+    private ApplicationClientRepository applicationClientRepository;
+    private ApplicationClientServiceImpl service;
+
+    @BeforeEach
+    public void setup() {
+        this.applicationClientRepository = mock(ApplicationClientRepository.class);
+
+        final RedirectUriValidator redirectUriValidator = mock(RedirectUriValidator.class);
+        when(redirectUriValidator.validate(anyString())).thenReturn(true);
+
+        this.service = new ApplicationClientServiceImpl(
+                mock(AccountService.class),
+                mock(ApplicationRepository.class),
+                this.applicationClientRepository,
+                redirectUriValidator,
+                mock(PasswordEncoder.class),
+                100L,
+                Duration.ofMinutes(10L),
+                new SimpleMeterRegistry()
+        );
+
+        when(this.applicationClientRepository.save(any(ApplicationClientEntity.class))).thenAnswer((invocation) -> {
+            final ApplicationClientEntity entity = invocation.getArgument(0);
+            return withVersion(entity, entity.version() + 1L);
+        });
+    }
+
+    @AfterEach
+    public void clearSynchronization() {
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.clearSynchronization();
+        }
+    }
+
+    @Test
+    public void registeredClientIsCached() {
+        final ApplicationClientEntity entity = client(0L);
+        when(this.applicationClientRepository.findById(entity.id())).thenReturn(Optional.of(entity));
+
+        final RegisteredClient first = this.service.findById(entity.id().toString());
+        final RegisteredClient second = this.service.findByClientId(entity.id().toString());
+
+        assertNotNull(first);
+        assertSame(first, second);
+        verify(this.applicationClientRepository, times(1)).findById(entity.id());
+    }
+
+    @Test
+    public void unknownClientIsNotCached() {
+        final UUID id = UUID.randomUUID();
+        when(this.applicationClientRepository.findById(id)).thenReturn(Optional.empty());
+
+        assertNull(this.service.findById(id.toString()));
+        assertNull(this.service.findById(id.toString()));
+        verify(this.applicationClientRepository, times(2)).findById(id);
+    }
+
+    @Test
+    public void changeInvalidatesCachedClientAgainAfterCompletion() {
+        final UUID accountId = UUID.randomUUID();
+        final ApplicationClientEntity entity = client(0L);
+        when(this.applicationClientRepository.findById(entity.id())).thenReturn(Optional.of(entity));
+        when(this.applicationClientRepository.findByIdAndAccountId(entity.id(), accountId)).thenReturn(Optional.of(entity));
+
+        this.service.findById(entity.id().toString());
+
+        TransactionSynchronizationManager.initSynchronization();
+        this.service.addRedirectUri(accountId, entity.id(), "https://gw2auth.com/other");
+
+        // a concurrent lookup caches the state from before the commit
+        final RegisteredClient stale = this.service.findById(entity.id().toString());
+        assertSame(stale, this.service.findById(entity.id().toString()));
+        verify(this.applicationClientRepository, times(2)).findById(entity.id());
+
+        final List<TransactionSynchronization> synchronizations = TransactionSynchronizationManager.getSynchronizations();
+        assertFalse(synchronizations.isEmpty());
+        synchronizations.forEach((v) -> v.afterCompletion(TransactionSynchronization.STATUS_COMMITTED));
+
+        assertNotSame(stale, this.service.findById(entity.id().toString()));
+        verify(this.applicationClientRepository, times(3)).findById(entity.id());
+    }
+
+    @Test
+    public void versionPollInvalidatesChangedAndDeletedClients() {
+        final ApplicationClientEntity unchanged = client(3L);
+        final ApplicationClientEntity changed = client(3L);
+        final ApplicationClientEntity deleted = client(3L);
+
+        for (ApplicationClientEntity entity : List.of(unchanged, changed, deleted)) {
+            when(this.applicationClientRepository.findById(entity.id())).thenReturn(Optional.of(entity));
+            this.service.findById(entity.id().toString());
+        }
+
+        when(this.applicationClientRepository.findAllVersionsByIds(anyCollection())).thenReturn(List.of(
+                new ApplicationClientVersionEntity(unchanged.id(), 3L),
+                new ApplicationClientVersionEntity(changed.id(), 4L)
+        ));
+
+        this.service.invalidateChangedRegisteredClients();
+
+        verify(this.applicationClientRepository).findAllVersionsByIds(Set.of(unchanged.id(), changed.id(), deleted.id()));
+
+        for (ApplicationClientEntity entity : List.of(unchanged, changed, deleted)) {
+            this.service.findById(entity.id().toString());
+        }
+
+        verify(this.applicationClientRepository, times(1)).findById(unchanged.id());
+        verify(this.applicationClientRepository, times(2)).findById(changed.id());
+        verify(this.applicationClientRepository, times(2)).findById(deleted.id());
+    }
+
+    @Test
+    public void versionPollWithEmptyCacheDoesNotQuery() {
+        this.service.invalidateChangedRegisteredClients();
+
+        verify(this.applicationClientRepository, never()).findAllVersionsByIds(anyCollection());
+    }
+
+    private static ApplicationClientEntity client(long version) {
+        return new ApplicationClientEntity(
+                UUID.randomUUID(),
+                UUID.randomUUID(),
+                NOW,
+                "Client",
+                "encoded-secret",
+                Set.of(AuthorizationGrantType.AUTHORIZATION_CODE.getValue(), AuthorizationGrantType.REFRESH_TOKEN.getValue()),
+                new HashSet<>(Set.of("https://gw2auth.com/callback")),
+                false,
+                OAuth2ClientApiVersion.V0.value(),
+                OAuth2ClientType.CONFIDENTIAL.name(),
+                version
+        );
+    }
+
+    private static ApplicationClientEntity withVersion(ApplicationClientEntity entity, long version) {
+        return new ApplicationClientEntity(
+                entity.id(),
+                entity.applicationId(),
+                entity.creationTime(),
+                entity.displayName(),
+                entity.clientSecret(),
+                entity.authorizationGrantTypes(),
+                entity.redirectUris(),
+                entity.requiresApproval(),
+                entity.apiVersion(),
+                entity.type(),
+                version
+        );
+    }
+}
@@ -0,0 +1,337 @@
+package com.gw2auth.oauth2.server.service.application.client.authorization;
+
+import com.gw2auth.oauth2.server.adapt.Gw2AuthAuthenticationManagerResolver;
+import com.gw2auth.oauth2.server.repository.application.client.ApplicationClientRepository;
+import com.gw2auth.oauth2.server.repository.application.client.authorization.*;
+import com.gw2auth.oauth2.server.service.account.AccountService;
+import com.gw2auth.oauth2.server.service.application.AuthorizationCodeParamAccessor;
+import com.gw2auth.oauth2.server.service.user.Gw2AuthUserV2;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.InOrder;
+import org.springframework.core.env.Environment;
+import org.springframework.security.oauth2.core.AuthorizationGrantType;
+import org.springframework.security.oauth2.core.OAuth2AccessToken;
+import org.springframework.security.oauth2.core.OAuth2RefreshToken;
+import org.springframework.security.oauth2.server.authorization.OAuth2Authorization;
+import org.springframework.security.oauth2.server.authorization.OAuth2TokenType;
+import org.springframework.security.oauth2.server.authorization.client.RegisteredClient;
+import org.springframework.security.oauth2.server.authorization.client.RegisteredClientRepository;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.Principal;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+public class ApplicationClientAuthorizationServiceImplTest {
+
+    private static final Instant NOW = Instant.parse("2024-01-01T00:00:00Z");
+
+    private ApplicationClientAuthorizationRepository authorizationRepository;
+    private ApplicationClientAuthorizationTokenIndexRepository tokenIndexRepository;
+    private RegisteredClient registeredClient;
+    private Map<String, ApplicationClientAuthorizationEntity> authorizations;
+    private Map<String, String> tokenIndex;
+
+    @BeforeEach
+    public void setup() {
+        this.authorizations = new HashMap<>();
+        this.tokenIndex = new HashMap<>();
+        this.authorizationRepository = mock(ApplicationClientAuthorizationRepository.class);
+        this.tokenIndexRepository = mock(ApplicationClientAuthorizationTokenIndexRepository.class);
+        this.registeredClient = RegisteredClient.withId(UUID.randomUUID().toString())
+                .clientId(UUID.randomUUID().toString())
+                .authorizationGrantType(AuthorizationGrantType.AUTHORIZATION_CODE)
+                .authorizationGrantType(AuthorizationGrantType.REFRESH_TOKEN)
+                .redirectUri("http://127.0.0.1/callback")
+                .build();
+
+        // a minimal in-memory stand-in for the authorization table and its token index
+        when(this.authorizationRepository.save(any(ApplicationClientAuthorizationEntity.class))).thenAnswer((invocation) -> {
+            final ApplicationClientAuthorizationEntity entity = invocation.getArgument(0);
+            this.authorizations.put(entity.id(), entity);
+            return entity;
+        });
+        when(this.authorizationRepository.findByTokenHash(any(), anyString())).thenAnswer((invocation) -> {
+            final String id = this.tokenIndex.get(indexKey(invocation.getArgument(0), invocation.getArgument(1)));
+            return Optional.ofNullable(id).map(this.authorizations::get);
+        });
+        doAnswer((invocation) -> {
+            this.tokenIndex.values().removeIf(invocation.getArgument(0)::equals);
+            return null;
+        }).when(this.tokenIndexRepository).deleteAllByApplicationClientAuthorizationId(anyString());
+        doAnswer((invocation) -> {
+            for (ApplicationClientAuthorizationTokenIndexEntity entity : invocation.<Collection<ApplicationClientAuthorizationTokenIndexEntity>>getArgument(0)) {
+                this.tokenIndex.put(indexKey(entity.tokenHash(), entity.tokenType()), entity.applicationClientAuthorizationId());
+            }
+            return null;
+        }).when(this.tokenIndexRepository).saveAll(anyCollection());
+    }
+
+    @Test
+    public void onlyTheAccessTokenHashIsStoredByDefault() {
+        final ApplicationClientAuthorizationServiceImpl service = createService(false);
+        final OAuth2Authorization authorization = authorization("access-token", "refresh-token");
+
+        service.save(authorization);
+
+        final ApplicationClientAuthorizationEntity entity = this.authorizations.get(authorization.getId());
+        assertNull(entity.accessTokenValue());
+        assertArrayEquals(sha256("access-token"), entity.accessTokenHash());
+    }
+
+    @Test
+    public void accessTokenValueIsStoredWhenEnabled() {
+        final ApplicationClientAuthorizationServiceImpl service = createService(true);
+        final OAuth2Authorization authorization = authorization("access-token", "refresh-token");
+
+        service.save(authorization);
+
+        final ApplicationClientAuthorizationEntity entity = this.authorizations.get(authorization.getId());
+        assertEquals("access-token", entity.accessTokenValue());
+        assertArrayEquals(sha256("access-token"), entity.accessTokenHash());
+    }
+
+    @Test
+    public void findByAccessTokenReturnsThePresentedToken() {
+        final ApplicationClientAuthorizationServiceImpl service = createService(false);
+        service.save(authorization("access-token", "refresh-token"));
+
+        final OAuth2Authorization found = service.findByToken("access-token", OAuth2TokenType.ACCESS_TOKEN);
+
+        assertNotNull(found);
+        assertEquals("access-token", found.getAccessToken().getToken().getTokenValue());
+        assertNotNull(found.getToken("access-token"));
+        assertNull(service.findByToken("other-access-token", OAuth2TokenType.ACCESS_TOKEN));
+    }
+
+    @Test
+    public void findByRefreshTokenDoesNotExposeAnAccessTokenValue() {
+        final ApplicationClientAuthorizationServiceImpl service = createService(false);
+        service.save(authorization("access-token", "refresh-token"));
+
+        final OAuth2Authorization found = service.findByToken("refresh-token", OAuth2TokenType.REFRESH_TOKEN);
+
+        assertNotNull(found);
+        assertEquals("refresh-token", found.getRefreshToken().getToken().getTokenValue());
+        assertArrayEquals(sha256("access-token"), (byte[]) found.getAccessToken().getMetadata(ApplicationClientAuthorizationServiceImpl.ACCESS_TOKEN_HASH_METADATA_NAME));
+        assertNotEquals("access-token", found.getAccessToken().getToken().getTokenValue());
+        assertNull(found.getToken("access-token"));
+    }
+
+    @Test
+    public void savingAnAuthorizationFoundByRefreshTokenKeepsTheAccessTokenHash() {
+        final OAuth2Authorization authorization = authorization("access-token", "refresh-token");
+        createService(false).save(authorization);
+
+        // store-value enabled later on: the random stand-in value must never be persisted
+        final ApplicationClientAuthorizationServiceImpl service = createService(true);
+        service.save(service.findByToken("refresh-token", OAuth2TokenType.REFRESH_TOKEN));
+
+        final ApplicationClientAuthorizationEntity entity = this.authorizations.get(authorization.getId());
+        assertNull(entity.accessTokenValue());
+        assertArrayEquals(sha256("access-token"), entity.accessTokenHash());
+
+        final OAuth2Authorization foundByAccessToken = service.findByToken("access-token", OAuth2TokenType.ACCESS_TOKEN);
+        assertNotNull(foundByAccessToken);
+        assertNull(foundByAccessToken.getAccessToken().getMetadata(ApplicationClientAuthorizationServiceImpl.ACCESS_TOKEN_HASH_METADATA_NAME));
+    }
+
+    @Test
+    public void revocationThroughRefreshTokenInvalidatesTheHashedAccessToken() {
+        final ApplicationClientAuthorizationServiceImpl service = createService(false);
+        final OAuth2Authorization authorization = authorization("access-token", "refresh-token");
+        service.save(authorization);
+
+        final OAuth2Authorization found = service.findByToken("refresh-token", OAuth2TokenType.REFRESH_TOKEN);
+        // what spring does when a refresh token is revoked
+        final OAuth2Authorization revoked = OAuth2Authorization.from(found)
+                .token(found.getRefreshToken().getToken(), (metadata) -> metadata.put(OAuth2Authorization.Token.INVALIDATED_METADATA_NAME, true))
+                .token(found.getAccessToken().getToken(), (metadata) -> metadata.put(OAuth2Authorization.Token.INVALIDATED_METADATA_NAME, true))
+                .build();
+        service.save(revoked);
+
+        final OAuth2Authorization afterRevocation = service.findByToken("access-token", OAuth2TokenType.ACCESS_TOKEN);
+        assertNotNull(afterRevocation);
+        assertTrue(afterRevocation.getAccessToken().isInvalidated());
+        assertTrue(afterRevocation.getRefreshToken().isInvalidated());
+        assertArrayEquals(sha256("access-token"), this.authorizations.get(authorization.getId()).accessTokenHash());
+    }
+
+    @Test
+    public void legacyAccessTokenValueIsDroppedOnNextWrite() {
+        final ApplicationClientAuthorizationServiceImpl service = createService(false);
+        final OAuth2Authorization authorization = authorization("access-token", "refresh-token");
+        service.save(authorization);
+
+        // a row written before only the hash was persisted
+        final ApplicationClientAuthorizationEntity saved = this.authorizations.get(authorization.getId());
+        this.authorizations.put(saved.id(), withAccessToken(saved, "access-token", null));
+
+        final OAuth2Authorization found = service.findByToken("refresh-token", OAuth2TokenType.REFRESH_TOKEN);
+        assertEquals("access-token", found.getAccessToken().getToken().getTokenValue());
+
+        service.save(found);
+
+        final ApplicationClientAuthorizationEntity entity = this.authorizations.get(authorization.getId());
+        assertNull(entity.accessTokenValue());
+        assertArrayEquals(sha256("access-token"), entity.accessTokenHash());
+    }
+
+    @Test
+    public void tokenIndexContainsTheHashOfEveryToken() {
+        final ApplicationClientAuthorizationServiceImpl service = createService(false);
+        final OAuth2Authorization authorization = authorization("access-token", "refresh-token");
+
+        service.save(authorization);
+
+        assertEquals(
+                Map.of(
+                        indexKey(sha256("access-token"), "access_token"), authorization.getId(),
+                        indexKey(sha256("refresh-token"), "refresh_token"), authorization.getId()
+                ),
+                this.tokenIndex
+        );
+
+        // the previous index entries of the authorization are removed before the current ones are inserted
+        final InOrder inOrder = inOrder(this.tokenIndexRepository);
+        inOrder.verify(this.tokenIndexRepository).deleteAllByApplicationClientAuthorizationId(authorization.getId());
+        inOrder.verify(this.tokenIndexRepository).saveAll(anyCollection());
+    }
+
+    @Test
+    public void tokenIndexIsReplacedWhenTokensAreRotated() {
+        final ApplicationClientAuthorizationServiceImpl service = createService(false);
+        final OAuth2Authorization authorization = authorization("access-token", "refresh-token");
+        final OAuth2Authorization otherAuthorization = authorization("other-access-token", "other-refresh-token");
+        service.save(authorization);
+        service.save(otherAuthorization);
+
+        final OAuth2Authorization rotated = OAuth2Authorization.from(authorization)
+                .accessToken(new OAuth2AccessToken(OAuth2AccessToken.TokenType.BEARER, "access-token-2", NOW, NOW.plus(Duration.ofMinutes(30L)), Set.of("gw2:account")))
+                .refreshToken(new OAuth2RefreshToken("refresh-token-2", NOW, NOW.plus(Duration.ofDays(180L))))
+                .build();
+        service.save(rotated);
+
+        assertNull(service.findByToken("access-token", OAuth2TokenType.ACCESS_TOKEN));
+        assertNull(service.findByToken("refresh-token", OAuth2TokenType.REFRESH_TOKEN));
+        assertEquals(authorization.getId(), service.findByToken("access-token-2", OAuth2TokenType.ACCESS_TOKEN).getId());
+        assertEquals(authorization.getId(), service.findByToken("refresh-token-2", OAuth2TokenType.REFRESH_TOKEN).getId());
+
+        // other authorizations keep their index entries
+        assertEquals(otherAuthorization.getId(), service.findByToken("other-access-token", OAuth2TokenType.ACCESS_TOKEN).getId());
+        assertEquals(4, this.tokenIndex.size());
+    }
+
+    @Test
+    public void refreshedAccessTokenIsStoredWithItsOwnHash() {
+        final ApplicationClientAuthorizationServiceImpl service = createService(false);
+        final OAuth2Authorization authorization = authorization("access-token", "refresh-token");
+        service.save(authorization);
+
+        // what spring does on a refresh_token grant: the metadata of the replaced tokens is copied onto the new ones
+        final OAuth2Authorization found = service.findByToken("refresh-token", OAuth2TokenType.REFRESH_TOKEN);
+        final OAuth2Authorization refreshed = OAuth2Authorization.from(found)
+                .accessToken(new OAuth2AccessToken(OAuth2AccessToken.TokenType.BEARER, "access-token-2", NOW, NOW.plus(Duration.ofMinutes(30L)), Set.of("gw2:account")))
+                .refreshToken(new OAuth2RefreshToken("refresh-token-2", NOW, NOW.plus(Duration.ofDays(180L))))
+                .build();
+        assertNotNull(refreshed.getAccessToken().getMetadata(ApplicationClientAuthorizationServiceImpl.ACCESS_TOKEN_HASH_METADATA_NAME));
+
+        service.save(refreshed);
+
+        final ApplicationClientAuthorizationEntity entity = this.authorizations.get(authorization.getId());
+        assertArrayEquals(sha256("access-token-2"), entity.accessTokenHash());
+        assertNull(service.findByToken("access-token", OAuth2TokenType.ACCESS_TOKEN));
+
+        final OAuth2Authorization foundByAccessToken = service.findByToken("access-token-2", OAuth2TokenType.ACCESS_TOKEN);
+        assertNotNull(foundByAccessToken);
+        assertEquals(authorization.getId(), foundByAccessToken.getId());
+        assertEquals("access-token-2", foundByAccessToken.getAccessToken().getToken().getTokenValue());
+        assertNull(foundByAccessToken.getAccessToken().getMetadata(ApplicationClientAuthorizationServiceImpl.ACCESS_TOKEN_HASH_METADATA_NAME));
+        assertNull(foundByAccessToken.getAccessToken().getMetadata(ApplicationClientAuthorizationServiceImpl.ACCESS_TOKEN_PLACEHOLDER_METADATA_NAME));
+    }
+
+    @Test
+    public void attributesAreOnlyDecodedWhenTheyAreRead() {
+        final ApplicationClientAuthorizationServiceImpl service = createService(false);
+        final OAuth2Authorization authorization = OAuth2Authorization.from(authorization("access-token", "refresh-token"))
+                .attribute(Principal.class.getName(), new Gw2AuthAuthenticationManagerResolver.Gw2AuthUserAuthentication(new Gw2AuthUserV2(UUID.randomUUID(), "cognito", "some-id"), true))
+                .build();
+        service.save(authorization);
+
+        final byte[] attributesBytes = this.authorizations.get(authorization.getId()).attributesBytes();
+        final byte[] refreshTokenMetadataBytes = this.authorizations.get(authorization.getId()).refreshTokenMetadataBytes();
+
+        final OAuth2Authorization foundByAccessToken = service.findByToken("access-token", OAuth2TokenType.ACCESS_TOKEN);
+        assertInstanceOf(AuthorizationDataCodec.Deferred.class, foundByAccessToken.getAttribute(Principal.class.getName()));
+
+        // saving it again writes the deferred data back unchanged
+        service.save(foundByAccessToken);
+        assertArrayEquals(attributesBytes, this.authorizations.get(authorization.getId()).attributesBytes());
+        assertArrayEquals(refreshTokenMetadataBytes, this.authorizations.get(authorization.getId()).refreshTokenMetadataBytes());
+
+        final OAuth2Authorization foundByRefreshToken = service.findByToken("refresh-token", OAuth2TokenType.REFRESH_TOKEN);
+        assertInstanceOf(Gw2AuthAuthenticationManagerResolver.Gw2AuthUserAuthentication.class, foundByRefreshToken.getAttribute(Principal.class.getName()));
+    }
+
+    private ApplicationClientAuthorizationServiceImpl createService(boolean storeAccessTokenValue) {
+        final RegisteredClientRepository registeredClientRepository = mock(RegisteredClientRepository.class);
+        when(registeredClientRepository.findById(this.registeredClient.getId())).thenReturn(this.registeredClient);
+
+        final ApplicationClientAuthorizationServiceImpl service = new ApplicationClientAuthorizationServiceImpl(
+                mock(Environment.class),
+                mock(AccountService.class),
+                mock(ApplicationClientRepository.class),
+                this.authorizationRepository,
+                mock(ApplicationClientAuthorizationTokenRepository.class),
+                this.tokenIndexRepository,
+                registeredClientRepository,
+                mock(AuthorizationCodeParamAccessor.class),
+                storeAccessTokenValue
+        );
+        service.setClock(Clock.fixed(NOW.plus(Duration.ofMinutes(1L)), ZoneOffset.UTC));
+
+        return service;
+    }
+
+    private OAuth2Authorization authorization(String accessToken, String refreshToken) {
+        return OAuth2Authorization.withRegisteredClient(this.registeredClient)
+                .id(UUID.randomUUID().toString())
+                .principalName(UUID.randomUUID().toString())
+                .authorizationGrantType(AuthorizationGrantType.AUTHORIZATION_CODE)
+                .authorizedScopes(Set.of("gw2:account"))
+                .accessToken(new OAuth2AccessToken(OAuth2AccessToken.TokenType.BEARER, accessToken, NOW, NOW.plus(Duration.ofMinutes(30L)), Set.of("gw2:account")))
+                .refreshToken(new OAuth2RefreshToken(refreshToken, NOW, NOW.plus(Duration.ofDays(180L))))
+                .build();
+    }
+
+    private static ApplicationClientAuthorizationEntity withAccessToken(ApplicationClientAuthorizationEntity v, String accessTokenValue, byte[] accessTokenHash) {
+        return new ApplicationClientAuthorizationEntity(
+                v.id(), v.accountId(), v.applicationClientId(), v.creationTime(), v.lastUpdateTime(), v.displayName(), v.authorizationGrantType(),
+                v.authorizedScopes(), v.attributes(), v.attributesBytes(), v.state(), v.authorizationCodeValue(), v.authorizationCodeIssuedAt(), v.authorizationCodeExpiresAt(),
+                v.authorizationCodeMetadata(), v.authorizationCodeMetadataBytes(), accessTokenValue, accessTokenHash, v.accessTokenIssuedAt(), v.accessTokenExpiresAt(),
+                v.accessTokenMetadata(), v.accessTokenMetadataBytes(), v.accessTokenType(), v.accessTokenScopes(), v.refreshTokenValue(), v.refreshTokenIssuedAt(),
+                v.refreshTokenExpiresAt(), v.refreshTokenMetadata(), v.refreshTokenMetadataBytes(), v.expirationTime()
+        );
+    }
+
+    private static String indexKey(byte[] tokenHash, String tokenType) {
+        return tokenType + ":" + Base64.getEncoder().encodeToString(tokenHash);
+    }
+
+    private static byte[] sha256(String value) {
+        try {
+            return MessageDigest.getInstance("SHA-256").digest(value.getBytes(StandardCharsets.UTF_8));
+        } catch (Exception e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,170 @@
+package com.gw2auth.oauth2.server.service.application.client.authorization;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.gw2auth.oauth2.server.adapt.Gw2AuthAuthenticationManagerResolver;
+import com.gw2auth.oauth2.server.service.user.Gw2AuthUserV2;
+import org.junit.jupiter.api.Test;
+import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+import org.springframework.security.core.authority.SimpleGrantedAuthority;
+import org.springframework.security.jackson2.SecurityJackson2Modules;
+import org.springframework.security.oauth2.core.endpoint.OAuth2AuthorizationRequest;
+
+import java.nio.charset.StandardCharsets;
+import java.security.Principal;
+import java.time.Instant;
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class AuthorizationDataCodecTest {
+
+    private final ObjectMapper objectMapper = new ObjectMapper().registerModules(SecurityJackson2Modules.getModules(AuthorizationDataCodecTest.class.getClassLoader()));
+    private final AuthorizationDataCodec codec = new AuthorizationDataCodec(this.objectMapper);
+
+    @Test
+    public void roundTrip() {
+        final Map<String, Object> claims = new LinkedHashMap<>();
+        claims.put("sub", "subject");
+        claims.put("aud", List.of("a", "b"));
+        claims.put("scope", new LinkedHashSet<>(List.of("gw2:account", "gw2:tradingpost")));
+        claims.put("iat", Instant.ofEpochSecond(1700000000L, 123));
+        claims.put("count", 5);
+        claims.put("big", 5L);
+        claims.put("ratio", 0.5);
+        claims.put("missing", null);
+        claims.put("gw2", Map.of("verified", true, "name", "Name.1234"));
+
+        final Map<String, Object> metadata = new LinkedHashMap<>();
+        metadata.put("metadata.token.invalidated", false);
+        metadata.put("metadata.token.claims", claims);
+
+        final Map<String, Object> decoded = this.codec.decode(this.codec.encode(metadata));
+
+        assertEquals(metadata, decoded);
+        assertInstanceOf(Set.class, ((Map<?, ?>) decoded.get("metadata.token.claims")).get("scope"));
+        assertInstanceOf(Integer.class, ((Map<?, ?>) decoded.get("metadata.token.claims")).get("count"));
+    }
+
+    @Test
+    public void nestedMapsAreDecodedLazilyAndWrittenBackUnchanged() {
+        final Map<String, Object> metadata = new LinkedHashMap<>();
+        metadata.put("metadata.token.invalidated", false);
+        metadata.put("metadata.token.claims", Map.of("sub", "subject"));
+
+        final byte[] encoded = this.codec.encode(metadata);
+        final Map<String, Object> decoded = this.codec.decode(encoded);
+        final AuthorizationDataCodec.LazyMap claims = assertInstanceOf(AuthorizationDataCodec.LazyMap.class, decoded.get("metadata.token.claims"));
+
+        assertTrue(claims.isEncoded());
+        assertArrayEquals(encoded, this.codec.encode(decoded));
+        assertTrue(claims.isEncoded());
+
+        assertEquals("subject", claims.get("sub"));
+        assertFalse(claims.isEncoded());
+    }
+
+    @Test
+    public void unknownTypesAreEmbeddedAsJson() {
+        final UsernamePasswordAuthenticationToken authentication = UsernamePasswordAuthenticationToken.authenticated("user", null, List.of(new SimpleGrantedAuthority("ROLE_USER")));
+        final Map<String, Object> attributes = new HashMap<>();
+        attributes.put("java.security.Principal", authentication);
+        attributes.put("state", "some-state");
+
+        final Map<String, Object> decoded = this.codec.decode(this.codec.encode(attributes));
+
+        assertEquals(authentication, decoded.get("java.security.Principal"));
+        assertEquals("some-state", decoded.get("state"));
+    }
+
+    @Test
+    public void legacyJsonIsReadable() throws Exception {
+        final Map<String, Object> attributes = new HashMap<>();
+        attributes.put("state", "some-state");
+        attributes.put("flag", true);
+
+        final Map<String, Object> decoded = this.codec.decodeLegacy(this.objectMapper.writeValueAsString(attributes));
+
+        assertEquals(attributes, decoded);
+    }
+
+    @Test
+    public void legacyBase64IsReadable() {
+        final Map<String, Object> attributes = new HashMap<>();
+        attributes.put("state", "some-state");
+        attributes.put("scopes", Set.of("gw2:account"));
+
+        // the previous text format: the same body without the version byte, Base64 encoded
+        final byte[] encoded = this.codec.encode(attributes);
+        final String legacy = "v1:" + Base64.getEncoder().encodeToString(Arrays.copyOfRange(encoded, 1, encoded.length));
+
+        assertEquals(attributes, this.codec.decodeLegacy(legacy));
+    }
+
+    @Test
+    public void authorizationRequestAndPrincipalAreEncodedNatively() {
+        final OAuth2AuthorizationRequest request = OAuth2AuthorizationRequest.authorizationCode()
+                .authorizationUri("https://gw2auth.com/oauth2/authorize")
+                .clientId("client-id")
+                .redirectUri("http://127.0.0.1/callback")
+                .scopes(Set.of("gw2:account", "gw2:tradingpost"))
+                .state("some-state")
+                .additionalParameters(Map.of("code_challenge", "challenge", "code_challenge_method", "S256"))
+                .authorizationRequestUri("https://gw2auth.com/oauth2/authorize?client_id=client-id")
+                .attributes(Map.of("some", "attribute"))
+                .build();
+        final UUID accountId = UUID.randomUUID();
+        final Gw2AuthAuthenticationManagerResolver.Gw2AuthUserAuthentication authentication = new Gw2AuthAuthenticationManagerResolver.Gw2AuthUserAuthentication(
+                new Gw2AuthUserV2(accountId, "cognito", "some-id"),
+                true
+        );
+
+        final Map<String, Object> attributes = new HashMap<>();
+        attributes.put(OAuth2AuthorizationRequest.class.getName(), request);
+        attributes.put(Principal.class.getName(), authentication);
+
+        final byte[] encoded = this.codec.encode(attributes);
+        final String raw = new String(encoded, StandardCharsets.ISO_8859_1);
+        assertFalse(raw.contains("@class"));
+        assertFalse(raw.contains("Gw2AuthUserV2"));
+
+        final Map<String, Object> decoded = this.codec.decode(encoded);
+        final OAuth2AuthorizationRequest decodedRequest = assertInstanceOf(OAuth2AuthorizationRequest.class, decoded.get(OAuth2AuthorizationRequest.class.getName()));
+        assertEquals(request.getAuthorizationUri(), decodedRequest.getAuthorizationUri());
+        assertEquals(request.getClientId(), decodedRequest.getClientId());
+        assertEquals(request.getRedirectUri(), decodedRequest.getRedirectUri());
+        assertEquals(request.getScopes(), decodedRequest.getScopes());
+        assertEquals(request.getState(), decodedRequest.getState());
+        assertEquals(request.getAdditionalParameters(), decodedRequest.getAdditionalParameters());
+        assertEquals(request.getAuthorizationRequestUri(), decodedRequest.getAuthorizationRequestUri());
+        assertEquals(request.getAttributes(), decodedRequest.getAttributes());
+
+        final Gw2AuthAuthenticationManagerResolver.Gw2AuthUserAuthentication decodedAuthentication = assertInstanceOf(
+                Gw2AuthAuthenticationManagerResolver.Gw2AuthUserAuthentication.class,
+                decoded.get(Principal.class.getName())
+        );
+        final Gw2AuthUserV2 user = assertInstanceOf(Gw2AuthUserV2.class, decodedAuthentication.getPrincipal());
+        assertEquals(accountId, user.getAccountId());
+        assertEquals("cognito", user.getIssuer());
+        assertEquals("some-id", user.getIdAtIssuer());
+        assertTrue(decodedAuthentication.isAuthenticated());
+    }
+
+    @Test
+    public void deferredObjectsAreWrittenBackUnchanged() {
+        final Map<String, Object> attributes = new HashMap<>();
+        attributes.put(Principal.class.getName(), new Gw2AuthAuthenticationManagerResolver.Gw2AuthUserAuthentication(new Gw2AuthUserV2(UUID.randomUUID(), "cognito", "some-id"), true));
+        attributes.put("other", UsernamePasswordAuthenticationToken.authenticated("user", null, List.of(new SimpleGrantedAuthority("ROLE_USER"))));
+        attributes.put("state", "some-state");
+
+        final byte[] encoded = this.codec.encode(attributes);
+        final Map<String, Object> decoded = this.codec.decode(encoded, true);
+
+        assertInstanceOf(AuthorizationDataCodec.Deferred.class, decoded.get(Principal.class.getName()));
+        assertInstanceOf(AuthorizationDataCodec.Deferred.class, decoded.get("other"));
+        assertEquals("some-state", decoded.get("state"));
+        assertArrayEquals(encoded, this.codec.encode(decoded));
+
+        final Object principal = ((AuthorizationDataCodec.Deferred) decoded.get(Principal.class.getName())).decode();
+        assertEquals(attributes.get(Principal.class.getName()).getClass(), principal.getClass());
+    }
+}
@@ -0,0 +1,118 @@
+package com.gw2auth.oauth2.server.service.ephemeral;
+
+import com.gw2auth.oauth2.server.util.JWKHelper;
+import jakarta.servlet.http.Cookie;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.web.context.request.RequestContextHolder;
+import org.springframework.web.context.request.ServletRequestAttributes;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.util.Optional;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class CookieEphemeralStateStoreTest {
+
+    private CookieEphemeralStateStore store;
+
+    @BeforeEach
+    public void setup() {
+        this.store = new CookieEphemeralStateStore(JWKHelper.generateSecret());
+    }
+
+    @AfterEach
+    public void cleanup() {
+        RequestContextHolder.resetRequestAttributes();
+    }
+
+    @Test
+    public void putAndRemoveOnFollowingRequest() {
+        final Cookie cookie = put("scope", "id", "value", Duration.ofMinutes(5L));
+
+        bindRequest(cookie);
+        assertEquals("value", get("scope", "id").orElseThrow());
+
+        final MockHttpServletResponse response = bindRequest(cookie);
+        assertEquals("value", new String(this.store.remove("scope", "id").orElseThrow(), StandardCharsets.UTF_8));
+        assertEquals(0, response.getCookie(cookie.getName()).getMaxAge());
+    }
+
+    @Test
+    public void removeIsSingleUseWithinARequest() {
+        final Cookie cookie = put("scope", "id", "value", Duration.ofMinutes(5L));
+
+        bindRequest(cookie);
+        assertTrue(this.store.remove("scope", "id").isPresent());
+        assertTrue(this.store.remove("scope", "id").isEmpty());
+        assertTrue(get("scope", "id").isEmpty());
+
+        // the cookie lives on the client; a replayed copy is accepted again until it expires
+        bindRequest(cookie);
+        assertTrue(this.store.remove("scope", "id").isPresent());
+    }
+
+    @Test
+    public void cookieIsBoundToScopeAndId() {
+        final Cookie cookie = put("scope", "id", "value", Duration.ofMinutes(5L));
+
+        // same name as the cookie of another entry, the value must not decrypt for it
+        final Cookie otherCookie = put("scope", "other", "value", Duration.ofMinutes(5L));
+        bindRequest(new Cookie(otherCookie.getName(), cookie.getValue()));
+
+        assertTrue(get("scope", "other").isEmpty());
+    }
+
+    @Test
+    public void modifiedCookieIsRejected() {
+        final Cookie cookie = put("scope", "id", "value", Duration.ofMinutes(5L));
+        final char[] value = cookie.getValue().toCharArray();
+        value[value.length / 2] = value[value.length / 2] == 'A' ? 'B' : 'A';
+
+        bindRequest(new Cookie(cookie.getName(), new String(value)));
+        assertTrue(get("scope", "id").isEmpty());
+    }
+
+    @Test
+    public void expiredCookieIsRejected() {
+        final Cookie cookie = put("scope", "id", "value", Duration.ofMinutes(5L));
+
+        this.store.setClock(Clock.fixed(Instant.now().plus(Duration.ofMinutes(6L)), ZoneOffset.UTC));
+        bindRequest(cookie);
+
+        assertTrue(get("scope", "id").isEmpty());
+    }
+
+    private Cookie put(String scope, String id, String value, Duration ttl) {
+        final MockHttpServletResponse response = bindRequest();
+        this.store.put(scope, id, value.getBytes(StandardCharsets.UTF_8), ttl);
+
+        final Cookie[] cookies = response.getCookies();
+        assertEquals(1, cookies.length);
+
+        return cookies[0];
+    }
+
+    private Optional<String> get(String scope, String id) {
+        return this.store.get(scope, id).map((data) -> new String(data, StandardCharsets.UTF_8));
+    }
+
+    private static MockHttpServletResponse bindRequest(Cookie... cookies) {
+        final MockHttpServletRequest request = new MockHttpServletRequest();
+        final MockHttpServletResponse response = new MockHttpServletResponse();
+
+        if (cookies.length > 0) {
+            request.setCookies(cookies);
+        }
+
+        RequestContextHolder.setRequestAttributes(new ServletRequestAttributes(request, response));
+        return response;
+    }
+}
@@ -0,0 +1,136 @@
+package com.gw2auth.oauth2.server.service.ephemeral;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import software.amazon.awssdk.core.ResponseInputStream;
+import software.amazon.awssdk.core.sync.RequestBody;
+import software.amazon.awssdk.http.AbortableInputStream;
+import software.amazon.awssdk.services.s3.model.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Optional;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class S3EphemeralStateStoreTest {
+
+    private static final Instant NOW = Instant.parse("2024-01-01T00:00:00Z");
+
+    private StubS3Client s3;
+    private S3EphemeralStateStore store;
+
+    @BeforeEach
+    public void setup() {
+        this.s3 = new StubS3Client();
+        this.store = new S3EphemeralStateStore(this.s3, "bucket", "prefix/");
+        this.store.setClock(Clock.fixed(NOW, ZoneOffset.UTC));
+    }
+
+    @Test
+    public void putGetAndRemove() {
+        this.store.put("scope", "id", bytes("value"), Duration.ofMinutes(5L));
+
+        final StoredObject object = this.s3.objects.get("prefix/scope/id");
+        assertNotNull(object);
+        assertEquals(NOW.plus(Duration.ofMinutes(5L)).toString(), object.metadata().get("expiration-time"));
+
+        assertEquals("value", get("scope", "id").orElseThrow());
+        assertEquals("value", new String(this.store.remove("scope", "id").orElseThrow(), StandardCharsets.UTF_8));
+
+        assertFalse(this.s3.objects.containsKey("prefix/scope/id"));
+        assertTrue(get("scope", "id").isEmpty());
+        assertTrue(this.store.remove("scope", "id").isEmpty());
+    }
+
+    @Test
+    public void expiredObjectIsNotReturned() {
+        this.store.put("scope", "id", bytes("value"), Duration.ofMinutes(5L));
+
+        this.store.setClock(Clock.fixed(NOW.plus(Duration.ofMinutes(5L)), ZoneOffset.UTC));
+        assertTrue(get("scope", "id").isEmpty());
+
+        // still deleted; the lifecycle rules of the bucket would have removed it eventually
+        assertTrue(this.store.remove("scope", "id").isEmpty());
+        assertFalse(this.s3.objects.containsKey("prefix/scope/id"));
+    }
+
+    @Test
+    public void objectWithInvalidExpirationTimeIsNotReturned() {
+        this.s3.objects.put("prefix/scope/id", new StoredObject(bytes("value"), Map.of("expiration-time", "not-a-timestamp")));
+        assertTrue(get("scope", "id").isEmpty());
+    }
+
+    @Test
+    public void legacyObjectWithoutMetadataIsReturned() {
+        this.s3.objects.put("prefix/scope/id", new StoredObject(bytes("value"), Map.of()));
+
+        assertEquals("value", get("scope", "id").orElseThrow());
+        assertEquals("value", new String(this.store.remove("scope", "id").orElseThrow(), StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void missingKeyIsEmpty() {
+        assertTrue(get("scope", "id").isEmpty());
+        assertTrue(this.store.remove("scope", "id").isEmpty());
+    }
+
+    private Optional<String> get(String scope, String id) {
+        return this.store.get(scope, id).map((data) -> new String(data, StandardCharsets.UTF_8));
+    }
+
+    private static byte[] bytes(String value) {
+        return value.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private record StoredObject(byte[] data, Map<String, String> metadata) {}
+
+    private static class StubS3Client implements S3EphemeralStateStore.MinimalS3Client {
+
+        private final Map<String, StoredObject> objects = new HashMap<>();
+
+        @Override
+        public ResponseInputStream<GetObjectResponse> getObject(GetObjectRequest request) {
+            final StoredObject object = this.objects.get(request.key());
+            if (object == null) {
+                throw NoSuchKeyException.builder().statusCode(404).message("The specified key does not exist.").build();
+            }
+
+            final GetObjectResponse response = GetObjectResponse.builder()
+                    .metadata(object.metadata())
+                    .contentLength((long) object.data().length)
+                    .build();
+
+            return new ResponseInputStream<>(response, AbortableInputStream.create(new ByteArrayInputStream(object.data())));
+        }
+
+        @Override
+        public DeleteObjectResponse deleteObject(DeleteObjectRequest request) {
+            // like S3, deleting a key which does not exist succeeds
+            this.objects.remove(request.key());
+            return DeleteObjectResponse.builder().build();
+        }
+
+        @Override
+        public PutObjectResponse putObject(PutObjectRequest request, RequestBody body) {
+            final byte[] data;
+            try (InputStream in = body.contentStreamProvider().newStream()) {
+                data = in.readAllBytes();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+
+            this.objects.put(request.key(), new StoredObject(data, Map.copyOf(request.metadata())));
+            return PutObjectResponse.builder().build();
+        }
+    }
+}
@@ -0,0 +1,186 @@
+package com.gw2auth.oauth2.server.service.gw2;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.gw2auth.oauth2.server.TestHelper;
+import com.gw2auth.oauth2.server.service.Gw2ApiPermission;
+import com.gw2auth.oauth2.server.service.gw2.client.Gw2ApiClient;
+import com.nimbusds.jwt.JWTClaimsSet;
+import com.nimbusds.jwt.PlainJWT;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.core.io.ByteArrayResource;
+import org.springframework.core.io.Resource;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+public class Gw2ApiServiceImplTest {
+
+    private static final int JOINERS = 8;
+    private static final Set<Gw2ApiPermission> PERMISSIONS = Set.of(Gw2ApiPermission.ACCOUNT);
+    private static final Instant EXPIRATION_TIME = Instant.parse("2024-01-01T00:00:00Z");
+
+    private Gw2ApiClient gw2ApiClient;
+    private SimpleMeterRegistry meterRegistry;
+    private Gw2ApiServiceImpl service;
+    private ExecutorService executorService;
+    private CountDownLatch upstreamCalled;
+    private CountDownLatch releaseUpstream;
+
+    @BeforeEach
+    public void setup() {
+        this.gw2ApiClient = mock(Gw2ApiClient.class);
+        this.meterRegistry = new SimpleMeterRegistry();
+        this.service = new Gw2ApiServiceImpl(this.gw2ApiClient, new ObjectMapper(), this.meterRegistry);
+        this.executorService = Executors.newCachedThreadPool();
+        this.upstreamCalled = new CountDownLatch(1);
+        this.releaseUpstream = new CountDownLatch(1);
+    }
+
+    @AfterEach
+    public void shutdown() {
+        this.releaseUpstream.countDown();
+        this.executorService.shutdownNow();
+    }
+
+    @Test
+    public void concurrentCallersShareOneUpstreamRequest() throws Exception {
+        final String token = TestHelper.randomRootToken();
+        final String subtoken = subtoken();
+        blockUpstream(ResponseEntity.ok(new ByteArrayResource(("{\"subtoken\":\"" + subtoken + "\"}").getBytes(StandardCharsets.UTF_8))));
+
+        final List<Future<Gw2SubToken>> futures = startCallers(token);
+        awaitJoiners();
+        this.releaseUpstream.countDown();
+
+        for (Future<Gw2SubToken> future : futures) {
+            final Gw2SubToken gw2SubToken = future.get(5L, TimeUnit.SECONDS);
+            assertEquals(subtoken, gw2SubToken.value());
+            assertEquals(PERMISSIONS, gw2SubToken.permissions());
+        }
+
+        verify(this.gw2ApiClient, times(1)).get(eq("/v2/createsubtoken"), any(), any());
+        assertEquals(JOINERS, coalescedCount());
+
+        // the request is no longer in flight once it completed
+        this.service.createSubToken(token, PERMISSIONS, EXPIRATION_TIME);
+        verify(this.gw2ApiClient, times(2)).get(eq("/v2/createsubtoken"), any(), any());
+        assertEquals(JOINERS, coalescedCount());
+    }
+
+    @Test
+    public void differentRequestsAreNotCoalesced() throws Exception {
+        final String token = TestHelper.randomRootToken();
+        blockUpstream(ResponseEntity.ok(new ByteArrayResource(("{\"subtoken\":\"" + subtoken() + "\"}").getBytes(StandardCharsets.UTF_8))));
+
+        final List<Future<Gw2SubToken>> futures = List.of(
+                this.executorService.submit(() -> this.service.createSubToken(token, PERMISSIONS, EXPIRATION_TIME)),
+                this.executorService.submit(() -> this.service.createSubToken(token, PERMISSIONS, EXPIRATION_TIME.plusSeconds(1L))),
+                this.executorService.submit(() -> this.service.createSubToken(token, Set.of(Gw2ApiPermission.ACCOUNT, Gw2ApiPermission.CHARACTERS), EXPIRATION_TIME))
+        );
+
+        // all of them reach the upstream while the others are still in flight
+        verify(this.gw2ApiClient, timeout(5000L).times(3)).get(eq("/v2/createsubtoken"), any(), any());
+        this.releaseUpstream.countDown();
+
+        for (Future<Gw2SubToken> future : futures) {
+            assertNotNull(future.get(5L, TimeUnit.SECONDS));
+        }
+
+        assertEquals(0, coalescedCount());
+    }
+
+    @Test
+    public void joinersRethrowTheExceptionOfTheLeader() throws Exception {
+        final String token = TestHelper.randomRootToken();
+        blockUpstream(ResponseEntity.status(HttpStatus.UNAUTHORIZED).body(new ByteArrayResource("{}".getBytes(StandardCharsets.UTF_8))));
+
+        final List<Future<Gw2SubToken>> futures = startCallers(token);
+        awaitJoiners();
+        this.releaseUpstream.countDown();
+
+        final List<Throwable> exceptions = new ArrayList<>();
+        for (Future<Gw2SubToken> future : futures) {
+            final ExecutionException e = assertThrows(ExecutionException.class, () -> future.get(5L, TimeUnit.SECONDS));
+            assertInstanceOf(InvalidApiTokenException.class, e.getCause());
+            exceptions.add(e.getCause());
+        }
+
+        // every caller sees the very exception the leader got
+        for (Throwable e : exceptions) {
+            assertSame(exceptions.getFirst(), e);
+        }
+
+        verify(this.gw2ApiClient, times(1)).get(eq("/v2/createsubtoken"), any(), any());
+    }
+
+    @Test
+    public void joinerGivesUpAfterItsOwnTimeout() throws Exception {
+        final String token = TestHelper.randomRootToken();
+        blockUpstream(ResponseEntity.ok(new ByteArrayResource(("{\"subtoken\":\"" + subtoken() + "\"}").getBytes(StandardCharsets.UTF_8))));
+
+        final Future<Gw2SubToken> leader = this.executorService.submit(() -> this.service.createSubToken(token, PERMISSIONS, EXPIRATION_TIME));
+        assertTrue(this.upstreamCalled.await(5L, TimeUnit.SECONDS));
+
+        final Gw2ApiServiceException e = assertThrows(
+                Gw2ApiServiceException.class,
+                () -> this.service.withTimeout(Duration.ofMillis(100L), () -> this.service.createSubToken(token, PERMISSIONS, EXPIRATION_TIME))
+        );
+        assertEquals(Gw2ApiServiceException.TIMEOUT, e.getMessage());
+        assertEquals(1, coalescedCount());
+
+        // the leader is not affected by the timeout of a joiner
+        this.releaseUpstream.countDown();
+        assertNotNull(leader.get(5L, TimeUnit.SECONDS));
+        verify(this.gw2ApiClient, times(1)).get(eq("/v2/createsubtoken"), any(), any());
+    }
+
+    private void blockUpstream(ResponseEntity<Resource> response) {
+        when(this.gw2ApiClient.get(eq("/v2/createsubtoken"), any(), any())).thenAnswer((invocation) -> {
+            this.upstreamCalled.countDown();
+            assertTrue(this.releaseUpstream.await(5L, TimeUnit.SECONDS));
+            return response;
+        });
+    }
+
+    private List<Future<Gw2SubToken>> startCallers(String token) throws InterruptedException {
+        final List<Future<Gw2SubToken>> futures = new ArrayList<>(JOINERS + 1);
+        futures.add(this.executorService.submit(() -> this.service.createSubToken(token, PERMISSIONS, EXPIRATION_TIME)));
+        assertTrue(this.upstreamCalled.await(5L, TimeUnit.SECONDS));
+
+        for (int i = 0; i < JOINERS; i++) {
+            futures.add(this.executorService.submit(() -> this.service.createSubToken(token, PERMISSIONS, EXPIRATION_TIME)));
+        }
+
+        return futures;
+    }
+
+    private void awaitJoiners() throws InterruptedException {
+        final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5L);
+        while (coalescedCount() < JOINERS) {
+            assertTrue(System.nanoTime() < deadline, "joiners did not join the inflight request");
+            Thread.sleep(5L);
+        }
+    }
+
+    private int coalescedCount() {
+        return (int) this.meterRegistry.get("gw2auth_gw2_api_coalesced_requests").tag("endpoint", "/v2/createsubtoken").counter().count();
+    }
+
+    private static String subtoken() {
+        return new PlainJWT(new JWTClaimsSet.Builder().claim("permissions", List.of("account")).build()).serialize();
+    }
+}
@@ -17,6 +17,7 @@ import java.nio.charset.StandardCharsets;
 import java.util.Base64;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.when;
 
@@ -145,4 +146,36 @@ public class AwsLambdaGw2ApiClientTest {
                 mapper.readTree(response.getBody().getContentAsString(StandardCharsets.UTF_8))
         );
     }
-}
\ No newline at end of file
+
+    @Test
+    public void getEscapedBodyBeforeEncodingFlag() throws Exception {
+        final ObjectMapper mapper = new ObjectMapper();
+        final AwsLambdaGw2ApiClient.MinimalLambdaClient lambdaClient = mock(AwsLambdaGw2ApiClient.MinimalLambdaClient.class);
+        final String base64Body = Base64.getEncoder().encodeToString("{\"name\":\"???\"}".getBytes(StandardCharsets.UTF_8));
+
+        when(lambdaClient.invoke(any(InvokeRequest.class))).thenReturn(
+                InvokeResponse.builder()
+                        .payload(SdkBytes.fromString(
+                                """
+                                        {
+                                            "body": "$BODY",
+                                            "statusCode": 200,
+                                            "headers": {},
+                                            "isBase64Encoded": true
+                                        }
+                                        """.replace("$BODY", base64Body.replace("/", "\\/")),
+                                StandardCharsets.UTF_8
+                        ))
+                        .build()
+        );
+
+        final AwsLambdaGw2ApiClient gw2ApiClient = new AwsLambdaGw2ApiClient(lambdaClient, "functionName", mapper);
+        final ResponseEntity<Resource> response = gw2ApiClient.get("/some/path", new LinkedMultiValueMap<>(), new HttpHeaders());
+
+        assertEquals(HttpStatus.OK, response.getStatusCode());
+        assertEquals(
+                mapper.readTree("{\"name\":\"???\"}"),
+                mapper.readTree(response.getBody().getContentAsString(StandardCharsets.UTF_8))
+        );
+    }
+}
@@ -0,0 +1,136 @@
+package com.gw2auth.oauth2.server.service.gw2.client;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.core.io.ByteArrayResource;
+import org.springframework.core.io.Resource;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.util.LinkedMultiValueMap;
+import org.springframework.util.MultiValueMap;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+public class CachingGw2ApiClientTest {
+
+    private Gw2ApiClient delegate;
+    private Clock clock;
+    private CachingGw2ApiClient gw2ApiClient;
+
+    @BeforeEach
+    public void setup() {
+        this.delegate = mock(Gw2ApiClient.class);
+        this.clock = mock(Clock.class);
+        when(this.clock.instant()).thenReturn(Instant.parse("2024-01-01T00:00:00Z"));
+
+        this.gw2ApiClient = new CachingGw2ApiClient(
+                this.delegate,
+                Set.of("/v2/account"),
+                1024L * 1024L,
+                1024,
+                Duration.ofMinutes(5L),
+                Duration.ofMinutes(30L),
+                new SimpleMeterRegistry(),
+                this.clock
+        );
+    }
+
+    @Test
+    public void freshResponseIsServedFromCache() throws Exception {
+        when(this.delegate.get(eq("/v2/account"), any(), any())).thenAnswer((invocation) -> response("max-age=60", "\"v1\"", "{\"name\":\"A\"}"));
+
+        assertEquals("{\"name\":\"A\"}", body(this.gw2ApiClient.get("/v2/account", new LinkedMultiValueMap<>(), headers("token"))));
+        assertEquals("{\"name\":\"A\"}", body(this.gw2ApiClient.get("/v2/account", new LinkedMultiValueMap<>(), headers("token"))));
+
+        verify(this.delegate, times(1)).get(eq("/v2/account"), any(), any());
+    }
+
+    @Test
+    public void staleResponseIsRevalidated() throws Exception {
+        when(this.delegate.get(eq("/v2/account"), any(), any())).thenAnswer((invocation) -> response("max-age=60", "\"v1\"", "{\"name\":\"A\"}"));
+        this.gw2ApiClient.get("/v2/account", new LinkedMultiValueMap<>(), headers("token"));
+
+        when(this.clock.instant()).thenReturn(Instant.parse("2024-01-01T00:01:01Z"));
+        when(this.delegate.get(eq("/v2/account"), any(), any())).thenReturn(ResponseEntity.status(HttpStatus.NOT_MODIFIED).header(HttpHeaders.CACHE_CONTROL, "max-age=60").build());
+
+        final ResponseEntity<Resource> response = this.gw2ApiClient.get("/v2/account", new LinkedMultiValueMap<>(), headers("token"));
+        assertEquals(HttpStatus.OK, response.getStatusCode());
+        assertEquals("{\"name\":\"A\"}", body(response));
+
+        @SuppressWarnings("unchecked")
+        final ArgumentCaptor<MultiValueMap<String, String>> headersCaptor = ArgumentCaptor.forClass(MultiValueMap.class);
+        verify(this.delegate, times(2)).get(eq("/v2/account"), any(), headersCaptor.capture());
+        assertEquals("\"v1\"", headersCaptor.getValue().getFirst(HttpHeaders.IF_NONE_MATCH));
+    }
+
+    @Test
+    public void responsesAreNotSharedBetweenTokens() throws Exception {
+        when(this.delegate.get(eq("/v2/account"), any(), any())).thenAnswer((invocation) -> response("max-age=60", "\"v1\"", "{\"name\":\"A\"}"));
+
+        this.gw2ApiClient.get("/v2/account", new LinkedMultiValueMap<>(), headers("tokenA"));
+        this.gw2ApiClient.get("/v2/account", new LinkedMultiValueMap<>(), headers("tokenB"));
+
+        verify(this.delegate, times(2)).get(eq("/v2/account"), any(), any());
+    }
+
+    @Test
+    public void noStoreIsNotCached() throws Exception {
+        when(this.delegate.get(eq("/v2/account"), any(), any())).thenAnswer((invocation) -> response("no-store", "\"v1\"", "{\"name\":\"A\"}"));
+
+        this.gw2ApiClient.get("/v2/account", new LinkedMultiValueMap<>(), headers("token"));
+        this.gw2ApiClient.get("/v2/account", new LinkedMultiValueMap<>(), headers("token"));
+
+        verify(this.delegate, times(2)).get(eq("/v2/account"), any(), any());
+    }
+
+    @Test
+    public void noCacheRequestIsNotServedFromCache() throws Exception {
+        when(this.delegate.get(eq("/v2/account"), any(), any())).thenAnswer((invocation) -> response("max-age=60", "\"v1\"", "{\"name\":\"A\"}"));
+        this.gw2ApiClient.get("/v2/account", new LinkedMultiValueMap<>(), headers("token"));
+
+        when(this.delegate.get(eq("/v2/account"), any(), any())).thenAnswer((invocation) -> response("max-age=60", "\"v2\"", "{\"name\":\"B\"}"));
+        final MultiValueMap<String, String> noCacheHeaders = headers("token");
+        noCacheHeaders.add(HttpHeaders.CACHE_CONTROL, "no-cache");
+
+        assertEquals("{\"name\":\"B\"}", body(this.gw2ApiClient.get("/v2/account", new LinkedMultiValueMap<>(), noCacheHeaders)));
+
+        @SuppressWarnings("unchecked")
+        final ArgumentCaptor<MultiValueMap<String, String>> headersCaptor = ArgumentCaptor.forClass(MultiValueMap.class);
+        verify(this.delegate, times(2)).get(eq("/v2/account"), any(), headersCaptor.capture());
+        assertEquals("\"v1\"", headersCaptor.getValue().getFirst(HttpHeaders.IF_NONE_MATCH));
+
+        // the refreshed response replaced the entry used by requests without no-cache
+        assertEquals("{\"name\":\"B\"}", body(this.gw2ApiClient.get("/v2/account", new LinkedMultiValueMap<>(), headers("token"))));
+        verify(this.delegate, times(2)).get(eq("/v2/account"), any(), any());
+    }
+
+    private static MultiValueMap<String, String> headers(String token) {
+        final HttpHeaders headers = new HttpHeaders();
+        headers.setBearerAuth(token);
+
+        return headers;
+    }
+
+    private static ResponseEntity<Resource> response(String cacheControl, String etag, String body) {
+        return ResponseEntity.ok()
+                .header(HttpHeaders.CACHE_CONTROL, cacheControl)
+                .eTag(etag)
+                .body(new ByteArrayResource(body.getBytes(StandardCharsets.UTF_8)));
+    }
+
+    private static String body(ResponseEntity<Resource> response) throws Exception {
+        return new String(response.getBody().getContentAsByteArray(), StandardCharsets.UTF_8);
+    }
+}
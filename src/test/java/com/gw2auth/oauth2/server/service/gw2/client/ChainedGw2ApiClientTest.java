@@ -0,0 +1,207 @@
+package com.gw2auth.oauth2.server.service.gw2.client;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.core.io.ByteArrayResource;
+import org.springframework.core.io.Resource;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.util.LinkedMultiValueMap;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.*;
+
+public class ChainedGw2ApiClientTest {
+
+    @Test
+    public void orderedAlwaysUsesFirstClient() {
+        final Gw2ApiClient first = mockClient(HttpStatus.OK);
+        final Gw2ApiClient second = mockClient(HttpStatus.OK);
+        final ChainedGw2ApiClient client = new ChainedGw2ApiClient(List.of(first, second), Duration.ofMinutes(1L), new SimpleMeterRegistry());
+
+        for (int i = 0; i < 10; i++) {
+            assertEquals(HttpStatus.OK, client.get("/v2/account", new LinkedMultiValueMap<>(), HttpHeaders.EMPTY).getStatusCode());
+        }
+
+        verify(first, times(10)).get(any(), any(), any());
+        verify(second, never()).get(any(), any(), any());
+    }
+
+    @Test
+    public void orderedSkipsClientOnCooldown() {
+        final Gw2ApiClient first = mockClient(HttpStatus.TOO_MANY_REQUESTS);
+        final Gw2ApiClient second = mockClient(HttpStatus.OK);
+        final ChainedGw2ApiClient client = new ChainedGw2ApiClient(List.of(first, second), Duration.ofMinutes(1L), new SimpleMeterRegistry());
+
+        assertEquals(HttpStatus.OK, client.get("/v2/account", new LinkedMultiValueMap<>(), HttpHeaders.EMPTY).getStatusCode());
+        assertEquals(HttpStatus.OK, client.get("/v2/account", new LinkedMultiValueMap<>(), HttpHeaders.EMPTY).getStatusCode());
+
+        verify(first, times(1)).get(any(), any(), any());
+        verify(second, times(2)).get(any(), any(), any());
+    }
+
+    @Test
+    public void adaptiveSpreadsLoad() {
+        final Gw2ApiClient first = mockClient(HttpStatus.OK);
+        final Gw2ApiClient second = mockClient(HttpStatus.OK);
+        final ChainedGw2ApiClient client = new ChainedGw2ApiClient(List.of(first, second), Duration.ofMinutes(1L), ChainedGw2ApiClient.Routing.ADAPTIVE, new SimpleMeterRegistry());
+
+        for (int i = 0; i < 100; i++) {
+            assertEquals(HttpStatus.OK, client.get("/v2/account", new LinkedMultiValueMap<>(), HttpHeaders.EMPTY).getStatusCode());
+        }
+
+        assertTrue(mockingDetails(first).getInvocations().size() > 0);
+        assertTrue(mockingDetails(second).getInvocations().size() > 0);
+    }
+
+    @Test
+    public void adaptiveFallsBackOnError() {
+        final Gw2ApiClient first = mockClient(HttpStatus.REQUEST_TIMEOUT);
+        final Gw2ApiClient second = mockClient(HttpStatus.OK);
+        final ChainedGw2ApiClient client = new ChainedGw2ApiClient(List.of(first, second), Duration.ofMinutes(1L), ChainedGw2ApiClient.Routing.ADAPTIVE, new SimpleMeterRegistry());
+
+        for (int i = 0; i < 20; i++) {
+            assertEquals(HttpStatus.OK, client.get("/v2/account", new LinkedMultiValueMap<>(), HttpHeaders.EMPTY).getStatusCode());
+        }
+
+        verify(second, times(20)).get(any(), any(), any());
+    }
+
+    @Test
+    public void adaptiveSeedsLatencyWithTheFirstSample() {
+        final Gw2ApiClient first = mock(Gw2ApiClient.class);
+        when(first.get(any(), any(), any())).thenAnswer((invocation) -> {
+            Thread.sleep(50L);
+            return ResponseEntity.status(HttpStatus.OK).body((Resource) new ByteArrayResource(new byte[0]));
+        });
+
+        final ChainedGw2ApiClient client = new ChainedGw2ApiClient(List.of(first), Duration.ofMinutes(1L), ChainedGw2ApiClient.Routing.ADAPTIVE, new SimpleMeterRegistry());
+
+        assertEquals(0.0, client.state().members().get(0).latencyEwmaMillis());
+        assertEquals(HttpStatus.OK, client.get("/v2/account", new LinkedMultiValueMap<>(), HttpHeaders.EMPTY).getStatusCode());
+
+        // the first sample is taken as is instead of being averaged with an initial 0
+        assertTrue(client.state().members().get(0).latencyEwmaMillis() >= 50.0);
+    }
+
+    @Test
+    public void hedgingUsesSecondClientWhenPrimaryIsSlow() {
+        final AtomicInteger firstCalls = new AtomicInteger();
+        final Gw2ApiClient first = mock(Gw2ApiClient.class);
+        when(first.get(any(), any(), any())).thenAnswer((invocation) -> {
+            if (firstCalls.incrementAndGet() > 16) {
+                Thread.sleep(5000L);
+            }
+
+            return ResponseEntity.status(HttpStatus.OK).body((Resource) new ByteArrayResource(new byte[0]));
+        });
+
+        final Gw2ApiClient second = mockClient(HttpStatus.ACCEPTED);
+        final ChainedGw2ApiClient client = new ChainedGw2ApiClient(
+                List.of(new ChainedGw2ApiClient.Member(first), new ChainedGw2ApiClient.Member(second)),
+                Duration.ofMinutes(1L),
+                ChainedGw2ApiClient.Routing.ORDERED,
+                new ChainedGw2ApiClient.Hedging(Executors.newVirtualThreadPerTaskExecutor(), Set.of("/v2/account"), 0.95, 10),
+                new SimpleMeterRegistry()
+        );
+
+        // build up latency history of the primary; requests are not hedged until there is enough history
+        for (int i = 0; i < 16; i++) {
+            assertEquals(HttpStatus.OK, client.get("/v2/account", new LinkedMultiValueMap<>(), HttpHeaders.EMPTY).getStatusCode());
+        }
+
+        final long start = System.nanoTime();
+        assertEquals(HttpStatus.ACCEPTED, client.get("/v2/account", new LinkedMultiValueMap<>(), HttpHeaders.EMPTY).getStatusCode());
+        assertTrue(Duration.ofNanos(System.nanoTime() - start).compareTo(Duration.ofSeconds(5L)) < 0);
+
+        verify(second, times(1)).get(any(), any(), any());
+    }
+
+    @Test
+    public void rateLimitRoutesToMemberWithBudget() {
+        final Gw2ApiClient first = mockClient(HttpStatus.OK);
+        final Gw2ApiClient second = mockClient(HttpStatus.ACCEPTED);
+        final MeterRegistry meterRegistry = new SimpleMeterRegistry();
+        final ChainedGw2ApiClient client = new ChainedGw2ApiClient(
+                List.of(
+                        new ChainedGw2ApiClient.Member(first, new Gw2ApiRateLimiter(2, 0.001, meterRegistry, "first")),
+                        new ChainedGw2ApiClient.Member(second, new Gw2ApiRateLimiter(2, 0.001, meterRegistry, "second"))
+                ),
+                Duration.ofMinutes(1L),
+                ChainedGw2ApiClient.Routing.ORDERED,
+                null,
+                meterRegistry
+        );
+
+        assertEquals(HttpStatus.OK, client.get(Duration.ofMillis(100L), "/v2/account", new LinkedMultiValueMap<>(), HttpHeaders.EMPTY).getStatusCode());
+        assertEquals(HttpStatus.OK, client.get(Duration.ofMillis(100L), "/v2/account", new LinkedMultiValueMap<>(), HttpHeaders.EMPTY).getStatusCode());
+        assertEquals(HttpStatus.ACCEPTED, client.get(Duration.ofMillis(100L), "/v2/account", new LinkedMultiValueMap<>(), HttpHeaders.EMPTY).getStatusCode());
+        assertEquals(HttpStatus.ACCEPTED, client.get(Duration.ofMillis(100L), "/v2/account", new LinkedMultiValueMap<>(), HttpHeaders.EMPTY).getStatusCode());
+
+        // both buckets are empty and won't refill before the deadline
+        assertEquals(HttpStatus.REQUEST_TIMEOUT, client.get(Duration.ofMillis(100L), "/v2/account", new LinkedMultiValueMap<>(), HttpHeaders.EMPTY).getStatusCode());
+    }
+
+    @Test
+    public void rateLimitQueuesUntilBudgetIsAvailable() {
+        final Gw2ApiClient first = mockClient(HttpStatus.OK);
+        final ChainedGw2ApiClient client = new ChainedGw2ApiClient(
+                List.of(new ChainedGw2ApiClient.Member(first, new Gw2ApiRateLimiter(1, 20.0, new SimpleMeterRegistry(), "first"))),
+                Duration.ofMinutes(1L),
+                ChainedGw2ApiClient.Routing.ORDERED,
+                null,
+                new SimpleMeterRegistry()
+        );
+
+        assertEquals(HttpStatus.OK, client.get(Duration.ofSeconds(1L), "/v2/account", new LinkedMultiValueMap<>(), HttpHeaders.EMPTY).getStatusCode());
+        assertEquals(HttpStatus.OK, client.get(Duration.ofSeconds(1L), "/v2/account", new LinkedMultiValueMap<>(), HttpHeaders.EMPTY).getStatusCode());
+    }
+
+    @Test
+    public void fallbacksAndExhaustionAreCounted() {
+        final Gw2ApiClient first = mockClient(HttpStatus.TOO_MANY_REQUESTS);
+        final Gw2ApiClient second = mockClient(HttpStatus.REQUEST_TIMEOUT);
+        final MeterRegistry meterRegistry = new SimpleMeterRegistry();
+        final ChainedGw2ApiClient client = new ChainedGw2ApiClient(
+                List.of(new ChainedGw2ApiClient.Member("first", first, null), new ChainedGw2ApiClient.Member("second", second, null)),
+                Duration.ofMinutes(1L),
+                ChainedGw2ApiClient.Routing.ORDERED,
+                null,
+                meterRegistry
+        );
+
+        assertEquals(HttpStatus.REQUEST_TIMEOUT, client.get("/v2/account", new LinkedMultiValueMap<>(), HttpHeaders.EMPTY).getStatusCode());
+
+        assertEquals(1.0, meterRegistry.get("gw2auth_gw2_api_chain_fallbacks").tag("client.name", "first").counter().count());
+        assertEquals(1.0, meterRegistry.get("gw2auth_gw2_api_chain_fallbacks").tag("client.name", "second").counter().count());
+        assertEquals(1.0, meterRegistry.get("gw2auth_gw2_api_chain_cooldowns").tag("client.name", "first").counter().count());
+        assertEquals(1.0, meterRegistry.get("gw2auth_gw2_api_chain_exhausted").counter().count());
+        assertEquals(2.0, meterRegistry.get("gw2auth_gw2_api_chain_attempts").summary().totalAmount());
+        assertTrue(meterRegistry.get("gw2auth_gw2_api_chain_member_cooldown_seconds").tag("client.name", "first").gauge().value() > 0.0);
+
+        final ChainedGw2ApiClient.State state = client.state();
+        assertEquals(1L, state.exhausted());
+        assertTrue(state.members().get(0).coolingDown());
+        assertFalse(state.members().get(1).coolingDown());
+        assertEquals(1L, state.members().get(1).fallbacks());
+    }
+
+    private static Gw2ApiClient mockClient(HttpStatus status) {
+        final Gw2ApiClient client = mock(Gw2ApiClient.class);
+        when(client.get(any(), any(), any())).thenAnswer((invocation) -> ResponseEntity.status(status).body((Resource) new ByteArrayResource(new byte[0])));
+        when(client.get(any(Duration.class), any(), any(), any())).thenAnswer((invocation) -> ResponseEntity.status(status).body((Resource) new ByteArrayResource(new byte[0])));
+
+        return client;
+    }
+}
@@ -0,0 +1,174 @@
+package com.gw2auth.oauth2.server.service.gw2.client;
+
+import com.sun.net.httpserver.HttpServer;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.core.io.ByteArrayResource;
+import org.springframework.core.io.Resource;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.util.LinkedMultiValueMap;
+import org.springframework.util.MultiValueMap;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpTimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.concurrent.Executors;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class HttpClientGw2ApiClientTest {
+
+    private HttpServer server;
+    private HttpClientGw2ApiClient gw2ApiClient;
+
+    @BeforeEach
+    public void setup() throws Exception {
+        this.server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        this.server.createContext("/v2/account", (exchange) -> {
+            final byte[] body = ("{\"query\":\"" + exchange.getRequestURI().getRawQuery() + "\",\"auth\":\"" + exchange.getRequestHeaders().getFirst("Authorization") + "\"}").getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().add("Content-Type", "application/json");
+            exchange.sendResponseHeaders(200, body.length);
+
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        });
+        this.server.createContext("/v2/tokeninfo", (exchange) -> {
+            final byte[] body = "{\"text\":\"invalid key\"}".getBytes(StandardCharsets.UTF_8);
+            exchange.sendResponseHeaders(401, body.length);
+
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        });
+        this.server.createContext("/v2/characters", (exchange) -> {
+            try {
+                Thread.sleep(2000L);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+
+            exchange.sendResponseHeaders(200, -1);
+            exchange.close();
+        });
+        this.server.createContext("/v2/commerce/transactions/current/buys", (exchange) -> {
+            exchange.sendResponseHeaders(200, 1024L);
+
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write("[".getBytes(StandardCharsets.UTF_8));
+                out.flush();
+                Thread.sleep(2000L);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (IOException ignored) {
+                // client gave up
+            }
+        });
+        this.server.createContext("/v2/createsubtoken", (exchange) -> {
+            exchange.sendResponseHeaders(400, 1024L);
+
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write("{".getBytes(StandardCharsets.UTF_8));
+                out.flush();
+                Thread.sleep(2000L);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (IOException ignored) {
+                // client gave up
+            }
+        });
+        this.server.setExecutor(Executors.newCachedThreadPool());
+        this.server.start();
+
+        this.gw2ApiClient = new HttpClientGw2ApiClient(
+                HttpClient.newHttpClient(),
+                URI.create("http://127.0.0.1:" + this.server.getAddress().getPort()),
+                Duration.ofSeconds(5L)
+        );
+    }
+
+    @AfterEach
+    public void cleanup() {
+        this.server.stop(0);
+    }
+
+    @Test
+    public void getHappycase() throws Exception {
+        final MultiValueMap<String, String> query = new LinkedMultiValueMap<>();
+        query.add("v", "2021-07-24T00:00:00.000Z");
+        query.add("permissions", "account,tradingpost");
+
+        final HttpHeaders headers = new HttpHeaders();
+        headers.add("Authorization", "Bearer token");
+
+        final ResponseEntity<Resource> response = this.gw2ApiClient.get(Duration.ofSeconds(1L), "/v2/account", query, headers);
+
+        assertEquals(HttpStatus.OK, response.getStatusCode());
+        assertEquals("application/json", response.getHeaders().getFirst("Content-Type"));
+
+        final String body;
+        try (InputStream in = response.getBody().getInputStream()) {
+            body = new String(in.readAllBytes(), StandardCharsets.UTF_8);
+        }
+
+        assertTrue(body.contains("v=2021-07-24T00%3A00%3A00.000Z"));
+        assertTrue(body.contains("permissions=account%2Ctradingpost"));
+        assertTrue(body.contains("\"auth\":\"Bearer token\""));
+    }
+
+    @Test
+    public void getErrorResponseIsBuffered() throws Exception {
+        final ResponseEntity<Resource> response = this.gw2ApiClient.get("/v2/tokeninfo", new LinkedMultiValueMap<>(), HttpHeaders.EMPTY);
+
+        assertEquals(HttpStatus.UNAUTHORIZED, response.getStatusCode());
+        assertInstanceOf(ByteArrayResource.class, response.getBody());
+        assertEquals("{\"text\":\"invalid key\"}", new String(response.getBody().getContentAsByteArray(), StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void getTimeout() {
+        final ResponseEntity<Resource> response = this.gw2ApiClient.get(Duration.ofMillis(200L), "/v2/characters", new LinkedMultiValueMap<>(), HttpHeaders.EMPTY);
+        assertEquals(HttpStatus.REQUEST_TIMEOUT, response.getStatusCode());
+    }
+
+    @Test
+    public void getSuccessResponseIsStreamed() throws Exception {
+        final ResponseEntity<Resource> response = this.gw2ApiClient.get("/v2/account", new LinkedMultiValueMap<>(), HttpHeaders.EMPTY);
+
+        assertEquals(HttpStatus.OK, response.getStatusCode());
+        assertTrue(response.getBody().isOpen());
+        response.getBody().getInputStream().close();
+    }
+
+    @Test
+    public void getTimeoutWhileReadingBody() throws Exception {
+        final long start = System.nanoTime();
+        final ResponseEntity<Resource> response = this.gw2ApiClient.get(Duration.ofMillis(200L), "/v2/commerce/transactions/current/buys", new LinkedMultiValueMap<>(), HttpHeaders.EMPTY);
+
+        assertEquals(HttpStatus.OK, response.getStatusCode());
+
+        try (InputStream in = response.getBody().getInputStream()) {
+            assertThrows(HttpTimeoutException.class, in::readAllBytes);
+        }
+
+        assertTrue(Duration.ofNanos(System.nanoTime() - start).compareTo(Duration.ofSeconds(1L)) < 0);
+    }
+
+    @Test
+    public void getTimeoutWhileReadingErrorBody() {
+        final long start = System.nanoTime();
+        final ResponseEntity<Resource> response = this.gw2ApiClient.get(Duration.ofMillis(200L), "/v2/createsubtoken", new LinkedMultiValueMap<>(), HttpHeaders.EMPTY);
+
+        assertEquals(HttpStatus.REQUEST_TIMEOUT, response.getStatusCode());
+        assertTrue(Duration.ofNanos(System.nanoTime() - start).compareTo(Duration.ofSeconds(1L)) < 0);
+    }
+}
@@ -0,0 +1,102 @@
+package com.gw2auth.oauth2.server.service.gw2.client;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class JsonStringInputStreamTest {
+
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
+    @Test
+    public void decodesLikeJackson() throws Exception {
+        final List<String> jsonStrings = List.of(
+                "\"\"",
+                "\"{}\"",
+                "\"{\\\"name\\\":\\\"Some.1234\\\",\\\"url\\\":\\\"https:\\/\\/api.guildwars2.com\\/v2\\\"}\"",
+                "\"line\\nbreak\\r\\n\\ttab\\b\\f\\\\\"",
+                "\"\\u00e4\\u00F6\\u00fc \\u20ac \\ud83d\\ude00 \\u0000\"",
+                "\"raw utf-8: äöü € \uD83D\uDE00\"",
+                "\"lone surrogates: \\ud83d x \\ude00 \\ud83d\\u0041\""
+        );
+
+        for (String jsonString : jsonStrings) {
+            final byte[] json = jsonString.getBytes(StandardCharsets.UTF_8);
+            final byte[] expected = MAPPER.readValue(json, String.class).getBytes(StandardCharsets.UTF_8);
+
+            assertArrayEquals(expected, readAllBulk(JsonStringInputStream.ofQuoted(json, 0), 3), jsonString);
+            assertArrayEquals(expected, readAllSingle(JsonStringInputStream.ofQuoted(json, 0)), jsonString);
+        }
+    }
+
+    @Test
+    public void decodesRandomStringsLikeJackson() throws Exception {
+        final Random random = new Random(1234L);
+        final char[] alphabet = "ab\"\\/\n\t\u0001äé€\uD83D\uDE00".toCharArray();
+
+        for (int i = 0; i < 500; i++) {
+            final StringBuilder sb = new StringBuilder();
+            final int length = random.nextInt(64);
+
+            for (int j = 0; j < length; j++) {
+                sb.append(alphabet[random.nextInt(alphabet.length)]);
+            }
+
+            final String value = sb.toString();
+            final byte[] json = MAPPER.writeValueAsBytes(value);
+            final byte[] expected = value.getBytes(StandardCharsets.UTF_8);
+
+            assertArrayEquals(expected, readAllBulk(JsonStringInputStream.ofQuoted(json, 0), 1 + random.nextInt(16)), value);
+        }
+    }
+
+    @Test
+    public void stopsAtTheClosingQuote() throws Exception {
+        final byte[] json = "{\"body\":\"a\\\"b\",\"other\":\"c\"}".getBytes(StandardCharsets.UTF_8);
+
+        assertArrayEquals("a\"b".getBytes(StandardCharsets.UTF_8), readAllBulk(JsonStringInputStream.ofQuoted(json, 8), 8192));
+    }
+
+    @Test
+    public void rejectsInvalidInput() {
+        assertNull(JsonStringInputStream.ofQuoted("abc".getBytes(StandardCharsets.UTF_8), 0));
+        assertNull(JsonStringInputStream.ofQuoted("\"abc".getBytes(StandardCharsets.UTF_8), 0));
+        assertNull(JsonStringInputStream.ofQuoted("\"abc\\\"".getBytes(StandardCharsets.UTF_8), 0));
+
+        assertThrows(IOException.class, () -> readAllBulk(JsonStringInputStream.ofQuoted("\"\\x\"".getBytes(StandardCharsets.UTF_8), 0), 8));
+        assertThrows(IOException.class, () -> readAllBulk(JsonStringInputStream.ofQuoted("\"\\u12\"".getBytes(StandardCharsets.UTF_8), 0), 8));
+        assertThrows(IOException.class, () -> readAllBulk(JsonStringInputStream.ofQuoted("\"\\u12zz\"".getBytes(StandardCharsets.UTF_8), 0), 8));
+    }
+
+    private static byte[] readAllBulk(InputStream is, int bufferSize) throws IOException {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        final byte[] buffer = new byte[bufferSize];
+        int read;
+
+        while ((read = is.read(buffer, 0, buffer.length)) != -1) {
+            assertTrue(read > 0);
+            out.write(buffer, 0, read);
+        }
+
+        return out.toByteArray();
+    }
+
+    private static byte[] readAllSingle(InputStream is) throws IOException {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        int b;
+
+        while ((b = is.read()) != -1) {
+            out.write(b);
+        }
+
+        return out.toByteArray();
+    }
+}
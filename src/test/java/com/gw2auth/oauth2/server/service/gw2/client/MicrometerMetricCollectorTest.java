@@ -0,0 +1,58 @@
+package com.gw2auth.oauth2.server.service.gw2.client;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.core.io.Resource;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.util.LinkedMultiValueMap;
+import org.springframework.util.MultiValueMap;
+
+import java.io.IOException;
+import java.time.Duration;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class MicrometerMetricCollectorTest {
+
+    @Test
+    public void recordsPerEndpointAndStatus() {
+        final MeterRegistry meterRegistry = new SimpleMeterRegistry();
+        final MicrometerMetricCollector metricCollector = new MicrometerMetricCollector(meterRegistry, "gw2_api_requests", "test");
+
+        metricCollector.collectMetrics("/v2/account", new LinkedMultiValueMap<>(), HttpHeaders.EMPTY, ResponseEntity.<Resource>ok().build(), Duration.ofMillis(20L));
+        metricCollector.collectMetrics("/v2/account", new LinkedMultiValueMap<>(), HttpHeaders.EMPTY, ResponseEntity.<Resource>ok().build(), Duration.ofMillis(200L));
+        metricCollector.collectMetrics("/v2/account", new LinkedMultiValueMap<>(), HttpHeaders.EMPTY, ResponseEntity.<Resource>status(HttpStatus.TOO_MANY_REQUESTS).build(), Duration.ofMillis(20L));
+        metricCollector.collectMetrics("/v2/account", new LinkedMultiValueMap<>(), HttpHeaders.EMPTY, new IOException(), Duration.ofMillis(20L));
+
+        final Timer ok = meterRegistry.get("gw2_api_requests").tag("uri", "/v2/account").tag("status", "200").tag("outcome", "SUCCESS").timer();
+        assertEquals(2L, ok.count());
+        assertEquals(7, ok.takeSnapshot().histogramCounts().length);
+
+        assertEquals(1L, meterRegistry.get("gw2_api_requests").tag("status", "429").tag("outcome", "CLIENT_ERROR").timer().count());
+        assertEquals(1L, meterRegistry.get("gw2_api_requests").tag("status", "IOException").tag("outcome", "UNKNOWN").timer().count());
+    }
+
+    @Test
+    public void queryKeysAreTemplated() {
+        final MeterRegistry meterRegistry = new SimpleMeterRegistry();
+        final MicrometerMetricCollector metricCollector = new MicrometerMetricCollector(meterRegistry, "gw2_api_requests", "test");
+
+        metricCollector.collectMetrics("/v2/characters", query("v", "latest", "ids", "a"), HttpHeaders.EMPTY, ResponseEntity.<Resource>ok().build(), Duration.ofMillis(20L));
+        metricCollector.collectMetrics("/v2/characters", query("ids", "b", "v", "latest"), HttpHeaders.EMPTY, ResponseEntity.<Resource>ok().build(), Duration.ofMillis(20L));
+
+        assertEquals(2L, meterRegistry.get("gw2_api_requests").tag("uri", "/v2/characters?ids={value}&v={value}").timer().count());
+    }
+
+    private static MultiValueMap<String, String> query(String... keysAndValues) {
+        final MultiValueMap<String, String> query = new LinkedMultiValueMap<>();
+        for (int i = 0; i < keysAndValues.length; i += 2) {
+            query.add(keysAndValues[i], keysAndValues[i + 1]);
+        }
+
+        return query;
+    }
+}
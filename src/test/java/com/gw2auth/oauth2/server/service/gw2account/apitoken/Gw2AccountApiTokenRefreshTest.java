@@ -0,0 +1,214 @@
+package com.gw2auth.oauth2.server.service.gw2account.apitoken;
+
+import com.gw2auth.oauth2.server.repository.gw2account.Gw2AccountRepository;
+import com.gw2auth.oauth2.server.repository.gw2account.apitoken.Gw2AccountApiTokenRepository;
+import com.gw2auth.oauth2.server.repository.gw2account.apitoken.Gw2AccountApiTokenValidUpdateEntity;
+import com.gw2auth.oauth2.server.repository.gw2account.apitoken.Gw2AccountRefreshEntity;
+import com.gw2auth.oauth2.server.service.account.AccountService;
+import com.gw2auth.oauth2.server.service.gw2.Gw2Account;
+import com.gw2auth.oauth2.server.service.gw2.Gw2ApiService;
+import com.gw2auth.oauth2.server.service.gw2.Gw2ApiServiceException;
+import com.gw2auth.oauth2.server.service.gw2.InvalidApiTokenException;
+import com.gw2auth.oauth2.server.service.gw2account.Gw2AccountService;
+import com.gw2auth.oauth2.server.service.gw2account.subtoken.Gw2AccountApiSubtokenService;
+import com.gw2auth.oauth2.server.service.gw2account.verification.Gw2AccountVerificationService;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.util.*;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+public class Gw2AccountApiTokenRefreshTest {
+
+    private static final Instant NOW = Instant.parse("2024-01-01T00:00:00Z");
+    private static final Duration NAME_CHECK_INTERVAL = Duration.ofDays(2L);
+    private static final Duration VALID_CHECK_INTERVAL = Duration.ofHours(3L);
+    private static final Duration VALID_CHECK_IGNORE_AFTER = Duration.ofDays(3L);
+    private static final Duration CLAIM_DURATION = Duration.ofMinutes(5L);
+    private static final Duration TARGET_STALENESS = Duration.ofMinutes(30L);
+
+    private Gw2AccountRepository gw2AccountRepository;
+    private Gw2AccountApiTokenRepository gw2AccountApiTokenRepository;
+    private Gw2ApiService gw2ApiService;
+    private SimpleMeterRegistry meterRegistry;
+    private Gw2AccountApiTokenServiceImpl service;
+
+    @BeforeEach
+    public void setup() {
+        this.gw2AccountRepository = mock(Gw2AccountRepository.class);
+        this.gw2AccountApiTokenRepository = mock(Gw2AccountApiTokenRepository.class);
+        this.gw2ApiService = mock(Gw2ApiService.class);
+        this.meterRegistry = new SimpleMeterRegistry();
+
+        // max batch size: 5/s * 60s = 300
+        this.service = new Gw2AccountApiTokenServiceImpl(
+                NAME_CHECK_INTERVAL,
+                VALID_CHECK_INTERVAL,
+                VALID_CHECK_IGNORE_AFTER,
+                CLAIM_DURATION,
+                TARGET_STALENESS,
+                10_000,
+                5.0,
+                this.gw2AccountRepository,
+                this.gw2AccountApiTokenRepository,
+                mock(AccountService.class),
+                mock(Gw2AccountService.class),
+                mock(Gw2AccountVerificationService.class),
+                mock(Gw2AccountApiSubtokenService.class),
+                this.gw2ApiService,
+                this.meterRegistry
+        );
+        this.service.setClock(Clock.fixed(NOW, ZoneOffset.UTC));
+
+        when(this.gw2ApiService.getAccount(anyString())).thenAnswer((invocation) -> new Gw2Account(UUID.randomUUID(), "Name.1234"));
+    }
+
+    @Test
+    public void claimsWithConfiguredWindowsAndClaimDuration() {
+        when(this.gw2AccountApiTokenRepository.claimAllApplicableForRefresh(any(), any(), any(), any(), any(), anyInt())).thenReturn(List.of());
+
+        this.service.refreshTokenValidityAndAccountName();
+
+        verify(this.gw2AccountApiTokenRepository).claimAllApplicableForRefresh(
+                NOW.minus(VALID_CHECK_IGNORE_AFTER),
+                NOW.minus(VALID_CHECK_INTERVAL),
+                NOW.minus(NAME_CHECK_INTERVAL),
+                NOW,
+                NOW.plus(CLAIM_DURATION),
+                50
+        );
+        verify(this.gw2AccountApiTokenRepository, never()).updateApiTokensValid(any(), any());
+    }
+
+    @Test
+    public void unknownResultsKeepTheirClaim() {
+        final Gw2AccountRefreshEntity valid = token("valid", Duration.ZERO);
+        final Gw2AccountRefreshEntity invalid = token("invalid", Duration.ZERO);
+        final Gw2AccountRefreshEntity unknown = token("unknown", Duration.ZERO);
+
+        when(this.gw2AccountApiTokenRepository.claimAllApplicableForRefresh(any(), any(), any(), any(), any(), anyInt())).thenReturn(List.of(valid, invalid, unknown));
+        when(this.gw2ApiService.getAccount("invalid")).thenThrow(new InvalidApiTokenException());
+        when(this.gw2ApiService.getAccount("unknown")).thenThrow(new Gw2ApiServiceException("upstream unavailable"));
+
+        this.service.refreshTokenValidityAndAccountName();
+
+        @SuppressWarnings("unchecked")
+        final ArgumentCaptor<Collection<Gw2AccountApiTokenValidUpdateEntity>> captor = ArgumentCaptor.forClass(Collection.class);
+        verify(this.gw2AccountApiTokenRepository).updateApiTokensValid(eq(NOW), captor.capture());
+
+        // the unknown token is not part of the update, so its claim is only released by expiry
+        assertEquals(
+                Set.of(
+                        new Gw2AccountApiTokenValidUpdateEntity(valid.accountId(), valid.gw2AccountId(), true),
+                        new Gw2AccountApiTokenValidUpdateEntity(invalid.accountId(), invalid.gw2AccountId(), false)
+                ),
+                new HashSet<>(captor.getValue())
+        );
+        verify(this.gw2AccountRepository).updateGw2AccountNames(eq(NOW), argThat((updates) -> updates.size() == 1));
+    }
+
+    @Test
+    public void batchSizeGrowsWhileFullBatchesLagBehind() {
+        final Duration lag = TARGET_STALENESS.plusMinutes(1L);
+
+        when(this.gw2AccountApiTokenRepository.claimAllApplicableForRefresh(any(), any(), any(), any(), any(), anyInt()))
+                .thenAnswer((invocation) -> tokens(invocation.getArgument(5), lag));
+
+        this.service.refreshTokenValidityAndAccountName();
+        assertEquals(100.0, batchSize());
+        assertEquals(lag.toSeconds(), lagSeconds());
+
+        this.service.refreshTokenValidityAndAccountName();
+        assertEquals(200.0, batchSize());
+
+        // capped by what the rate limit allows to check within one interval
+        this.service.refreshTokenValidityAndAccountName();
+        assertEquals(300.0, batchSize());
+
+        this.service.refreshTokenValidityAndAccountName();
+        assertEquals(300.0, batchSize());
+
+        verify(this.gw2AccountApiTokenRepository).claimAllApplicableForRefresh(any(), any(), any(), any(), any(), eq(50));
+        verify(this.gw2AccountApiTokenRepository).claimAllApplicableForRefresh(any(), any(), any(), any(), any(), eq(100));
+        verify(this.gw2AccountApiTokenRepository).claimAllApplicableForRefresh(any(), any(), any(), any(), any(), eq(200));
+        verify(this.gw2AccountApiTokenRepository).claimAllApplicableForRefresh(any(), any(), any(), any(), any(), eq(300));
+    }
+
+    @Test
+    public void batchSizeIsKeptWhileFullBatchesAreWithinTargetStaleness() {
+        when(this.gw2AccountApiTokenRepository.claimAllApplicableForRefresh(any(), any(), any(), any(), any(), anyInt()))
+                .thenAnswer((invocation) -> tokens(invocation.getArgument(5), TARGET_STALENESS.minusMinutes(1L)));
+
+        this.service.refreshTokenValidityAndAccountName();
+
+        assertEquals(50.0, batchSize());
+    }
+
+    @Test
+    public void batchSizeShrinksGraduallyOnceEverythingDueIsClaimed() {
+        final Duration lag = TARGET_STALENESS.plusMinutes(1L);
+
+        when(this.gw2AccountApiTokenRepository.claimAllApplicableForRefresh(any(), any(), any(), any(), any(), anyInt()))
+                .thenAnswer((invocation) -> tokens(invocation.getArgument(5), lag));
+
+        for (int i = 0; i < 3; i++) {
+            this.service.refreshTokenValidityAndAccountName();
+        }
+        assertEquals(300.0, batchSize());
+
+        // a partial batch halves the batch size, but never below what has been claimed
+        when(this.gw2AccountApiTokenRepository.claimAllApplicableForRefresh(any(), any(), any(), any(), any(), anyInt()))
+                .thenAnswer((invocation) -> tokens(200, Duration.ZERO));
+
+        this.service.refreshTokenValidityAndAccountName();
+        assertEquals(200.0, batchSize());
+
+        when(this.gw2AccountApiTokenRepository.claimAllApplicableForRefresh(any(), any(), any(), any(), any(), anyInt()))
+                .thenAnswer((invocation) -> tokens(10, Duration.ZERO));
+
+        this.service.refreshTokenValidityAndAccountName();
+        assertEquals(100.0, batchSize());
+
+        this.service.refreshTokenValidityAndAccountName();
+        assertEquals(50.0, batchSize());
+
+        this.service.refreshTokenValidityAndAccountName();
+        assertEquals(50.0, batchSize());
+        assertEquals(0.0, lagSeconds());
+    }
+
+    private double batchSize() {
+        return this.meterRegistry.get("gw2auth_token_refresh_batch_size").gauge().value();
+    }
+
+    private double lagSeconds() {
+        return this.meterRegistry.get("gw2auth_token_refresh_lag_seconds").gauge().value();
+    }
+
+    private static List<Gw2AccountRefreshEntity> tokens(int count, Duration lag) {
+        return IntStream.range(0, count)
+                .mapToObj((i) -> token("token-" + i, lag))
+                .toList();
+    }
+
+    private static Gw2AccountRefreshEntity token(String gw2ApiToken, Duration lag) {
+        return new Gw2AccountRefreshEntity(
+                UUID.randomUUID(),
+                UUID.randomUUID(),
+                "Name.1234",
+                gw2ApiToken,
+                NOW.minus(VALID_CHECK_INTERVAL).minus(lag),
+                NOW.minus(Duration.ofHours(1L))
+        );
+    }
+}
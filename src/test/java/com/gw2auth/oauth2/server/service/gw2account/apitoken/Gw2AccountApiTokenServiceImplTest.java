@@ -5,6 +5,8 @@ import com.gw2auth.oauth2.server.repository.gw2account.Gw2AccountEntity;
 import com.gw2auth.oauth2.server.repository.gw2account.Gw2AccountRepository;
 import com.gw2auth.oauth2.server.repository.gw2account.apitoken.Gw2AccountApiTokenEntity;
 import com.gw2auth.oauth2.server.repository.gw2account.apitoken.Gw2AccountApiTokenRepository;
+import com.gw2auth.oauth2.server.repository.gw2account.apitoken.Gw2AccountApiTokenValidUpdateEntity;
+import com.gw2auth.oauth2.server.repository.gw2account.apitoken.Gw2AccountRefreshEntity;
 import com.gw2auth.oauth2.server.service.Gw2ApiPermission;
 import org.hamcrest.core.IsEqual;
 import org.hamcrest.core.StringStartsWith;
@@ -27,9 +29,7 @@ import java.time.Clock;
 import java.time.Duration;
 import java.time.Instant;
 import java.time.ZoneId;
-import java.util.EnumSet;
-import java.util.Map;
-import java.util.UUID;
+import java.util.*;
 
 import static com.gw2auth.oauth2.server.Assertions.assertInstantEquals;
 import static org.junit.jupiter.api.Assertions.assertEquals;
@@ -42,6 +42,9 @@ import static org.springframework.test.web.client.match.MockRestRequestMatchers.
 @Gw2AuthTestComponentScan
 class Gw2AccountApiTokenServiceImplTest {
 
+    // default of com.gw2auth.token.valid-check.claim-duration
+    private static final Duration CLAIM_DURATION = Duration.ofMinutes(5L);
+
     @Autowired
     @RegisterExtension
     TruncateTablesExtension truncateTablesExtension;
@@ -180,6 +183,10 @@ class Gw2AccountApiTokenServiceImplTest {
         final Gw2AccountApiTokenEntity gw2AccountApiTokenEntityNew = this.gw2AccountApiTokenRepository.findByAccountIdAndGw2AccountId(accountId, gw2AccountId).orElseThrow();
         assertInstantEquals(gw2AccountApiTokenEntityOld.lastValidCheckTime(), gw2AccountApiTokenEntityNew.lastValidCheckTime());
         assertInstantEquals(gw2AccountApiTokenEntityOld.lastValidTime(), gw2AccountApiTokenEntityNew.lastValidTime());
+
+        // the token keeps its claim until the claim expires
+        assertEquals(List.of(), claimAllApplicableForRefresh(now));
+        assertEquals(List.of(gw2AccountId), claimAllApplicableForRefresh(now.plus(CLAIM_DURATION)));
     }
 
     @ParameterizedTest
@@ -235,4 +242,84 @@ class Gw2AccountApiTokenServiceImplTest {
         assertInstantEquals(now, gw2AccountApiTokenEntityNew.lastValidCheckTime());
         assertInstantEquals(gw2AccountApiTokenEntityOld.lastValidTime(), gw2AccountApiTokenEntityNew.lastValidTime());
     }
-}
\ No newline at end of file
+
+    @ParameterizedTest
+    @WithGw2AuthLogin
+    public void claimAllApplicableForRefreshSkipsClaimedTokens(SessionHandle sessionHandle) {
+        final UUID accountId = this.testHelper.getAccountIdForCookie(sessionHandle).orElseThrow();
+        final UUID gw2AccountId = UUID.randomUUID();
+
+        this.testHelper.createApiToken(accountId, gw2AccountId, TestHelper.randomRootToken(), EnumSet.of(Gw2ApiPermission.ACCOUNT), "Felix.9127");
+
+        // simulate 4hrs passed (token verification happens every 3h - see application.yml for test)
+        final Instant now = Instant.now().plus(Duration.ofHours(4L));
+
+        // the first claim takes the token, a concurrent claim does not see it anymore
+        assertEquals(List.of(gw2AccountId), claimAllApplicableForRefresh(now));
+        assertEquals(List.of(), claimAllApplicableForRefresh(now));
+        assertEquals(List.of(), claimAllApplicableForRefresh(now.plus(CLAIM_DURATION).minusSeconds(1L)));
+
+        // once the claim expired, the token can be claimed again
+        assertEquals(List.of(gw2AccountId), claimAllApplicableForRefresh(now.plus(CLAIM_DURATION)));
+    }
+
+    @ParameterizedTest
+    @WithGw2AuthLogin
+    public void updateApiTokensValidWithValidAndInvalidTokens(SessionHandle sessionHandle) {
+        final UUID accountId = this.testHelper.getAccountIdForCookie(sessionHandle).orElseThrow();
+        final UUID validGw2AccountId = UUID.randomUUID();
+        final UUID invalidGw2AccountId = UUID.randomUUID();
+        final UUID untouchedGw2AccountId = UUID.randomUUID();
+
+        this.testHelper.createApiToken(accountId, validGw2AccountId, TestHelper.randomRootToken(), EnumSet.of(Gw2ApiPermission.ACCOUNT), "First.1234").v2();
+        final Gw2AccountApiTokenEntity invalidEntityOld = this.testHelper.createApiToken(accountId, invalidGw2AccountId, TestHelper.randomRootToken(), EnumSet.of(Gw2ApiPermission.ACCOUNT), "Second.1234").v2();
+        final Gw2AccountApiTokenEntity untouchedEntityOld = this.testHelper.createApiToken(accountId, untouchedGw2AccountId, TestHelper.randomRootToken(), EnumSet.of(Gw2ApiPermission.ACCOUNT), "Third.1234").v2();
+
+        final Instant now = Instant.now().plus(Duration.ofHours(4L));
+        assertEquals(Set.of(validGw2AccountId, invalidGw2AccountId, untouchedGw2AccountId), Set.copyOf(claimAllApplicableForRefresh(now)));
+
+        this.gw2AccountApiTokenRepository.updateApiTokensValid(now, List.of(
+                new Gw2AccountApiTokenValidUpdateEntity(accountId, validGw2AccountId, true),
+                new Gw2AccountApiTokenValidUpdateEntity(accountId, invalidGw2AccountId, false)
+        ));
+
+        // the valid token was marked as valid
+        final Gw2AccountApiTokenEntity validEntityNew = this.gw2AccountApiTokenRepository.findByAccountIdAndGw2AccountId(accountId, validGw2AccountId).orElseThrow();
+        assertInstantEquals(now, validEntityNew.lastValidCheckTime());
+        assertInstantEquals(now, validEntityNew.lastValidTime());
+
+        // only the check time of the invalid token was updated
+        final Gw2AccountApiTokenEntity invalidEntityNew = this.gw2AccountApiTokenRepository.findByAccountIdAndGw2AccountId(accountId, invalidGw2AccountId).orElseThrow();
+        assertInstantEquals(now, invalidEntityNew.lastValidCheckTime());
+        assertInstantEquals(invalidEntityOld.lastValidTime(), invalidEntityNew.lastValidTime());
+
+        // tokens not part of the update are left as they are
+        final Gw2AccountApiTokenEntity untouchedEntityNew = this.gw2AccountApiTokenRepository.findByAccountIdAndGw2AccountId(accountId, untouchedGw2AccountId).orElseThrow();
+        assertInstantEquals(untouchedEntityOld.lastValidCheckTime(), untouchedEntityNew.lastValidCheckTime());
+        assertInstantEquals(untouchedEntityOld.lastValidTime(), untouchedEntityNew.lastValidTime());
+
+        // the claim of the updated tokens was released, the untouched token is still claimed
+        final List<UUID> claimable = this.gw2AccountApiTokenRepository.claimAllApplicableForRefresh(
+                now.minus(Duration.ofDays(3L)),
+                now,
+                now,
+                now,
+                now.plus(CLAIM_DURATION),
+                10
+        ).stream().map(Gw2AccountRefreshEntity::gw2AccountId).toList();
+
+        assertEquals(Set.of(validGw2AccountId, invalidGw2AccountId), Set.copyOf(claimable));
+    }
+
+    private List<UUID> claimAllApplicableForRefresh(Instant now) {
+        // same windows as the refresh job with the intervals of application.yml for test
+        return this.gw2AccountApiTokenRepository.claimAllApplicableForRefresh(
+                now.minus(Duration.ofDays(3L)),
+                now.minus(Duration.ofHours(3L)),
+                now.minus(Duration.ofDays(2L)),
+                now,
+                now.plus(CLAIM_DURATION),
+                10
+        ).stream().map(Gw2AccountRefreshEntity::gw2AccountId).toList();
+    }
+}
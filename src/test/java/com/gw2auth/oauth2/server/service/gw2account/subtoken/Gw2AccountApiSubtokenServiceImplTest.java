@@ -0,0 +1,128 @@
+package com.gw2auth.oauth2.server.service.gw2account.subtoken;
+
+import com.gw2auth.oauth2.server.repository.gw2account.subtoken.Gw2AccountApiSubtokenRepository;
+import com.gw2auth.oauth2.server.service.Gw2ApiPermission;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+public class Gw2AccountApiSubtokenServiceImplTest {
+
+    private static final Set<Gw2ApiPermission> PERMISSIONS = Set.of(Gw2ApiPermission.ACCOUNT, Gw2ApiPermission.TRADINGPOST);
+    private static final Instant NOW = Instant.parse("2024-01-01T00:00:00Z");
+
+    private Gw2AccountApiSubtokenRepository repository;
+    private Gw2AccountApiSubtokenServiceImpl service;
+    private UUID accountId;
+    private UUID gw2AccountId;
+
+    @BeforeEach
+    public void setup() {
+        this.repository = mock(Gw2AccountApiSubtokenRepository.class);
+        when(this.repository.saveAllIfApiTokenMatches(anyList())).thenAnswer((invocation) -> {
+            final boolean[] saved = new boolean[invocation.<List<?>>getArgument(0).size()];
+            Arrays.fill(saved, true);
+            return saved;
+        });
+        when(this.repository.findAllByAccountIdGw2AccountIdsAndGw2ApiPermissionsBitSet(any(), any(), anyInt())).thenReturn(List.of());
+
+        this.service = new Gw2AccountApiSubtokenServiceImpl(1000L, this.repository, new SimpleMeterRegistry());
+        this.service.setClock(Clock.fixed(NOW, ZoneOffset.UTC));
+        this.accountId = UUID.randomUUID();
+        this.gw2AccountId = UUID.randomUUID();
+    }
+
+    @Test
+    public void savedSubtokenIsServedFromCache() {
+        save("rootA", NOW.plus(Duration.ofHours(1L)));
+
+        final List<Gw2AccountApiSubtoken> result = get("rootA", NOW.plus(Gw2AccountApiSubtokenService.MIN_REMAINING_VALIDITY));
+
+        assertEquals(1, result.size());
+        assertEquals("subtoken", result.getFirst().value());
+        verify(this.repository, never()).findAllByAccountIdGw2AccountIdsAndGw2ApiPermissionsBitSet(any(), any(), anyInt());
+    }
+
+    @Test
+    public void subtokenWithoutSufficientValidityIsNotServed() {
+        save("rootA", NOW.plus(Duration.ofHours(1L)));
+
+        final List<Gw2AccountApiSubtoken> result = get("rootA", NOW.plus(Duration.ofHours(1L)));
+
+        assertTrue(result.isEmpty());
+        verify(this.repository, times(1)).findAllByAccountIdGw2AccountIdsAndGw2ApiPermissionsBitSet(any(), any(), anyInt());
+    }
+
+    @Test
+    public void subtokenOfReplacedApiTokenIsNotServed() {
+        save("rootA", NOW.plus(Duration.ofHours(1L)));
+
+        final List<Gw2AccountApiSubtoken> result = get("rootB", NOW.plus(Gw2AccountApiSubtokenService.MIN_REMAINING_VALIDITY));
+
+        assertTrue(result.isEmpty());
+        verify(this.repository, times(1)).findAllByAccountIdGw2AccountIdsAndGw2ApiPermissionsBitSet(any(), any(), anyInt());
+    }
+
+    @Test
+    public void subtokenRejectedByRepositoryIsNotCached() {
+        when(this.repository.saveAllIfApiTokenMatches(anyList())).thenReturn(new boolean[]{false});
+        save("rootA", NOW.plus(Duration.ofHours(1L)));
+
+        assertTrue(get("rootA", NOW.plus(Gw2AccountApiSubtokenService.MIN_REMAINING_VALIDITY)).isEmpty());
+        verify(this.repository, times(1)).findAllByAccountIdGw2AccountIdsAndGw2ApiPermissionsBitSet(any(), any(), anyInt());
+    }
+
+    @Test
+    public void evictionByGw2AccountRemovesCachedSubtoken() {
+        save("rootA", NOW.plus(Duration.ofHours(1L)));
+        this.service.evictSubtokens(this.accountId, this.gw2AccountId);
+
+        assertTrue(get("rootA", NOW.plus(Gw2AccountApiSubtokenService.MIN_REMAINING_VALIDITY)).isEmpty());
+        verify(this.repository, times(1)).findAllByAccountIdGw2AccountIdsAndGw2ApiPermissionsBitSet(any(), any(), anyInt());
+    }
+
+    @Test
+    public void evictionByAccountRemovesCachedSubtoken() {
+        save("rootA", NOW.plus(Duration.ofHours(1L)));
+        this.service.evictSubtokens(this.accountId);
+
+        assertTrue(get("rootA", NOW.plus(Gw2AccountApiSubtokenService.MIN_REMAINING_VALIDITY)).isEmpty());
+        verify(this.repository, times(1)).findAllByAccountIdGw2AccountIdsAndGw2ApiPermissionsBitSet(any(), any(), anyInt());
+    }
+
+    @Test
+    public void deleteRemovesSavedAndCachedSubtokens() {
+        save("rootA", NOW.plus(Duration.ofHours(1L)));
+        this.service.deleteSubtokens(this.accountId, this.gw2AccountId);
+
+        assertTrue(get("rootA", NOW.plus(Gw2AccountApiSubtokenService.MIN_REMAINING_VALIDITY)).isEmpty());
+        verify(this.repository, times(1)).deleteAllByAccountIdAndGw2AccountId(this.accountId, this.gw2AccountId);
+    }
+
+    private void save(String gw2ApiToken, Instant expirationTime) {
+        this.service.saveSubtokens(
+                this.accountId,
+                Map.of(this.gw2AccountId, gw2ApiToken),
+                List.of(new Gw2AccountApiSubtoken(this.accountId, this.gw2AccountId, PERMISSIONS, "subtoken", expirationTime))
+        );
+    }
+
+    private List<Gw2AccountApiSubtoken> get(String gw2ApiToken, Instant validUntilAtLeast) {
+        return this.service.getSubtokens(this.accountId, Map.of(this.gw2AccountId, gw2ApiToken), PERMISSIONS, validUntilAtLeast);
+    }
+}
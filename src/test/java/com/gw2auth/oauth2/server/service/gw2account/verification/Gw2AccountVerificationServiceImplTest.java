@@ -0,0 +1,169 @@
+package com.gw2auth.oauth2.server.service.gw2account.verification;
+
+import com.gw2auth.oauth2.server.repository.gw2account.apitoken.Gw2AccountApiTokenRepository;
+import com.gw2auth.oauth2.server.repository.gw2account.verification.*;
+import com.gw2auth.oauth2.server.service.account.AccountService;
+import com.gw2auth.oauth2.server.service.gw2.Gw2ApiService;
+import com.gw2auth.oauth2.server.service.gw2account.Gw2AccountService;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.transaction.support.TransactionOperations;
+
+import java.io.IOException;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.util.List;
+import java.util.UUID;
+
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+public class Gw2AccountVerificationServiceImplTest {
+
+    private static final Instant NOW = Instant.parse("2024-01-01T00:00:00Z");
+    private static final Duration CLAIM_DURATION = Duration.ofMinutes(2L);
+    private static final Duration BACKOFF_INITIAL = Duration.ofSeconds(15L);
+    private static final Duration BACKOFF_MAX = Duration.ofMinutes(1L);
+
+    private Gw2AccountVerificationRepository verificationRepository;
+    private Gw2AccountVerificationChallengePendingRepository pendingRepository;
+    private VerificationChallenge<?> challenge;
+    private Gw2AccountVerificationServiceImpl service;
+
+    @BeforeEach
+    public void setup() {
+        this.verificationRepository = mock(Gw2AccountVerificationRepository.class);
+        this.pendingRepository = mock(Gw2AccountVerificationChallengePendingRepository.class);
+        this.challenge = mock(VerificationChallenge.class);
+        when(this.challenge.getId()).thenReturn(1L);
+
+        final AccountService accountService = mock(AccountService.class);
+        when(accountService.log(any(), anyMap())).thenReturn(mock(AccountService.LoggingContext.class));
+
+        this.service = new Gw2AccountVerificationServiceImpl(
+                List.of(this.challenge),
+                mock(Gw2AccountApiTokenRepository.class),
+                this.verificationRepository,
+                mock(Gw2AccountVerificationChallengeRepository.class),
+                this.pendingRepository,
+                mock(Gw2ApiService.class),
+                accountService,
+                mock(Gw2AccountService.class),
+                new SimpleMeterRegistry(),
+                TransactionOperations.withoutTransaction(),
+                100,
+                CLAIM_DURATION,
+                BACKOFF_INITIAL,
+                BACKOFF_MAX,
+                Duration.ofSeconds(30L),
+                false
+        );
+        this.service.setClock(Clock.fixed(NOW, ZoneOffset.UTC));
+    }
+
+    @Test
+    public void claimsDueChallengesForTheClaimDuration() throws IOException {
+        when(this.pendingRepository.claimAllDue(any(), any(), anyInt())).thenReturn(List.of());
+
+        this.service.tryVerifyAllPending();
+
+        verify(this.pendingRepository).claimAllDue(NOW, NOW.plus(CLAIM_DURATION), 100);
+        verify(this.challenge, never()).verify(anyString(), anyString());
+    }
+
+    @Test
+    public void unverifiedChallengeIsRescheduledWithBackoff() throws IOException {
+        final Gw2AccountVerificationChallengePendingEntity first = pending(NOW.plus(Duration.ofMinutes(30L)), 0);
+        final Gw2AccountVerificationChallengePendingEntity later = pending(NOW.plus(Duration.ofMinutes(30L)), 5);
+        when(this.pendingRepository.claimAllDue(any(), any(), anyInt())).thenReturn(List.of(first, later));
+        when(this.challenge.verify(anyString(), anyString())).thenReturn(false);
+
+        this.service.tryVerifyAllPending();
+
+        verify(this.pendingRepository).reschedule(first.accountId(), first.gw2AccountId(), NOW.plus(BACKOFF_INITIAL));
+        verify(this.pendingRepository).reschedule(later.accountId(), later.gw2AccountId(), NOW.plus(BACKOFF_MAX));
+        verify(this.pendingRepository, never()).deleteByAccountIdAndGw2AccountId(any(), any());
+    }
+
+    @Test
+    public void nextCheckIsClampedToTimeout() throws IOException {
+        final Instant timeout = NOW.plus(Duration.ofSeconds(5L));
+        final Gw2AccountVerificationChallengePendingEntity entity = pending(timeout, 0);
+        when(this.pendingRepository.claimAllDue(any(), any(), anyInt())).thenReturn(List.of(entity));
+        when(this.challenge.verify(anyString(), anyString())).thenReturn(false);
+
+        this.service.tryVerifyAllPending();
+
+        verify(this.pendingRepository).reschedule(entity.accountId(), entity.gw2AccountId(), timeout);
+    }
+
+    @Test
+    public void timedOutChallengeGetsALastAttempt() throws IOException {
+        final Gw2AccountVerificationChallengePendingEntity entity = pending(NOW, 3);
+        when(this.pendingRepository.claimAllDue(any(), any(), anyInt())).thenReturn(List.of(entity));
+        when(this.challenge.verify(anyString(), anyString())).thenReturn(true);
+
+        this.service.tryVerifyAllPending();
+
+        verify(this.challenge).verify(entity.state(), entity.gw2ApiToken());
+        verify(this.verificationRepository).save(new Gw2AccountVerificationEntity(entity.gw2AccountId(), entity.accountId()));
+        verify(this.pendingRepository).deleteByAccountIdAndGw2AccountId(entity.accountId(), entity.gw2AccountId());
+        verify(this.pendingRepository, never()).reschedule(any(), any(), any());
+    }
+
+    @Test
+    public void timedOutChallengeIsDeletedWhenTheLastAttemptFails() throws IOException {
+        final Gw2AccountVerificationChallengePendingEntity entity = pending(NOW, 3);
+        when(this.pendingRepository.claimAllDue(any(), any(), anyInt())).thenReturn(List.of(entity));
+        when(this.challenge.verify(anyString(), anyString())).thenReturn(false);
+
+        this.service.tryVerifyAllPending();
+
+        verify(this.challenge).verify(entity.state(), entity.gw2ApiToken());
+        verify(this.verificationRepository, never()).save(any());
+        verify(this.pendingRepository).deleteByAccountIdAndGw2AccountId(entity.accountId(), entity.gw2AccountId());
+        verify(this.pendingRepository, never()).reschedule(any(), any(), any());
+    }
+
+    @Test
+    public void unreadableChallengeIsDeleted() throws IOException {
+        final Gw2AccountVerificationChallengePendingEntity entity = pending(NOW.plus(Duration.ofMinutes(30L)), 0);
+        when(this.pendingRepository.claimAllDue(any(), any(), anyInt())).thenReturn(List.of(entity));
+        when(this.challenge.verify(anyString(), anyString())).thenThrow(new IOException("invalid state"));
+
+        this.service.tryVerifyAllPending();
+
+        verify(this.pendingRepository).deleteByAccountIdAndGw2AccountId(entity.accountId(), entity.gw2AccountId());
+        verify(this.pendingRepository, never()).reschedule(any(), any(), any());
+    }
+
+    @Test
+    public void failedAttemptIsRescheduled() throws IOException {
+        final Gw2AccountVerificationChallengePendingEntity entity = pending(NOW.plus(Duration.ofMinutes(30L)), 1);
+        when(this.pendingRepository.claimAllDue(any(), any(), anyInt())).thenReturn(List.of(entity));
+        when(this.challenge.verify(anyString(), anyString())).thenThrow(new IllegalStateException("gw2 api unavailable"));
+
+        this.service.tryVerifyAllPending();
+
+        verify(this.pendingRepository).reschedule(entity.accountId(), entity.gw2AccountId(), NOW.plus(BACKOFF_INITIAL.multipliedBy(2L)));
+        verify(this.pendingRepository, never()).deleteByAccountIdAndGw2AccountId(any(), any());
+    }
+
+    private static Gw2AccountVerificationChallengePendingEntity pending(Instant timeoutTime, int attempts) {
+        return new Gw2AccountVerificationChallengePendingEntity(
+                UUID.randomUUID(),
+                UUID.randomUUID(),
+                1L,
+                "state",
+                "subtoken",
+                NOW.minus(Duration.ofMinutes(10L)),
+                NOW.minus(Duration.ofMinutes(10L)),
+                timeoutTime,
+                NOW,
+                attempts
+        );
+    }
+}
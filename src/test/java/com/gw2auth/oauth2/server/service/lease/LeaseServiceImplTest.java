@@ -0,0 +1,153 @@
+package com.gw2auth.oauth2.server.service.lease;
+
+import com.gw2auth.oauth2.server.Gw2AuthTestComponentScan;
+import com.gw2auth.oauth2.server.TruncateTablesExtension;
+import com.gw2auth.oauth2.server.repository.lease.LeaseRepository;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.RegisterExtension;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@SpringBootTest
+@Gw2AuthTestComponentScan
+class LeaseServiceImplTest {
+
+    private static final String NAME = "test-lease";
+    private static final Duration DURATION = Duration.ofMinutes(1L);
+
+    @Autowired
+    @RegisterExtension
+    TruncateTablesExtension truncateTablesExtension;
+
+    @Autowired
+    private LeaseRepository leaseRepository;
+
+    @Autowired
+    private LeaseServiceImpl leaseService;
+
+    @Autowired
+    private TransactionTemplate transactionTemplate;
+
+    @Test
+    public void onlyOneInstanceHoldsALease() {
+        final Instant now = Instant.now().truncatedTo(ChronoUnit.MILLIS);
+        final LeaseServiceImpl instanceA = instance(now);
+        final LeaseServiceImpl instanceB = instance(now);
+
+        assertTrue(instanceA.tryAcquire(NAME, DURATION));
+        assertFalse(instanceB.tryAcquire(NAME, DURATION));
+
+        // other leases are independent
+        assertTrue(instanceB.tryAcquire("other-lease", DURATION));
+    }
+
+    @Test
+    public void holderRenewsItsLease() {
+        final Instant now = Instant.now().truncatedTo(ChronoUnit.MILLIS);
+        final LeaseServiceImpl instanceA = instance(now);
+        final LeaseServiceImpl instanceB = instance(now);
+
+        assertTrue(instanceA.tryAcquire(NAME, DURATION));
+
+        instanceA.setClock(Clock.fixed(now.plusSeconds(30L), ZoneOffset.UTC));
+        assertTrue(instanceA.tryAcquire(NAME, DURATION));
+
+        // the original expiration has been extended by the renewal
+        instanceB.setClock(Clock.fixed(now.plus(DURATION), ZoneOffset.UTC));
+        assertFalse(instanceB.tryAcquire(NAME, DURATION));
+
+        instanceB.setClock(Clock.fixed(now.plusSeconds(30L).plus(DURATION), ZoneOffset.UTC));
+        assertTrue(instanceB.tryAcquire(NAME, DURATION));
+
+        // the previous holder lost the lease
+        instanceA.setClock(Clock.fixed(now.plusSeconds(31L).plus(DURATION), ZoneOffset.UTC));
+        assertFalse(instanceA.tryAcquire(NAME, DURATION));
+    }
+
+    @Test
+    public void releasedLeaseCanBeTakenImmediately() {
+        final Instant now = Instant.now().truncatedTo(ChronoUnit.MILLIS);
+        final LeaseServiceImpl instanceA = instance(now);
+        final LeaseServiceImpl instanceB = instance(now);
+
+        assertTrue(instanceA.tryAcquire(NAME, DURATION));
+
+        // only the holder can release a lease
+        instanceB.release(NAME);
+        assertFalse(instanceB.tryAcquire(NAME, DURATION));
+
+        instanceA.release(NAME);
+        assertTrue(instanceB.tryAcquire(NAME, DURATION));
+    }
+
+    @Test
+    public void onlyOneInstanceWinsTheRaceForAnExpiredLease() throws Exception {
+        final Instant now = Instant.now().truncatedTo(ChronoUnit.MILLIS);
+        final int instances = 8;
+
+        assertTrue(instance(now).tryAcquire(NAME, DURATION));
+
+        final Instant expired = now.plus(DURATION);
+        final CyclicBarrier barrier = new CyclicBarrier(instances);
+        final List<Future<Boolean>> futures = new ArrayList<>(instances);
+
+        try (ExecutorService executorService = Executors.newFixedThreadPool(instances)) {
+            for (int i = 0; i < instances; i++) {
+                final LeaseServiceImpl instance = instance(expired);
+
+                futures.add(executorService.submit(() -> {
+                    barrier.await(5L, TimeUnit.SECONDS);
+                    return instance.tryAcquire(NAME, DURATION);
+                }));
+            }
+        }
+
+        int acquired = 0;
+        for (Future<Boolean> future : futures) {
+            if (future.get()) {
+                acquired++;
+            }
+        }
+
+        assertEquals(1, acquired);
+    }
+
+    @Test
+    public void leaseIsVisibleIndependentOfTheCallersTransaction() {
+        final Instant now = Instant.now().truncatedTo(ChronoUnit.MILLIS);
+        this.leaseService.setClock(Clock.fixed(now, ZoneOffset.UTC));
+
+        try {
+            final boolean acquired = Boolean.TRUE.equals(this.transactionTemplate.execute((status) -> {
+                final boolean result = this.leaseService.tryAcquire(NAME, DURATION);
+                status.setRollbackOnly();
+
+                return result;
+            }));
+
+            assertTrue(acquired);
+            assertFalse(instance(now).tryAcquire(NAME, DURATION));
+        } finally {
+            this.leaseService.setClock(Clock.systemUTC());
+        }
+    }
+
+    private LeaseServiceImpl instance(Instant now) {
+        final LeaseServiceImpl instance = new LeaseServiceImpl(this.leaseRepository);
+        instance.setClock(Clock.fixed(now, ZoneOffset.UTC));
+
+        return instance;
+    }
+}
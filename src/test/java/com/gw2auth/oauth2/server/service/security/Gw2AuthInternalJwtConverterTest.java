@@ -0,0 +1,72 @@
+package com.gw2auth.oauth2.server.service.security;
+
+import com.nimbusds.jose.JWSAlgorithm;
+import com.nimbusds.jose.jwk.Curve;
+import com.nimbusds.jose.jwk.JWK;
+import com.nimbusds.jose.jwk.KeyUse;
+import com.nimbusds.jose.jwk.gen.ECKeyGenerator;
+import com.nimbusds.jose.jwk.gen.OctetSequenceKeyGenerator;
+import com.nimbusds.jose.jwk.gen.RSAKeyGenerator;
+import org.junit.jupiter.api.Test;
+import org.springframework.security.oauth2.jwt.Jwt;
+import org.springframework.security.oauth2.jwt.JwtException;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class Gw2AuthInternalJwtConverterTest {
+
+    @Test
+    public void rs256RoundTrip() throws Exception {
+        final JWK key = new RSAKeyGenerator(2048).keyID("rsa").algorithm(JWSAlgorithm.RS256).keyUse(KeyUse.SIGNATURE).generate();
+        assertRoundTrip(new Gw2AuthInternalJwtConverter(key, List.of(key.toPublicJWK())));
+    }
+
+    @Test
+    public void es256RoundTrip() throws Exception {
+        final JWK key = new ECKeyGenerator(Curve.P_256).keyID("ec").algorithm(JWSAlgorithm.ES256).keyUse(KeyUse.SIGNATURE).generate();
+        assertRoundTrip(new Gw2AuthInternalJwtConverter(key, List.of(key.toPublicJWK())));
+    }
+
+    @Test
+    public void hs256RoundTrip() throws Exception {
+        final JWK key = new OctetSequenceKeyGenerator(256).keyID("hmac").algorithm(JWSAlgorithm.HS256).keyUse(KeyUse.SIGNATURE).generate();
+        assertRoundTrip(new Gw2AuthInternalJwtConverter(key, List.of(key)));
+    }
+
+    @Test
+    public void tokensOfPreviousAlgorithmAreAcceptedAfterMigration() throws Exception {
+        final JWK rsaKey = new RSAKeyGenerator(2048).keyID("rsa").algorithm(JWSAlgorithm.RS256).keyUse(KeyUse.SIGNATURE).generate();
+        final JWK ecKey = new ECKeyGenerator(Curve.P_256).keyID("ec").algorithm(JWSAlgorithm.ES256).keyUse(KeyUse.SIGNATURE).generate();
+
+        final Gw2AuthInternalJwtConverter before = new Gw2AuthInternalJwtConverter(rsaKey, List.of(rsaKey.toPublicJWK()));
+        final Gw2AuthInternalJwtConverter after = new Gw2AuthInternalJwtConverter(ecKey, List.of(rsaKey.toPublicJWK(), ecKey.toPublicJWK()));
+
+        final Jwt jwt = before.writeJWT("session", new byte[]{1, 2, 3}, Instant.now().plus(Duration.ofMinutes(5L)));
+        assertEquals("session", after.readSessionId(after.readJWT(jwt.getTokenValue())));
+    }
+
+    @Test
+    public void tokensOfUnknownKeysAreRejected() throws Exception {
+        final JWK key = new ECKeyGenerator(Curve.P_256).keyID("ec").algorithm(JWSAlgorithm.ES256).keyUse(KeyUse.SIGNATURE).generate();
+        final JWK otherKey = new ECKeyGenerator(Curve.P_256).keyID("other").algorithm(JWSAlgorithm.ES256).keyUse(KeyUse.SIGNATURE).generate();
+
+        final Gw2AuthInternalJwtConverter signer = new Gw2AuthInternalJwtConverter(otherKey, List.of(otherKey.toPublicJWK()));
+        final Gw2AuthInternalJwtConverter verifier = new Gw2AuthInternalJwtConverter(key, List.of(key.toPublicJWK()));
+
+        final Jwt jwt = signer.writeJWT("session", new byte[]{1, 2, 3}, Instant.now().plus(Duration.ofMinutes(5L)));
+        assertThrows(JwtException.class, () -> verifier.readJWT(jwt.getTokenValue()));
+    }
+
+    private static void assertRoundTrip(Gw2AuthInternalJwtConverter converter) {
+        final byte[] encryptionKey = new byte[]{1, 2, 3, 4};
+        final Jwt jwt = converter.writeJWT("session", encryptionKey, Instant.now().plus(Duration.ofMinutes(5L)));
+        final Jwt read = converter.readJWT(jwt.getTokenValue());
+
+        assertEquals("session", converter.readSessionId(read));
+        assertArrayEquals(encryptionKey, converter.readEncryptionKey(read));
+    }
+}
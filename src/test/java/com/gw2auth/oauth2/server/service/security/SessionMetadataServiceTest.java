@@ -0,0 +1,44 @@
+package com.gw2auth.oauth2.server.service.security;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.gw2auth.oauth2.server.util.SymEncryption;
+import org.junit.jupiter.api.Test;
+
+import javax.crypto.SecretKey;
+import javax.crypto.spec.IvParameterSpec;
+import java.io.ByteArrayOutputStream;
+import java.io.OutputStream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+public class SessionMetadataServiceTest {
+
+    private final ObjectMapper mapper = new ObjectMapper();
+    private final SessionMetadataService sessionMetadataService = new SessionMetadataService(this.mapper);
+
+    @Test
+    public void roundTrip() {
+        final SecretKey key = SymEncryption.generateKey();
+        final IvParameterSpec iv = SymEncryption.generateIv();
+        final SessionMetadata sessionMetadata = new SessionMetadata(52.520008, 13.404954);
+
+        final byte[] encrypted = this.sessionMetadataService.encryptMetadata(key, iv, sessionMetadata);
+
+        assertEquals(sessionMetadata, this.sessionMetadataService.decryptMetadata(key, iv, encrypted));
+        assertEquals(sessionMetadata, this.sessionMetadataService.decryptMetadata(SymEncryption.toBytes(key, iv), encrypted));
+    }
+
+    @Test
+    public void decryptLegacyJson() throws Exception {
+        final SecretKey key = SymEncryption.generateKey();
+        final IvParameterSpec iv = SymEncryption.generateIv();
+        final SessionMetadata sessionMetadata = new SessionMetadata(-33.86882, 151.209296);
+
+        final ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        try (OutputStream out = SymEncryption.encrypt(bos, key, iv)) {
+            this.mapper.writeValue(out, sessionMetadata);
+        }
+
+        assertEquals(sessionMetadata, this.sessionMetadataService.decryptMetadata(key, iv, bos.toByteArray()));
+    }
+}
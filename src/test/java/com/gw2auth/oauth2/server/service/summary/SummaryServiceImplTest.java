@@ -0,0 +1,108 @@
+package com.gw2auth.oauth2.server.service.summary;
+
+import com.gw2auth.oauth2.server.repository.summary.ApplicationSummaryEntity;
+import com.gw2auth.oauth2.server.repository.summary.SummaryRepository;
+import com.gw2auth.oauth2.server.service.lease.LeaseService;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.util.Optional;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.*;
+
+public class SummaryServiceImplTest {
+
+    private static final Instant NOW = Instant.parse("2024-01-01T00:00:00Z");
+    private static final ApplicationSummaryEntity STORED = new ApplicationSummaryEntity(10L, 20L, 30L, 40L, 50L);
+    private static final ApplicationSummaryEntity COMPUTED = new ApplicationSummaryEntity(11L, 21L, 31L, 41L, 51L);
+
+    private SummaryRepository summaryRepository;
+    private LeaseService leaseService;
+    private SimpleMeterRegistry meterRegistry;
+
+    @BeforeEach
+    public void setup() {
+        this.summaryRepository = mock(SummaryRepository.class);
+        this.leaseService = mock(LeaseService.class);
+        this.meterRegistry = new SimpleMeterRegistry();
+
+        when(this.summaryRepository.findStoredApplicationSummary()).thenReturn(Optional.of(STORED));
+        when(this.summaryRepository.computeAndStoreApplicationSummary(any())).thenReturn(COMPUTED);
+    }
+
+    @Test
+    public void startsWithTheStoredSummary() {
+        final SummaryServiceImpl service = createService();
+
+        assertSummaryEquals(STORED, service);
+        verify(this.summaryRepository, never()).getApplicationSummary();
+    }
+
+    @Test
+    public void computesOnStartWhenNothingHasBeenStoredYet() {
+        when(this.summaryRepository.findStoredApplicationSummary()).thenReturn(Optional.empty());
+        when(this.summaryRepository.getApplicationSummary()).thenReturn(COMPUTED);
+
+        assertSummaryEquals(COMPUTED, createService());
+    }
+
+    @Test
+    public void onlyTheLeaseHolderComputesTheSummary() {
+        when(this.leaseService.tryAcquire(anyString(), any())).thenReturn(false);
+        final SummaryServiceImpl service = createService();
+
+        service.computeApplicationSummary();
+
+        verify(this.summaryRepository, never()).computeAndStoreApplicationSummary(any());
+        verify(this.summaryRepository, never()).getApplicationSummary();
+        assertSummaryEquals(STORED, service);
+    }
+
+    @Test
+    public void leaseHolderComputesStoresAndPublishesTheSummary() {
+        when(this.leaseService.tryAcquire(anyString(), any())).thenReturn(true);
+        final SummaryServiceImpl service = createService();
+
+        service.computeApplicationSummary();
+
+        verify(this.leaseService).tryAcquire("application-summary", Duration.ofMinutes(10L));
+        verify(this.summaryRepository).computeAndStoreApplicationSummary(NOW);
+        verify(this.leaseService, never()).release(anyString());
+        assertSummaryEquals(COMPUTED, service);
+    }
+
+    @Test
+    public void everyInstancePublishesTheStoredSummary() {
+        final SummaryServiceImpl service = createService();
+        when(this.summaryRepository.findStoredApplicationSummary()).thenReturn(Optional.of(COMPUTED));
+
+        service.updateApplicationSummaryCache();
+
+        assertSummaryEquals(COMPUTED, service);
+        assertEquals(11.0, this.meterRegistry.get("gw2auth_registered_accounts").gauge().value());
+        assertEquals(51.0, this.meterRegistry.get("gw2auth_client_authorizations").gauge().value());
+        verifyNoInteractions(this.leaseService);
+    }
+
+    private SummaryServiceImpl createService() {
+        final SummaryServiceImpl service = new SummaryServiceImpl(this.summaryRepository, this.leaseService, this.meterRegistry);
+        service.setClock(Clock.fixed(NOW, ZoneOffset.UTC));
+
+        return service;
+    }
+
+    private static void assertSummaryEquals(ApplicationSummaryEntity expected, SummaryServiceImpl service) {
+        assertEquals(
+                new ApplicationSummary(expected.accounts(), expected.apiTokens(), expected.verifiedGw2Accounts(), expected.clientRegistrations(), expected.clientAuthorizations()),
+                service.getApplicationSummary()
+        );
+    }
+}
@@ -0,0 +1,154 @@
+package com.gw2auth.oauth2.server.service.sweeper;
+
+import com.gw2auth.oauth2.server.repository.account.AccountFederationSessionRepository;
+import com.gw2auth.oauth2.server.repository.application.client.authorization.ApplicationClientAuthorizationRepository;
+import com.gw2auth.oauth2.server.repository.ephemeral.EphemeralStateRepository;
+import com.gw2auth.oauth2.server.repository.gw2account.subtoken.Gw2AccountApiSubtokenRepository;
+import com.gw2auth.oauth2.server.service.lease.LeaseService;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.util.Optional;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+public class ExpirySweeperTest {
+
+    private static final Instant NOW = Instant.parse("2024-01-01T00:00:00Z");
+    private static final int CHUNK_SIZE = 10;
+
+    private LeaseService leaseService;
+    private AccountFederationSessionRepository sessionRepository;
+    private ApplicationClientAuthorizationRepository authorizationRepository;
+    private Gw2AccountApiSubtokenRepository subtokenRepository;
+    private EphemeralStateRepository ephemeralStateRepository;
+    private SimpleMeterRegistry meterRegistry;
+
+    @BeforeEach
+    public void setup() {
+        this.leaseService = mock(LeaseService.class);
+        this.sessionRepository = mock(AccountFederationSessionRepository.class);
+        this.authorizationRepository = mock(ApplicationClientAuthorizationRepository.class);
+        this.subtokenRepository = mock(Gw2AccountApiSubtokenRepository.class);
+        this.ephemeralStateRepository = mock(EphemeralStateRepository.class);
+        this.meterRegistry = new SimpleMeterRegistry();
+
+        when(this.leaseService.tryAcquire(anyString(), any())).thenReturn(true);
+        when(this.sessionRepository.findMinExpirationTime()).thenReturn(Optional.empty());
+        when(this.authorizationRepository.findMinExpirationTime()).thenReturn(Optional.empty());
+        when(this.subtokenRepository.findMinExpirationTime()).thenReturn(Optional.empty());
+        when(this.ephemeralStateRepository.findMinExpirationTime()).thenReturn(Optional.empty());
+    }
+
+    @AfterEach
+    public void clearInterrupt() {
+        Thread.interrupted();
+    }
+
+    @Test
+    public void doesNothingWithoutLease() {
+        when(this.leaseService.tryAcquire(anyString(), any())).thenReturn(false);
+
+        createSweeper(Duration.ofSeconds(2L)).sweep();
+
+        verifyNoInteractions(this.sessionRepository, this.authorizationRepository, this.subtokenRepository, this.ephemeralStateRepository);
+        verify(this.leaseService, never()).release(anyString());
+    }
+
+    @Test
+    public void sweepsAllTargetsAndReleasesLease() {
+        createSweeper(Duration.ofSeconds(2L)).sweep();
+
+        verify(this.leaseService).tryAcquire("expiry-sweeper", Duration.ofMinutes(2L));
+        verify(this.sessionRepository).deleteExpired(NOW, CHUNK_SIZE);
+        verify(this.authorizationRepository).deleteExpired(NOW, CHUNK_SIZE);
+        verify(this.subtokenRepository).deleteExpired(NOW, CHUNK_SIZE);
+        verify(this.ephemeralStateRepository).deleteExpired(NOW, CHUNK_SIZE);
+        verify(this.leaseService).release("expiry-sweeper");
+    }
+
+    @Test
+    public void deletesInChunksUntilAChunkIsNotFull() {
+        when(this.sessionRepository.deleteExpired(any(), anyInt())).thenReturn(CHUNK_SIZE, CHUNK_SIZE, 3);
+
+        createSweeper(Duration.ofSeconds(2L)).sweep();
+
+        verify(this.sessionRepository, times(3)).deleteExpired(NOW, CHUNK_SIZE);
+        verify(this.authorizationRepository).deleteExpired(NOW, CHUNK_SIZE);
+        assertEquals(23.0, this.meterRegistry.get("gw2auth_expiry_sweeper_deleted_rows").tag("target", "sessions").counter().count());
+        assertEquals(3L, this.meterRegistry.get("gw2auth_expiry_sweeper_chunk").tag("target", "sessions").timer().count());
+    }
+
+    @Test
+    public void slowChunkDefersRemainingWork() {
+        when(this.sessionRepository.deleteExpired(any(), anyInt())).thenReturn(CHUNK_SIZE);
+
+        createSweeper(Duration.ZERO).sweep();
+
+        verify(this.sessionRepository, times(1)).deleteExpired(NOW, CHUNK_SIZE);
+        verifyNoInteractions(this.authorizationRepository, this.subtokenRepository, this.ephemeralStateRepository);
+        verify(this.leaseService).release("expiry-sweeper");
+    }
+
+    @Test
+    public void interruptedPauseStopsTheRun() {
+        when(this.sessionRepository.deleteExpired(any(), anyInt())).thenReturn(CHUNK_SIZE);
+        Thread.currentThread().interrupt();
+
+        createSweeper(Duration.ofSeconds(2L)).sweep();
+
+        verify(this.sessionRepository, times(1)).deleteExpired(NOW, CHUNK_SIZE);
+        verifyNoInteractions(this.authorizationRepository);
+        verify(this.leaseService).release("expiry-sweeper");
+    }
+
+    @Test
+    public void lagGaugeReflectsOldestRemainingRow() {
+        when(this.sessionRepository.findMinExpirationTime()).thenReturn(Optional.of(NOW.minus(Duration.ofMinutes(5L))));
+        when(this.authorizationRepository.findMinExpirationTime()).thenReturn(Optional.of(NOW.plus(Duration.ofMinutes(5L))));
+
+        createSweeper(Duration.ofSeconds(2L)).sweep();
+
+        assertEquals(300.0, this.meterRegistry.get("gw2auth_expiry_sweeper_lag_seconds").tag("target", "sessions").gauge().value());
+        assertEquals(0.0, this.meterRegistry.get("gw2auth_expiry_sweeper_lag_seconds").tag("target", "authorizations").gauge().value());
+        assertEquals(0.0, this.meterRegistry.get("gw2auth_expiry_sweeper_lag_seconds").tag("target", "subtokens").gauge().value());
+    }
+
+    @Test
+    public void leaseIsReleasedWhenATargetFails() {
+        when(this.sessionRepository.deleteExpired(any(), anyInt())).thenThrow(new IllegalStateException("db unavailable"));
+
+        try {
+            createSweeper(Duration.ofSeconds(2L)).sweep();
+        } catch (IllegalStateException ignored) {
+        }
+
+        verify(this.leaseService).release("expiry-sweeper");
+    }
+
+    private ExpirySweeper createSweeper(Duration slowChunkThreshold) {
+        final ExpirySweeper sweeper = new ExpirySweeper(
+                this.leaseService,
+                this.sessionRepository,
+                this.authorizationRepository,
+                this.subtokenRepository,
+                this.ephemeralStateRepository,
+                CHUNK_SIZE,
+                Duration.ofMinutes(1L),
+                0.0,
+                slowChunkThreshold,
+                this.meterRegistry
+        );
+        sweeper.setClock(Clock.fixed(NOW, ZoneOffset.UTC));
+
+        return sweeper;
+    }
+}
@@ -0,0 +1,88 @@
+package com.gw2auth.oauth2.server.service.user;
+
+import com.gw2auth.oauth2.server.service.account.AccountFederation;
+import com.gw2auth.oauth2.server.service.security.SessionMetadata;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class Gw2AuthSessionCacheTest {
+
+    private static final Instant NOW = Instant.parse("2024-01-01T00:00:00Z");
+    private static final Duration TTL = Duration.ofSeconds(30L);
+
+    private Gw2AuthSessionCache cache;
+
+    @BeforeEach
+    public void setup() {
+        this.cache = new Gw2AuthSessionCache(TTL, 100L, new SimpleMeterRegistry());
+    }
+
+    @Test
+    public void cachedSessionIsServedWithinTtl() {
+        final VerifiedSession session = session(UUID.randomUUID(), NOW.plus(Duration.ofDays(30L)));
+        this.cache.put("token", session, NOW);
+
+        assertSame(session, this.cache.get("token", NOW.plus(TTL).minusMillis(1L)));
+        assertNull(this.cache.get("token", NOW.plus(TTL)));
+        assertNull(this.cache.get("other", NOW));
+    }
+
+    @Test
+    public void expiredSessionIsNotServed() {
+        this.cache.put("token", session(UUID.randomUUID(), NOW.plusSeconds(5L)), NOW);
+
+        assertNotNull(this.cache.get("token", NOW.plusSeconds(4L)));
+        assertNull(this.cache.get("token", NOW.plusSeconds(5L)));
+    }
+
+    @Test
+    public void evictAccountRemovesAllSessionsOfThatAccountOnly() {
+        final UUID accountId = UUID.randomUUID();
+        final UUID otherAccountId = UUID.randomUUID();
+        final Instant expiresAt = NOW.plus(Duration.ofDays(30L));
+
+        this.cache.put("tokenA", session(accountId, expiresAt), NOW);
+        this.cache.put("tokenB", session(accountId, expiresAt), NOW);
+        this.cache.put("tokenC", session(otherAccountId, expiresAt), NOW);
+
+        this.cache.evictAccount(accountId);
+
+        assertNull(this.cache.get("tokenA", NOW));
+        assertNull(this.cache.get("tokenB", NOW));
+        assertNotNull(this.cache.get("tokenC", NOW));
+
+        // sessions cached after the eviction are served again
+        this.cache.put("tokenA", session(accountId, expiresAt), NOW);
+        assertNotNull(this.cache.get("tokenA", NOW));
+    }
+
+    @Test
+    public void disabledCacheNeverServes() {
+        final Gw2AuthSessionCache disabled = new Gw2AuthSessionCache(Duration.ZERO, 100L, new SimpleMeterRegistry());
+        final UUID accountId = UUID.randomUUID();
+        disabled.put("token", session(accountId, NOW.plus(Duration.ofDays(30L))), NOW);
+
+        assertNull(disabled.get("token", NOW));
+        disabled.evictAccount(accountId);
+    }
+
+    private static VerifiedSession session(UUID accountId, Instant expiresAt) {
+        return new VerifiedSession(
+                accountId,
+                new AccountFederation("issuer", "idAtIssuer"),
+                UUID.randomUUID().toString(),
+                NOW,
+                new byte[0],
+                SessionMetadata.FALLBACK,
+                NOW,
+                expiresAt
+        );
+    }
+}
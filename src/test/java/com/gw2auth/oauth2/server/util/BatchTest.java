@@ -3,11 +3,13 @@ package com.gw2auth.oauth2.server.util;
 import org.junit.jupiter.api.Test;
 import org.testcontainers.shaded.com.google.common.util.concurrent.MoreExecutors;
 
-import java.util.HashSet;
-import java.util.Set;
+import java.util.*;
+import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.function.BiFunction;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
@@ -76,4 +78,83 @@ class BatchTest {
         assertTrue(result.contains("hello"));
         assertTrue(result.contains("java.util.concurrent.ExecutionException"));
     }
-}
\ No newline at end of file
+
+    @Test
+    public void boundedConsumesInCompletionOrder() {
+        final List<String> order = new ArrayList<>();
+        final BiFunction<List<String>, Batch.RunningTaskContext<String>, List<String>> consumer = (accumulator, context) -> {
+            try {
+                accumulator.add(context.get());
+            } catch (Exception e) {
+                accumulator.add(e.getClass().getName());
+            }
+
+            return accumulator;
+        };
+
+        final Batch<List<String>> batch = Batch.<List<String>>builder()
+                .add(() -> {
+                    Thread.sleep(500L);
+                    return "slow";
+                }, consumer)
+                .add(() -> "fast", consumer)
+                .build();
+
+        final AtomicReference<Batch.Stats> stats = new AtomicReference<>();
+        final List<String> result = batch.execute(Executors.newVirtualThreadPerTaskExecutor(), () -> order, 2, 5L, TimeUnit.SECONDS, stats::set);
+
+        assertEquals(List.of("fast", "slow"), result);
+        assertEquals(2, stats.get().completed());
+        assertEquals(0, stats.get().timedOut());
+        assertEquals(0, stats.get().cancelled());
+    }
+
+    @Test
+    public void boundedRespectsMaxConcurrency() {
+        final AtomicInteger concurrent = new AtomicInteger();
+        final AtomicInteger maxConcurrent = new AtomicInteger();
+        final Batch.Builder<Set<String>> builder = Batch.builder();
+
+        for (int i = 0; i < 10; i++) {
+            final String value = Integer.toString(i);
+            builder.add(() -> {
+                maxConcurrent.accumulateAndGet(concurrent.incrementAndGet(), Math::max);
+                Thread.sleep(20L);
+                concurrent.decrementAndGet();
+                return value;
+            }, CONSUMER);
+        }
+
+        final Set<String> result = builder.build().execute(Executors.newVirtualThreadPerTaskExecutor(), HashSet::new, 3, 5L, TimeUnit.SECONDS, (stats) -> {});
+
+        assertEquals(10, result.size());
+        assertTrue(maxConcurrent.get() <= 3);
+    }
+
+    @Test
+    public void boundedCancelsStragglersAndSkipsPending() throws InterruptedException {
+        final CountDownLatch interrupted = new CountDownLatch(1);
+        final Batch<Set<String>> batch = Batch.<Set<String>>builder()
+                .add(() -> {
+                    try {
+                        Thread.sleep(10_000L);
+                    } catch (InterruptedException e) {
+                        interrupted.countDown();
+                        throw e;
+                    }
+
+                    return "slow";
+                }, CONSUMER)
+                .add(() -> "never started", CONSUMER)
+                .build();
+
+        final AtomicReference<Batch.Stats> stats = new AtomicReference<>();
+        final Set<String> result = batch.execute(Executors.newVirtualThreadPerTaskExecutor(), HashSet::new, 1, 500L, TimeUnit.MILLISECONDS, stats::set);
+
+        assertEquals(Set.of("java.util.concurrent.TimeoutException"), result);
+        assertTrue(interrupted.await(1L, TimeUnit.SECONDS));
+        assertEquals(0, stats.get().completed());
+        assertEquals(1, stats.get().timedOut());
+        assertEquals(1, stats.get().cancelled());
+    }
+}
@@ -7,6 +7,7 @@ import com.gw2auth.oauth2.server.service.account.AccountFederationSession;
 import com.gw2auth.oauth2.server.service.account.AccountServiceImpl;
 import com.gw2auth.oauth2.server.service.security.Gw2AuthInternalJwtConverter;
 import com.gw2auth.oauth2.server.service.security.SessionMetadata;
+import com.gw2auth.oauth2.server.service.sweeper.ExpirySweeper;
 import com.gw2auth.oauth2.server.service.user.Gw2AuthTokenUserService;
 import com.gw2auth.oauth2.server.util.Constants;
 import org.junit.jupiter.api.AfterEach;
@@ -51,6 +52,9 @@ public class SessionTest {
     @Autowired
     private AccountServiceImpl accountService;
 
+    @Autowired
+    private ExpirySweeper expirySweeper;
+
     @Autowired
     private Gw2AuthTokenUserService gw2AuthTokenUserService;
 
@@ -86,6 +90,7 @@ public class SessionTest {
     public void expiredSessionShouldNotBeAccepted() throws Exception {
         Clock testingClock = Clock.fixed(Instant.now(), ZoneOffset.UTC);
         this.accountService.setClock(testingClock);
+        this.gw2AuthTokenUserService.setClock(testingClock);
 
         final SessionHandle sessionHandle = new SessionHandle();
         this.gw2AuthLoginExtension.login(sessionHandle, "issuer", "idAtIssuer").andExpectAll(this.gw2AuthLoginExtension.expectLoginSuccess());
@@ -95,9 +100,10 @@ public class SessionTest {
                 .andDo(sessionHandle)
                 .andExpect(status().isOk());
 
-        // let 31 days pass
+        // let 31 days pass (the session cache uses the clock of the token user service)
         testingClock = Clock.offset(testingClock, Duration.ofDays(31L));
         this.accountService.setClock(testingClock);
+        this.gw2AuthTokenUserService.setClock(testingClock);
 
         // expired: should not work
         this.mockMvc.perform(get("/api/account/summary").with(sessionHandle))
@@ -121,9 +127,10 @@ public class SessionTest {
         // let 31 days pass
         testingClock = Clock.offset(testingClock, Duration.ofDays(31L));
         this.accountService.setClock(testingClock);
+        this.expirySweeper.setClock(testingClock);
 
         // trigger deletion
-        this.accountService.deleteAllExpiredSessions();
+        this.expirySweeper.sweep();
 
         // should now be empty
         sessions = this.accountFederationSessionRepository.findAllByAccountId(accountId);
@@ -364,4 +371,58 @@ public class SessionTest {
         assertEquals(52.5162843, sessionMetadataPost.latitude(), 0.00001);
         assertEquals(13.3755154, sessionMetadataPost.longitude(), 0.00001);
     }
+
+    @Test
+    public void requestsWithinRefreshThresholdShouldNotRefreshSession() throws Exception {
+        Clock testingClock = Clock.fixed(Instant.now(), ZoneId.systemDefault());
+
+        this.gw2AuthTokenUserService.setClock(testingClock);
+        this.accountService.setClock(testingClock);
+        this.jwtConverter.setClock(testingClock);
+
+        final SessionHandle sessionHandle = new SessionHandle("DE", "Berlin", 52.5162778, 13.3755154);
+        this.gw2AuthLoginExtension.login(sessionHandle, "issuer", "id").andExpectAll(this.gw2AuthLoginExtension.expectLoginSuccess());
+
+        final Jwt jwtPre = this.testHelper.getJwtForCookie(sessionHandle).orElseThrow();
+
+        // let a minute pass
+        testingClock = Clock.offset(testingClock, Duration.ofMinutes(1L));
+        this.gw2AuthTokenUserService.setClock(testingClock);
+        this.accountService.setClock(testingClock);
+        this.jwtConverter.setClock(testingClock);
+
+        // should work, but not refresh the session
+        this.mockMvc.perform(get("/api/account/summary").with(sessionHandle))
+                .andDo(sessionHandle)
+                .andExpect(status().isOk());
+
+        final Jwt jwtPost = this.testHelper.getJwtForCookie(sessionHandle).orElseThrow();
+        assertEquals(jwtPre.getTokenValue(), jwtPost.getTokenValue());
+    }
+
+    @Test
+    public void deletedSessionShouldNotBeAcceptedWhileCached() throws Exception {
+        final SessionHandle sessionHandle = new SessionHandle();
+        this.gw2AuthLoginExtension.login(sessionHandle, "issuer", "idAtIssuer").andExpectAll(this.gw2AuthLoginExtension.expectLoginSuccess());
+
+        final UUID accountId = this.testHelper.getAccountIdForCookie(sessionHandle).orElseThrow();
+        final String sessionId = this.testHelper.getSessionIdForCookie(sessionHandle).orElseThrow();
+
+        // puts the session into the cache
+        this.mockMvc.perform(get("/api/account/summary").with(sessionHandle))
+                .andDo(sessionHandle)
+                .andExpect(status().isOk());
+
+        // served from the cache
+        this.mockMvc.perform(get("/api/account/summary").with(sessionHandle))
+                .andDo(sessionHandle)
+                .andExpect(status().isOk());
+
+        assertTrue(this.accountService.deleteSession(accountId, sessionId));
+
+        // the deletion evicted the cached session
+        this.mockMvc.perform(get("/api/account/summary").with(sessionHandle))
+                .andDo(sessionHandle)
+                .andExpect(status().isForbidden());
+    }
 }
@@ -3,6 +3,8 @@ package com.gw2auth.oauth2.server.web.account;
 import com.gw2auth.oauth2.server.*;
 import com.gw2auth.oauth2.server.repository.account.*;
 import com.gw2auth.oauth2.server.repository.application.client.ApplicationClientEntity;
+import com.gw2auth.oauth2.server.repository.ephemeral.EphemeralStateEntity;
+import com.gw2auth.oauth2.server.repository.ephemeral.EphemeralStateRepository;
 import com.gw2auth.oauth2.server.service.OAuth2Scope;
 import org.hamcrest.core.StringEndsWith;
 import org.junit.jupiter.api.Test;
@@ -27,6 +29,8 @@ import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.
 @Gw2AuthTestComponentScan
 class AccountControllerTest {
 
+    private static final String ADD_FEDERATION_SCOPE = "oauth2/addfederation";
+
     @Autowired
     @RegisterExtension
     TruncateTablesExtension truncateTablesExtension;
@@ -47,6 +51,9 @@ class AccountControllerTest {
     @Autowired
     private AccountFederationSessionRepository accountFederationSessionRepository;
 
+    @Autowired
+    private EphemeralStateRepository ephemeralStateRepository;
+
     @Autowired
     private TestHelper testHelper;
 
@@ -276,6 +283,9 @@ class AccountControllerTest {
                 .getResponse()
                 .getRedirectedUrl();
 
+        // the pending add-federation request is kept in the ephemeral state store
+        assertTrue(this.ephemeralStateRepository.findByScopeAndId(ADD_FEDERATION_SCOPE, accountId.toString(), Instant.now()).isPresent());
+
         this.gw2AuthLoginExtension.login(loginURL, "dummyIssuer", "B").andExpectAll(this.gw2AuthLoginExtension.expectLoginSuccess());
 
         final List<AccountFederationEntity> result = this.accountFederationRepository.findAllByAccountId(accountId);
@@ -284,6 +294,33 @@ class AccountControllerTest {
                 new AccountFederationEntity("dummyIssuer", "A", accountId),
                 new AccountFederationEntity("dummyIssuer", "B", accountId)
         )));
+
+        // the request can only be used once
+        assertTrue(this.ephemeralStateRepository.findByScopeAndId(ADD_FEDERATION_SCOPE, accountId.toString(), Instant.now()).isEmpty());
+    }
+
+    @ParameterizedTest
+    @WithGw2AuthLogin(issuer = "dummyIssuer", idAtIssuer = "A")
+    public void addAccountFederationExpired(SessionHandle sessionHandle) throws Exception {
+        final UUID accountId = this.testHelper.getAccountIdForCookie(sessionHandle).orElseThrow();
+        final String loginURL = this.mockMvc.perform(get("/api/account/federation/{provider}", "dummyIssuer").with(sessionHandle))
+                .andDo(sessionHandle)
+                .andExpect(status().is3xxRedirection())
+                .andReturn()
+                .getResponse()
+                .getRedirectedUrl();
+
+        // let the pending add-federation request expire
+        final EphemeralStateEntity entity = this.ephemeralStateRepository.findByScopeAndId(ADD_FEDERATION_SCOPE, accountId.toString(), Instant.now()).orElseThrow();
+        this.ephemeralStateRepository.save(new EphemeralStateEntity(entity.scope(), entity.id(), entity.data(), Instant.now().minusSeconds(1L)));
+
+        this.gw2AuthLoginExtension.login(loginURL, "dummyIssuer", "B")
+                .andExpect(status().is3xxRedirection())
+                .andExpect(header().string("Location", new StringEndsWith("?error")));
+
+        // only the initial federation should be present
+        final List<AccountFederationEntity> result = this.accountFederationRepository.findAllByAccountId(accountId);
+        assertEquals(1, result.size());
     }
 
     @ParameterizedTest
@@ -75,7 +75,8 @@ class ApplicationControllerTest {
         // add one client authorization without scopes (that should not be counted)
         this.testHelper.createClientConsent(accountId, applicationClientEntities.poll().id(), Set.of());
 
-        // force a fresh lookup
+        // force a fresh computation
+        this.summaryService.computeApplicationSummary();
         this.summaryService.updateApplicationSummaryCache();
 
         this.mockMvc.perform(get("/api/application/summary"))
@@ -572,8 +572,12 @@ class ClientRegistrationControllerTest {
                 .andExpect(jsonPath("$.clientRegistration.authorizationGrantTypes").isArray())
                 .andExpect(jsonPath("$.clientRegistration.authorizationGrantTypes.length()").value("2"));
 
+        final long previousVersion = applicationClientEntity.version();
         applicationClientEntity = this.applicationClientRepository.findById(applicationClientEntity.id()).orElseThrow();
         assertNotEquals(notExpectedClientSecret, applicationClientEntity.clientSecret());
+
+        // every change bumps the version, so other nodes drop their cached registered client
+        assertEquals(previousVersion + 1L, applicationClientEntity.version());
     }
 
     private void assertClientRegistrationEquals(ApplicationClientEntity applicationClientEntity, JsonNode clientRegistrationNode) {
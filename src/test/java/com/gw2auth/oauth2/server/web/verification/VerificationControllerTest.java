@@ -53,6 +53,9 @@ import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.
 @Gw2AuthTestComponentScan
 class VerificationControllerTest {
 
+    // subtokens outlive the challenge timeout by the claim duration (default of com.gw2auth.verification.claim-duration)
+    private static final Duration CLAIM_DURATION = Duration.ofMinutes(2L);
+
     @Autowired
     @RegisterExtension
     TruncateTablesExtension truncateTablesExtension;
@@ -126,8 +129,8 @@ class VerificationControllerTest {
         this.testHelper.getOrCreateGw2Account(accountId, gw2AccountIdA);
         this.testHelper.getOrCreateGw2Account(accountId, gw2AccountIdB);
 
-        final Gw2AccountVerificationChallengePendingEntity pendingChallengeA = this.gw2AccountVerificationChallengePendingRepository.save(new Gw2AccountVerificationChallengePendingEntity(accountId, gw2AccountIdA, 1L, expectedApiTokenName + "A", UUID.randomUUID().toString(), Instant.now(), Instant.now(), Instant.now().plus(Duration.ofMinutes(30L))));
-        final Gw2AccountVerificationChallengePendingEntity pendingChallengeB = this.gw2AccountVerificationChallengePendingRepository.save(new Gw2AccountVerificationChallengePendingEntity(accountId, gw2AccountIdB, 1L, expectedApiTokenName + "B", UUID.randomUUID().toString(), Instant.now(), Instant.now(), Instant.now().plus(Duration.ofMinutes(30L))));
+        final Gw2AccountVerificationChallengePendingEntity pendingChallengeA = this.gw2AccountVerificationChallengePendingRepository.save(new Gw2AccountVerificationChallengePendingEntity(accountId, gw2AccountIdA, 1L, expectedApiTokenName + "A", UUID.randomUUID().toString(), Instant.now(), Instant.now(), Instant.now().plus(Duration.ofMinutes(30L)), Instant.now(), 0));
+        final Gw2AccountVerificationChallengePendingEntity pendingChallengeB = this.gw2AccountVerificationChallengePendingRepository.save(new Gw2AccountVerificationChallengePendingEntity(accountId, gw2AccountIdB, 1L, expectedApiTokenName + "B", UUID.randomUUID().toString(), Instant.now(), Instant.now(), Instant.now().plus(Duration.ofMinutes(30L)), Instant.now(), 0));
 
         final String responseJson = this.mockMvc.perform(get("/api/verification/bootstrap").with(sessionHandle))
                 .andDo(sessionHandle)
@@ -921,7 +924,8 @@ class VerificationControllerTest {
                 });
     }
 
-    private void preparedGw2RestServerForCreateSubtoken(String gw2ApiToken, String gw2ApiSubtoken, Set<Gw2ApiPermission> requestPermissions, Instant expire) {
+    private void preparedGw2RestServerForCreateSubtoken(String gw2ApiToken, String gw2ApiSubtoken, Set<Gw2ApiPermission> requestPermissions, Instant timeout) {
+        final Instant expire = timeout.plus(CLAIM_DURATION);
         this.gw2RestServer.expect(requestTo(new StringStartsWith("/v2/createsubtoken")))
                 .andExpect(method(HttpMethod.GET))
                 .andExpect(MockRestRequestMatchers.header("Authorization", "Bearer " + gw2ApiToken))